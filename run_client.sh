@@ -23,4 +23,4 @@ if [[ "${HOST}" == "" || "${PORT}" == "" ]] ; then
 fi
 
 # cd './bin'
-java -cp ./bin:./third_party/*:./bin codeu.chat.ClientMain "${HOST}@${PORT}"
+java $JAVA_OPTS -cp ./bin:./third_party/*:./bin codeu.chat.ClientMain "${HOST}@${PORT}"
@@ -42,13 +42,13 @@ fi
 
 # cd './bin'
 if [ "$RELAY_ADDRESS" == "" ] ; then
-  java -cp ./third_party/*:./bin codeu.chat.ServerMain \
+  java $JAVA_OPTS -cp ./third_party/*:./bin codeu.chat.ServerMain \
       "$TEAM_ID" \
       "$TEAM_SECRET" \
       "$PORT" \
       "$PERSISTENT_DIR"
 else
-  java -cp ./third_party/*:./bin codeu.chat.ServerMain \
+  java $JAVA_OPTS -cp ./third_party/*:./bin codeu.chat.ServerMain \
       "$TEAM_ID" \
       "$TEAM_SECRET" \
       "$PORT" \
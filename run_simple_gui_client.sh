@@ -24,4 +24,4 @@ if [[ "${LOCAL_MACHINE}" == "" || "${PORT}" == "" ]] ; then
 	exit 1
 fi
 
-java -cp ./bin:./third_party/*:./bin codeu.chat.SimpleGuiClientMain "${LOCAL_MACHINE}@${PORT}"
+java $JAVA_OPTS -cp ./bin:./third_party/*:./bin codeu.chat.SimpleGuiClientMain "${LOCAL_MACHINE}@${PORT}"
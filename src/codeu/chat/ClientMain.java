@@ -18,6 +18,7 @@ import java.io.IOException;
 import java.util.Scanner;
 
 import codeu.chat.client.commandline.Chat;
+import codeu.chat.client.ConnectionPool;
 import codeu.chat.client.Controller;
 import codeu.chat.client.View;
 import codeu.chat.util.Logger;
@@ -43,7 +44,8 @@ final class ClientMain {
 
     final RemoteAddress address = RemoteAddress.parse(args[0]);
 
-    final ConnectionSource source = new ClientConnectionSource(address.host, address.port);
+    final ConnectionSource source = new ConnectionPool(
+        new ClientConnectionSource(address.host, address.port));
     final Controller controller = new Controller(source);
     final View view = new View(source);
 
@@ -16,24 +16,52 @@
 package codeu.chat;
 
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
 
 import codeu.chat.common.Relay;
 import codeu.chat.common.Secret;
 import codeu.chat.server.NoOpRelay;
 import codeu.chat.server.RemoteRelay;
+import codeu.chat.server.Requests;
 import codeu.chat.server.Server;
 import codeu.chat.util.Logger;
 import codeu.chat.util.RemoteAddress;
+import codeu.chat.util.Threads;
 import codeu.chat.util.Uuid;
 import codeu.chat.util.connections.ClientConnectionSource;
 import codeu.chat.util.connections.Connection;
 import codeu.chat.util.connections.ConnectionSource;
+import codeu.chat.util.connections.NioServerConnectionSource;
 import codeu.chat.util.connections.ServerConnectionSource;
 
 final class ServerMain {
 
   private static final Logger.Log LOG = Logger.newLog(ServerMain.class);
 
+  // How the server accepts connections. "blocking" waits in accept for each
+  // connection and closes it after one request. "nio" uses a selector, only
+  // hands out connections that have data to read and keeps connections open
+  // between requests. "thread-per-connection" waits in accept and gives each
+  // connection its own thread (a virtual thread when the JVM has them) that
+  // handles requests until the client closes the connection. Set with
+  // -Dcodeu.chat.server.io=<mode>.
+  private static final String IO_MODE = System.getProperty("codeu.chat.server.io", "nio");
+
+  private static final int IDLE_TIMEOUT_MS = 60000;  // 1 minute
+
+  // The number of threads used to handle client requests. Set with
+  // -Dcodeu.chat.server.workers=<count>.
+  private static final int WORKERS = Integer.getInteger(
+      "codeu.chat.server.workers",
+      Runtime.getRuntime().availableProcessors());
+
+  // Responses to clients that ask for compression are deflated once they are
+  // at least this many bytes. A negative value turns compression off. Set
+  // with -Dcodeu.chat.server.compressionThreshold=<bytes>.
+  private static final int COMPRESSION_THRESHOLD = Integer.getInteger(
+      "codeu.chat.server.compressionThreshold",
+      Server.DEFAULT_COMPRESSION_THRESHOLD);
+
   public static void main(String[] args) {
 
     Logger.enableConsoleOutput();
@@ -66,11 +94,11 @@ final class ServerMain {
                                        null;
 
     try (
-        final ConnectionSource serverSource = ServerConnectionSource.forPort(myPort);
+        final ConnectionSource serverSource = openServerSource(myPort);
         final ConnectionSource relaySource = relayAddress == null ? null : new ClientConnectionSource(relayAddress.host, relayAddress.port)
     ) {
 
-      LOG.info("Starting server...");
+      LOG.info("Starting server (io=%s)...", IO_MODE);
       runServer(id, secret, serverSource, relaySource);
 
     } catch (IOException ex) {
@@ -80,6 +108,17 @@ final class ServerMain {
     }
   }
 
+  private static ConnectionSource openServerSource(int port) throws IOException {
+    switch (IO_MODE) {
+      case "blocking":
+        return ServerConnectionSource.forPort(port);
+      case "thread-per-connection":
+        return ServerConnectionSource.forPort(port, IDLE_TIMEOUT_MS);
+      default:
+        return NioServerConnectionSource.forPort(port, IDLE_TIMEOUT_MS, Requests.FRAMING);
+    }
+  }
+
   private static void runServer(Uuid id,
                                 byte[] secret,
                                 ConnectionSource serverSource,
@@ -89,9 +128,14 @@ final class ServerMain {
                         new NoOpRelay() :
                         new RemoteRelay(relaySource);
 
-    final Server server = new Server(id, secret, relay);
+    final Server server = new Server(id, secret, relay, WORKERS);
+    server.setCompressionThreshold(COMPRESSION_THRESHOLD);
+
+    LOG.info("Created server with %d workers.", WORKERS);
 
-    LOG.info("Created server.");
+    final ExecutorService connectionThreads = "thread-per-connection".equals(IO_MODE) ?
+                                              Threads.newThreadPerTaskExecutor() :
+                                              null;
 
     while (true) {
 
@@ -101,7 +145,16 @@ final class ServerMain {
         final Connection connection = serverSource.connect();
         LOG.info("Connection established.");
 
-        server.handleConnection(connection);
+        if (connectionThreads == null) {
+          server.handleConnection(connection);
+        } else {
+          connectionThreads.execute(new Runnable() {
+            @Override
+            public void run() {
+              server.serveConnection(connection);
+            }
+          });
+        }
 
       } catch (IOException ex) {
         LOG.error(ex, "Failed to establish connection.");
@@ -16,6 +16,7 @@ package codeu.chat;
 
 import java.io.IOException;
 
+import codeu.chat.client.ConnectionPool;
 import codeu.chat.client.Controller;
 import codeu.chat.client.simplegui.ChatSimpleGui;
 import codeu.chat.client.View;
@@ -45,7 +46,8 @@ final class SimpleGuiClientMain {
     final RemoteAddress address = RemoteAddress.parse(args[0]);
 
     try (
-      final ConnectionSource source = new ClientConnectionSource(address.host, address.port)
+      final ConnectionSource source = new ConnectionPool(
+        new ClientConnectionSource(address.host, address.port))
     ) {
       final Controller controller = new Controller(source);
       final View view = new View(source);
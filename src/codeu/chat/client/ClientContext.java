@@ -19,6 +19,8 @@ import codeu.chat.client.ClientMessage;
 import codeu.chat.client.ClientUser;
 import codeu.chat.client.Controller;
 import codeu.chat.client.View;
+import codeu.chat.common.ConversationSummary;
+import codeu.chat.util.Time;
 
 public final class ClientContext {
 
@@ -26,9 +28,42 @@ public final class ClientContext {
   public final ClientConversation conversation;
   public final ClientMessage message;
 
+  private final View view;
+
   public ClientContext(Controller controller, View view) {
+    this.view = view;
     user = new ClientUser(controller, view);
     conversation = new ClientConversation(controller, view, user);
     message = new ClientMessage(controller, view, user, conversation);
   }
+
+  // Show the messages created at or after "since" in every conversation.
+  public void showRecentMessages(Time since) {
+    conversation.updateAllConversations(false);
+    message.showRecentMessages(conversation.getConversationSummaries(), since);
+  }
+
+  // Bring the users, the conversations and the current conversation's
+  // messages up to date with a single call to the server.
+  public void refresh() {
+
+    final ConversationSummary current = conversation.getCurrent();
+
+    final View.Refresh refresh = (current == null) ?
+        view.refresh(conversation.getGeneration(), null, null) :
+        view.refresh(conversation.getGeneration(),
+                     current.id,
+                     conversation.getFetched(current.id),
+                     message.getMessageFetchTime(current.id));
+
+    user.updateUsers(refresh.users);
+    conversation.updateConversations(refresh.conversations);
+
+    if (current != null) {
+      conversation.remember(current.id, refresh.conversation == null ?
+          null :
+          new View.Versioned<>(refresh.conversation, refresh.conversationVersion));
+      message.updateMessages(refresh.conversation, refresh.messages);
+    }
+  }
 }
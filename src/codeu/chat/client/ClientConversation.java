@@ -15,6 +15,7 @@
 package codeu.chat.client;
 
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -29,6 +30,10 @@ public final class ClientConversation {
 
   private final static Logger.Log LOG = Logger.newLog(ClientConversation.class);
 
+  // The most conversations a lookup by the start of a title asks the server
+  // for.
+  public static final int FIND_LIMIT = 20;
+
   private final Controller controller;
   private final View view;
 
@@ -45,6 +50,14 @@ public final class ClientConversation {
   private Store<String, ConversationSummary> summariesSortedByTitle =
       new Store<>(String.CASE_INSENSITIVE_ORDER);
 
+  // The server's conversation generation when the known conversations were
+  // last brought up to date, so that only newer conversations are fetched.
+  private Uuid generation = Uuid.NULL;
+
+  // The conversations fetched so far along with their versions, so that the
+  // server only sends a conversation again once it has changed.
+  private final Map<Uuid, View.Versioned<Conversation>> fetched = new HashMap<>();
+
   public ClientConversation(Controller controller, View view, ClientUser userContext) {
     this.controller = controller;
     this.view = view;
@@ -105,20 +118,51 @@ public final class ClientConversation {
 
   public void setCurrent(ConversationSummary conv) { currentSummary = conv; }
 
+  // Print every conversation on the server a page at a time, so that they
+  // never all have to be held at once. If the server cannot page through
+  // them, print the known conversations after bringing them up to date.
   public void showAllConversations() {
-    updateAllConversations(false);
 
-    for (final ConversationSummary c : summariesByUuid.values()) {
-      printConversation(c, userContext);
+    View.Page<ConversationSummary> page = view.getAllConversationsPage(null, View.PAGE_SIZE);
+
+    if (page == null) {
+      updateAllConversations(false);
+      for (final ConversationSummary c : summariesByUuid.values()) {
+        printConversation(c, userContext);
+      }
+      return;
+    }
+
+    while (page != null) {
+      for (final ConversationSummary c : page.values) {
+        printConversation(c, userContext);
+      }
+      page = (page.cursor == null) ?
+          null :
+          view.getAllConversationsPage(page.cursor, View.PAGE_SIZE);
     }
   }
 
-  // Get a single conversation from the server.
+  // Get a single conversation from the server. If it has not changed since
+  // it was last fetched, the same object is returned.
   public Conversation getConversation(Uuid conversationId) {
-    for (final Conversation c : view.getConversations(Arrays.asList(conversationId))) {
-      return c;
+    return remember(conversationId,
+        view.getConversations(Arrays.asList(conversationId), fetched).get(conversationId));
+  }
+
+  // The copy of a conversation that was fetched last, or null.
+  View.Versioned<Conversation> getFetched(Uuid conversationId) {
+    return fetched.get(conversationId);
+  }
+
+  // Remember a conversation that was fetched, or null if it was not found.
+  Conversation remember(Uuid conversationId, View.Versioned<Conversation> conversation) {
+    if (conversation == null) {
+      fetched.remove(conversationId);
+      return null;
     }
-    return null;
+    fetched.put(conversationId, conversation);
+    return conversation.value;
   }
 
   private void joinConversation(String match) {
@@ -153,18 +197,18 @@ public final class ClientConversation {
     return summariesSortedByTitle.all();
   }
 
+  // Ask the server for the conversations whose titles start with the prefix,
+  // ignoring case, in order of their titles.
+  public Collection<ConversationSummary> findConversations(String prefix) {
+    return view.findConversationsByPrefix(prefix, FIND_LIMIT);
+  }
+
   // Update the list of known Conversations.
   // If the input currentChanged is true, then re-establish the state of
   // the current Conversation, including its messages.
   public void updateAllConversations(boolean currentChanged) {
 
-    summariesByUuid.clear();
-    summariesSortedByTitle = new Store<>(String.CASE_INSENSITIVE_ORDER);
-
-    for (final ConversationSummary cs : view.getAllConversations()) {
-      summariesByUuid.put(cs.id, cs);
-      summariesSortedByTitle.insert(cs.title, cs);
-    }
+    updateConversations(view.getConversationsSince(generation));
 
     if (currentChanged) {
       updateCurrentConversation();
@@ -172,6 +216,42 @@ public final class ClientConversation {
     }
   }
 
+  Uuid getGeneration() {
+    return generation;
+  }
+
+  // Apply an update that was already fetched. Only new conversations are
+  // added, unless the update is complete and replaces every conversation.
+  void updateConversations(View.ConversationUpdate update) {
+
+    if (update.complete) {
+      summariesByUuid.clear();
+      summariesSortedByTitle = new Store<>(String.CASE_INSENSITIVE_ORDER);
+    }
+
+    boolean replaced = false;
+
+    for (final ConversationSummary cs : update.conversations) {
+      final ConversationSummary previous = summariesByUuid.put(cs.id, cs);
+      if (previous == null) {
+        summariesSortedByTitle.insert(cs.title, cs);
+      } else {
+        replaced = true;
+      }
+    }
+
+    // A conversation that was already known is in the title index under its
+    // old summary, so rebuild the index from scratch.
+    if (replaced) {
+      summariesSortedByTitle = new Store<>(String.CASE_INSENSITIVE_ORDER);
+      for (final ConversationSummary cs : summariesByUuid.values()) {
+        summariesSortedByTitle.insert(cs.title, cs);
+      }
+    }
+
+    generation = update.generation;
+  }
+
   // Print Conversation.  User context is used to map from owner UUID to name.
   public static void printConversation(ConversationSummary c, ClientUser userContext) {
     if (c == null) {
@@ -15,15 +15,20 @@
 package codeu.chat.client;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import codeu.chat.common.Conversation;
 import codeu.chat.common.ConversationSummary;
 import codeu.chat.common.Message;
 import codeu.chat.util.Logger;
 import codeu.chat.util.Method;
+import codeu.chat.util.Time;
 import codeu.chat.util.Uuid;
 
 public final class ClientMessage {
@@ -31,7 +36,6 @@ public final class ClientMessage {
   private final static Logger.Log LOG = Logger.newLog(ClientMessage.class);
 
   private final static int MESSAGE_MAX_COUNT = 100;
-  private final static int MESSAGE_FETCH_COUNT = 5;
 
   private final Controller controller;
   private final View view;
@@ -141,6 +145,36 @@ public final class ClientMessage {
     }
   }
 
+  // For m-recent command.
+  // Show the messages created at or after "since" in each of the conversations.
+  // The messages of every conversation are asked for at once.
+  public void showRecentMessages(Iterable<ConversationSummary> conversations, Time since) {
+
+    final Map<Uuid, String> titles = new LinkedHashMap<>();
+    for (final ConversationSummary conversation : conversations) {
+      titles.put(conversation.id, conversation.title);
+    }
+
+    final Map<Uuid, Collection<Message>> recent =
+        view.getMessages(titles.keySet(), since, Time.fromMs(Long.MAX_VALUE));
+
+    boolean found = false;
+
+    for (final Map.Entry<Uuid, Collection<Message>> entry : recent.entrySet()) {
+      if (!entry.getValue().isEmpty()) {
+        found = true;
+        System.out.format("Conversation: %s\n", titles.get(entry.getKey()));
+        for (final Message m : entry.getValue()) {
+          printMessage(m, userContext);
+        }
+      }
+    }
+
+    if (!found) {
+      System.out.println(" No recent messages");
+    }
+  }
+
   private void showNextMessages(int count) {
     Method.notImplemented();
   }
@@ -149,50 +183,73 @@ public final class ClientMessage {
     Method.notImplemented();
   }
 
-  // Determine the next message ID of the current conversation to start pulling.
-  // This requires a read of the last read message to determine if the chain has been extended.
-  private Uuid getCurrentMessageFetchId(boolean replaceAll) {
-    if (replaceAll || conversationContents.isEmpty()) {
+  // Determine the earliest creation time of the messages that still need to
+  // be pulled for a conversation.
+  Time getMessageFetchTime(Uuid conversation) {
+    if (conversationHead == null ||
+        !conversationHead.id.equals(conversation) ||
+        conversationContents.isEmpty()) {
       // Fetch/refetch all the messages.
-      conversationContents.clear();
-      LOG.info("Refetch all messages: replaceAll=%s firstMessage=%s", replaceAll,
-               conversationHead.firstMessage);
-      return conversationHead.firstMessage;
+      return Time.fromMs(0);
     } else {
-      // Locate last known message. Its next, if any, becomes our starting point.
-      return getCurrentTailMessageId();
+      // Anything newer than the last known message. Messages created in the
+      // same millisecond are fetched again and skipped by id.
+      return conversationContents.get(conversationContents.size() - 1).creation;
     }
   }
 
-  private Uuid getCurrentTailMessageId() {
-    Uuid nextMessageId = conversationContents.get(conversationContents.size() - 1).id;
-    final List<Message> messageTail = new ArrayList<>(view.getMessages(nextMessageId, 1));
-    if (messageTail.size() > 0) {
-      final Message msg = messageTail.get(0);
-      nextMessageId = msg.next;
-    } else {
-      // fall back.
-      LOG.warning("Failed to get tail of messages, starting from %s", nextMessageId);
-      conversationContents.clear();
-      nextMessageId = conversationHead.firstMessage;
-    }
-    return nextMessageId;
-  }
-
   // Update the list of messages for the current conversation.
-  // Currently rereads the entire message chain.
   public void updateMessages(boolean replaceAll) {
     updateMessages(conversationContext.getCurrent(), replaceAll);
   }
 
   // Update the list of messages for the given conversation.
-  // Currently rereads the entire message chain.
+  // Only messages newer than the ones already known are pulled, unless
+  // replaceAll is true.
   public void updateMessages(ConversationSummary conversation, boolean replaceAll) {
     if (conversation == null) {
       LOG.error("conversation argument is null - do nothing.");
       return;
     }
-    conversationHead = conversationContext.getConversation(conversation.id);
+
+    if (replaceAll) {
+      LOG.info("Refetch all messages: conversation=%s", conversation.id);
+      conversationContents.clear();
+    }
+
+    final Time since = getMessageFetchTime(conversation.id);
+    final Conversation head = conversationContext.getConversation(conversation.id);
+
+    // Pull every new message in one call rather than walking the chain a few
+    // messages per call. Nothing is pulled if the newest known message is
+    // still the conversation's last.
+    final Collection<Message> fetched =
+        (head == null || head.lastMessage.equals(Uuid.NULL) || isLastKnown(head)) ?
+        new ArrayList<Message>() :
+        view.getMessages(head.id, since, Time.fromMs(Long.MAX_VALUE));
+
+    updateMessages(head, fetched);
+  }
+
+  // Whether the newest known message is the last message of the conversation.
+  private boolean isLastKnown(Conversation head) {
+    return conversationHead != null &&
+           conversationHead.id.equals(head.id) &&
+           !conversationContents.isEmpty() &&
+           conversationContents.get(conversationContents.size() - 1).id.equals(head.lastMessage);
+  }
+
+  // Update the list of messages with messages that were already fetched. The
+  // fetched messages must be all of the conversation's messages created at or
+  // after getMessageFetchTime(head.id).
+  void updateMessages(Conversation head, Collection<Message> fetched) {
+
+    if (head == null || conversationHead == null || !conversationHead.id.equals(head.id)) {
+      conversationContents.clear();
+    }
+
+    conversationHead = head;
+
     if (conversationHead == null) {
       LOG.info("ConversationHead is null");
     } else {
@@ -200,23 +257,29 @@ public final class ClientMessage {
           conversationHead.title, conversationHead.id, conversationHead.firstMessage,
           conversationHead.lastMessage);
 
-      Uuid nextMessageId = getCurrentMessageFetchId(replaceAll);
+      final Set<Uuid> known = new HashSet<>();
+      for (final Message msg : conversationContents) {
+        known.add(msg.id);
+      }
+
+      for (final Message msg : fetched) {
 
-      //  Stay in loop until all messages read (up to safety limit)
-      while (!nextMessageId.equals(Uuid.NULL) && conversationContents.size() < MESSAGE_MAX_COUNT) {
+        if (conversationContents.size() >= MESSAGE_MAX_COUNT) {
+          break;
+        }
 
-        for (final Message msg : view.getMessages(nextMessageId, MESSAGE_FETCH_COUNT)) {
+        if (known.contains(msg.id)) {
+          continue;
+        }
 
-          conversationContents.add(msg);
+        conversationContents.add(msg);
 
-          // Race: message possibly added since conversation fetched.  If that occurs,
-          // pretend the newer messages do not exist - they'll get picked up next time).
-          if (msg.next.equals(Uuid.NULL) || msg.id.equals(conversationHead.lastMessage)) {
-            msg.next = Uuid.NULL;
-            break;
-          }
+        // Race: message possibly added since conversation fetched.  If that occurs,
+        // pretend the newer messages do not exist - they'll get picked up next time).
+        if (msg.next.equals(Uuid.NULL) || msg.id.equals(conversationHead.lastMessage)) {
+          msg.next = Uuid.NULL;
+          break;
         }
-        nextMessageId = conversationContents.get(conversationContents.size() - 1).next;
       }
       LOG.info("Retrieved %d messages for conversation %s (%s).\n",
           conversationContents.size(), conversationHead.id, conversationHead.title);
@@ -236,7 +299,7 @@ public final class ClientMessage {
       final String authorName = (userContext == null) ? null : userContext.getName(m.author);
 
       System.out.format(" Author: %s   Id: %s created: %s\n   Body: %s\n",
-          (authorName == null) ? m.author : authorName, m.id, m.creation, m.content);
+          (authorName == null) ? m.author : authorName, m.id, m.creation, m.content());
     }
   }
 
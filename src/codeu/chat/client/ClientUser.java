@@ -33,6 +33,9 @@ public final class ClientUser {
   private final static Logger.Log LOG = Logger.newLog(ClientUser.class);
 
   private static final Collection<Uuid> EMPTY = Arrays.asList(new Uuid[0]);
+
+  // The most users a lookup by the start of a name asks the server for.
+  public static final int FIND_LIMIT = 20;
   private final Controller controller;
   private final View view;
 
@@ -205,11 +208,22 @@ public final class ClientUser {
     return usersByName.all();
   }
 
+  // Ask the server for the users whose names start with the prefix, ignoring
+  // case, in order of their names.
+  public Collection<User> findUsers(String prefix) {
+    return view.findUsersByPrefix(prefix, FIND_LIMIT);
+  }
+
   public void updateUsers() {
+    updateUsers(view.getUsersExcluding(EMPTY));
+  }
+
+  // Replace the known users with users that were already fetched.
+  void updateUsers(Collection<User> users) {
     usersById.clear();
     usersByName = new Store<>(String.CASE_INSENSITIVE_ORDER);
 
-    for (final User user : view.getUsersExcluding(EMPTY)) {
+    for (final User user : users) {
       usersById.put(user.id, user);
       usersByName.insert(user.name, user);
     }
@@ -0,0 +1,401 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import codeu.chat.common.NetworkCode;
+import codeu.chat.common.WireFormat;
+import codeu.chat.util.Logger;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.connections.Connection;
+import codeu.chat.util.connections.ConnectionSource;
+
+// CONNECTION POOL
+//
+// Wraps a connection source so that the Controller and View can reuse
+// connections between calls. When a new connection is opened, the pool asks
+// the server to keep it alive. If the server agrees, closing the connection
+// returns it to the pool rather than closing the socket. Connections that hit
+// an error or sat idle for too long are closed instead of being reused.
+//
+// If the server says no (or does not understand the request) the pool stops
+// asking and hands out plain connections from then on.
+public final class ConnectionPool implements ConnectionSource {
+
+  private final static Logger.Log LOG = Logger.newLog(ConnectionPool.class);
+
+  // This must be shorter than the time the server waits before closing an
+  // idle connection, or the pool could hand out connections the server has
+  // already closed.
+  private static final long MAX_IDLE_MS = 30000;  // 30 seconds
+
+  private final ConnectionSource source;
+
+  // Guarded by "this".
+  private final Deque<PooledConnection> idle = new ArrayDeque<>();
+  private boolean closed = false;
+
+  private volatile boolean keepAliveRefused = false;
+
+  public ConnectionPool(ConnectionSource source) {
+    this.source = source;
+  }
+
+  @Override
+  public Connection connect() throws IOException {
+
+    final PooledConnection pooled = takeIdle();
+
+    if (pooled != null) {
+      return pooled;
+    }
+
+    final Connection connection = source.connect();
+
+    if (keepAliveRefused) {
+      return connection;
+    }
+
+    try {
+      if (requestKeepAlive(connection)) {
+        return new PooledConnection(connection);
+      }
+    } catch (IOException ex) {
+      connection.close();
+      throw ex;
+    }
+
+    LOG.info("Server will not keep connections alive.");
+    keepAliveRefused = true;
+
+    // The server may close the connection after a refused request, so it
+    // cannot be used for the caller's request.
+    connection.close();
+    return source.connect();
+  }
+
+  // Open a connection that is never returned to the pool, for a caller that
+  // will keep it for itself (such as a subscription).
+  public Connection connectUnpooled() throws IOException {
+    return source.connect();
+  }
+
+  @Override
+  public void close() throws IOException {
+
+    synchronized (this) {
+      closed = true;
+      for (final PooledConnection connection : idle) {
+        connection.connection.close();
+      }
+      idle.clear();
+    }
+
+    source.close();
+  }
+
+  private synchronized PooledConnection takeIdle() throws IOException {
+
+    final long now = System.currentTimeMillis();
+
+    while (!idle.isEmpty()) {
+
+      // Take the most recently used connection. It is the least likely to
+      // have been closed by the server.
+      final PooledConnection connection = idle.pollFirst();
+
+      if (now - connection.idleSince < MAX_IDLE_MS) {
+        connection.reused();
+        return connection;
+      }
+
+      connection.connection.close();
+    }
+
+    return null;
+  }
+
+  private synchronized boolean giveBack(PooledConnection connection) {
+    if (closed) {
+      return false;
+    }
+    connection.idleSince = System.currentTimeMillis();
+    idle.addFirst(connection);
+    return true;
+  }
+
+  private static boolean requestKeepAlive(Connection connection) throws IOException {
+
+    Serializers.INTEGER.write(connection.out(), NetworkCode.KEEP_ALIVE_REQUEST);
+
+    // Servers that do not know the request answer with NO_MESSAGE.
+    return Serializers.INTEGER.read(connection.in()) == NetworkCode.KEEP_ALIVE_RESPONSE &&
+           Serializers.BOOLEAN.read(connection.in());
+  }
+
+  // POOLED CONNECTION
+  //
+  // Watches the streams of a connection so that a connection that has hit an
+  // error or the end of its stream is closed rather than returned to the pool.
+  //
+  // A connection taken from the pool may have been closed by the server while
+  // it sat idle, which the client only finds out when it uses it. So until
+  // the first byte of the response arrives, what the caller writes is kept,
+  // and if the connection fails before then the request is sent again once on
+  // a new connection, but only if it just reads the model (see "onlyReads").
+  // A request that changes the model may have been handled before the
+  // connection failed, and sending it again could, for example, add the same
+  // message twice. Those requests fail with the error instead.
+  private final class PooledConnection implements Connection {
+
+    private Connection connection;
+
+    // What has been written since the connection was taken from the pool, or
+    // null once it can no longer be sent again.
+    private ByteArrayOutputStream unanswered = null;
+
+    private boolean broken = false;
+    private long idleSince;
+
+    private final InputStream in = new InputStream() {
+
+      @Override
+      public int read() throws IOException {
+        while (true) {
+          try {
+            final int value = connection.in().read();
+            if (value >= 0 || !retry(new EOFException())) {
+              return check(value);
+            }
+          } catch (IOException ex) {
+            if (!retry(ex)) {
+              throw ex;
+            }
+          }
+        }
+      }
+
+      @Override
+      public int read(byte[] bytes, int offset, int length) throws IOException {
+        while (true) {
+          try {
+            final int count = connection.in().read(bytes, offset, length);
+            if (count >= 0 || !retry(new EOFException())) {
+              return check(count);
+            }
+          } catch (IOException ex) {
+            if (!retry(ex)) {
+              throw ex;
+            }
+          }
+        }
+      }
+
+      @Override
+      public int available() throws IOException {
+        return connection.in().available();
+      }
+    };
+
+    private final OutputStream out = new OutputStream() {
+
+      @Override
+      public void write(int value) throws IOException {
+        write(new byte[] { (byte) value }, 0, 1);
+      }
+
+      @Override
+      public void write(byte[] bytes, int offset, int length) throws IOException {
+
+        if (unanswered != null) {
+          unanswered.write(bytes, offset, length);
+        }
+
+        try {
+          connection.out().write(bytes, offset, length);
+        } catch (IOException ex) {
+          // Sending again includes these bytes, as they were already kept.
+          if (!retry(ex)) {
+            throw ex;
+          }
+        }
+      }
+
+      @Override
+      public void flush() throws IOException {
+        try {
+          connection.out().flush();
+        } catch (IOException ex) {
+          if (!retry(ex)) {
+            throw ex;
+          }
+        }
+      }
+    };
+
+    public PooledConnection(Connection connection) {
+      this.connection = connection;
+    }
+
+    @Override
+    public InputStream in() {
+      return in;
+    }
+
+    @Override
+    public OutputStream out() {
+      return out;
+    }
+
+    @Override
+    public void close() throws IOException {
+
+      boolean reuse = !broken;
+
+      // Bytes left over from the last response would be read as the start of
+      // the next one, so only reuse connections that were read to the end.
+      try {
+        reuse = reuse && in.available() == 0;
+      } catch (IOException ex) {
+        reuse = false;
+      }
+
+      if (!reuse || !giveBack(this)) {
+        connection.close();
+      }
+    }
+
+    // Called when the connection is taken from the pool.
+    private void reused() {
+      unanswered = new ByteArrayOutputStream();
+    }
+
+    private int check(int read) {
+      if (read < 0) {
+        broken = true;
+      } else {
+        unanswered = null;
+      }
+      return read;
+    }
+
+    // Send the request again on a new connection if nothing has been read
+    // since the connection was taken from the pool and the request only reads
+    // the model. This is only done once. Returns false, and marks the
+    // connection as broken, otherwise.
+    private boolean retry(IOException error) {
+
+      if (unanswered != null) {
+
+        final byte[] request = unanswered.toByteArray();
+        unanswered = null;
+
+        if (!onlyReads(request)) {
+          broken = true;
+          return false;
+        }
+
+        LOG.info("Pooled connection failed, sending the request again: %s", error);
+
+        try {
+          resend(request);
+          return true;
+        } catch (IOException ex) {
+          LOG.warning("Could not send the request again: %s", ex);
+        }
+      }
+
+      broken = true;
+      return false;
+    }
+
+    private void resend(byte[] request) throws IOException {
+
+      try {
+        connection.close();
+      } catch (IOException ex) {
+        // It was already broken.
+      }
+
+      connection = source.connect();
+
+      // As in "connect", the new connection is only kept open if the server
+      // still agrees, and a refused connection may not take another request.
+      if (!requestKeepAlive(connection)) {
+        keepAliveRefused = true;
+        broken = true;
+        connection.close();
+        connection = source.connect();
+      }
+
+      connection.out().write(request);
+    }
+  }
+
+  // Whether everything written for a request only reads the model. A request
+  // that cannot be read back is treated as one that may change it.
+  private static boolean onlyReads(byte[] request) {
+    try {
+      return onlyReads(new ByteArrayInputStream(request));
+    } catch (IOException ex) {
+      return false;
+    }
+  }
+
+  // Callers write one request per connection, except inside the envelopes,
+  // whose contents are checked the same way.
+  private static boolean onlyReads(InputStream in) throws IOException {
+
+    final int type = Serializers.INTEGER.read(in);
+
+    switch (type) {
+      case NetworkCode.COMPRESSED_REQUEST:
+        return onlyReads(in);
+      case NetworkCode.V2_REQUEST:
+        return NetworkCode.isReadOnly(WireFormat.V2.integer.read(in));
+      case NetworkCode.BATCH_REQUEST:
+        for (int count = Serializers.INTEGER.read(in); count > 0; count--) {
+          if (!onlyReads(new ByteArrayInputStream(Serializers.BYTES.read(in)))) {
+            return false;
+          }
+        }
+        return true;
+      case NetworkCode.FRAMED_REQUEST:
+        // Pipelined requests are framed one after another.
+        while (true) {
+          Serializers.INTEGER.read(in);  // The correlation id.
+          if (!onlyReads(new ByteArrayInputStream(Serializers.BYTES.read(in)))) {
+            return false;
+          }
+          if (in.available() == 0) {
+            return true;
+          }
+          if (Serializers.INTEGER.read(in) != NetworkCode.FRAMED_REQUEST) {
+            return false;
+          }
+        }
+      default:
+        return NetworkCode.isReadOnly(type);
+    }
+  }
+}
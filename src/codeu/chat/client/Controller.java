@@ -23,6 +23,7 @@ import codeu.chat.common.Conversation;
 import codeu.chat.common.Message;
 import codeu.chat.common.NetworkCode;
 import codeu.chat.common.User;
+import codeu.chat.common.WireFormat;
 import codeu.chat.util.Logger;
 import codeu.chat.util.Serializers;
 import codeu.chat.util.Uuid;
@@ -34,9 +35,11 @@ public class Controller implements BasicController {
   private final static Logger.Log LOG = Logger.newLog(Controller.class);
 
   private final ConnectionSource source;
+  private final NegotiatedFormat negotiated;
 
   public Controller(ConnectionSource source) {
     this.source = source;
+    this.negotiated = new NegotiatedFormat(source, false);
   }
 
   @Override
@@ -44,15 +47,17 @@ public class Controller implements BasicController {
 
     Message response = null;
 
+    final WireFormat format = negotiated.get();
+
     try (final Connection connection = source.connect()) {
 
-      Serializers.INTEGER.write(connection.out(), NetworkCode.NEW_MESSAGE_REQUEST);
-      Uuid.SERIALIZER.write(connection.out(), author);
-      Uuid.SERIALIZER.write(connection.out(), conversation);
-      Serializers.STRING.write(connection.out(), body);
+      format.writeRequestType(connection.out(), NetworkCode.NEW_MESSAGE_REQUEST);
+      format.uuid.write(connection.out(), author);
+      format.uuid.write(connection.out(), conversation);
+      format.string.write(connection.out(), body);
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.NEW_MESSAGE_RESPONSE) {
-        response = Serializers.nullable(Message.SERIALIZER).read(connection.in());
+      if (format.integer.read(connection.in()) == NetworkCode.NEW_MESSAGE_RESPONSE) {
+        response = Serializers.nullable(format.message).read(connection.in());
       } else {
         LOG.error("Response from server failed.");
       }
@@ -69,15 +74,17 @@ public class Controller implements BasicController {
 
     User response = null;
 
+    final WireFormat format = negotiated.get();
+
     try (final Connection connection = source.connect()) {
 
-      Serializers.INTEGER.write(connection.out(), NetworkCode.NEW_USER_REQUEST);
-      Serializers.STRING.write(connection.out(), name);
-      Serializers.STRING.write(connection.out(), password);
+      format.writeRequestType(connection.out(), NetworkCode.NEW_USER_REQUEST);
+      format.string.write(connection.out(), name);
+      format.string.write(connection.out(), password);
       LOG.info("newUser: Request completed.");
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.NEW_USER_RESPONSE) {
-        response = Serializers.nullable(User.SERIALIZER).read(connection.in());
+      if (format.integer.read(connection.in()) == NetworkCode.NEW_USER_RESPONSE) {
+        response = Serializers.nullable(format.user).read(connection.in());
         LOG.info("newUser: Response completed.");
       } else {
         LOG.error("Response from server failed.");
@@ -94,14 +101,16 @@ public class Controller implements BasicController {
   public User deleteUser(String name) {
     User response = null;
 
+    final WireFormat format = negotiated.get();
+
     try (final Connection connection = source.connect()) {
 
-      Serializers.INTEGER.write(connection.out(), NetworkCode.DELETE_USER_REQUEST);
-      Serializers.STRING.write(connection.out(), name);
+      format.writeRequestType(connection.out(), NetworkCode.DELETE_USER_REQUEST);
+      format.string.write(connection.out(), name);
       LOG.info("deleteUser: Request completed.");
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.DELETE_USER_RESPONSE) {
-        response = Serializers.nullable(User.SERIALIZER).read(connection.in());
+      if (format.integer.read(connection.in()) == NetworkCode.DELETE_USER_RESPONSE) {
+        response = Serializers.nullable(format.user).read(connection.in());
         LOG.info("deleteUser: Response completed.");
       } else {
         LOG.error("Response from server failed.");
@@ -118,15 +127,17 @@ public class Controller implements BasicController {
   public User changeUserName(String oldName, String newName) {
     User response = null;
 
+    final WireFormat format = negotiated.get();
+
     try (final Connection connection = source.connect()) {
 
-      Serializers.INTEGER.write(connection.out(), NetworkCode.CHANGE_USERNAME_REQUEST);
-      Serializers.STRING.write(connection.out(), oldName);
-      Serializers.STRING.write(connection.out(), newName);
+      format.writeRequestType(connection.out(), NetworkCode.CHANGE_USERNAME_REQUEST);
+      format.string.write(connection.out(), oldName);
+      format.string.write(connection.out(), newName);
       LOG.info("changeUserName: Request completed.");
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.CHANGE_USERNAME_RESPONSE) {
-        response = Serializers.nullable(User.SERIALIZER).read(connection.in());
+      if (format.integer.read(connection.in()) == NetworkCode.CHANGE_USERNAME_RESPONSE) {
+        response = Serializers.nullable(format.user).read(connection.in());
         LOG.info("changeUserName: Response completed.");
       } else {
         LOG.error("Response from server failed.");
@@ -145,14 +156,16 @@ public class Controller implements BasicController {
 
     Conversation response = null;
 
+    final WireFormat format = negotiated.get();
+
     try (final Connection connection = source.connect()) {
 
-      Serializers.INTEGER.write(connection.out(), NetworkCode.NEW_CONVERSATION_REQUEST);
-      Serializers.STRING.write(connection.out(), title);
-      Uuid.SERIALIZER.write(connection.out(), owner);
+      format.writeRequestType(connection.out(), NetworkCode.NEW_CONVERSATION_REQUEST);
+      format.string.write(connection.out(), title);
+      format.uuid.write(connection.out(), owner);
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.NEW_CONVERSATION_RESPONSE) {
-        response = Serializers.nullable(Conversation.SERIALIZER).read(connection.in());
+      if (format.integer.read(connection.in()) == NetworkCode.NEW_CONVERSATION_RESPONSE) {
+        response = Serializers.nullable(format.conversation).read(connection.in());
       } else {
         LOG.error("Response from server failed.");
       }
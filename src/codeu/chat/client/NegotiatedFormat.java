@@ -0,0 +1,66 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.client;
+
+import java.io.IOException;
+
+import codeu.chat.common.WireFormat;
+import codeu.chat.util.Logger;
+import codeu.chat.util.connections.ConnectionSource;
+
+// NEGOTIATED FORMAT
+//
+// The wire format to use with a server, asked for the first time it is needed
+// and remembered after that. If the server cannot be asked, version 1 is used
+// for now and the server is asked again next time. If compression is wanted,
+// it is only used if the server agrees to it.
+final class NegotiatedFormat {
+
+  private final static Logger.Log LOG = Logger.newLog(NegotiatedFormat.class);
+
+  private final ConnectionSource source;
+  private final boolean compression;
+
+  private volatile WireFormat format;
+
+  public NegotiatedFormat(ConnectionSource source, boolean compression) {
+    this.source = source;
+    this.compression = compression;
+  }
+
+  public WireFormat get() {
+
+    WireFormat current = format;
+
+    if (current == null) {
+      try {
+        current = WireFormat.negotiate(source);
+        if (compression) {
+          current = current.withCompression(WireFormat.negotiateCompression(source));
+        }
+        format = current;
+        LOG.info("Using wire format version %d (compressed=%s).",
+                 current.version,
+                 current.compressed);
+      } catch (IOException ex) {
+        LOG.warning("Could not negotiate a wire format, using version 1: %s", ex);
+        current = WireFormat.V1;
+      }
+    }
+
+    return current;
+  }
+}
@@ -0,0 +1,129 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import codeu.chat.common.ConversationSummary;
+import codeu.chat.common.Message;
+import codeu.chat.common.NetworkCode;
+import codeu.chat.common.WireFormat;
+import codeu.chat.util.Logger;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.connections.Connection;
+
+// SUBSCRIPTION
+//
+// A connection on which the server pushes new messages and conversations as
+// they are added (see NetworkCode.SUBSCRIBE_REQUEST). Events are read on a
+// thread of the subscription's own and handed to its listener in the order
+// the server sent them.
+//
+// The server disconnects subscribers that fall too far behind, so when the
+// listener is told that the subscription has closed it should get anything
+// it may have missed with ordinary calls and subscribe again.
+public final class Subscription {
+
+  private final static Logger.Log LOG = Logger.newLog(Subscription.class);
+
+  public interface Listener {
+
+    // Called on the subscription's thread for each new message in one of the
+    // conversations that were subscribed to.
+    void onMessage(Uuid conversation, Message message);
+
+    // Called on the subscription's thread for each new conversation.
+    void onConversation(ConversationSummary conversation);
+
+    // Called once, after the last event, when the subscription is closed by
+    // either side.
+    void onClosed();
+
+  }
+
+  private final Connection connection;
+  private final WireFormat format;
+  private final Listener listener;
+
+  private volatile boolean closed = false;
+
+  Subscription(Connection connection, WireFormat format, Listener listener) {
+
+    this.connection = connection;
+    this.format = format;
+    this.listener = listener;
+
+    final Thread reader = new Thread("subscription") {
+      @Override
+      public void run() {
+        read();
+      }
+    };
+
+    reader.setDaemon(true);
+    reader.start();
+  }
+
+  public boolean isClosed() {
+    return closed;
+  }
+
+  public void close() {
+
+    closed = true;
+
+    try {
+      connection.close();
+    } catch (IOException ex) {
+      LOG.error(ex, "Exception while closing subscription.");
+    }
+  }
+
+  private void read() {
+
+    try {
+
+      final InputStream in = connection.in();
+
+      while (!closed) {
+
+        final int type = format.integer.read(in);
+
+        if (type == NetworkCode.NEW_MESSAGE_EVENT) {
+          final Uuid conversation = format.uuid.read(in);
+          final Message message = format.message.read(in);
+          listener.onMessage(conversation, message);
+        } else if (type == NetworkCode.NEW_CONVERSATION_EVENT) {
+          listener.onConversation(format.summary.read(in));
+        } else {
+          LOG.error("Unknown event from server: %d", type);
+          break;
+        }
+      }
+
+    } catch (Exception ex) {
+
+      if (!closed) {
+        LOG.info("Subscription ended: %s", ex);
+      }
+
+    }
+
+    close();
+    listener.onClosed();
+  }
+}
@@ -14,8 +14,18 @@
 
 package codeu.chat.client;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import codeu.chat.common.BasicView;
 import codeu.chat.common.Conversation;
@@ -24,7 +34,9 @@ import codeu.chat.common.LogicalView;
 import codeu.chat.common.Message;
 import codeu.chat.common.NetworkCode;
 import codeu.chat.common.User;
+import codeu.chat.common.WireFormat;
 import codeu.chat.util.Logger;
+import codeu.chat.util.Serializer;
 import codeu.chat.util.Serializers;
 import codeu.chat.util.Time;
 import codeu.chat.util.Uuid;
@@ -36,14 +48,134 @@ import codeu.chat.util.connections.ConnectionSource;
 // This is the view component of the Model-View-Controller pattern used by the
 // the client to reterive readonly data from the server. All methods are blocking
 // calls.
+//
+// Calls that take several conversations send all of their requests on one
+// connection at once as framed requests (see NetworkCode.FRAMED_REQUEST) so
+// that they cost one round trip rather than one per conversation. If the
+// server does not answer framed requests, the view stops sending them and
+// makes one call at a time instead.
+//
+// "refresh" gets everything the clients show at once in a single batch request
+// (see NetworkCode.BATCH_REQUEST), falling back to separate calls the same way.
+//
+// Conversations and messages can be fetched along with their versions, so
+// that a copy the client already has is not sent again until it changes (see
+// NetworkCode.GET_CONVERSATIONS_IF_MODIFIED_REQUEST).
+//
+// "subscribe" opens a connection on which the server pushes new messages and
+// conversations as they are added (see NetworkCode.SUBSCRIBE_REQUEST).
+//
+// Requests and responses use the newest wire format the server speaks (see
+// WireFormat), which is asked for on the first call.
 public final class View implements BasicView, LogicalView{
 
   private final static Logger.Log LOG = Logger.newLog(View.class);
 
+  private static final Collection<Uuid> EMPTY = Arrays.asList(new Uuid[0]);
+
+  // Whether to ask the server to compress large responses. Set with
+  // -Dcodeu.chat.client.compression=true.
+  private static final boolean COMPRESSION = Boolean.getBoolean("codeu.chat.client.compression");
+
   private final ConnectionSource source;
+  private final NegotiatedFormat negotiated;
+
+  private static final byte[] NO_BYTES = new byte[0];
+
+  // How many values a caller that goes through a whole collection a page at a
+  // time should ask for in each page.
+  public static final int PAGE_SIZE = 1024;
+
+  // How many pipelined requests may be waiting for a response at once.
+  private static final int PIPELINE_WINDOW = 16;
+
+  private volatile boolean pipelining = true;
+  private volatile boolean batching = true;
+  private volatile boolean paging = true;
+  private volatile boolean versioning = true;
+
+  // PAGE
+  //
+  // One page of a paged query and the cursor that gets the next page, which
+  // is null after the last page.
+  public static final class Page<T> {
+
+    public final Collection<T> values;
+    public final byte[] cursor;
+
+    public Page(Collection<T> values, byte[] cursor) {
+      this.values = values;
+      this.cursor = cursor;
+    }
+  }
+
+  // VERSIONED
+  //
+  // A value from the server and its version there. The version is NULL if the
+  // server does not keep versions.
+  public static final class Versioned<T> {
+
+    public final T value;
+    public final Uuid version;
+
+    public Versioned(T value, Uuid version) {
+      this.value = value;
+      this.version = version;
+    }
+  }
+
+  // CONVERSATION UPDATE
+  //
+  // The summaries of the conversations added since a conversation generation,
+  // and the generation to ask from next time. If "complete" is true, the
+  // summaries are all of the conversations and replace any the client knows
+  // of, as happens when the client's generation is from before the server
+  // restarted.
+  public static final class ConversationUpdate {
+
+    public final Uuid generation;
+    public final boolean complete;
+    public final Collection<ConversationSummary> conversations;
+
+    public ConversationUpdate(Uuid generation,
+                              boolean complete,
+                              Collection<ConversationSummary> conversations) {
+      this.generation = generation;
+      this.complete = complete;
+      this.conversations = conversations;
+    }
+  }
+
+  // REFRESH
+  //
+  // Everything a client needs to redraw itself: all the users, the
+  // conversations added since the client last asked and, if one was asked
+  // for, a single conversation along with its messages. If the conversation
+  // could not be found it is null and there are no messages.
+  public static final class Refresh {
+
+    public final Collection<User> users;
+    public final ConversationUpdate conversations;
+    public final Conversation conversation;
+    public final Uuid conversationVersion;
+    public final Collection<Message> messages;
+
+    public Refresh(Collection<User> users,
+                   ConversationUpdate conversations,
+                   Conversation conversation,
+                   Uuid conversationVersion,
+                   Collection<Message> messages) {
+      this.users = users;
+      this.conversations = conversations;
+      this.conversation = conversation;
+      this.conversationVersion = conversationVersion;
+      this.messages = messages;
+    }
+  }
 
   public View(ConnectionSource source) {
     this.source = source;
+    this.negotiated = new NegotiatedFormat(source, COMPRESSION);
   }
 
   @Override
@@ -51,13 +183,17 @@ public final class View implements BasicView, LogicalView{
 
     final Collection<User> users = new ArrayList<>();
 
+    final WireFormat format = negotiated.get();
+
     try (final Connection connection = source.connect()) {
 
-      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_USERS_BY_ID_REQUEST);
-      Serializers.collection(Uuid.SERIALIZER).write(connection.out(), ids);
+      format.writeRequestType(connection.out(), NetworkCode.GET_USERS_BY_ID_REQUEST);
+      format.uuids.write(connection.out(), ids);
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_USERS_BY_ID_RESPONSE) {
-        users.addAll(Serializers.collection(User.SERIALIZER).read(connection.in()));
+      final InputStream in = format.readResponse(connection.in());
+
+      if (format.integer.read(in) == NetworkCode.GET_USERS_BY_ID_RESPONSE) {
+        users.addAll(format.users.read(in));
       } else {
         LOG.error("Response from server failed.");
       }
@@ -75,12 +211,16 @@ public final class View implements BasicView, LogicalView{
 
     final Collection<ConversationSummary> summaries = new ArrayList<>();
 
+    final WireFormat format = negotiated.get();
+
     try (final Connection connection = source.connect()) {
 
-      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_ALL_CONVERSATIONS_REQUEST);
+      format.writeRequestType(connection.out(), NetworkCode.GET_ALL_CONVERSATIONS_REQUEST);
+
+      final InputStream in = format.readResponse(connection.in());
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_ALL_CONVERSATIONS_RESPONSE) {
-        summaries.addAll(Serializers.collection(ConversationSummary.SERIALIZER).read(connection.in()));
+      if (format.integer.read(in) == NetworkCode.GET_ALL_CONVERSATIONS_RESPONSE) {
+        summaries.addAll(format.summaries.read(in));
       } else {
         LOG.error("Response from server failed.");
       }
@@ -93,18 +233,53 @@ public final class View implements BasicView, LogicalView{
     return summaries;
   }
 
+  // Get the conversations added since the given generation, which is either
+  // from an earlier update or Uuid.NULL to get all of them. Servers that do
+  // not know about conversation generations are asked for all of the
+  // conversations instead. If the call fails the update is empty and keeps
+  // the given generation.
+  public ConversationUpdate getConversationsSince(Uuid generation) {
+
+    final WireFormat format = negotiated.get();
+
+    try (final Connection connection = source.connect()) {
+
+      format.writeRequestType(connection.out(), NetworkCode.GET_CONVERSATIONS_SINCE_REQUEST);
+      format.uuid.write(connection.out(), generation);
+
+      final InputStream in = format.readResponse(connection.in());
+
+      if (format.integer.read(in) == NetworkCode.GET_CONVERSATIONS_SINCE_RESPONSE) {
+        return conversationUpdate(format).read(in);
+      }
+
+      LOG.warning("Server does not support conversation generations, getting all conversations.");
+
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+      return new ConversationUpdate(generation, false, new ArrayList<ConversationSummary>());
+    }
+
+    return new ConversationUpdate(Uuid.NULL, true, getAllConversations());
+  }
+
   @Override
   public Collection<Conversation> getConversations(Collection<Uuid> ids) {
 
     final Collection<Conversation> conversations = new ArrayList<>();
 
+    final WireFormat format = negotiated.get();
+
     try (final Connection connection = source.connect()) {
 
-      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_CONVERSATIONS_BY_ID_REQUEST);
-      Serializers.collection(Uuid.SERIALIZER).write(connection.out(), ids);
+      format.writeRequestType(connection.out(), NetworkCode.GET_CONVERSATIONS_BY_ID_REQUEST);
+      format.uuids.write(connection.out(), ids);
+
+      final InputStream in = format.readResponse(connection.in());
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_CONVERSATIONS_BY_ID_RESPONSE) {
-        conversations.addAll(Serializers.collection(Conversation.SERIALIZER).read(connection.in()));
+      if (format.integer.read(in) == NetworkCode.GET_CONVERSATIONS_BY_ID_RESPONSE) {
+        conversations.addAll(format.conversations.read(in));
       } else {
         LOG.error("Response from server failed.");
       }
@@ -121,13 +296,17 @@ public final class View implements BasicView, LogicalView{
 
     final Collection<Message> messages = new ArrayList<>();
 
+    final WireFormat format = negotiated.get();
+
     try (final Connection connection = source.connect()) {
 
-      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_MESSAGES_BY_ID_REQUEST);
-      Serializers.collection(Uuid.SERIALIZER).write(connection.out(), ids);
+      format.writeRequestType(connection.out(), NetworkCode.GET_MESSAGES_BY_ID_REQUEST);
+      format.uuids.write(connection.out(), ids);
+
+      final InputStream in = format.readResponse(connection.in());
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_MESSAGES_BY_ID_RESPONSE) {
-        messages.addAll(Serializers.collection(Message.SERIALIZER).read(connection.in()));
+      if (format.integer.read(in) == NetworkCode.GET_MESSAGES_BY_ID_RESPONSE) {
+        messages.addAll(format.messages.read(in));
       } else {
         LOG.error("Response from server failed.");
       }
@@ -139,17 +318,151 @@ public final class View implements BasicView, LogicalView{
     return messages;
   }
 
+  // Get the conversations with the given ids, where "known" holds the copies
+  // from earlier calls. A known copy that is still current is returned as it
+  // is rather than being sent again. Conversations that were not found are
+  // left out.
+  public Map<Uuid, Versioned<Conversation>> getConversations(
+      Collection<Uuid> ids,
+      Map<Uuid, Versioned<Conversation>> known) {
+
+    final WireFormat format = negotiated.get();
+
+    final Map<Uuid, Versioned<Conversation>> found = getIfModified(
+        format,
+        NetworkCode.GET_CONVERSATIONS_IF_MODIFIED_REQUEST,
+        NetworkCode.GET_CONVERSATIONS_IF_MODIFIED_RESPONSE,
+        ids,
+        known,
+        format.conversation);
+
+    if (found != null) {
+      return found;
+    }
+
+    final Map<Uuid, Versioned<Conversation>> all = new LinkedHashMap<>();
+    for (final Conversation conversation : getConversations(ids)) {
+      all.put(conversation.id, new Versioned<>(conversation, Uuid.NULL));
+    }
+    return all;
+  }
+
+  // The same as getConversations(ids, known), but for messages.
+  public Map<Uuid, Versioned<Message>> getMessages(Collection<Uuid> ids,
+                                                   Map<Uuid, Versioned<Message>> known) {
+
+    final WireFormat format = negotiated.get();
+
+    final Map<Uuid, Versioned<Message>> found = getIfModified(
+        format,
+        NetworkCode.GET_MESSAGES_IF_MODIFIED_REQUEST,
+        NetworkCode.GET_MESSAGES_IF_MODIFIED_RESPONSE,
+        ids,
+        known,
+        format.message);
+
+    if (found != null) {
+      return found;
+    }
+
+    final Map<Uuid, Versioned<Message>> all = new LinkedHashMap<>();
+    for (final Message message : getMessages(ids)) {
+      all.put(message.id, new Versioned<>(message, Uuid.NULL));
+    }
+    return all;
+  }
+
+  // Send an IF_MODIFIED request. Returns null if the server does not keep
+  // versions, in which case the caller should get every value.
+  private <T> Map<Uuid, Versioned<T>> getIfModified(WireFormat format,
+                                                    int requestType,
+                                                    int responseType,
+                                                    Collection<Uuid> ids,
+                                                    Map<Uuid, Versioned<T>> known,
+                                                    Serializer<T> serializer) {
+
+    if (!versioning) {
+      return null;
+    }
+
+    final List<Uuid> order = new ArrayList<>(ids);
+
+    try (final Connection connection = source.connect()) {
+
+      format.writeRequestType(connection.out(), requestType);
+      format.uuids.write(connection.out(), order);
+      format.uuids.write(connection.out(), knownVersions(order, known));
+
+      final InputStream in = format.readResponse(connection.in());
+
+      if (format.integer.read(in) != responseType) {
+        LOG.warning("Server does not support versions, getting every value.");
+        versioning = false;
+        return null;
+      }
+
+      return readIfModified(in, format, order, known, serializer);
+
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return new LinkedHashMap<>();
+  }
+
+  // The version of each id that the client already has, or NULL.
+  private static <T> List<Uuid> knownVersions(List<Uuid> ids, Map<Uuid, Versioned<T>> known) {
+    final List<Uuid> versions = new ArrayList<>(ids.size());
+    for (final Uuid id : ids) {
+      final Versioned<T> copy = known.get(id);
+      versions.add(copy == null ? Uuid.NULL : copy.version);
+    }
+    return versions;
+  }
+
+  // The body of an IF_MODIFIED response.
+  private static <T> Map<Uuid, Versioned<T>> readIfModified(InputStream in,
+                                                            WireFormat format,
+                                                            List<Uuid> ids,
+                                                            Map<Uuid, Versioned<T>> known,
+                                                            Serializer<T> serializer)
+      throws IOException {
+
+    final Map<Uuid, Versioned<T>> found = new LinkedHashMap<>();
+
+    for (final Uuid id : ids) {
+
+      final int status = format.integer.read(in);
+
+      if (status == NetworkCode.NOT_MODIFIED && known.containsKey(id)) {
+        found.put(id, known.get(id));
+      } else if (status == NetworkCode.MODIFIED) {
+        final Uuid version = format.uuid.read(in);
+        found.put(id, new Versioned<>(serializer.read(in), version));
+      } else if (status != NetworkCode.NOT_FOUND) {
+        throw new IOException("Unexpected status " + status + " for " + id);
+      }
+    }
+
+    return found;
+  }
+
   @Override
   public Uuid getUserGeneration() {
 
     Uuid generation = Uuid.NULL;
 
+    final WireFormat format = negotiated.get();
+
     try (final Connection connection = source.connect()) {
 
-      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_USER_GENERATION_REQUEST);
+      format.writeRequestType(connection.out(), NetworkCode.GET_USER_GENERATION_REQUEST);
+
+      final InputStream in = format.readResponse(connection.in());
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_USER_GENERATION_RESPONSE) {
-        generation = Uuid.SERIALIZER.read(connection.in());
+      if (format.integer.read(in) == NetworkCode.GET_USER_GENERATION_RESPONSE) {
+        generation = format.uuid.read(in);
       } else {
         LOG.error("Response from server failed");
       }
@@ -166,13 +479,17 @@ public final class View implements BasicView, LogicalView{
 
     final Collection<User> users = new ArrayList<>();
 
+    final WireFormat format = negotiated.get();
+
     try (final Connection connection = source.connect()) {
 
-      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_USERS_EXCLUDING_REQUEST);
-      Serializers.collection(Uuid.SERIALIZER).write(connection.out(), ids);
+      format.writeRequestType(connection.out(), NetworkCode.GET_USERS_EXCLUDING_REQUEST);
+      format.uuids.write(connection.out(), ids);
+
+      final InputStream in = format.readResponse(connection.in());
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_USERS_EXCLUDING_RESPONSE) {
-        users.addAll(Serializers.collection(User.SERIALIZER).read(connection.in()));
+      if (format.integer.read(in) == NetworkCode.GET_USERS_EXCLUDING_RESPONSE) {
+        users.addAll(format.users.read(in));
       } else {
         LOG.error("Response from server failed.");
       }
@@ -189,14 +506,18 @@ public final class View implements BasicView, LogicalView{
 
     final Collection<Conversation> conversations = new ArrayList<>();
 
+    final WireFormat format = negotiated.get();
+
     try (final Connection connection = source.connect()) {
 
-      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_CONVERSATIONS_BY_TIME_REQUEST);
-      Time.SERIALIZER.write(connection.out(), start);
-      Time.SERIALIZER.write(connection.out(), end);
+      format.writeRequestType(connection.out(), NetworkCode.GET_CONVERSATIONS_BY_TIME_REQUEST);
+      format.time.write(connection.out(), start);
+      format.time.write(connection.out(), end);
+
+      final InputStream in = format.readResponse(connection.in());
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_CONVERSATIONS_BY_TIME_RESPONSE) {
-        conversations.addAll(Serializers.collection(Conversation.SERIALIZER).read(connection.in()));
+      if (format.integer.read(in) == NetworkCode.GET_CONVERSATIONS_BY_TIME_RESPONSE) {
+        conversations.addAll(format.conversations.read(in));
       } else {
         LOG.error("Response from server failed.");
       }
@@ -208,18 +529,128 @@ public final class View implements BasicView, LogicalView{
     return conversations;
   }
 
+  // Get one page of all the conversations. Pass null as the cursor to get the
+  // first page, and then the cursor of each page to get the one after it.
+  // Returns null if the server cannot page through conversations.
+  public Page<ConversationSummary> getAllConversationsPage(byte[] cursor, int limit) {
+    final WireFormat format = negotiated.get();
+    return getPage(format,
+                   NetworkCode.GET_ALL_CONVERSATIONS_REQUEST,
+                   NO_BYTES,
+                   format.summary,
+                   cursor,
+                   limit);
+  }
+
+  // Get one page of the users whose ids are not in "ids". See
+  // getAllConversationsPage.
+  public Page<User> getUsersExcludingPage(Collection<Uuid> ids, byte[] cursor, int limit) {
+    final WireFormat format = negotiated.get();
+    return getPage(format,
+                   NetworkCode.GET_USERS_EXCLUDING_REQUEST,
+                   usersExcluding(format, ids),
+                   format.user,
+                   cursor,
+                   limit);
+  }
+
+  // Get one page of the conversations created between start and end. See
+  // getAllConversationsPage.
+  public Page<Conversation> getConversationsPage(Time start, Time end, byte[] cursor, int limit) {
+    final WireFormat format = negotiated.get();
+    return getPage(format,
+                   NetworkCode.GET_CONVERSATIONS_BY_TIME_REQUEST,
+                   byTime(format, start, end),
+                   format.conversation,
+                   cursor,
+                   limit);
+  }
+
+  // Send a GET_PAGE_REQUEST for the query, whose fields are already
+  // serialized, and read the values as they arrive. Returns null if the
+  // server does not answer it.
+  private <T> Page<T> getPage(WireFormat format,
+                              int query,
+                              byte[] fields,
+                              Serializer<T> serializer,
+                              byte[] cursor,
+                              int limit) {
+
+    if (!paging) {
+      return null;
+    }
+
+    try (final Connection connection = source.connect()) {
+
+      format.writeRequestType(connection.out(), NetworkCode.GET_PAGE_REQUEST);
+      format.integer.write(connection.out(), query);
+      connection.out().write(fields);
+      format.bytes.write(connection.out(), cursor == null ? NO_BYTES : cursor);
+      format.integer.write(connection.out(), limit);
+
+      final InputStream in = format.readResponse(connection.in());
+
+      if (format.integer.read(in) != NetworkCode.GET_PAGE_RESPONSE) {
+        LOG.warning("Server does not support paged requests, getting whole collections.");
+        paging = false;
+        return null;
+      }
+
+      final Collection<T> values = new ArrayList<>();
+      while (format.bool.read(in)) {
+        values.add(serializer.read(in));
+      }
+
+      final byte[] next = format.bytes.read(in);
+
+      return new Page<>(values, next.length == 0 ? null : next);
+
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+      return null;
+    }
+  }
+
+  private static byte[] usersExcluding(WireFormat format, Collection<Uuid> ids) {
+    final ByteArrayOutputStream fields = new ByteArrayOutputStream();
+    try {
+      format.uuids.write(fields, ids);
+    } catch (IOException ex) {
+      // Writing to memory does not fail.
+      throw new IllegalStateException(ex);
+    }
+    return fields.toByteArray();
+  }
+
+  private static byte[] byTime(WireFormat format, Time start, Time end) {
+    final ByteArrayOutputStream fields = new ByteArrayOutputStream();
+    try {
+      format.time.write(fields, start);
+      format.time.write(fields, end);
+    } catch (IOException ex) {
+      // Writing to memory does not fail.
+      throw new IllegalStateException(ex);
+    }
+    return fields.toByteArray();
+  }
+
   @Override
   public Collection<Conversation> getConversations(String filter) {
 
     final Collection<Conversation> conversations = new ArrayList<>();
 
+    final WireFormat format = negotiated.get();
+
     try (final Connection connection = source.connect()) {
 
-      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_CONVERSATIONS_BY_TITLE_REQUEST);
-      Serializers.STRING.write(connection.out(), filter);
+      format.writeRequestType(connection.out(), NetworkCode.GET_CONVERSATIONS_BY_TITLE_REQUEST);
+      format.string.write(connection.out(), filter);
+
+      final InputStream in = format.readResponse(connection.in());
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_CONVERSATIONS_BY_TITLE_RESPONSE) {
-        conversations.addAll(Serializers.collection(Conversation.SERIALIZER).read(connection.in()));
+      if (format.integer.read(in) == NetworkCode.GET_CONVERSATIONS_BY_TITLE_RESPONSE) {
+        conversations.addAll(format.conversations.read(in));
       } else {
         LOG.error("Response from server failed.");
       }
@@ -236,14 +667,19 @@ public final class View implements BasicView, LogicalView{
 
     final Collection<Message> messages = new ArrayList<>();
 
+    final WireFormat format = negotiated.get();
+
     try (final Connection connection = source.connect()) {
 
-      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_MESSAGES_BY_TIME_REQUEST);
-      Time.SERIALIZER.write(connection.out(), start);
-      Time.SERIALIZER.write(connection.out(), end);
+      format.writeRequestType(connection.out(), NetworkCode.GET_MESSAGES_BY_TIME_REQUEST);
+      format.uuid.write(connection.out(), conversation);
+      format.time.write(connection.out(), start);
+      format.time.write(connection.out(), end);
+
+      final InputStream in = format.readResponse(connection.in());
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_MESSAGES_BY_TIME_RESPONSE) {
-        messages.addAll(Serializers.collection(Message.SERIALIZER).read(connection.in()));
+      if (format.integer.read(in) == NetworkCode.GET_MESSAGES_BY_TIME_RESPONSE) {
+        messages.addAll(format.messages.read(in));
       } else {
         LOG.error("Response from server failed.");
       }
@@ -261,14 +697,18 @@ public final class View implements BasicView, LogicalView{
 
     final Collection<Message> messages = new ArrayList<>();
 
+    final WireFormat format = negotiated.get();
+
     try (final Connection connection = source.connect()) {
 
-      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_MESSAGES_BY_RANGE_REQUEST);
-      Uuid.SERIALIZER.write(connection.out(), rootMessage);
-      Serializers.INTEGER.write(connection.out(), range);
+      format.writeRequestType(connection.out(), NetworkCode.GET_MESSAGES_BY_RANGE_REQUEST);
+      format.uuid.write(connection.out(), rootMessage);
+      format.integer.write(connection.out(), range);
+
+      final InputStream in = format.readResponse(connection.in());
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_MESSAGES_BY_RANGE_RESPONSE) {
-        messages.addAll(Serializers.collection(Message.SERIALIZER).read(connection.in()));
+      if (format.integer.read(in) == NetworkCode.GET_MESSAGES_BY_RANGE_RESPONSE) {
+        messages.addAll(format.messages.read(in));
       } else {
         LOG.error("Response from server failed.");
       }
@@ -280,4 +720,497 @@ public final class View implements BasicView, LogicalView{
 
     return messages;
   }
+
+  @Override
+  public Collection<User> findUsersByPrefix(String prefix, int limit) {
+
+    final Collection<User> found = new ArrayList<>();
+
+    final WireFormat format = negotiated.get();
+
+    try (final Connection connection = source.connect()) {
+
+      format.writeRequestType(connection.out(), NetworkCode.FIND_USERS_BY_PREFIX_REQUEST);
+      format.string.write(connection.out(), prefix);
+      format.integer.write(connection.out(), limit);
+
+      final InputStream in = format.readResponse(connection.in());
+
+      if (format.integer.read(in) == NetworkCode.FIND_USERS_BY_PREFIX_RESPONSE) {
+        found.addAll(format.users.read(in));
+      } else {
+        LOG.error("Response from server failed.");
+      }
+
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return found;
+  }
+
+  @Override
+  public Collection<ConversationSummary> findConversationsByPrefix(String prefix, int limit) {
+
+    final Collection<ConversationSummary> found = new ArrayList<>();
+
+    final WireFormat format = negotiated.get();
+
+    try (final Connection connection = source.connect()) {
+
+      format.writeRequestType(connection.out(), NetworkCode.FIND_CONVERSATIONS_BY_PREFIX_REQUEST);
+      format.string.write(connection.out(), prefix);
+      format.integer.write(connection.out(), limit);
+
+      final InputStream in = format.readResponse(connection.in());
+
+      if (format.integer.read(in) == NetworkCode.FIND_CONVERSATIONS_BY_PREFIX_RESPONSE) {
+        found.addAll(format.summaries.read(in));
+      } else {
+        LOG.error("Response from server failed.");
+      }
+
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return found;
+  }
+
+  @Override
+  public Collection<Message> searchMessages(String query,
+                                            Collection<Uuid> conversations,
+                                            Time start,
+                                            Time end,
+                                            int limit) {
+
+    final Collection<Message> messages = new ArrayList<>();
+
+    final WireFormat format = negotiated.get();
+
+    try (final Connection connection = source.connect()) {
+
+      format.writeRequestType(connection.out(), NetworkCode.SEARCH_MESSAGES_REQUEST);
+      format.string.write(connection.out(), query);
+      format.bool.write(connection.out(), conversations == null);
+      format.uuids.write(connection.out(),
+                         conversations == null ? Collections.<Uuid>emptyList() : conversations);
+      format.time.write(connection.out(), start);
+      format.time.write(connection.out(), end);
+      format.integer.write(connection.out(), limit);
+
+      final InputStream in = format.readResponse(connection.in());
+
+      if (format.integer.read(in) == NetworkCode.SEARCH_MESSAGES_RESPONSE) {
+        messages.addAll(format.messages.read(in));
+      } else {
+        LOG.error("Response from server failed.");
+      }
+
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return messages;
+  }
+
+  // Get the messages of each conversation that were created between start and
+  // end. All the requests are sent before any response is read. Conversations
+  // that could not be read map to an empty collection.
+  public Map<Uuid, Collection<Message>> getMessages(Collection<Uuid> conversations,
+                                                    Time start,
+                                                    Time end) {
+
+    final Map<Uuid, Collection<Message>> messages = new LinkedHashMap<>();
+    final List<Uuid> ids = new ArrayList<>(conversations);
+    final WireFormat format = negotiated.get();
+
+    try {
+
+      final List<byte[]> requests = new ArrayList<>();
+      for (final Uuid id : ids) {
+        final ByteArrayOutputStream request = new ByteArrayOutputStream();
+        format.writeRequestType(request, NetworkCode.GET_MESSAGES_BY_TIME_REQUEST);
+        format.uuid.write(request, id);
+        format.time.write(request, start);
+        format.time.write(request, end);
+        requests.add(request.toByteArray());
+      }
+
+      final List<byte[]> responses = pipeline(requests);
+
+      for (int i = 0; i < ids.size(); i++) {
+
+        messages.put(ids.get(i), responses == null ?
+            getMessages(ids.get(i), start, end) :
+            readResponse(responses.get(i),
+                         format,
+                         NetworkCode.GET_MESSAGES_BY_TIME_RESPONSE,
+                         format.messages,
+                         new ArrayList<Message>()));
+      }
+
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return messages;
+  }
+
+  // Send each request as a framed request on a single connection and return
+  // the responses in the same order as the requests, however the server
+  // ordered them. Returns null if the requests could not be pipelined, in
+  // which case the caller should send them one at a time. Only a server that
+  // answers NO_MESSAGE is never asked to pipeline again, as any other failure
+  // may just be this connection.
+  private List<byte[]> pipeline(List<byte[]> requests) throws IOException {
+
+    if (!pipelining) {
+      return null;
+    }
+
+    final byte[][] responses = new byte[requests.size()][];
+
+    try (final Connection connection = source.connect()) {
+
+      try {
+
+        // Responses are read as requests are sent, so that no more than
+        // PIPELINE_WINDOW of them are ever waiting. If every request were
+        // sent first, a server that answers while it reads could fill both
+        // sides' buffers and leave each end waiting for the other to read.
+        int sent = 0;
+        int received = 0;
+
+        while (received < requests.size()) {
+
+          if (sent < requests.size() && sent - received < PIPELINE_WINDOW) {
+            Serializers.INTEGER.write(connection.out(), NetworkCode.FRAMED_REQUEST);
+            Serializers.INTEGER.write(connection.out(), sent);
+            Serializers.BYTES.write(connection.out(), requests.get(sent));
+            sent += 1;
+            continue;
+          }
+
+          final int type = Serializers.INTEGER.read(connection.in());
+
+          if (type == NetworkCode.NO_MESSAGE) {
+            LOG.warning("Server does not support framed requests, sending requests one at a time.");
+            pipelining = false;
+            return null;
+          }
+
+          if (type != NetworkCode.FRAMED_RESPONSE) {
+            throw new IOException("Unexpected response type " + type);
+          }
+
+          final int correlationId = Serializers.INTEGER.read(connection.in());
+
+          if (correlationId < 0 || correlationId >= sent || responses[correlationId] != null) {
+            throw new IOException("Unknown correlation id " + correlationId);
+          }
+
+          responses[correlationId] = Serializers.BYTES.read(connection.in());
+          received += 1;
+        }
+      } catch (IOException ex) {
+        LOG.warning("Pipelined requests failed, sending them one at a time: %s", ex);
+        return null;
+      }
+    }
+
+    return Arrays.asList(responses);
+  }
+
+  // Get all the users, the conversations added since "generation" (see
+  // getConversationsSince) and (if "conversation" is not null) that
+  // conversation and its messages created at or after "since". All of this is
+  // asked for in one batch request.
+  public Refresh refresh(Uuid generation, Uuid conversation, Time since) {
+    return refresh(generation, conversation, null, since);
+  }
+
+  // The same as refresh(generation, conversation, since), but "known" is the
+  // copy of the conversation the client already has (or null), which the
+  // server does not send again if it is still current.
+  public Refresh refresh(Uuid generation,
+                         Uuid conversation,
+                         Versioned<Conversation> known,
+                         Time since) {
+
+    Collection<User> users = new ArrayList<>();
+    ConversationUpdate update = null;
+    Versioned<Conversation> found = null;
+    Collection<Message> messages = new ArrayList<>();
+
+    // Only the batch as a whole is compressed, not the requests in it.
+    final WireFormat batchFormat = negotiated.get();
+    final WireFormat format = batchFormat.withCompression(false);
+
+    final boolean versioned = versioning;
+    final List<Uuid> ids = Arrays.asList(conversation);
+    final Map<Uuid, Versioned<Conversation>> knownById = known == null ?
+        Collections.<Uuid, Versioned<Conversation>>emptyMap() :
+        Collections.singletonMap(conversation, known);
+
+    try {
+
+      final List<byte[]> requests = new ArrayList<>();
+
+      ByteArrayOutputStream request = new ByteArrayOutputStream();
+      format.writeRequestType(request, NetworkCode.GET_USERS_EXCLUDING_REQUEST);
+      format.uuids.write(request, EMPTY);
+      requests.add(request.toByteArray());
+
+      request = new ByteArrayOutputStream();
+      format.writeRequestType(request, NetworkCode.GET_CONVERSATIONS_SINCE_REQUEST);
+      format.uuid.write(request, generation);
+      requests.add(request.toByteArray());
+
+      if (conversation != null) {
+
+        request = new ByteArrayOutputStream();
+        if (versioned) {
+          format.writeRequestType(request, NetworkCode.GET_CONVERSATIONS_IF_MODIFIED_REQUEST);
+          format.uuids.write(request, ids);
+          format.uuids.write(request, knownVersions(ids, knownById));
+        } else {
+          format.writeRequestType(request, NetworkCode.GET_CONVERSATIONS_BY_ID_REQUEST);
+          format.uuids.write(request, ids);
+        }
+        requests.add(request.toByteArray());
+
+        request = new ByteArrayOutputStream();
+        format.writeRequestType(request, NetworkCode.GET_MESSAGES_BY_TIME_REQUEST);
+        format.uuid.write(request, conversation);
+        format.time.write(request, since);
+        format.time.write(request, Time.fromMs(Long.MAX_VALUE));
+        requests.add(request.toByteArray());
+      }
+
+      final List<byte[]> responses = batch(requests, batchFormat);
+
+      if (responses == null) {
+
+        users = getUsersExcluding(EMPTY);
+        update = getConversationsSince(generation);
+
+        if (conversation != null) {
+          found = getConversations(ids, knownById).get(conversation);
+          messages = getMessages(conversation, since, Time.fromMs(Long.MAX_VALUE));
+        }
+
+      } else {
+
+        users = readResponse(responses.get(0),
+                             format,
+                             NetworkCode.GET_USERS_EXCLUDING_RESPONSE,
+                             format.users,
+                             users);
+
+        update = readResponse(responses.get(1),
+                              format,
+                              NetworkCode.GET_CONVERSATIONS_SINCE_RESPONSE,
+                              conversationUpdate(format),
+                              null);
+
+        if (conversation != null) {
+
+          if (versioned) {
+
+            Map<Uuid, Versioned<Conversation>> current = readIfModified(
+                responses.get(2),
+                format,
+                NetworkCode.GET_CONVERSATIONS_IF_MODIFIED_RESPONSE,
+                ids,
+                knownById,
+                format.conversation);
+
+            if (current == null) {
+              // The server rejected the request or does not keep versions.
+              current = getConversations(ids, knownById);
+            }
+
+            found = current.get(conversation);
+
+          } else {
+
+            for (final Conversation c : readResponse(responses.get(2),
+                                                     format,
+                                                     NetworkCode.GET_CONVERSATIONS_BY_ID_RESPONSE,
+                                                     format.conversations,
+                                                     new ArrayList<Conversation>())) {
+              found = new Versioned<>(c, Uuid.NULL);
+            }
+          }
+
+          messages = readResponse(responses.get(3),
+                                  format,
+                                  NetworkCode.GET_MESSAGES_BY_TIME_RESPONSE,
+                                  format.messages,
+                                  messages);
+        }
+      }
+
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    if (update == null) {
+      // The batch failed, or the server does not know conversation
+      // generations.
+      update = getConversationsSince(generation);
+    }
+
+    if (found == null) {
+      return new Refresh(users, update, null, Uuid.NULL, new ArrayList<Message>());
+    }
+
+    return new Refresh(users, update, found.value, found.version, messages);
+  }
+
+  // Subscribe to the new messages of the given conversations, or of every
+  // conversation if "conversations" is null, and to every new conversation.
+  // The subscription has a connection of its own for as long as it is open.
+  // Returns null if the server does not push events.
+  public Subscription subscribe(Collection<Uuid> conversations, Subscription.Listener listener) {
+
+    // Events are pushed one at a time, so there is nothing to compress.
+    final WireFormat format = negotiated.get().withCompression(false);
+
+    Connection connection = null;
+
+    try {
+
+      connection = source instanceof ConnectionPool ?
+          ((ConnectionPool) source).connectUnpooled() :
+          source.connect();
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.SUBSCRIBE_REQUEST);
+      Serializers.INTEGER.write(connection.out(), format.version);
+      format.bool.write(connection.out(), conversations == null);
+      format.uuids.write(connection.out(), conversations == null ? EMPTY : conversations);
+
+      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.SUBSCRIBE_RESPONSE) {
+        final WireFormat pushed = WireFormat.forVersion(Serializers.INTEGER.read(connection.in()));
+        return new Subscription(connection, pushed, listener);
+      }
+
+      LOG.warning("Server does not push events.");
+
+    } catch (Exception ex) {
+      LOG.error(ex, "Exception while subscribing.");
+    }
+
+    if (connection != null) {
+      try {
+        connection.close();
+      } catch (IOException ex) {
+        LOG.error(ex, "Exception while closing connection.");
+      }
+    }
+
+    return null;
+  }
+
+  // Send all the requests in one batch request and return the responses in
+  // the same order. Returns null if the server does not answer batch
+  // requests, in which case the caller should send the requests one at a time.
+  private List<byte[]> batch(List<byte[]> requests, WireFormat format) throws IOException {
+
+    if (!batching) {
+      return null;
+    }
+
+    try (final Connection connection = source.connect()) {
+
+      format.writeEnvelopeType(connection.out(), NetworkCode.BATCH_REQUEST);
+      Serializers.collection(Serializers.BYTES).write(connection.out(), requests);
+
+      final InputStream in = format.readResponse(connection.in());
+
+      if (Serializers.INTEGER.read(in) != NetworkCode.BATCH_RESPONSE) {
+        LOG.warning("Server does not support batch requests, sending requests one at a time.");
+        batching = false;
+        return null;
+      }
+
+      final List<byte[]> responses =
+          new ArrayList<>(Serializers.collection(Serializers.BYTES).read(in));
+
+      if (responses.size() != requests.size()) {
+        throw new IOException(String.format(
+            "Expected %d responses but got %d", requests.size(), responses.size()));
+      }
+
+      return responses;
+    }
+  }
+
+  // The body of a GET_CONVERSATIONS_SINCE_RESPONSE.
+  private static Serializer<ConversationUpdate> conversationUpdate(final WireFormat format) {
+
+    return new Serializer<ConversationUpdate>() {
+
+      @Override
+      public void write(OutputStream out, ConversationUpdate value) throws IOException {
+        format.uuid.write(out, value.generation);
+        format.bool.write(out, value.complete);
+        format.summaries.write(out, value.conversations);
+      }
+
+      @Override
+      public ConversationUpdate read(InputStream in) throws IOException {
+        return new ConversationUpdate(
+            format.uuid.read(in),
+            format.bool.read(in),
+            format.summaries.read(in)
+        );
+      }
+    };
+  }
+
+  // Read an IF_MODIFIED response of a batch. Returns null if the server
+  // rejected the request or does not keep versions.
+  private static <T> Map<Uuid, Versioned<T>> readIfModified(byte[] response,
+                                                            WireFormat format,
+                                                            int type,
+                                                            List<Uuid> ids,
+                                                            Map<Uuid, Versioned<T>> known,
+                                                            Serializer<T> serializer)
+      throws IOException {
+
+    if (response.length > 0) {
+      final InputStream in = format.readResponse(new ByteArrayInputStream(response));
+      if (format.integer.read(in) == type) {
+        return readIfModified(in, format, ids, known, serializer);
+      }
+    }
+
+    return null;
+  }
+
+  // Read one response of a batch or pipeline. Returns "otherwise" if the
+  // server rejected the request.
+  private static <T> T readResponse(byte[] response,
+                                    WireFormat format,
+                                    int type,
+                                    Serializer<T> serializer,
+                                    T otherwise) throws IOException {
+
+    if (response.length > 0) {
+      final InputStream in = format.readResponse(new ByteArrayInputStream(response));
+      if (format.integer.read(in) == type) {
+        return serializer.read(in);
+      }
+    }
+
+    LOG.error("Response from server failed.");
+    return otherwise;
+  }
 }
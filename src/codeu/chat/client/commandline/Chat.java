@@ -21,6 +21,7 @@ import codeu.chat.client.Controller;
 import codeu.chat.client.View;
 import codeu.chat.common.ConversationSummary;
 import codeu.chat.util.Logger;
+import codeu.chat.util.Time;
 
 // Chat - top-level client application.
 public final class Chat {
@@ -66,6 +67,7 @@ public final class Chat {
     System.out.println("   m-list-all       - list all messages in the current conversation.");
     System.out.println("   m-next <index>   - index of next message to view.");
     System.out.println("   m-show <count>   - show next <count> messages.");
+    System.out.println("   m-recent <minutes> - show messages from the last <minutes> in every conversation.");
   }
 
   // Prompt for new command.
@@ -248,6 +250,12 @@ public final class Chat {
         clientContext.message.showMessages(count);
       }
 
+    } else if (token.equals("m-recent")) {
+
+      final int minutes = (tokenScanner.hasNextInt()) ? tokenScanner.nextInt() : 60;
+      clientContext.showRecentMessages(
+          Time.fromMs(System.currentTimeMillis() - minutes * 60L * 1000L));
+
     } else {
 
       System.out.format("Command not recognized: %s\n", token);
@@ -20,8 +20,12 @@ import javax.swing.border.Border;
 
 import codeu.chat.client.ClientContext;
 import codeu.chat.client.Controller;
+import codeu.chat.client.Subscription;
 import codeu.chat.client.View;
+import codeu.chat.common.ConversationSummary;
+import codeu.chat.common.Message;
 import codeu.chat.util.Logger;
+import codeu.chat.util.Uuid;
 
 // Chat - top-level client application - Java Simple GUI (using Java Swing)
 public final class ChatSimpleGui {
@@ -31,10 +35,12 @@ public final class ChatSimpleGui {
   private JFrame mainFrame;
 
   private final ClientContext clientContext;
+  private final View view;
 
   // Constructor - sets up the Chat Application
   public ChatSimpleGui(Controller controller, View view) {
     clientContext = new ClientContext(controller, view);
+    this.view = view;
   }
 
   // Run the GUI client
@@ -81,7 +87,8 @@ public final class ChatSimpleGui {
     final GridBagConstraints messagesViewC = new GridBagConstraints();
 
     // ConversationsPanel gets access to MessagesPanel
-    final JPanel conversationsViewPanel = new ConversationPanel(clientContext, messagesViewPanel);
+    final ConversationPanel conversationsViewPanel =
+        new ConversationPanel(clientContext, messagesViewPanel);
     conversationsViewPanel.setBorder(paneBorder());
     final GridBagConstraints conversationViewC = new GridBagConstraints();
 
@@ -115,5 +122,48 @@ public final class ChatSimpleGui {
 
     mainFrame.add(mainViewPanel);
     mainFrame.pack();
+
+    subscribe(conversationsViewPanel, messagesViewPanel);
+  }
+
+  // Have the server push new conversations and messages so that the panels
+  // show them without the user having to ask. Events arrive on the
+  // subscription's thread and are handed to the Swing thread.
+  private void subscribe(final ConversationPanel conversationsViewPanel,
+                         final MessagePanel messagesViewPanel) {
+
+    final Subscription subscription = view.subscribe(null, new Subscription.Listener() {
+
+      @Override
+      public void onMessage(final Uuid conversation, Message message) {
+        SwingUtilities.invokeLater(new Runnable() {
+          @Override
+          public void run() {
+            if (conversation.equals(clientContext.conversation.getCurrentId())) {
+              messagesViewPanel.update(clientContext.conversation.getCurrent());
+            }
+          }
+        });
+      }
+
+      @Override
+      public void onConversation(ConversationSummary conversation) {
+        SwingUtilities.invokeLater(new Runnable() {
+          @Override
+          public void run() {
+            conversationsViewPanel.update();
+          }
+        });
+      }
+
+      @Override
+      public void onClosed() {
+        LOG.info("Server stopped pushing updates.");
+      }
+    });
+
+    if (subscription == null) {
+      LOG.info("Server does not push updates.");
+    }
   }
 }
@@ -17,6 +17,7 @@ package codeu.chat.client.simplegui;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.util.Collection;
 import javax.swing.*;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
@@ -32,6 +33,8 @@ public final class ConversationPanel extends JPanel {
   private final ClientContext clientContext;
   private final MessagePanel messagePanel;
 
+  private final DefaultListModel<String> listModel = new DefaultListModel<>();
+
   public ConversationPanel(ClientContext clientContext, MessagePanel messagePanel) {
     super(new GridBagLayout());
     this.clientContext = clientContext;
@@ -39,6 +42,11 @@ public final class ConversationPanel extends JPanel {
     initialize();
   }
 
+  // External agent calls this to trigger an update of this panel's contents.
+  public void update() {
+    getAllConversations(listModel);
+  }
+
   private void initialize() {
 
     // This panel contains from top to bottom: a title bar,
@@ -59,7 +67,6 @@ public final class ConversationPanel extends JPanel {
     final JPanel listShowPanel = new JPanel();
     final GridBagConstraints listPanelC = new GridBagConstraints();
 
-    final DefaultListModel<String> listModel = new DefaultListModel<>();
     final JList<String> objectList = new JList<>(listModel);
     objectList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
     objectList.setVisibleRowCount(15);
@@ -75,10 +82,12 @@ public final class ConversationPanel extends JPanel {
 
     final JButton updateButton = new JButton("Update");
     final JButton addButton = new JButton("Add");
+    final JButton joinButton = new JButton("Join");
 
     updateButton.setAlignmentX(Component.LEFT_ALIGNMENT);
     buttonPanel.add(updateButton);
     buttonPanel.add(addButton);
+    buttonPanel.add(joinButton);
 
     // Put panels together
     titlePanelC.gridx = 0;
@@ -135,6 +144,25 @@ public final class ConversationPanel extends JPanel {
       }
     });
 
+    // User clicks Conversations Join button - find a conversation by the start
+    // of its title, set it to current and fill in Messages panel.
+    joinButton.addActionListener(new ActionListener() {
+      @Override
+      public void actionPerformed(ActionEvent e) {
+        final String prefix = (String) JOptionPane.showInputDialog(
+            ConversationPanel.this, "Enter the start of a title:", "Join Conversation",
+            JOptionPane.PLAIN_MESSAGE, null, null, "");
+        if (prefix != null) {
+          final ConversationSummary cs = ConversationPanel.this.choose(
+              clientContext.conversation.findConversations(prefix));
+          if (cs != null) {
+            clientContext.conversation.setCurrent(cs);
+            messagePanel.update(cs);
+          }
+        }
+      }
+    });
+
     // User clicks on Conversation - Set Conversation to current and fill in Messages panel.
     objectList.addListSelectionListener(new ListSelectionListener() {
       @Override
@@ -157,7 +185,7 @@ public final class ConversationPanel extends JPanel {
   // Populate ListModel - updates display objects.
   private void getAllConversations(DefaultListModel<String> convDisplayList) {
 
-    clientContext.conversation.updateAllConversations(false);
+    clientContext.refresh();
     convDisplayList.clear();
 
     for (final ConversationSummary conv : clientContext.conversation.getConversationSummaries()) {
@@ -165,6 +193,39 @@ public final class ConversationPanel extends JPanel {
     }
   }
 
+  // Let the user pick one of the conversations found by a lookup. Returns
+  // null if none were found or the user cancels.
+  private ConversationSummary choose(Collection<ConversationSummary> found) {
+
+    if (found.isEmpty()) {
+      JOptionPane.showMessageDialog(this, "No conversation titles start with that.");
+      return null;
+    }
+
+    final ConversationSummary[] summaries = found.toArray(new ConversationSummary[found.size()]);
+
+    if (summaries.length == 1) {
+      return summaries[0];
+    }
+
+    final String[] titles = new String[summaries.length];
+    for (int i = 0; i < summaries.length; i++) {
+      titles[i] = summaries[i].title;
+    }
+
+    final Object chosen = JOptionPane.showInputDialog(
+        this, "Choose a conversation:", "Join Conversation", JOptionPane.PLAIN_MESSAGE,
+        null, titles, titles[0]);
+
+    // Compare by identity, as titles can be the same.
+    for (int i = 0; i < titles.length; i++) {
+      if (titles[i] == chosen) {
+        return summaries[i];
+      }
+    }
+    return null;
+  }
+
   // Locate the Conversation object for a selected title string.
   // index handles possible duplicate titles.
   private ConversationSummary lookupByTitle(String title, int index) {
@@ -46,6 +46,9 @@ public final class MessagePanel extends JPanel {
   // External agent calls this to trigger an update of this panel's contents.
   public void update(ConversationSummary owningConversation) {
 
+    // Fetch the owner, the authors and the messages in one call.
+    clientContext.refresh();
+
     final User u = (owningConversation == null) ?
         null :
         clientContext.user.lookup(owningConversation.owner);
@@ -196,7 +199,7 @@ public final class MessagePanel extends JPanel {
       // Display author name if available.  Otherwise display the author UUID.
       final String authorName = clientContext.user.getName(m.author);
       //Convert the message to an HTML message so that multi-line messages are possible. 
-      String content_html = m.content.replace("\n", "<br>") + "<br>";
+      String content_html = m.content().replace("\n", "<br>") + "<br>";
       String author_html = (authorName == null) ? m.author.toString() + "<br>" : authorName + "<br>";
       String displayString = "<html>" + author_html + m.creation + "<br>" + content_html + "<br></html>";
   
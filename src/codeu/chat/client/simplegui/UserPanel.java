@@ -17,11 +17,13 @@ package codeu.chat.client.simplegui;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.util.Collection;
 import javax.swing.*;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
 
 import codeu.chat.client.ClientContext;
+import codeu.chat.client.ClientUser;
 import codeu.chat.common.User;
 
 // NOTE: JPanel is serializable, but there is no need to serialize UserPanel
@@ -102,6 +104,7 @@ public final class UserPanel extends JPanel {
     final JButton userAddButton = new JButton("Add");
     final JButton userDeleteButton = new JButton("Delete");
     final JButton userChangeNameButton = new JButton("Change Username");
+    final JButton userFindButton = new JButton("Find");
 
     buttonPanel.add(userUpdateButton);
     buttonPanel.add(userSignInButton);
@@ -109,6 +112,7 @@ public final class UserPanel extends JPanel {
     buttonPanel.add(userAddButton);
     buttonPanel.add(userDeleteButton);
     buttonPanel.add(userChangeNameButton);
+    buttonPanel.add(userFindButton);
 
     // Placement of title, list panel, buttons, and current user panel.
     titlePanelC.gridx = 0;
@@ -231,6 +235,23 @@ public final class UserPanel extends JPanel {
       }
     });
 
+    userFindButton.addActionListener(new ActionListener() {
+      @Override
+      public void actionPerformed(ActionEvent e) {
+        final String prefix = (String) JOptionPane.showInputDialog(
+            UserPanel.this, "Enter the start of a username:", "Find User",
+            JOptionPane.PLAIN_MESSAGE, null, null, "");
+        if (prefix != null) {
+          final User user = UserPanel.this.choose(clientContext.user.findUsers(prefix));
+          if (user != null) {
+            // Select the user if the list has them, which shows their info.
+            userList.setSelectedValue(user.name, true);
+            userInfoPanel.setText(ClientUser.getUserInfoString(user));
+          }
+        }
+      }
+    });
+
     userList.addListSelectionListener(new ListSelectionListener() {
       @Override
       public void valueChanged(ListSelectionEvent e) {
@@ -244,6 +265,37 @@ public final class UserPanel extends JPanel {
     getAllUsers(listModel);
   }
 
+  // Let the user pick one of the users found by a lookup. Returns null if
+  // none were found or the user cancels.
+  private User choose(Collection<User> found) {
+
+    if (found.isEmpty()) {
+      JOptionPane.showMessageDialog(this, "No usernames start with that.");
+      return null;
+    }
+
+    final User[] users = found.toArray(new User[found.size()]);
+
+    if (users.length == 1) {
+      return users[0];
+    }
+
+    final String[] names = new String[users.length];
+    for (int i = 0; i < users.length; i++) {
+      names[i] = users[i].name;
+    }
+
+    final Object chosen = JOptionPane.showInputDialog(
+        this, "Choose a user:", "Find User", JOptionPane.PLAIN_MESSAGE, null, names, names[0]);
+
+    for (int i = 0; i < names.length; i++) {
+      if (names[i] == chosen) {
+        return users[i];
+      }
+    }
+    return null;
+  }
+
   // Takes in dialog message as argument, returns password as string
   private String getPasswordFromDialog(String prompt) {
     JTextField passwordField = new JPasswordField();
@@ -262,7 +314,7 @@ public final class UserPanel extends JPanel {
 
   // Swing UI: populate ListModel object - updates display objects.
   private void getAllUsers(DefaultListModel<String> usersList) {
-    clientContext.user.updateUsers();
+    clientContext.refresh();
     usersList.clear();
 
     for (final User u : clientContext.user.getUsers()) {
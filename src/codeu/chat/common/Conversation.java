@@ -17,9 +17,12 @@ package codeu.chat.common;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.HashSet;
 
+import codeu.chat.util.BufferSerializer;
+import codeu.chat.util.BufferSerializers;
 import codeu.chat.util.Serializer;
 import codeu.chat.util.Serializers;
 import codeu.chat.util.Time;
@@ -62,6 +65,55 @@ public final class Conversation {
     }
   };
 
+  public static final BufferSerializer<Conversation> BUFFER_SERIALIZER =
+      new BufferSerializer<Conversation>() {
+
+    @Override
+    public int size(Conversation value) {
+
+      return Uuid.BUFFER_SERIALIZER.size(value.id) +
+             Uuid.BUFFER_SERIALIZER.size(value.owner) +
+             Time.BUFFER_SERIALIZER.size(value.creation) +
+             BufferSerializers.STRING.size(value.title) +
+             BufferSerializers.collection(Uuid.BUFFER_SERIALIZER).size(value.users) +
+             Uuid.BUFFER_SERIALIZER.size(value.firstMessage) +
+             Uuid.BUFFER_SERIALIZER.size(value.lastMessage);
+
+    }
+
+    @Override
+    public void write(ByteBuffer buffer, Conversation value) {
+
+      Uuid.BUFFER_SERIALIZER.write(buffer, value.id);
+      Uuid.BUFFER_SERIALIZER.write(buffer, value.owner);
+      Time.BUFFER_SERIALIZER.write(buffer, value.creation);
+      BufferSerializers.STRING.write(buffer, value.title);
+      BufferSerializers.collection(Uuid.BUFFER_SERIALIZER).write(buffer, value.users);
+      Uuid.BUFFER_SERIALIZER.write(buffer, value.firstMessage);
+      Uuid.BUFFER_SERIALIZER.write(buffer, value.lastMessage);
+
+    }
+
+    @Override
+    public Conversation read(ByteBuffer buffer) throws IOException {
+
+      final Conversation value = new Conversation(
+          Uuid.BUFFER_SERIALIZER.read(buffer),
+          Uuid.BUFFER_SERIALIZER.read(buffer),
+          Time.BUFFER_SERIALIZER.read(buffer),
+          BufferSerializers.STRING.read(buffer)
+      );
+
+      value.users.addAll(BufferSerializers.collection(Uuid.BUFFER_SERIALIZER).read(buffer));
+
+      value.firstMessage = Uuid.BUFFER_SERIALIZER.read(buffer);
+      value.lastMessage = Uuid.BUFFER_SERIALIZER.read(buffer);
+
+      return value;
+
+    }
+  };
+
   public final ConversationSummary summary;
 
   public final Uuid id;
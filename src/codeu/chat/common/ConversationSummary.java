@@ -17,7 +17,10 @@ package codeu.chat.common;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
+import codeu.chat.util.BufferSerializer;
+import codeu.chat.util.BufferSerializers;
 import codeu.chat.util.Serializer;
 import codeu.chat.util.Serializers;
 import codeu.chat.util.Time;
@@ -50,6 +53,42 @@ public final class ConversationSummary implements ListViewable {
     }
   };
 
+  public static final BufferSerializer<ConversationSummary> BUFFER_SERIALIZER =
+      new BufferSerializer<ConversationSummary>() {
+
+    @Override
+    public int size(ConversationSummary value) {
+
+      return Uuid.BUFFER_SERIALIZER.size(value.id) +
+             Uuid.BUFFER_SERIALIZER.size(value.owner) +
+             Time.BUFFER_SERIALIZER.size(value.creation) +
+             BufferSerializers.STRING.size(value.title);
+
+    }
+
+    @Override
+    public void write(ByteBuffer buffer, ConversationSummary value) {
+
+      Uuid.BUFFER_SERIALIZER.write(buffer, value.id);
+      Uuid.BUFFER_SERIALIZER.write(buffer, value.owner);
+      Time.BUFFER_SERIALIZER.write(buffer, value.creation);
+      BufferSerializers.STRING.write(buffer, value.title);
+
+    }
+
+    @Override
+    public ConversationSummary read(ByteBuffer buffer) throws IOException {
+
+      return new ConversationSummary(
+          Uuid.BUFFER_SERIALIZER.read(buffer),
+          Uuid.BUFFER_SERIALIZER.read(buffer),
+          Time.BUFFER_SERIALIZER.read(buffer),
+          BufferSerializers.STRING.read(buffer)
+      );
+
+    }
+  };
+
   public final Uuid id;
   public final Uuid owner;
   public final Time creation;
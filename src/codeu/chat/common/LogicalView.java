@@ -69,4 +69,31 @@ public interface LogicalView {
   //   no messages will be returned.
   Collection<Message> getMessages(Uuid rootMessage, int range);
 
+  // FIND USERS BY PREFIX
+  //
+  //   Get the users whose names start with the prefix, ignoring case, in
+  //   order of their names. At most |limit| users are returned (the server
+  //   may return fewer).
+  Collection<User> findUsersByPrefix(String prefix, int limit);
+
+  // FIND CONVERSATIONS BY PREFIX
+  //
+  //   Get the summaries of the conversations whose titles start with the
+  //   prefix, ignoring case, in order of their titles. At most |limit|
+  //   conversations are returned (the server may return fewer).
+  Collection<ConversationSummary> findConversationsByPrefix(String prefix, int limit);
+
+  // SEARCH MESSAGES
+  //
+  //   Get the newest messages that contain every word of the query, ignoring
+  //   case, and that were created between the start and end times. Only
+  //   messages in the given conversations are searched, or in every
+  //   conversation if the collection is null. At most |limit| messages are
+  //   returned (the server may return fewer), oldest first.
+  Collection<Message> searchMessages(String query,
+                                     Collection<Uuid> conversations,
+                                     Time start,
+                                     Time end,
+                                     int limit);
+
 }
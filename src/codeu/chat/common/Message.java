@@ -17,7 +17,13 @@ package codeu.chat.common;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
+import codeu.chat.util.BufferSerializer;
+import codeu.chat.util.BufferSerializers;
+import codeu.chat.util.ByteBufferOutputStream;
+import codeu.chat.util.CompactSerializers;
 import codeu.chat.util.Serializer;
 import codeu.chat.util.Serializers;
 import codeu.chat.util.Time;
@@ -35,7 +41,7 @@ public final class Message {
       Uuid.SERIALIZER.write(out, value.previous);
       Time.SERIALIZER.write(out, value.creation);
       Uuid.SERIALIZER.write(out, value.author);
-      Serializers.STRING.write(out, value.content);
+      value.writeContent(out, false);
 
     }
 
@@ -54,14 +60,77 @@ public final class Message {
     }
   };
 
+  public static final BufferSerializer<Message> BUFFER_SERIALIZER = new BufferSerializer<Message>() {
+
+    @Override
+    public int size(Message value) {
+
+      return Uuid.BUFFER_SERIALIZER.size(value.id) +
+             Uuid.BUFFER_SERIALIZER.size(value.next) +
+             Uuid.BUFFER_SERIALIZER.size(value.previous) +
+             Time.BUFFER_SERIALIZER.size(value.creation) +
+             Uuid.BUFFER_SERIALIZER.size(value.author) +
+             (value.utf8 == null ?
+                 BufferSerializers.STRING.size(value.content) :
+                 4 + value.utf8.remaining());
+
+    }
+
+    @Override
+    public void write(ByteBuffer buffer, Message value) {
+
+      Uuid.BUFFER_SERIALIZER.write(buffer, value.id);
+      Uuid.BUFFER_SERIALIZER.write(buffer, value.next);
+      Uuid.BUFFER_SERIALIZER.write(buffer, value.previous);
+      Time.BUFFER_SERIALIZER.write(buffer, value.creation);
+      Uuid.BUFFER_SERIALIZER.write(buffer, value.author);
+      if (value.utf8 == null) {
+        BufferSerializers.STRING.write(buffer, value.content);
+      } else {
+        buffer.putInt(value.utf8.remaining());
+        buffer.put(value.utf8.duplicate());
+      }
+
+    }
+
+    @Override
+    public Message read(ByteBuffer buffer) throws IOException {
+
+      return new Message(
+          Uuid.BUFFER_SERIALIZER.read(buffer),
+          Uuid.BUFFER_SERIALIZER.read(buffer),
+          Uuid.BUFFER_SERIALIZER.read(buffer),
+          Time.BUFFER_SERIALIZER.read(buffer),
+          Uuid.BUFFER_SERIALIZER.read(buffer),
+          BufferSerializers.STRING.read(buffer)
+      );
+
+    }
+  };
+
   public final Uuid id;
   public final Uuid previous;
   public final Time creation;
   public final Uuid author;
-  public final String content;
   public Uuid next;
 
+  // The content, or null until it is first decoded from "utf8".
+  private volatile String content;
+
+  // The content as UTF-8, or null if the message was built from a String.
+  private final ByteBuffer utf8;
+
   public Message(Uuid id, Uuid next, Uuid previous, Time creation, Uuid author, String content) {
+    this(id, next, previous, creation, author, content, null);
+  }
+
+  private Message(Uuid id,
+                  Uuid next,
+                  Uuid previous,
+                  Time creation,
+                  Uuid author,
+                  String content,
+                  ByteBuffer utf8) {
 
     this.id = id;
     this.next = next;
@@ -69,6 +138,54 @@ public final class Message {
     this.creation = creation;
     this.author = author;
     this.content = content;
+    this.utf8 = utf8;
+
+  }
+
+  // A message whose content is kept as UTF-8 (as the server keeps it, see
+  // ContentArena) and only decoded if it is asked for. Writing the message
+  // copies the bytes straight from "utf8", which must never change.
+  public static Message encoded(Uuid id,
+                                Uuid next,
+                                Uuid previous,
+                                Time creation,
+                                Uuid author,
+                                ByteBuffer utf8) {
+    return new Message(id, next, previous, creation, author, null, utf8.asReadOnlyBuffer());
+  }
 
+  public String content() {
+    String decoded = content;
+    if (decoded == null) {
+      decoded = StandardCharsets.UTF_8.decode(utf8.duplicate()).toString();
+      content = decoded;
+    }
+    return decoded;
+  }
+
+  // Write the content as Serializers.STRING, or CompactSerializers.STRING if
+  // "compact", would write it: its length and then its UTF-8 bytes. An
+  // encoded content is copied as it is, and large ones are not copied at all
+  // when written to a ByteBufferOutputStream.
+  void writeContent(OutputStream out, boolean compact) throws IOException {
+
+    if (utf8 == null) {
+      (compact ? CompactSerializers.STRING : Serializers.STRING).write(out, content);
+      return;
+    }
+
+    if (compact) {
+      CompactSerializers.writeVarint(out, utf8.remaining());
+    } else {
+      Serializers.INTEGER.write(out, utf8.remaining());
+    }
+
+    if (out instanceof ByteBufferOutputStream) {
+      ((ByteBufferOutputStream) out).writeShared(utf8);
+    } else {
+      final byte[] copy = new byte[utf8.remaining()];
+      utf8.duplicate().get(copy);
+      out.write(copy);
+    }
   }
 }
@@ -52,5 +52,141 @@ public final class NetworkCode {
       DELETE_USER_REQUEST = 31,
       DELETE_USER_RESPONSE = 32,
       CHANGE_USERNAME_REQUEST = 33,
-      CHANGE_USERNAME_RESPONSE = 34;
+      CHANGE_USERNAME_RESPONSE = 34,
+
+      KEEP_ALIVE_REQUEST = 35,
+      KEEP_ALIVE_RESPONSE = 36,
+
+      // A framed request is FRAMED_REQUEST, a correlation id chosen by the
+      // client, and then a complete request as BYTES. The server answers with
+      // FRAMED_RESPONSE, the same id, and the complete response as BYTES.
+      // Clients may send many framed requests without waiting and the
+      // responses may come back in any order.
+      FRAMED_REQUEST = 37,
+      FRAMED_RESPONSE = 38,
+
+      // A batch request is BATCH_REQUEST and then a collection of complete
+      // requests, each as BYTES. The server handles them all in one pass and
+      // answers with BATCH_RESPONSE and a collection of complete responses in
+      // the same order. A sub-request that is rejected has an empty response.
+      BATCH_REQUEST = 39,
+      BATCH_RESPONSE = 40,
+
+      // PROTOCOL_VERSION_REQUEST carries the newest wire format version the
+      // client speaks. The response carries the version to use, which is the
+      // newest one both sides speak. A V2_REQUEST is followed by a request in
+      // version 2 of the wire format and is answered in version 2. See
+      // WireFormat.
+      PROTOCOL_VERSION_REQUEST = 41,
+      PROTOCOL_VERSION_RESPONSE = 42,
+      V2_REQUEST = 43,
+
+      // COMPRESSION_REQUEST asks whether the server will compress responses.
+      // The response carries a BOOLEAN. A COMPRESSED_REQUEST is followed by
+      // any other request and is answered with a COMPRESSED_RESPONSE: a
+      // BOOLEAN that is true if the response was deflated, the INTEGER size of
+      // the response, and then the response as BYTES, deflated or not.
+      // Responses smaller than the server's threshold are not deflated.
+      COMPRESSION_REQUEST = 44,
+      COMPRESSION_RESPONSE = 45,
+      COMPRESSED_REQUEST = 46,
+      COMPRESSED_RESPONSE = 47,
+
+      // GET_CONVERSATIONS_SINCE_REQUEST carries the conversation generation
+      // from the client's last response (or NULL). The response carries the
+      // current generation, a BOOLEAN that is true if the summaries are all of
+      // the conversations rather than only those added since the client's
+      // generation, and then the summaries.
+      GET_CONVERSATIONS_SINCE_REQUEST = 48,
+      GET_CONVERSATIONS_SINCE_RESPONSE = 49,
+
+      // GET_PAGE_REQUEST carries the type of the query to page through
+      // (GET_ALL_CONVERSATIONS_REQUEST, GET_USERS_EXCLUDING_REQUEST or
+      // GET_CONVERSATIONS_BY_TIME_REQUEST), that query's fields, the cursor
+      // from the previous page as BYTES (empty for the first page) and the
+      // INTEGER most values to return. The response carries each value after
+      // a true BOOLEAN, then a false BOOLEAN and the cursor for the next page
+      // as BYTES, which is empty after the last page.
+      GET_PAGE_REQUEST = 50,
+      GET_PAGE_RESPONSE = 51,
+
+      // GET_CONVERSATIONS_IF_MODIFIED_REQUEST and
+      // GET_MESSAGES_IF_MODIFIED_REQUEST carry a collection of ids and a
+      // collection of the versions of them that the client already has (NULL
+      // for none). The response carries, for each id in order, NOT_MODIFIED if
+      // the client's version is current, NOT_FOUND if there is no such value,
+      // or MODIFIED followed by the current version and the value.
+      GET_CONVERSATIONS_IF_MODIFIED_REQUEST = 52,
+      GET_CONVERSATIONS_IF_MODIFIED_RESPONSE = 53,
+      GET_MESSAGES_IF_MODIFIED_REQUEST = 54,
+      GET_MESSAGES_IF_MODIFIED_RESPONSE = 55,
+
+      // SUBSCRIBE_REQUEST carries the INTEGER version of the wire format to
+      // push events in, then in that version a BOOLEAN that is true for every
+      // conversation and a collection of the ids of the conversations to get
+      // new messages of. The response carries the INTEGER version the server
+      // will use. After that the connection only carries events from the
+      // server: NEW_MESSAGE_EVENT with the conversation's id and the message,
+      // and NEW_CONVERSATION_EVENT with the conversation's summary, which is
+      // sent for every new conversation. A client that falls too far behind
+      // is disconnected.
+      SUBSCRIBE_REQUEST = 56,
+      SUBSCRIBE_RESPONSE = 57,
+      NEW_MESSAGE_EVENT = 58,
+      NEW_CONVERSATION_EVENT = 59,
+
+      // SEARCH_MESSAGES_REQUEST carries the query as a STRING, a BOOLEAN that
+      // is true to search every conversation, a collection of the ids of the
+      // conversations to search otherwise, the TIME start and end of when the
+      // messages were created and the INTEGER most messages to return. The
+      // response carries the newest messages that contain every word of the
+      // query, oldest first.
+      SEARCH_MESSAGES_REQUEST = 60,
+      SEARCH_MESSAGES_RESPONSE = 61,
+
+      // FIND_USERS_BY_PREFIX_REQUEST and FIND_CONVERSATIONS_BY_PREFIX_REQUEST
+      // carry a prefix as a STRING and the INTEGER most values to return. The
+      // responses carry the users, or the summaries of the conversations,
+      // whose names or titles start with the prefix (ignoring case), in order
+      // of their names or titles.
+      FIND_USERS_BY_PREFIX_REQUEST = 62,
+      FIND_USERS_BY_PREFIX_RESPONSE = 63,
+      FIND_CONVERSATIONS_BY_PREFIX_REQUEST = 64,
+      FIND_CONVERSATIONS_BY_PREFIX_RESPONSE = 65;
+
+  // The status of each value in an IF_MODIFIED response.
+  public static final int
+      NOT_MODIFIED = 0,
+      MODIFIED = 1,
+      NOT_FOUND = 2;
+
+  // Whether a request of the given type only reads the model. Envelopes such
+  // as BATCH_REQUEST are not, as they may carry any request.
+  public static boolean isReadOnly(int type) {
+    switch (type) {
+      case KEEP_ALIVE_REQUEST:
+      case PROTOCOL_VERSION_REQUEST:
+      case COMPRESSION_REQUEST:
+      case GET_USERS_BY_ID_REQUEST:
+      case GET_ALL_CONVERSATIONS_REQUEST:
+      case GET_CONVERSATIONS_BY_ID_REQUEST:
+      case GET_MESSAGES_BY_ID_REQUEST:
+      case GET_CONVERSATIONS_IF_MODIFIED_REQUEST:
+      case GET_MESSAGES_IF_MODIFIED_REQUEST:
+      case GET_USER_GENERATION_REQUEST:
+      case GET_CONVERSATIONS_SINCE_REQUEST:
+      case GET_PAGE_REQUEST:
+      case GET_USERS_EXCLUDING_REQUEST:
+      case GET_CONVERSATIONS_BY_TIME_REQUEST:
+      case GET_CONVERSATIONS_BY_TITLE_REQUEST:
+      case GET_MESSAGES_BY_TIME_REQUEST:
+      case GET_MESSAGES_BY_RANGE_REQUEST:
+      case SEARCH_MESSAGES_REQUEST:
+      case FIND_USERS_BY_PREFIX_REQUEST:
+      case FIND_CONVERSATIONS_BY_PREFIX_REQUEST:
+        return true;
+      default:
+        return false;
+    }
+  }
 }
@@ -17,7 +17,10 @@ package codeu.chat.common;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
+import codeu.chat.util.BufferSerializer;
+import codeu.chat.util.BufferSerializers;
 import codeu.chat.util.Serializer;
 import codeu.chat.util.Serializers;
 import codeu.chat.util.Time;
@@ -49,6 +52,41 @@ public final class User {
     }
   };
 
+  public static final BufferSerializer<User> BUFFER_SERIALIZER = new BufferSerializer<User>() {
+
+    @Override
+    public int size(User value) {
+
+      return Uuid.BUFFER_SERIALIZER.size(value.id) +
+             BufferSerializers.STRING.size(value.name) +
+             Time.BUFFER_SERIALIZER.size(value.creation) +
+             BufferSerializers.STRING.size(value.password);
+
+    }
+
+    @Override
+    public void write(ByteBuffer buffer, User value) {
+
+      Uuid.BUFFER_SERIALIZER.write(buffer, value.id);
+      BufferSerializers.STRING.write(buffer, value.name);
+      Time.BUFFER_SERIALIZER.write(buffer, value.creation);
+      BufferSerializers.STRING.write(buffer, value.password);
+
+    }
+
+    @Override
+    public User read(ByteBuffer buffer) throws IOException {
+
+      return new User(
+          Uuid.BUFFER_SERIALIZER.read(buffer),
+          BufferSerializers.STRING.read(buffer),
+          Time.BUFFER_SERIALIZER.read(buffer),
+          BufferSerializers.STRING.read(buffer)
+      );
+
+    }
+  };
+
   public final Uuid id;
   public final String name;
   public final Time creation;
@@ -0,0 +1,697 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import codeu.chat.util.BufferSerializer;
+import codeu.chat.util.BufferSerializers;
+import codeu.chat.util.ByteBufferOutputStream;
+import codeu.chat.util.CompactSerializers;
+import codeu.chat.util.Compression;
+import codeu.chat.util.Serializer;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.connections.Connection;
+import codeu.chat.util.connections.ConnectionSource;
+
+// WIRE FORMAT
+//
+// The serializers for one version of the client-server protocol.
+//
+// Version 1 is the original format: fixed width numbers, eight bytes for every
+// Uuid link and every Time.
+//
+// Version 2 is compact: numbers, lengths and response types are varints (see
+// CompactSerializers), Uuid links are zigzag varints, and inside a collection
+// each creation time is written as the difference from the one before it.
+//
+// A client asks which version to use with PROTOCOL_VERSION_REQUEST (see
+// "negotiate"), then sends each version 2 request as V2_REQUEST followed by
+// the request type and fields in version 2. The server answers those in
+// version 2 and everything else in version 1, so clients that never ask keep
+// working unchanged. The envelopes (keep-alive, framed and batch requests)
+// are always version 1, but the requests inside them can be version 2.
+//
+// A format can also ask for compressed responses (see
+// "negotiateCompression"). Each request is then sent as a COMPRESSED_REQUEST
+// and its response must be unwrapped with "readResponse".
+//
+// A format can also copy users and conversation summaries from a cache of
+// their encodings rather than encoding them again (see Cache).
+public final class WireFormat {
+
+  public static final WireFormat V1 = new WireFormat(
+      1,
+      Serializers.INTEGER,
+      Serializers.BOOLEAN,
+      Serializers.STRING,
+      Serializers.BYTES,
+      Uuid.SERIALIZER,
+      Time.SERIALIZER,
+      User.SERIALIZER,
+      BufferSerializers.preferBuffers(
+          Serializers.collection(User.SERIALIZER),
+          BufferSerializers.collection(User.BUFFER_SERIALIZER)),
+      Conversation.SERIALIZER,
+      BufferSerializers.preferBuffers(
+          Serializers.collection(Conversation.SERIALIZER),
+          BufferSerializers.collection(Conversation.BUFFER_SERIALIZER)),
+      ConversationSummary.SERIALIZER,
+      BufferSerializers.preferBuffers(
+          Serializers.collection(ConversationSummary.SERIALIZER),
+          BufferSerializers.collection(ConversationSummary.BUFFER_SERIALIZER)),
+      Message.SERIALIZER,
+      BufferSerializers.preferBuffers(
+          Serializers.collection(Message.SERIALIZER),
+          BufferSerializers.collection(Message.BUFFER_SERIALIZER)));
+
+  public static final WireFormat V2 = new WireFormat(
+      2,
+      CompactSerializers.INTEGER,
+      CompactSerializers.BOOLEAN,
+      CompactSerializers.STRING,
+      CompactSerializers.BYTES,
+      Uuid.COMPACT_SERIALIZER,
+      Time.COMPACT_SERIALIZER,
+      single(Compact.USER),
+      collection(Compact.USER),
+      single(Compact.CONVERSATION),
+      collection(Compact.CONVERSATION),
+      single(Compact.SUMMARY),
+      collection(Compact.SUMMARY),
+      single(Compact.MESSAGE),
+      collection(Compact.MESSAGE));
+
+  public static final WireFormat LATEST = V2;
+
+  public final int version;
+  public final boolean compressed;
+
+  public final Serializer<Integer> integer;
+  public final Serializer<Boolean> bool;
+  public final Serializer<String> string;
+  public final Serializer<byte[]> bytes;
+  public final Serializer<Uuid> uuid;
+  public final Serializer<Collection<Uuid>> uuids;
+  public final Serializer<Time> time;
+  public final Serializer<User> user;
+  public final Serializer<Collection<User>> users;
+  public final Serializer<Conversation> conversation;
+  public final Serializer<Collection<Conversation>> conversations;
+  public final Serializer<ConversationSummary> summary;
+  public final Serializer<Collection<ConversationSummary>> summaries;
+  public final Serializer<Message> message;
+  public final Serializer<Collection<Message>> messages;
+
+  private WireFormat(int version,
+                     Serializer<Integer> integer,
+                     Serializer<Boolean> bool,
+                     Serializer<String> string,
+                     Serializer<byte[]> bytes,
+                     Serializer<Uuid> uuid,
+                     Serializer<Time> time,
+                     Serializer<User> user,
+                     Serializer<Collection<User>> users,
+                     Serializer<Conversation> conversation,
+                     Serializer<Collection<Conversation>> conversations,
+                     Serializer<ConversationSummary> summary,
+                     Serializer<Collection<ConversationSummary>> summaries,
+                     Serializer<Message> message,
+                     Serializer<Collection<Message>> messages) {
+    this.version = version;
+    this.compressed = false;
+    this.integer = integer;
+    this.bool = bool;
+    this.string = string;
+    this.bytes = bytes;
+    this.uuid = uuid;
+    this.uuids = version == 1 ?
+        Serializers.collection(uuid) :
+        CompactSerializers.collection(uuid);
+    this.time = time;
+    this.user = user;
+    this.users = users;
+    this.conversation = conversation;
+    this.conversations = conversations;
+    this.summary = summary;
+    this.summaries = summaries;
+    this.message = message;
+    this.messages = messages;
+  }
+
+  private WireFormat(WireFormat format, boolean compressed) {
+    this.version = format.version;
+    this.compressed = compressed;
+    this.integer = format.integer;
+    this.bool = format.bool;
+    this.string = format.string;
+    this.bytes = format.bytes;
+    this.uuid = format.uuid;
+    this.uuids = format.uuids;
+    this.time = format.time;
+    this.user = format.user;
+    this.users = format.users;
+    this.conversation = format.conversation;
+    this.conversations = format.conversations;
+    this.summary = format.summary;
+    this.summaries = format.summaries;
+    this.message = format.message;
+    this.messages = format.messages;
+  }
+
+  private WireFormat(WireFormat format, Cache cache) {
+    this.version = format.version;
+    this.compressed = format.compressed;
+    this.integer = format.integer;
+    this.bool = format.bool;
+    this.string = format.string;
+    this.bytes = format.bytes;
+    this.uuid = format.uuid;
+    this.uuids = format.uuids;
+    this.time = format.time;
+    this.conversation = format.conversation;
+    this.conversations = format.conversations;
+
+    if (format.version == 1) {
+      this.user = cached(cache, USER_ID, format.user, User.BUFFER_SERIALIZER);
+      this.users = Serializers.collection(this.user);
+      this.summary = cached(cache, SUMMARY_ID, format.summary, ConversationSummary.BUFFER_SERIALIZER);
+      this.summaries = Serializers.collection(this.summary);
+    } else {
+      this.user = single(cached(cache, USER_ID, Compact.USER));
+      this.users = collection(cached(cache, USER_ID, Compact.USER));
+      this.summary = single(cached(cache, SUMMARY_ID, Compact.SUMMARY));
+      this.summaries = collection(cached(cache, SUMMARY_ID, Compact.SUMMARY));
+    }
+
+    this.message = format.message;
+    this.messages = format.messages;
+  }
+
+  // The same format, but asking for compressed responses or not.
+  public WireFormat withCompression(boolean compressed) {
+    return compressed == this.compressed ? this : new WireFormat(this, compressed);
+  }
+
+  // The same format, but writing users and conversation summaries from the
+  // cache when it has them. The bytes written are the same.
+  public WireFormat withCache(Cache cache) {
+    return new WireFormat(this, cache);
+  }
+
+  // Write the start of a request: its type and, for version 2, the V2_REQUEST
+  // marker that tells the server which version the rest is in.
+  public void writeRequestType(OutputStream out, int type) throws IOException {
+    writeCompression(out);
+    if (version == 1) {
+      Serializers.INTEGER.write(out, type);
+    } else {
+      Serializers.INTEGER.write(out, NetworkCode.V2_REQUEST);
+      integer.write(out, type);
+    }
+  }
+
+  // Write the start of an envelope (a batch or framed request), which is
+  // always in version 1.
+  public void writeEnvelopeType(OutputStream out, int type) throws IOException {
+    writeCompression(out);
+    Serializers.INTEGER.write(out, type);
+  }
+
+  // The response to a request started by "writeRequestType" or
+  // "writeEnvelopeType", inflated if the server deflated it.
+  public InputStream readResponse(InputStream in) throws IOException {
+
+    if (!compressed) {
+      return in;
+    }
+
+    if (Serializers.INTEGER.read(in) != NetworkCode.COMPRESSED_RESPONSE) {
+      throw new IOException("Expected a compressed response");
+    }
+
+    final boolean deflated = Serializers.BOOLEAN.read(in);
+    final int size = Serializers.INTEGER.read(in);
+    final byte[] body = Serializers.BYTES.read(in);
+
+    return new ByteArrayInputStream(deflated ? Compression.inflate(body, size) : body);
+  }
+
+  private void writeCompression(OutputStream out) throws IOException {
+    if (compressed) {
+      Serializers.INTEGER.write(out, NetworkCode.COMPRESSED_REQUEST);
+    }
+  }
+
+  // The newest format that both this code and the given version understand.
+  public static WireFormat forVersion(int version) {
+    return version >= V2.version ? V2 : V1;
+  }
+
+  // Ask the server which version to use. Servers that predate versioning
+  // answer NO_MESSAGE, which means version 1.
+  public static WireFormat negotiate(ConnectionSource source) throws IOException {
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.PROTOCOL_VERSION_REQUEST);
+      Serializers.INTEGER.write(connection.out(), LATEST.version);
+
+      if (Serializers.INTEGER.read(connection.in()) != NetworkCode.PROTOCOL_VERSION_RESPONSE) {
+        return V1;
+      }
+
+      return forVersion(Serializers.INTEGER.read(connection.in()));
+    }
+  }
+
+  // Ask the server whether it will compress responses. Servers that predate
+  // compression answer NO_MESSAGE, which means no.
+  public static boolean negotiateCompression(ConnectionSource source) throws IOException {
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.COMPRESSION_REQUEST);
+
+      return Serializers.INTEGER.read(connection.in()) == NetworkCode.COMPRESSION_RESPONSE &&
+             Serializers.BOOLEAN.read(connection.in());
+    }
+  }
+
+  // TIMED SERIALIZER
+  //
+  // Writes a value whose creation time is stored as the difference from a
+  // base time: the creation time of the value before it in a collection, or
+  // zero for the first value and for values on their own. The fields before
+  // and after the creation time are written separately so that they can be
+  // cached (the time itself depends on the value before it).
+  private static abstract class TimedSerializer<T> {
+
+    abstract Time creation(T value);
+
+    abstract void writeHead(OutputStream out, T value) throws IOException;
+
+    abstract void writeTail(OutputStream out, T value) throws IOException;
+
+    abstract T read(InputStream in, long base) throws IOException;
+
+    void write(OutputStream out, T value, long base) throws IOException {
+      writeHead(out, value);
+      writeTime(out, creation(value), base);
+      writeTail(out, value);
+    }
+  }
+
+  private static <T> Serializer<T> single(final TimedSerializer<T> serializer) {
+
+    return new Serializer<T>() {
+
+      @Override
+      public void write(OutputStream out, T value) throws IOException {
+        serializer.write(out, value, 0);
+      }
+
+      @Override
+      public T read(InputStream in) throws IOException {
+        return serializer.read(in, 0);
+      }
+    };
+  }
+
+  private static <T> Serializer<Collection<T>> collection(final TimedSerializer<T> serializer) {
+
+    return new Serializer<Collection<T>>() {
+
+      @Override
+      public void write(OutputStream out, Collection<T> value) throws IOException {
+        CompactSerializers.writeVarint(out, value.size());
+        long base = 0;
+        for (final T x : value) {
+          serializer.write(out, x, base);
+          base = serializer.creation(x).inMs();
+        }
+      }
+
+      @Override
+      public Collection<T> read(InputStream in) throws IOException {
+        final long size = CompactSerializers.readVarint(in);
+        if (size < 0 || size > Integer.MAX_VALUE) {
+          throw new IOException("Bad collection size " + size);
+        }
+        final Collection<T> list = new ArrayList<>((int) Math.min(size, 1024));
+        long base = 0;
+        for (long i = 0; i < size; i++) {
+          final T x = serializer.read(in, base);
+          list.add(x);
+          base = serializer.creation(x).inMs();
+        }
+        return list;
+      }
+    };
+  }
+
+  private static void writeTime(OutputStream out, Time value, long base) throws IOException {
+    CompactSerializers.LONG.write(out, value.inMs() - base);
+  }
+
+  private static Time readTime(InputStream in, long base) throws IOException {
+    return Time.fromMs(base + CompactSerializers.LONG.read(in));
+  }
+
+  // COMPACT
+  //
+  // The version 2 serializers for the model types. The fields are in the same
+  // order as in version 1.
+  private static final class Compact {
+
+    static final TimedSerializer<User> USER = new TimedSerializer<User>() {
+
+      @Override
+      Time creation(User value) {
+        return value.creation;
+      }
+
+      @Override
+      void writeHead(OutputStream out, User value) throws IOException {
+        Uuid.COMPACT_SERIALIZER.write(out, value.id);
+        CompactSerializers.STRING.write(out, value.name);
+      }
+
+      @Override
+      void writeTail(OutputStream out, User value) throws IOException {
+        CompactSerializers.STRING.write(out, value.password);
+      }
+
+      @Override
+      User read(InputStream in, long base) throws IOException {
+        return new User(
+            Uuid.COMPACT_SERIALIZER.read(in),
+            CompactSerializers.STRING.read(in),
+            readTime(in, base),
+            CompactSerializers.STRING.read(in)
+        );
+      }
+    };
+
+    static final TimedSerializer<ConversationSummary> SUMMARY =
+        new TimedSerializer<ConversationSummary>() {
+
+      @Override
+      Time creation(ConversationSummary value) {
+        return value.creation;
+      }
+
+      @Override
+      void writeHead(OutputStream out, ConversationSummary value) throws IOException {
+        Uuid.COMPACT_SERIALIZER.write(out, value.id);
+        Uuid.COMPACT_SERIALIZER.write(out, value.owner);
+      }
+
+      @Override
+      void writeTail(OutputStream out, ConversationSummary value) throws IOException {
+        CompactSerializers.STRING.write(out, value.title);
+      }
+
+      @Override
+      ConversationSummary read(InputStream in, long base) throws IOException {
+        return new ConversationSummary(
+            Uuid.COMPACT_SERIALIZER.read(in),
+            Uuid.COMPACT_SERIALIZER.read(in),
+            readTime(in, base),
+            CompactSerializers.STRING.read(in)
+        );
+      }
+    };
+
+    static final TimedSerializer<Conversation> CONVERSATION = new TimedSerializer<Conversation>() {
+
+      private final Serializer<Collection<Uuid>> users =
+          CompactSerializers.collection(Uuid.COMPACT_SERIALIZER);
+
+      @Override
+      Time creation(Conversation value) {
+        return value.creation;
+      }
+
+      @Override
+      void writeHead(OutputStream out, Conversation value) throws IOException {
+        Uuid.COMPACT_SERIALIZER.write(out, value.id);
+        Uuid.COMPACT_SERIALIZER.write(out, value.owner);
+      }
+
+      @Override
+      void writeTail(OutputStream out, Conversation value) throws IOException {
+        CompactSerializers.STRING.write(out, value.title);
+        users.write(out, value.users);
+        Uuid.COMPACT_SERIALIZER.write(out, value.firstMessage);
+        Uuid.COMPACT_SERIALIZER.write(out, value.lastMessage);
+      }
+
+      @Override
+      Conversation read(InputStream in, long base) throws IOException {
+
+        final Conversation value = new Conversation(
+            Uuid.COMPACT_SERIALIZER.read(in),
+            Uuid.COMPACT_SERIALIZER.read(in),
+            readTime(in, base),
+            CompactSerializers.STRING.read(in)
+        );
+
+        value.users.addAll(users.read(in));
+
+        value.firstMessage = Uuid.COMPACT_SERIALIZER.read(in);
+        value.lastMessage = Uuid.COMPACT_SERIALIZER.read(in);
+
+        return value;
+      }
+    };
+
+    static final TimedSerializer<Message> MESSAGE = new TimedSerializer<Message>() {
+
+      @Override
+      Time creation(Message value) {
+        return value.creation;
+      }
+
+      @Override
+      void writeHead(OutputStream out, Message value) throws IOException {
+        Uuid.COMPACT_SERIALIZER.write(out, value.id);
+        Uuid.COMPACT_SERIALIZER.write(out, value.next);
+        Uuid.COMPACT_SERIALIZER.write(out, value.previous);
+      }
+
+      @Override
+      void writeTail(OutputStream out, Message value) throws IOException {
+        Uuid.COMPACT_SERIALIZER.write(out, value.author);
+        value.writeContent(out, true);
+      }
+
+      @Override
+      Message read(InputStream in, long base) throws IOException {
+        return new Message(
+            Uuid.COMPACT_SERIALIZER.read(in),
+            Uuid.COMPACT_SERIALIZER.read(in),
+            Uuid.COMPACT_SERIALIZER.read(in),
+            readTime(in, base),
+            Uuid.COMPACT_SERIALIZER.read(in),
+            CompactSerializers.STRING.read(in)
+        );
+      }
+    };
+  }
+
+  // CACHE
+  //
+  // The encodings of users and conversation summaries, so that values that
+  // are sent again and again (the user and conversation lists) are copied
+  // rather than encoded field by field each time. There is at most one entry
+  // for each user and conversation the server has.
+  //
+  // Messages are not cached: there are far more of them than of anything
+  // else, and a message's content is already copied straight from the
+  // server's arena (see Message.encoded), so a cache of them would only
+  // bring their contents back onto the heap.
+  //
+  // An entry is found by the value's id but is only used for the same object
+  // that was encoded, so a value that was replaced by a new object is encoded
+  // again. A value that is removed should be invalidated by whoever removes
+  // it. The cache can be used by many threads at once.
+  public static final class Cache {
+
+    private final ConcurrentMap<Uuid, Entry> entries = new ConcurrentHashMap<>();
+
+    public void invalidate(Uuid id) {
+      entries.remove(id);
+    }
+
+    public int size() {
+      return entries.size();
+    }
+
+    private Entry entry(Uuid id, Object owner) {
+
+      final Entry entry = entries.get(id);
+
+      if (entry != null && entry.owner == owner) {
+        return entry;
+      }
+
+      final Entry replacement = new Entry(owner);
+      entries.put(id, replacement);
+      return replacement;
+    }
+  }
+
+  private static final class Entry {
+
+    // The object that was encoded.
+    final Object owner;
+
+    // The version 1 encoding, or null.
+    volatile byte[] whole;
+
+    // The version 2 encoding of the fields before and after the creation
+    // time, or null.
+    volatile byte[][] split;
+
+    Entry(Object owner) {
+      this.owner = owner;
+    }
+  }
+
+  private interface Identity<T> {
+    Uuid id(T value);
+  }
+
+  private static final Identity<User> USER_ID = new Identity<User>() {
+    @Override
+    public Uuid id(User value) {
+      return value.id;
+    }
+  };
+
+  private static final Identity<ConversationSummary> SUMMARY_ID =
+      new Identity<ConversationSummary>() {
+    @Override
+    public Uuid id(ConversationSummary value) {
+      return value.id;
+    }
+  };
+
+  private static <T> Serializer<T> cached(final Cache cache,
+                                          final Identity<T> identity,
+                                          final Serializer<T> serializer,
+                                          final BufferSerializer<T> encoder) {
+
+    return new Serializer<T>() {
+
+      @Override
+      public void write(OutputStream out, T value) throws IOException {
+
+        final Entry entry = cache.entry(identity.id(value), value);
+
+        byte[] whole = entry.whole;
+
+        if (whole == null) {
+          final ByteBuffer buffer = ByteBuffer.allocate(encoder.size(value));
+          encoder.write(buffer, value);
+          whole = buffer.array();
+          entry.whole = whole;
+        }
+
+        writeCached(out, whole);
+      }
+
+      @Override
+      public T read(InputStream in) throws IOException {
+        return serializer.read(in);
+      }
+    };
+  }
+
+  private static <T> TimedSerializer<T> cached(final Cache cache,
+                                               final Identity<T> identity,
+                                               final TimedSerializer<T> serializer) {
+
+    return new TimedSerializer<T>() {
+
+      @Override
+      Time creation(T value) {
+        return serializer.creation(value);
+      }
+
+      @Override
+      void writeHead(OutputStream out, T value) throws IOException {
+        writeCached(out, split(value)[0]);
+      }
+
+      @Override
+      void writeTail(OutputStream out, T value) throws IOException {
+        writeCached(out, split(value)[1]);
+      }
+
+      @Override
+      T read(InputStream in, long base) throws IOException {
+        return serializer.read(in, base);
+      }
+
+      @Override
+      void write(OutputStream out, T value, long base) throws IOException {
+        final byte[][] split = split(value);
+        writeCached(out, split[0]);
+        writeTime(out, serializer.creation(value), base);
+        writeCached(out, split[1]);
+      }
+
+      private byte[][] split(T value) throws IOException {
+
+        final Entry entry = cache.entry(identity.id(value), value);
+
+        byte[][] split = entry.split;
+
+        if (split == null) {
+          final ByteArrayOutputStream head = new ByteArrayOutputStream();
+          final ByteArrayOutputStream tail = new ByteArrayOutputStream();
+          serializer.writeHead(head, value);
+          serializer.writeTail(tail, value);
+          split = new byte[][] { head.toByteArray(), tail.toByteArray() };
+          entry.split = split;
+        }
+
+        return split;
+      }
+    };
+  }
+
+  private static void writeCached(OutputStream out, byte[] bytes) throws IOException {
+    if (out instanceof ByteBufferOutputStream) {
+      ((ByteBufferOutputStream) out).writeShared(bytes);
+    } else {
+      out.write(bytes);
+    }
+  }
+}
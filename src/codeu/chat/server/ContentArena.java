@@ -0,0 +1,104 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// CONTENT ARENA
+//
+// The contents of messages, kept as UTF-8 outside of the Java heap in direct
+// buffers ("slabs"). Message contents are most of what a server holds and
+// are never released, so keeping them off the heap keeps them out of every
+// garbage collection. A content is found by its address: the number of its
+// slab and its offset in that slab, packed into one long. Its length in bytes
+// is kept by whoever holds the address.
+//
+// Contents are added to the end of the last slab and never moved. One that
+// does not fit in what is left of the slab starts a new one, and one that is
+// bigger than a slab gets a slab of its own. Everything can be read while a
+// content is being added, and adds must not run at the same time as each
+// other. As with MessageLog, a reader only ever reads addresses that were
+// published after their bytes were written.
+final class ContentArena {
+
+  static final int SLAB_SIZE = 1024 * 1024;
+
+  private volatile ByteBuffer[] slabs = new ByteBuffer[0];
+
+  // The end of the last slab's contents. Only used by adds.
+  private int position = 0;
+
+  // Add a content and return its address.
+  long add(byte[] utf8) {
+
+    final ByteBuffer[] current = slabs;
+
+    if (current.length == 0 || utf8.length > current[current.length - 1].capacity() - position) {
+      addSlab(ByteBuffer.allocateDirect(Math.max(SLAB_SIZE, utf8.length)));
+    }
+
+    final int slab = slabs.length - 1;
+    final int offset = position;
+
+    final ByteBuffer writer = slabs[slab].duplicate();
+    writer.position(offset);
+    writer.put(utf8);
+
+    position = offset + utf8.length;
+
+    return address(slab, offset);
+  }
+
+  // The content at the address, which is "length" bytes long.
+  String get(long address, int length) {
+    return StandardCharsets.UTF_8.decode(slice(address, length)).toString();
+  }
+
+  // The UTF-8 of the content at the address, read straight from its slab, so
+  // that it can be written out without decoding or copying it first.
+  ByteBuffer slice(long address, int length) {
+    final ByteBuffer reader = slabs[(int) (address >>> 32)].asReadOnlyBuffer();
+    reader.position((int) address);
+    reader.limit((int) address + length);
+    return reader.slice();
+  }
+
+  // The number of bytes in all of the slabs, used or not.
+  long capacity() {
+    long capacity = 0;
+    for (final ByteBuffer slab : slabs) {
+      capacity += slab.capacity();
+    }
+    return capacity;
+  }
+
+  static byte[] encode(String content) {
+    return content.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private void addSlab(ByteBuffer slab) {
+    final ByteBuffer[] grown = Arrays.copyOf(slabs, slabs.length + 1);
+    grown[grown.length - 1] = slab;
+    slabs = grown;
+    position = 0;
+  }
+
+  private static long address(int slab, int offset) {
+    return ((long) slab << 32) | (offset & 0xFFFFFFFFL);
+  }
+}
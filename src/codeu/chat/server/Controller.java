@@ -99,7 +99,7 @@ public final class Controller implements RawController, BasicController {
     if (foundUser != null && foundConversation != null && isIdFree(id)) {
 
       message = new Message(id, Uuid.NULL, Uuid.NULL, creationTime, author, body);
-      model.add(message);
+      model.add(foundConversation.id, message);
       LOG.info("Message added: %s", message.id);
 
       // Find and update the previous "last" message so that it's "next" value
@@ -113,7 +113,7 @@ public final class Controller implements RawController, BasicController {
 
       } else {
         final Message lastMessage = model.messageById().first(foundConversation.lastMessage);
-        lastMessage.next = message.id;
+        model.setNext(lastMessage, message.id);
       }
 
       // If the first message points to NULL it means that the conversation was empty and that
@@ -132,6 +132,8 @@ public final class Controller implements RawController, BasicController {
       if (!foundConversation.users.contains(foundUser)) {
         foundConversation.users.add(foundUser.id);
       }
+
+      model.changed(foundConversation.id);
     }
 
     return message;
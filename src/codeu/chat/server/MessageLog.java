@@ -0,0 +1,253 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import codeu.chat.common.Message;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+// MESSAGE LOG
+//
+// The messages of one conversation in the order they were added. A message's
+// sequence number is its position in the log, so getting the messages around
+// one, or the last few, is index arithmetic rather than one lookup per message
+// along the "next" links.
+//
+// The log keeps no Message objects. Each field is a column: the ids and
+// authors packed into longs (see Uuid.pack), the creation times as
+// milliseconds, and the address and length of each content, which is kept
+// off the heap in the arena shared by every log. A Message is built from the
+// columns each time one is read, which is normally only to send it, so its
+// content is left as UTF-8 in the arena and copied from there when it is
+// written (see Message.encoded). Its "next" is the id of the message after
+// it in the log. The Controller never sets "previous", so it is not kept and
+// is always NULL.
+//
+// Messages are only ever appended. The log can be read while a message is
+// being appended: a reader sees the messages that were there when it read
+// the size, as the columns are always replaced by full copies before the
+// size grows past them. Appends must not run at the same time as each other.
+final class MessageLog {
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  // Stands for an id that could not be packed. It is kept in one of the maps
+  // below by its sequence number instead.
+  private static final long UNPACKED = Long.MIN_VALUE;
+
+  // The log's place among all the logs (see MessageStore).
+  final int number;
+
+  private final ContentArena arena;
+
+  private volatile Columns columns = new Columns(INITIAL_CAPACITY);
+  private volatile int size = 0;
+
+  // Whether every message was created at or after the one before it. Nearly
+  // always true, but relayed and restored messages keep their own times.
+  private volatile boolean ordered = true;
+
+  private final Map<Integer, Uuid> unpackedIds = new ConcurrentHashMap<>();
+  private final Map<Integer, Uuid> unpackedAuthors = new ConcurrentHashMap<>();
+
+  MessageLog(int number, ContentArena arena) {
+    this.number = number;
+    this.arena = arena;
+  }
+
+  // Append a message and return its sequence number.
+  int append(Message message) {
+
+    final int index = size;
+
+    Columns current = columns;
+
+    if (index == current.ids.length) {
+      current = current.grow(2 * index);
+      columns = current;
+    }
+
+    final long creation = message.creation.inMs();
+
+    if (index > 0 && creation < current.creations[index - 1]) {
+      ordered = false;
+    }
+
+    current.ids[index] = pack(message.id, unpackedIds, index);
+    current.authors[index] = pack(message.author, unpackedAuthors, index);
+    current.creations[index] = creation;
+    final byte[] content = ContentArena.encode(message.content());
+    current.contents[index] = arena.add(content);
+    current.lengths[index] = content.length;
+
+    size = index + 1;
+
+    return index;
+  }
+
+  int size() {
+    return size;
+  }
+
+  // The id of the message with the sequence number.
+  Uuid id(int sequence) {
+    return unpack(columns.ids[sequence], unpackedIds, sequence);
+  }
+
+  Message get(int sequence) {
+    final int limit = size;
+    return sequence < limit ? message(columns, limit, sequence) : null;
+  }
+
+  // The messages with sequence numbers from "from" (inclusive) to "to"
+  // (exclusive), limited to the messages in the log.
+  List<Message> slice(int from, int to) {
+
+    final int limit = size;
+    final Columns current = columns;
+
+    final int end = Math.min(to, limit);
+
+    final List<Message> found = new ArrayList<>(Math.max(0, end - from));
+    for (int i = Math.max(0, from); i < end; i++) {
+      found.add(message(current, limit, i));
+    }
+
+    return found;
+  }
+
+  // The messages from the first one created at or after "start" up to, but
+  // not including, the first one after it created after "end".
+  List<Message> between(Time start, Time end) {
+
+    final int limit = size;
+    final long[] creations = columns.creations;
+
+    final long startMs = start.inMs();
+    final long endMs = end.inMs();
+
+    if (ordered) {
+      return slice(search(creations, limit, startMs, false), search(creations, limit, endMs, true));
+    }
+
+    // The times are not in order, so walk them the same way the links would
+    // be walked.
+    int from = 0;
+    while (from < limit && creations[from] < startMs) {
+      from++;
+    }
+
+    int to = from;
+    while (to < limit && creations[to] <= endMs) {
+      to++;
+    }
+
+    return slice(from, to);
+  }
+
+  private Message message(Columns columns, int limit, int sequence) {
+    return Message.encoded(
+        unpack(columns.ids[sequence], unpackedIds, sequence),
+        sequence + 1 < limit ?
+            unpack(columns.ids[sequence + 1], unpackedIds, sequence + 1) :
+            Uuid.NULL,
+        Uuid.NULL,
+        Time.fromMs(columns.creations[sequence]),
+        unpack(columns.authors[sequence], unpackedAuthors, sequence),
+        arena.slice(columns.contents[sequence], columns.lengths[sequence]));
+  }
+
+  private static long pack(Uuid id, Map<Integer, Uuid> unpacked, int sequence) {
+
+    if (Uuid.packable(id)) {
+      final long packed = Uuid.pack(id);
+      if (packed != UNPACKED) {
+        return packed;
+      }
+    }
+
+    unpacked.put(sequence, id);
+    return UNPACKED;
+  }
+
+  private static Uuid unpack(long packed, Map<Integer, Uuid> unpacked, int sequence) {
+    return packed == UNPACKED ? unpacked.get(sequence) : Uuid.unpack(packed);
+  }
+
+  // The index of the first creation time after "time", or at or after it if
+  // "after" is false.
+  private static int search(long[] creations, int limit, long time, boolean after) {
+
+    int low = 0;
+    int high = limit;
+
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      if (creations[middle] < time || (after && creations[middle] == time)) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+
+    return low;
+  }
+
+  // COLUMNS
+  //
+  // One array for each field, all of the same length.
+  private static final class Columns {
+
+    final long[] ids;
+    final long[] authors;
+    final long[] creations;
+
+    // The address of each content in the arena and its length in bytes.
+    final long[] contents;
+    final int[] lengths;
+
+    Columns(int capacity) {
+      this(new long[capacity],
+           new long[capacity],
+           new long[capacity],
+           new long[capacity],
+           new int[capacity]);
+    }
+
+    private Columns(long[] ids, long[] authors, long[] creations, long[] contents, int[] lengths) {
+      this.ids = ids;
+      this.authors = authors;
+      this.creations = creations;
+      this.contents = contents;
+      this.lengths = lengths;
+    }
+
+    Columns grow(int capacity) {
+      return new Columns(
+          Arrays.copyOf(ids, capacity),
+          Arrays.copyOf(authors, capacity),
+          Arrays.copyOf(creations, capacity),
+          Arrays.copyOf(contents, capacity),
+          Arrays.copyOf(lengths, capacity));
+    }
+  }
+}
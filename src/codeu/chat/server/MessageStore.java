@@ -0,0 +1,254 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import codeu.chat.common.Message;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.store.LongTable;
+import codeu.chat.util.store.StoreAccessor;
+
+// MESSAGE STORE
+//
+// Every message, kept in the log of its conversation (see MessageLog) with its
+// content in an arena shared by all of the logs (see ContentArena), and a
+// table from each message's id to where it is. The table (see LongTable) maps
+// the packed id (see Uuid.pack) to the log's number and the message's
+// sequence number packed into another long. Ids are never removed, so reads
+// of the table need no other check. Ids that cannot be packed are kept in an
+// ordinary map instead.
+//
+// The words of every message are also indexed for search (see TextIndex).
+//
+// Looking a message up builds it from the log's columns. As with the logs,
+// everything can be read while a message is being added, and adds must not
+// run at the same time as each other.
+//
+// No query walks messages in id order, so those are not indexed: each of the
+// ordered queries sorts the ids of every message.
+final class MessageStore implements StoreAccessor<Uuid, Message> {
+
+  private static final TextIndex.Filter ANY_LOG = new TextIndex.Filter() {
+    @Override
+    public boolean accept(long location) {
+      return true;
+    }
+  };
+
+  private final Comparator<Uuid> comparator;
+
+  private final ContentArena arena = new ContentArena();
+
+  private final Map<Uuid, MessageLog> logByConversation = new ConcurrentHashMap<>();
+
+  // Every log, by number.
+  private volatile MessageLog[] logs = new MessageLog[0];
+
+  private final LongTable table = new LongTable();
+  private final Map<Uuid, Long> unpacked = new ConcurrentHashMap<>();
+
+  private final TextIndex text = new TextIndex();
+
+  MessageStore(Comparator<Uuid> comparator) {
+    this.comparator = comparator;
+  }
+
+  // Add a message to the end of a conversation's log.
+  void append(Uuid conversation, Message message) {
+
+    MessageLog log = logByConversation.get(conversation);
+
+    if (log == null) {
+      log = new MessageLog(logs.length, arena);
+      final MessageLog[] grown = Arrays.copyOf(logs, logs.length + 1);
+      grown[log.number] = log;
+      logs = grown;
+      logByConversation.put(conversation, log);
+    }
+
+    final long location = location(log.number, log.append(message));
+
+    if (Uuid.packable(message.id)) {
+      table.put(Uuid.pack(message.id), location);
+    } else {
+      unpacked.put(message.id, location);
+    }
+
+    text.add(location, message.creation.inMs(), message.content());
+  }
+
+  // The log of a conversation's messages, or null if it has none.
+  MessageLog log(Uuid conversation) {
+    return conversation == null ? null : logByConversation.get(conversation);
+  }
+
+  // Where a message is, or null if there is no such message.
+  Position position(Uuid id) {
+
+    final long location;
+
+    if (Uuid.packable(id)) {
+      location = table.get(Uuid.pack(id));
+    } else {
+      final Long found = id == null ? null : unpacked.get(id);
+      location = found == null ? 0 : found;
+    }
+
+    return location == 0 ?
+        null :
+        new Position(logs[(int) (location >>> 32) - 1], (int) location);
+  }
+
+  // The newest messages (at most "limit" of them) that contain every word of
+  // the query, are in one of the conversations (or any conversation if that
+  // is null) and were created between "start" and "end", in the order they
+  // were added.
+  List<Message> search(String query,
+                       Collection<Uuid> conversations,
+                       long start,
+                       long end,
+                       int limit) {
+
+    final TextIndex.Filter filter;
+
+    if (conversations == null) {
+
+      filter = ANY_LOG;
+
+    } else {
+
+      // Logs that are added during the search are not selected.
+      final boolean[] selected = new boolean[logs.length];
+      boolean any = false;
+
+      for (final Uuid conversation : conversations) {
+        final MessageLog log = log(conversation);
+        if (log != null && log.number < selected.length) {
+          selected[log.number] = true;
+          any = true;
+        }
+      }
+
+      if (!any) {
+        return new ArrayList<>();
+      }
+
+      filter = new TextIndex.Filter() {
+        @Override
+        public boolean accept(long location) {
+          final int log = (int) (location >>> 32) - 1;
+          return log < selected.length && selected[log];
+        }
+      };
+    }
+
+    final List<Long> found = text.search(query, start, end, filter, limit);
+
+    final List<Message> messages = new ArrayList<>(found.size());
+    for (int i = found.size() - 1; i >= 0; i--) {
+      final long location = found.get(i);
+      messages.add(logs[(int) (location >>> 32) - 1].get((int) location));
+    }
+
+    return messages;
+  }
+
+  @Override
+  public Message first(Uuid id) {
+    final Position position = position(id);
+    return position == null ? null : position.log.get(position.sequence);
+  }
+
+  @Override
+  public Iterable<Message> all() {
+    return sorted(null, null);
+  }
+
+  @Override
+  public Iterable<Message> at(Uuid key) {
+    final Message message = first(key);
+    return message == null ? Collections.<Message>emptyList() : Arrays.asList(message);
+  }
+
+  @Override
+  public Iterable<Message> after(Uuid start) {
+    return sorted(start, null);
+  }
+
+  @Override
+  public Iterable<Message> before(Uuid end) {
+    return sorted(null, end);
+  }
+
+  @Override
+  public Iterable<Message> range(Uuid start, Uuid end) {
+    return sorted(start, end);
+  }
+
+  // The messages whose ids are between "start" and "end" (either of which
+  // can be null for no limit), in id order.
+  private List<Message> sorted(Uuid start, Uuid end) {
+
+    final List<Uuid> ids = new ArrayList<>();
+
+    for (final MessageLog log : logs) {
+      for (int i = 0, size = log.size(); i < size; i++) {
+        final Uuid id = log.id(i);
+        if ((start == null || comparator.compare(id, start) >= 0) &&
+            (end == null || comparator.compare(id, end) <= 0)) {
+          ids.add(id);
+        }
+      }
+    }
+
+    Collections.sort(ids, comparator);
+
+    final List<Message> messages = new ArrayList<>(ids.size());
+    for (final Uuid id : ids) {
+      messages.add(first(id));
+    }
+
+    return messages;
+  }
+
+  // The log's number is stored plus one so that no location is zero, which
+  // marks an empty slot in the table.
+  private static long location(int log, int sequence) {
+    return ((long) (log + 1) << 32) | (sequence & 0xFFFFFFFFL);
+  }
+
+  // POSITION
+  //
+  // The log a message is in and its sequence number in that log.
+  static final class Position {
+
+    final MessageLog log;
+    final int sequence;
+
+    Position(MessageLog log, int sequence) {
+      this.log = log;
+      this.sequence = sequence;
+    }
+  }
+}
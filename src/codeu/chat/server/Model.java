@@ -14,21 +14,36 @@
 
 package codeu.chat.server;
 
+import java.util.Collection;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import codeu.chat.common.Conversation;
 import codeu.chat.common.ConversationSummary;
 import codeu.chat.common.LinearUuidGenerator;
 import codeu.chat.common.Message;
 import codeu.chat.common.User;
+import codeu.chat.common.WireFormat;
 import codeu.chat.util.Time;
 import codeu.chat.util.Uuid;
-import codeu.chat.util.store.Store;
+import codeu.chat.util.store.ConcurrentStore;
 import codeu.chat.util.store.StoreAccessor;
+import codeu.chat.util.store.UuidStore;
 
+// MODEL
+//
+// The in-memory state of the server. The stores it hands out can be read
+// while they are being changed (see ConcurrentStore and UuidStore), but the
+// model does no other locking of its own: adding a value touches several
+// stores, and the generations and versions are plain fields. The Server
+// guards it with a read-write lock so that readers see every store agree:
+// many View calls can read at the same time, while Controller calls (the only
+// code that calls "add" and "delete") run alone.
 public final class Model {
 
-  private static final Comparator<Uuid> UUID_COMPARE = new Comparator<Uuid>() {
+  static final Comparator<Uuid> UUID_COMPARE = new Comparator<Uuid>() {
 
     @Override
     public int compare(Uuid a, Uuid b) {
@@ -44,7 +59,7 @@ public final class Model {
     }
   };
 
-  private static final Comparator<Time> TIME_COMPARE = new Comparator<Time>() {
+  static final Comparator<Time> TIME_COMPARE = new Comparator<Time>() {
     @Override
     public int compare(Time a, Time b) {
       return a.compareTo(b);
@@ -53,21 +68,53 @@ public final class Model {
 
   private static final Comparator<String> STRING_COMPARE = String.CASE_INSENSITIVE_ORDER;
 
-  private final Store<Uuid, User> userById = new Store<>(UUID_COMPARE);
-  private final Store<Time, User> userByTime = new Store<>(TIME_COMPARE);
-  private final Store<String, User> userByText = new Store<>(STRING_COMPARE);
+  private final UuidStore<User> userById = new UuidStore<>(UUID_COMPARE);
+  private final ConcurrentStore<Time, User> userByTime = new ConcurrentStore<>(TIME_COMPARE);
+  private final ConcurrentStore<String, User> userByText = new ConcurrentStore<>(STRING_COMPARE);
 
-  private final Store<Uuid, Conversation> conversationById = new Store<>(UUID_COMPARE);
-  private final Store<Time, Conversation> conversationByTime = new Store<>(TIME_COMPARE);
-  private final Store<String, Conversation> conversationByText = new Store<>(STRING_COMPARE);
+  private final UuidStore<Conversation> conversationById = new UuidStore<>(UUID_COMPARE);
+  private final ConcurrentStore<Time, Conversation> conversationByTime = new ConcurrentStore<>(TIME_COMPARE);
+  private final ConcurrentStore<String, Conversation> conversationByText = new ConcurrentStore<>(STRING_COMPARE);
+  private final TrigramIndex<Conversation> conversationByTrigram = new TrigramIndex<>();
 
-  private final Store<Uuid, Message> messageById = new Store<>(UUID_COMPARE);
-  private final Store<Time, Message> messageByTime = new Store<>(TIME_COMPARE);
-  private final Store<String, Message> messageByText = new Store<>(STRING_COMPARE);
+  // Messages are kept in columns rather than as objects, as there are far
+  // more of them than of anything else (see MessageStore).
+  private final MessageStore messages = new MessageStore(UUID_COMPARE);
 
   private final Uuid.Generator userGenerations = new LinearUuidGenerator(null, 1, Integer.MAX_VALUE);
   private Uuid currentUserGeneration = userGenerations.make();
 
+  // A new conversation generation is made each time a conversation is added,
+  // and each conversation is indexed by the generation it was added in. The
+  // generations share a root that is different each time the server starts,
+  // so that a generation handed out before a restart is never mistaken for
+  // one of the current generations.
+  private final Uuid conversationEpoch = new Uuid(Time.now().inMs() & 0xFFFFFFFFL);
+  private final Uuid.Generator conversationGenerations =
+      new LinearUuidGenerator(conversationEpoch, 1, Integer.MAX_VALUE);
+  private Uuid currentConversationGeneration = conversationGenerations.make();
+
+  private final ConcurrentStore<Uuid, Conversation> conversationByGeneration = new ConcurrentStore<>(UUID_COMPARE);
+
+  // Each conversation has a version that changes whenever it does. The
+  // versions share the root of the conversation generations, so a version
+  // handed out before a restart never matches a current one.
+  private final Uuid.Generator versions =
+      new LinearUuidGenerator(conversationEpoch, 1, Integer.MAX_VALUE);
+  private final Map<Uuid, Uuid> versionById = new HashMap<>();
+
+  // A message only changes once, when the message after it is added, so its
+  // version is worked out from whether it is the last in its log rather than
+  // kept for every message. These share the epoch for the same reason.
+  private final Uuid messageVersions = new Uuid(conversationEpoch, 0);
+  private final Uuid lastMessageVersion = new Uuid(messageVersions, 1);
+  private final Uuid linkedMessageVersion = new Uuid(messageVersions, 2);
+
+  // The encodings of the users and conversation summaries that have been
+  // sent. They are never changed in place, so only deleting a user needs to
+  // invalidate one.
+  private final WireFormat.Cache encodings = new WireFormat.Cache();
+
   public void add(User user) {
     currentUserGeneration = userGenerations.make();
 
@@ -77,9 +124,10 @@ public final class Model {
   }
 
   public boolean delete(User user) {
-      return userById.delete(user.id) &&
-             userByTime.delete(user.creation) &&
-             userByText.delete(user.name);
+      encodings.invalidate(user.id);
+      return userById.delete(user.id, user) &&
+             userByTime.delete(user.creation, user) &&
+             userByText.delete(user.name, user);
   }
 
   public User getUserByName(String name) {
@@ -103,9 +151,33 @@ public final class Model {
   }
 
   public void add(Conversation conversation) {
+    currentConversationGeneration = conversationGenerations.make();
+
     conversationById.insert(conversation.id, conversation);
     conversationByTime.insert(conversation.creation, conversation);
     conversationByText.insert(conversation.title, conversation);
+    conversationByTrigram.add(conversation.title, conversation);
+    conversationByGeneration.insert(currentConversationGeneration, conversation);
+
+    changed(conversation.id);
+  }
+
+  public Uuid conversationGeneration() {
+    return currentConversationGeneration;
+  }
+
+  // The conversations added after the given generation, oldest first, or null
+  // if the generation is not one of the current generations (for example one
+  // from before the server restarted).
+  public Iterable<Conversation> conversationsAfter(Uuid generation) {
+
+    if (generation == null ||
+        !Uuid.equals(generation.root(), conversationEpoch) ||
+        UUID_COMPARE.compare(generation, currentConversationGeneration) > 0) {
+      return null;
+    }
+
+    return conversationByGeneration.after(new Uuid(conversationEpoch, generation.id() + 1));
   }
 
   public StoreAccessor<Uuid, Conversation> conversationById() {
@@ -120,21 +192,75 @@ public final class Model {
     return conversationByText;
   }
 
-  public void add(Message message) {
-    messageById.insert(message.id, message);
-    messageByTime.insert(message.creation, message);
-    messageByText.insert(message.content, message);
+  TrigramIndex<Conversation> conversationByTrigram() {
+    return conversationByTrigram;
   }
 
-  public StoreAccessor<Uuid, Message> messageById() {
-    return messageById;
+  // Add a message to the end of a conversation.
+  public void add(Uuid conversation, Message message) {
+    messages.append(conversation, message);
+  }
+
+  // The log of a conversation's messages, or null if it has none.
+  MessageLog messages(Uuid conversation) {
+    return messages.log(conversation);
+  }
+
+  // Where a message is in the log of its conversation, or null if there is no
+  // such message.
+  MessageStore.Position position(Uuid message) {
+    return messages.position(message);
   }
 
-  public StoreAccessor<Time, Message> messageByTime() {
-    return messageByTime;
+  // The newest messages (at most "limit" of them) that contain every word of
+  // the query (see MessageStore.search).
+  List<Message> search(String query,
+                       Collection<Uuid> conversations,
+                       Time start,
+                       Time end,
+                       int limit) {
+    return messages.search(query, conversations, start.inMs(), end.inMs(), limit);
   }
 
-  public StoreAccessor<String, Message> messageByText() {
-    return messageByText;
+  // Point a message at the message after it. The message store already
+  // links each message to the one added after it (which also changes its
+  // version), so this only updates the caller's copy.
+  public void setNext(Message message, Uuid next) {
+    message.next = next;
   }
+
+  // Give a conversation a new version after changing it.
+  public void changed(Uuid id) {
+    versionById.put(id, versions.make());
+  }
+
+  // The current version of a conversation or message, or null if there is no
+  // such conversation or message.
+  public Uuid version(Uuid id) {
+
+    final Uuid version = versionById.get(id);
+
+    if (version != null) {
+      return version;
+    }
+
+    final MessageStore.Position position = messages.position(id);
+
+    if (position == null) {
+      return null;
+    }
+
+    return position.sequence + 1 < position.log.size() ?
+        linkedMessageVersion :
+        lastMessageVersion;
+  }
+
+  public WireFormat.Cache encodings() {
+    return encodings;
+  }
+
+  public StoreAccessor<Uuid, Message> messageById() {
+    return messages;
+  }
+
 }
@@ -0,0 +1,129 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Comparator;
+
+import codeu.chat.common.WireFormat;
+import codeu.chat.util.Serializer;
+import codeu.chat.util.Serializers;
+
+// PAGER
+//
+// Writes one page of a query's results straight from the store's iterator,
+// so that neither the results nor the page are ever collected in memory.
+// Each value is written after a true BOOLEAN. The page ends with a false
+// BOOLEAN and then the cursor that gets the next page, as BYTES. The cursor
+// is empty once there are no more values.
+//
+// A cursor holds the key of the last value that was looked at and how many
+// values in a row had that key, so a page can start in the middle of values
+// that share a key (such as conversations created in the same millisecond).
+// Cursors are opaque to clients.
+abstract class Pager<KEY, VALUE> {
+
+  public static final int MAX_PAGE_SIZE = 1024;
+
+  private final Comparator<KEY> comparator;
+  private final Serializer<KEY> keySerializer;
+
+  public Pager(Comparator<KEY> comparator, Serializer<KEY> keySerializer) {
+    this.comparator = comparator;
+    this.keySerializer = keySerializer;
+  }
+
+  // The values in key order, starting with the first whose key is not before
+  // "start", or with the very first value if "start" is null.
+  protected abstract Iterable<VALUE> from(KEY start);
+
+  protected abstract KEY key(VALUE value);
+
+  // Whether a value is part of the results. Values that are not still move
+  // the cursor along.
+  protected boolean include(VALUE value) {
+    return true;
+  }
+
+  protected abstract void write(OutputStream out, VALUE value) throws IOException;
+
+  // Write up to "limit" values (at most MAX_PAGE_SIZE) after the cursor, or
+  // from the start if the cursor is empty.
+  public void writePage(OutputStream out,
+                        WireFormat format,
+                        byte[] cursor,
+                        int limit) throws IOException {
+
+    limit = limit <= 0 ? MAX_PAGE_SIZE : Math.min(limit, MAX_PAGE_SIZE);
+
+    KEY key = null;
+    int run = 0;
+
+    if (cursor.length > 0) {
+      final InputStream in = new ByteArrayInputStream(cursor);
+      key = keySerializer.read(in);
+      run = Serializers.INTEGER.read(in);
+    }
+
+    // Skip the values with the cursor's key that were already looked at.
+    int skip = run;
+
+    int written = 0;
+    boolean more = false;
+
+    for (final VALUE value : from(key)) {
+
+      final KEY current = key(value);
+      final boolean sameKey = key != null && comparator.compare(current, key) == 0;
+
+      if (sameKey && skip > 0) {
+        skip -= 1;
+        continue;
+      }
+
+      if (written == limit) {
+        more = true;
+        break;
+      }
+
+      if (sameKey) {
+        run += 1;
+      } else {
+        key = current;
+        run = 1;
+      }
+
+      if (include(value)) {
+        format.bool.write(out, true);
+        write(out, value);
+        written += 1;
+      }
+    }
+
+    format.bool.write(out, false);
+
+    final ByteArrayOutputStream next = new ByteArrayOutputStream();
+    if (more) {
+      keySerializer.write(next, key);
+      Serializers.INTEGER.write(next, run);
+    }
+    format.bytes.write(out, next.toByteArray());
+  }
+}
@@ -0,0 +1,306 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+// PATTERN CACHE
+//
+// The most recently used regular expressions, compiled, along with what must
+// be true of any text that matches all of one (see Compiled). Clients send
+// the same few filters again and again, so compiling each of them once saves
+// a compile per request, and knowing what a match must contain lets a search
+// look at only the titles that could match rather than at all of them.
+//
+// The cache can be used by many threads at once.
+final class PatternCache {
+
+  // COMPILED
+  //
+  // A compiled expression and what its matches must contain. "prefix" is
+  // text that every match starts with and "literals" are pieces of text that
+  // every match contains. Both are exact, so they only narrow a search when
+  // matching is case sensitive, but a search that ignores case finds all of
+  // the text they would find.
+  static final class Compiled {
+
+    final Pattern pattern;
+    final String prefix;
+    final List<String> literals;
+
+    Compiled(Pattern pattern, String prefix, List<String> literals) {
+      this.pattern = pattern;
+      this.prefix = prefix;
+      this.literals = literals;
+    }
+  }
+
+  private final Map<String, Compiled> compiled;
+
+  PatternCache(final int capacity) {
+    this.compiled = new LinkedHashMap<String, Compiled>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Compiled> eldest) {
+        return size() > capacity;
+      }
+    };
+  }
+
+  // Compile an expression, or get it from the cache. Throws a
+  // PatternSyntaxException if the expression is not valid.
+  Compiled get(String regex) {
+
+    synchronized (compiled) {
+      final Compiled found = compiled.get(regex);
+      if (found != null) {
+        return found;
+      }
+    }
+
+    // Compile outside of the lock so that a slow expression does not hold
+    // up the others. Two threads may compile the same one, which is
+    // harmless.
+    final Compiled created = compile(regex);
+
+    synchronized (compiled) {
+      compiled.put(regex, created);
+    }
+
+    return created;
+  }
+
+  int size() {
+    synchronized (compiled) {
+      return compiled.size();
+    }
+  }
+
+  static Compiled compile(String regex) {
+
+    final Pattern pattern = Pattern.compile(regex);
+
+    final Literals literals = new Literals();
+
+    if (isSimple(regex)) {
+      literals.read(regex);
+    }
+
+    return new Compiled(pattern, literals.prefix, literals.found);
+  }
+
+  // Check that the expression has no alternatives outside of groups, no
+  // flags that change what text means (such as "(?x)") and no quoting. What
+  // is outside of the groups of such an expression must all be matched, in
+  // order.
+  private static boolean isSimple(String regex) {
+
+    int depth = 0;
+
+    for (int i = 0; i < regex.length(); i++) {
+
+      final char c = regex.charAt(i);
+
+      if (c == '\\') {
+        if (i + 1 < regex.length() && regex.charAt(i + 1) == 'Q') {
+          return false;
+        }
+        i++;
+      } else if (c == '[') {
+        i = endOfClass(regex, i);
+        if (i < 0) {
+          return false;
+        }
+      } else if (c == '(') {
+        if (i + 2 < regex.length() &&
+            regex.charAt(i + 1) == '?' &&
+            ":=!<>".indexOf(regex.charAt(i + 2)) < 0) {
+          return false;
+        }
+        depth++;
+      } else if (c == ')') {
+        depth--;
+      } else if (c == '|' && depth == 0) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  // LITERALS
+  //
+  // The runs of plain characters outside of groups in a simple expression,
+  // each of which every match contains. The first run is also a prefix of
+  // every match if it is at the start of the expression.
+  private static final class Literals {
+
+    String prefix = "";
+    final List<String> found = new ArrayList<>();
+
+    private final StringBuilder run = new StringBuilder();
+    private boolean atStart = true;
+
+    void read(String regex) {
+
+      int i = regex.startsWith("^") ? 1 : 0;
+
+      while (i >= 0 && i < regex.length()) {
+
+        final char c = regex.charAt(i);
+
+        final char literal;
+        final int end;
+
+        if (c == '\\') {
+          if (i + 1 >= regex.length() || Character.isLetterOrDigit(regex.charAt(i + 1))) {
+            // A class such as "\d", or an escape whose length is not worth
+            // working out. Nothing after it is used.
+            break;
+          }
+          literal = regex.charAt(i + 1);
+          end = i + 2;
+        } else if ("^$.|?*+()[]{}".indexOf(c) < 0) {
+          literal = c;
+          end = i + 1;
+        } else {
+          // Not plain text, so the run ends here.
+          endRun();
+          i = skip(regex, i);
+          continue;
+        }
+
+        final char next = end < regex.length() ? regex.charAt(end) : 0;
+
+        if (next == '?' || next == '*' || next == '{') {
+          // The character may not be there at all.
+          endRun();
+          i = skip(regex, end);
+        } else if (next == '+') {
+          // The character is there, but what follows it may not come right
+          // after it.
+          run.append(literal);
+          endRun();
+          i = skip(regex, end);
+        } else {
+          run.append(literal);
+          i = end;
+        }
+      }
+
+      endRun();
+    }
+
+    private void endRun() {
+
+      if (run.length() > 0) {
+        found.add(run.toString());
+        if (atStart) {
+          prefix = run.toString();
+        }
+      }
+
+      run.setLength(0);
+      atStart = false;
+    }
+  }
+
+  // The index after the construct (a group, class, quantifier or single
+  // character) at "i", or -1 if it runs to the end or is not understood.
+  private static int skip(String regex, int i) {
+
+    final char c = regex.charAt(i);
+
+    if (c == '[') {
+      final int end = endOfClass(regex, i);
+      return end < 0 ? -1 : end + 1;
+    }
+
+    if (c == '{') {
+      final int end = regex.indexOf('}', i);
+      return end < 0 ? -1 : skipModifier(regex, end + 1);
+    }
+
+    if (c == '?' || c == '*' || c == '+') {
+      return skipModifier(regex, i + 1);
+    }
+
+    if (c == '(') {
+
+      int depth = 0;
+
+      for (int j = i; j < regex.length(); j++) {
+
+        final char d = regex.charAt(j);
+
+        if (d == '\\') {
+          j++;
+        } else if (d == '[') {
+          j = endOfClass(regex, j);
+          if (j < 0) {
+            return -1;
+          }
+        } else if (d == '(') {
+          depth++;
+        } else if (d == ')' && --depth == 0) {
+          return j + 1;
+        }
+      }
+
+      return -1;
+    }
+
+    return i + 1;
+  }
+
+  // Skip the "?" or "+" that makes a quantifier lazy or possessive.
+  private static int skipModifier(String regex, int i) {
+    return i < regex.length() && (regex.charAt(i) == '?' || regex.charAt(i) == '+') ? i + 1 : i;
+  }
+
+  // The index of the "]" that ends the class that starts at "start", or -1
+  // if there is none.
+  private static int endOfClass(String regex, int start) {
+
+    int depth = 0;
+
+    for (int i = start; i < regex.length(); i++) {
+
+      final char c = regex.charAt(i);
+
+      if (c == '\\') {
+        i++;
+      } else if (c == '[') {
+        depth++;
+        // A "]" right after the opening (or after "^") is part of the class.
+        if (i + 1 < regex.length() && regex.charAt(i + 1) == '^') {
+          i++;
+        }
+        if (i + 1 < regex.length() && regex.charAt(i + 1) == ']') {
+          i++;
+        }
+      } else if (c == ']' && --depth == 0) {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+}
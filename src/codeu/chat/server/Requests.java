@@ -0,0 +1,286 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import codeu.chat.common.NetworkCode;
+import codeu.chat.common.WireFormat;
+import codeu.chat.util.CompactSerializers;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.connections.RequestFraming;
+
+// REQUESTS
+//
+// Knows how long each request is without acting on it. The server uses this
+// to read a whole request off the connection before it takes the model lock,
+// so that a client that is slow to send the rest of a request cannot hold the
+// lock while the server waits for it. FRAMING lets a connection source wait
+// for a whole request before handing a connection to a worker at all.
+public final class Requests {
+
+  // How much of a field to read at a time when skipping it.
+  private static final int SKIP_SIZE = 4096;
+
+  public static final RequestFraming FRAMING = new RequestFraming() {
+    @Override
+    public boolean hasRequest(InputStream bytes) throws IOException {
+
+      // Not every serializer checks for the end of the stream, so make
+      // reading past it always look the same.
+      final InputStream in = new FilterInputStream(bytes) {
+
+        @Override
+        public int read() throws IOException {
+          final int value = super.read();
+          if (value < 0) {
+            throw new EOFException();
+          }
+          return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+          final int count = super.read(buffer, offset, length);
+          if (count < 0) {
+            throw new EOFException();
+          }
+          return count;
+        }
+      };
+
+      try {
+        skip(Serializers.INTEGER.read(in), WireFormat.V1, in);
+        return true;
+      } catch (EOFException ex) {
+        return false;
+      }
+    }
+  };
+
+  private Requests() { }
+
+  // Read the body of a request whose type has already been read and return
+  // its bytes. The stream is left at the start of the next request.
+  static byte[] read(int type, WireFormat format, InputStream in) throws IOException {
+
+    final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+    skip(type, format, new FilterInputStream(in) {
+
+      @Override
+      public int read() throws IOException {
+        final int value = super.read();
+        if (value >= 0) {
+          body.write(value);
+        }
+        return value;
+      }
+
+      @Override
+      public int read(byte[] bytes, int offset, int length) throws IOException {
+        final int count = super.read(bytes, offset, length);
+        if (count > 0) {
+          body.write(bytes, offset, count);
+        }
+        return count;
+      }
+    });
+
+    return body.toByteArray();
+  }
+
+  // Read past the body of a request whose type has already been read. Throws
+  // EOFException if the stream ends before the body does. A request that the
+  // server does not know has no body.
+  static void skip(int type, WireFormat format, InputStream in) throws IOException {
+
+    switch (type) {
+
+      case NetworkCode.PROTOCOL_VERSION_REQUEST:
+        format.integer.read(in);
+        break;
+
+      case NetworkCode.NEW_MESSAGE_REQUEST:
+        format.uuid.read(in);
+        format.uuid.read(in);
+        skipBytes(format, in);
+        break;
+
+      case NetworkCode.NEW_USER_REQUEST:
+      case NetworkCode.CHANGE_USERNAME_REQUEST:
+        skipBytes(format, in);
+        skipBytes(format, in);
+        break;
+
+      case NetworkCode.DELETE_USER_REQUEST:
+      case NetworkCode.GET_CONVERSATIONS_BY_TITLE_REQUEST:
+        skipBytes(format, in);
+        break;
+
+      case NetworkCode.NEW_CONVERSATION_REQUEST:
+        skipBytes(format, in);
+        format.uuid.read(in);
+        break;
+
+      case NetworkCode.GET_USERS_BY_ID_REQUEST:
+      case NetworkCode.GET_CONVERSATIONS_BY_ID_REQUEST:
+      case NetworkCode.GET_MESSAGES_BY_ID_REQUEST:
+      case NetworkCode.GET_USERS_EXCLUDING_REQUEST:
+        skipUuids(format, in);
+        break;
+
+      case NetworkCode.GET_CONVERSATIONS_IF_MODIFIED_REQUEST:
+      case NetworkCode.GET_MESSAGES_IF_MODIFIED_REQUEST:
+        skipUuids(format, in);
+        skipUuids(format, in);
+        break;
+
+      case NetworkCode.GET_CONVERSATIONS_SINCE_REQUEST:
+        format.uuid.read(in);
+        break;
+
+      case NetworkCode.GET_PAGE_REQUEST:
+        skipPage(format, in);
+        break;
+
+      case NetworkCode.GET_CONVERSATIONS_BY_TIME_REQUEST:
+        format.time.read(in);
+        format.time.read(in);
+        break;
+
+      case NetworkCode.GET_MESSAGES_BY_TIME_REQUEST:
+        format.uuid.read(in);
+        format.time.read(in);
+        format.time.read(in);
+        break;
+
+      case NetworkCode.GET_MESSAGES_BY_RANGE_REQUEST:
+        format.uuid.read(in);
+        format.integer.read(in);
+        break;
+
+      case NetworkCode.SEARCH_MESSAGES_REQUEST:
+        skipBytes(format, in);
+        format.bool.read(in);
+        skipUuids(format, in);
+        format.time.read(in);
+        format.time.read(in);
+        format.integer.read(in);
+        break;
+
+      case NetworkCode.FIND_USERS_BY_PREFIX_REQUEST:
+      case NetworkCode.FIND_CONVERSATIONS_BY_PREFIX_REQUEST:
+        skipBytes(format, in);
+        format.integer.read(in);
+        break;
+
+      // Requests that wrap other requests or manage the connection. These are
+      // always read in version 1 except for the request inside a V2_REQUEST.
+
+      case NetworkCode.V2_REQUEST:
+        skip(WireFormat.V2.integer.read(in), WireFormat.V2, in);
+        break;
+
+      case NetworkCode.COMPRESSED_REQUEST:
+        skip(Serializers.INTEGER.read(in), WireFormat.V1, in);
+        break;
+
+      case NetworkCode.BATCH_REQUEST:
+        for (int count = Serializers.INTEGER.read(in); count > 0; count--) {
+          skipBytes(WireFormat.V1, in);
+        }
+        break;
+
+      case NetworkCode.FRAMED_REQUEST:
+        Serializers.INTEGER.read(in);
+        skipBytes(WireFormat.V1, in);
+        break;
+
+      case NetworkCode.SUBSCRIBE_REQUEST:
+        final WireFormat subscribeFormat = WireFormat.forVersion(Serializers.INTEGER.read(in));
+        subscribeFormat.bool.read(in);
+        skipUuids(subscribeFormat, in);
+        break;
+
+      default:
+        break;
+    }
+  }
+
+  // A page request names the query it pages and is followed by that query's
+  // arguments, the cursor and the limit. A query that cannot be paged is
+  // rejected by the server, so nothing after it is read.
+  private static void skipPage(WireFormat format, InputStream in) throws IOException {
+
+    final int query = format.integer.read(in);
+
+    if (query == NetworkCode.GET_USERS_EXCLUDING_REQUEST) {
+      skipUuids(format, in);
+    } else if (query == NetworkCode.GET_CONVERSATIONS_BY_TIME_REQUEST) {
+      format.time.read(in);
+      format.time.read(in);
+    } else if (query != NetworkCode.GET_ALL_CONVERSATIONS_REQUEST) {
+      return;
+    }
+
+    skipBytes(format, in);
+    format.integer.read(in);
+  }
+
+  // Skip a BYTES or STRING field. The length comes from the client, so the
+  // field is read a little at a time rather than into an array that long.
+  private static void skipBytes(WireFormat format, InputStream in) throws IOException {
+
+    long remaining = length(format, in);
+
+    final byte[] scratch = new byte[(int) Math.min(remaining, SKIP_SIZE)];
+
+    while (remaining > 0) {
+      final int count = in.read(scratch, 0, (int) Math.min(remaining, scratch.length));
+      if (count < 0) {
+        throw new EOFException();
+      }
+      remaining -= count;
+    }
+  }
+
+  // Skip a collection of uuids one at a time, without making room for as
+  // many as it claims to hold.
+  private static void skipUuids(WireFormat format, InputStream in) throws IOException {
+    for (long count = length(format, in); count > 0; count--) {
+      format.uuid.read(in);
+    }
+  }
+
+  // A length or collection size, which is a fixed width INTEGER in version 1
+  // and an unsigned varint in version 2.
+  private static long length(WireFormat format, InputStream in) throws IOException {
+
+    final long length = format.version == 1 ?
+        Serializers.INTEGER.read(in) :
+        CompactSerializers.readVarint(in);
+
+    if (length < 0 || length > Integer.MAX_VALUE) {
+      throw new IOException("Bad length " + length);
+    }
+
+    return length;
+  }
+}
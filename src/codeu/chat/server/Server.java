@@ -15,16 +15,25 @@
 
 package codeu.chat.server;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.PushbackInputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Set;
 import java.util.Map;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import codeu.chat.common.Conversation;
 import codeu.chat.common.ConversationSummary;
@@ -33,12 +42,19 @@ import codeu.chat.common.Message;
 import codeu.chat.common.NetworkCode;
 import codeu.chat.common.Relay;
 import codeu.chat.common.User;
+import codeu.chat.common.WireFormat;
+import codeu.chat.util.ByteBufferOutputStream;
+import codeu.chat.util.Compression;
 import codeu.chat.util.Logger;
+import codeu.chat.util.Serializer;
 import codeu.chat.util.Serializers;
 import codeu.chat.util.Time;
 import codeu.chat.util.Timeline;
 import codeu.chat.util.Uuid;
 import codeu.chat.util.connections.Connection;
+import codeu.chat.util.connections.GatheringConnection;
+import codeu.chat.util.connections.ReusableConnection;
+import codeu.chat.util.store.StoreAccessor;
 
 // Jedis is used as the database for this system
 import redis.clients.jedis.Jedis;
@@ -51,30 +67,78 @@ public final class Server {
 
   private static final int RELAY_REFRESH_MS = 5000;  // 5 seconds
 
+  public static final int DEFAULT_COMPRESSION_THRESHOLD = 1024;  // 1 KB
+
+  // The timeline is only used for relay traffic. Client requests are run by
+  // the workers so that a slow relay or database call does not hold up
+  // every client.
   private final Timeline timeline = new Timeline();
+  private final ExecutorService workers;
+
+  // The model is not thread-safe. Requests that only read from it (the View
+  // methods) hold the read lock and can run at the same time. Anything that
+  // changes the model (the Controller methods) holds the write lock, so writes
+  // run one at a time and never overlap a read. A request is read from the
+  // connection in full before either lock is taken, and the lock is only held
+  // while the model is used, never while waiting on a client or the database.
+  private final ReadWriteLock modelLock = new ReentrantReadWriteLock();
+
+  // Changes to the model are written to the database by this one thread once
+  // the model has been changed. They are handed over while the write lock is
+  // held, so the database sees them in the same order as the model. It is
+  // also the only thread that uses "db" after the server has started.
+  private final ExecutorService persistence = Executors.newSingleThreadExecutor();
 
   private final Uuid id;
   private final byte[] secret;
 
-  private final Model model = new Model();
-  private final View view = new View(model);
+  private final Model model;
+  private final View view;
   private final Controller controller;
 
   private final Relay relay;
+
+  private final Subscriptions subscriptions =
+      new Subscriptions(Subscriptions.DEFAULT_QUEUE_SIZE);
   private Uuid lastSeen = Uuid.NULL;
 
+  // The formats used to answer requests that only read the model. They copy
+  // users and conversation summaries from the model's cache of their
+  // encodings instead of encoding them again.
+  private final WireFormat cachedV1;
+  private final WireFormat cachedV2;
+
+  // Responses to compressed requests that are at least this many bytes are
+  // deflated. Negative if compression is turned off.
+  private volatile int compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+
   private Jedis db;
   private JedisPool pool = new JedisPool(new JedisPoolConfig(), "localhost");
   private final String CONVERSATION_HASH = "CONVERSATION_HASH";
 
   public Server(final Uuid id, final byte[] secret, final Relay relay) {
+    this(id, secret, relay, Runtime.getRuntime().availableProcessors());
+  }
+
+  public Server(final Uuid id, final byte[] secret, final Relay relay, int workerCount) {
+    this(id, secret, relay, workerCount, new Model());
+  }
+
+  Server(final Uuid id, final byte[] secret, final Relay relay, int workerCount, Model model) {
 
     this.id = id;
     this.secret = Arrays.copyOf(secret, secret.length);
 
+    this.model = model;
+    this.view = new View(model);
     this.controller = new Controller(id, model);
     this.relay = relay;
 
+    this.cachedV1 = WireFormat.V1.withCache(model.encodings());
+    this.cachedV2 = WireFormat.V2.withCache(model.encodings());
+
+    this.workers = Executors.newFixedThreadPool(Math.max(1, workerCount));
+
     try {
       db = pool.getResource();
       loadUsers();
@@ -91,7 +155,12 @@ public final class Server {
           LOG.info("Reading update from relay...");
 
           for (final Relay.Bundle bundle : relay.read(id, secret, lastSeen, 32)) {
-            onBundle(bundle);
+            modelLock.writeLock().lock();
+            try {
+              onBundle(bundle);
+            } finally {
+              modelLock.writeLock().unlock();
+            }
             lastSeen = bundle.id();
           }
 
@@ -135,33 +204,246 @@ public final class Server {
     }
   }
 
+  // Set the size at which responses to compressed requests are deflated, or
+  // turn compression off with a negative threshold.
+  public void setCompressionThreshold(int bytes) {
+    compressionThreshold = bytes;
+  }
+
+  // Stop relay polling and the workers. Requests already handed to the
+  // workers and changes waiting to be written to the database still finish.
+  // This is a non-blocking call.
+  public void stop() {
+    timeline.stop();
+    workers.shutdown();
+    persistence.shutdown();
+  }
+
   public void handleConnection(final Connection connection) {
-    timeline.scheduleNow(new Runnable() {
+
+    // Connections that can be handed back to their source are kept open
+    // between requests. Waiting for the next request is left to the source so
+    // that a worker is never blocked on an idle client.
+    final boolean keepAlive = connection instanceof ReusableConnection;
+
+    workers.execute(new Runnable() {
       @Override
       public void run() {
+
+        final Dispatch dispatch = new Dispatch(connection, keepAlive);
+
+        boolean success = false;
+
         try {
 
           LOG.info("Handling connection...");
 
-          final boolean success = onMessage(
-              connection.in(),
-              connection.out());
+          // Handle every request that has already arrived on the connection.
+          // One that has only partly arrived is left to the source, so that
+          // the worker does not block waiting for the rest of it.
+          do {
+            success = dispatch.handleNext();
+          } while (success
+                   && keepAlive
+                   && !dispatch.subscribed()
+                   && ((ReusableConnection) connection).hasRequest());
 
           LOG.info("Connection handled: %s", success ? "ACCEPTED" : "REJECTED");
         } catch (Exception ex) {
 
+          success = false;
           LOG.error(ex, "Exception while handling connection.");
 
         }
 
-        try {
+        dispatch.done(success);
+      }
+    });
+  }
+
+  // DISPATCH
+  //
+  // The requests read from a connection each time it is handed to the
+  // workers. Plain requests are answered in order by the worker reading the
+  // connection. Framed requests are handed to other workers as soon as they
+  // are read and are answered as soon as they finish, so their responses can
+  // come back in any order. The connection is released (or closed) once the
+  // last response has been written, unless it was subscribed, in which case
+  // it is handed over to the subscriber instead.
+  private final class Dispatch {
+
+    private final Connection connection;
+    private final boolean keepAlive;
+
+    // Guarded by "this". This starts at one for the worker that is reading
+    // from the connection.
+    private int pending = 1;
+    private boolean failed = false;
+    private Subscriptions.Subscriber subscriber = null;
+
+    // Held while a response is written. This is not "this" because a write
+    // can block until the client reads, and the client may not read until
+    // it has sent every request. The reading worker still needs "this" to
+    // count those requests, so it must never wait on a write.
+    private final Object output = new Object();
+
+    public Dispatch(Connection connection, boolean keepAlive) {
+      this.connection = connection;
+      this.keepAlive = keepAlive;
+    }
+
+    public boolean handleNext() throws IOException {
+
+      final InputStream in = connection.in();
+      final int type = Serializers.INTEGER.read(in);
+
+      if (type == NetworkCode.SUBSCRIBE_REQUEST) {
+        final ByteBufferOutputStream response = new ByteBufferOutputStream();
+        final Subscriptions.Subscriber added = subscribe(connection, in, response);
+        write(response);
+        synchronized (this) {
+          subscriber = added;
+        }
+        return true;
+      }
+
+      if (type != NetworkCode.FRAMED_REQUEST) {
+        final ByteBufferOutputStream response = new ByteBufferOutputStream();
+        final boolean success = handleRequest(type, in, response, keepAlive);
+        write(response);
+        return success;
+      }
+
+      final int correlationId = Serializers.INTEGER.read(in);
+      final byte[] request = Serializers.BYTES.read(in);
+
+      synchronized (this) {
+        pending += 1;
+      }
+
+      workers.execute(new Runnable() {
+        @Override
+        public void run() {
+          boolean success = false;
+          try {
+            write(handleFrame(correlationId, request, keepAlive));
+            success = true;
+          } catch (Exception ex) {
+            LOG.error(ex, "Exception while handling framed request.");
+          }
+          done(success);
+        }
+      });
+
+      return true;
+    }
+
+    public synchronized boolean subscribed() {
+      return subscriber != null;
+    }
+
+    public synchronized void done(boolean success) {
+
+      failed = failed || !success;
+      pending -= 1;
+
+      if (pending > 0) {
+        return;
+      }
+
+      // Events are only pushed once every response has been written, so
+      // that they never interleave with one.
+      if (subscriber != null) {
+        if (failed) {
+          subscriber.close();
+        } else {
+          subscriber.start();
+        }
+        return;
+      }
+
+      try {
+        // A rejected request gets no response, so the connection must be
+        // closed for the client to see that it failed.
+        if (!failed && keepAlive) {
+          ((ReusableConnection) connection).release();
+        } else {
           connection.close();
-        } catch (Exception ex) {
-          LOG.error(ex, "Exception while closing connection.");
+        }
+      } catch (Exception ex) {
+        LOG.error(ex, "Exception while closing connection.");
+      }
+    }
+
+    private void write(ByteBufferOutputStream response) throws IOException {
+      synchronized (output) {
+        send(connection, connection.out(), response);
+      }
+    }
+  }
+
+  // SERVE CONNECTION
+  //
+  // Handle requests from the connection on the calling thread until the
+  // client closes it, a request is rejected, or a read times out. This blocks
+  // while waiting for each request, so it should be called from a thread
+  // dedicated to the connection (ideally a virtual thread) rather than from a
+  // shared pool.
+  public void serveConnection(Connection connection) {
+
+    try {
+
+      LOG.info("Serving connection...");
 
+      // Read one byte ahead so that a client closing the connection between
+      // requests can be told apart from the start of a new request.
+      final PushbackInputStream in = new PushbackInputStream(connection.in());
+
+      boolean success = true;
+
+      for (int next = in.read(); success && next >= 0; next = in.read()) {
+
+        in.unread(next);
+
+        final int type = Serializers.INTEGER.read(in);
+
+        if (type == NetworkCode.SUBSCRIBE_REQUEST) {
+
+          // The connection now belongs to the subscriber, which closes it.
+          final ByteBufferOutputStream response = new ByteBufferOutputStream();
+          final Subscriptions.Subscriber subscriber = subscribe(connection, in, response);
+          try {
+            send(connection, connection.out(), response);
+          } catch (IOException ex) {
+            subscriber.close();
+            throw ex;
+          }
+          subscriber.start();
+
+          LOG.info("Connection served: SUBSCRIBED");
+          return;
         }
+
+        success = onMessage(connection, in, type, true);
       }
-    });
+
+      LOG.info("Connection served: %s", success ? "CLOSED BY CLIENT" : "REJECTED");
+
+    } catch (SocketTimeoutException ex) {
+
+      LOG.info("Connection idle for too long.");
+
+    } catch (Exception ex) {
+
+      LOG.error(ex, "Exception while serving connection.");
+
+    }
+
+    try {
+      connection.close();
+    } catch (Exception ex) {
+      LOG.error(ex, "Exception while closing connection.");
+    }
   }
 
   private void reloadPastConversations() {
@@ -193,33 +475,326 @@ public final class Server {
     }
   }
 
-  private boolean onMessage(InputStream in, OutputStream out) throws IOException {
+  private boolean onMessage(Connection connection,
+                            InputStream in,
+                            int type,
+                            boolean keepAlive) throws IOException {
+
+    final ByteBufferOutputStream response;
+    final boolean success;
+
+    if (type == NetworkCode.FRAMED_REQUEST) {
+      final int correlationId = Serializers.INTEGER.read(in);
+      final byte[] request = Serializers.BYTES.read(in);
+      response = handleFrame(correlationId, request, keepAlive);
+      success = true;
+    } else {
+      response = new ByteBufferOutputStream();
+      success = handleRequest(type, in, response, keepAlive);
+    }
+
+    send(connection, connection.out(), response);
+
+    return success;
+  }
+
+  // Send a response with a gathering write if the connection supports one,
+  // otherwise by copying it to the connection's output stream.
+  private static void send(Connection connection,
+                           OutputStream out,
+                           ByteBufferOutputStream response) throws IOException {
+
+    if (connection instanceof GatheringConnection) {
+      ((GatheringConnection) connection).write(response.buffers());
+    } else {
+      response.writeTo(out);
+    }
+
+    out.flush();
+  }
+
+  // SUBSCRIBE
+  //
+  // Read a subscribe request whose type has already been read, add the
+  // subscriber and write the response. The subscriber is not started, as the
+  // response has to be sent before any events.
+  private Subscriptions.Subscriber subscribe(Connection connection,
+                                             InputStream in,
+                                             ByteBufferOutputStream response)
+      throws IOException {
+
+    final WireFormat format = WireFormat.forVersion(Serializers.INTEGER.read(in));
+
+    final boolean all = format.bool.read(in);
+    final Collection<Uuid> conversations = format.uuids.read(in);
+
+    final Subscriptions.Subscriber subscriber =
+        subscriptions.add(connection, format, all ? null : conversations);
+
+    Serializers.INTEGER.write(response, NetworkCode.SUBSCRIBE_RESPONSE);
+    Serializers.INTEGER.write(response, format.version);
+
+    return subscriber;
+  }
+
+  // Handle a request whose type has already been read. The response is built
+  // in memory so that the lock is not held while the response is sent to a
+  // client that may be slow to read it.
+  private boolean handleRequest(int type,
+                                InputStream in,
+                                ByteBufferOutputStream response,
+                                boolean keepAlive) throws IOException {
+
+    if (type == NetworkCode.BATCH_REQUEST) {
+      return handleBatch(in, response, keepAlive);
+    }
+
+    if (type == NetworkCode.COMPRESSED_REQUEST) {
+      return handleCompressed(in, response, keepAlive);
+    }
+
+    // A version 2 request is answered in version 2, including the type of the
+    // response. Everything else is version 1.
+    WireFormat format = WireFormat.V1;
+    if (type == NetworkCode.V2_REQUEST) {
+      format = WireFormat.V2;
+      type = format.integer.read(in);
+    }
+
+    // Read the rest of the request before taking the lock so that a client
+    // that is slow to send it does not keep everyone else waiting.
+    final InputStream body = new ByteArrayInputStream(Requests.read(type, format, in));
+
+    final Lock lock = NetworkCode.isReadOnly(type) ? modelLock.readLock() : modelLock.writeLock();
+
+    lock.lock();
+    try {
+      return onMessage(type, body, response, format, keepAlive);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  // Handle every request in a batch while holding the lock once, so that the
+  // responses all see the model in the same state. The write lock is only
+  // taken if one of the requests needs it.
+  private boolean handleBatch(InputStream in,
+                              ByteBufferOutputStream response,
+                              boolean keepAlive) throws IOException {
+
+    final List<byte[]> requests = new ArrayList<>(Serializers.collection(Serializers.BYTES).read(in));
+    final int[] types = new int[requests.size()];
+    final WireFormat[] formats = new WireFormat[requests.size()];
+    final List<InputStream> streams = new ArrayList<>(requests.size());
+
+    boolean readOnly = true;
+
+    for (int i = 0; i < requests.size(); i++) {
+
+      final InputStream subRequest = new ByteArrayInputStream(requests.get(i));
+
+      types[i] = NetworkCode.NO_MESSAGE;
+      formats[i] = WireFormat.V1;
+
+      try {
+        types[i] = Serializers.INTEGER.read(subRequest);
+        if (types[i] == NetworkCode.V2_REQUEST) {
+          formats[i] = WireFormat.V2;
+          types[i] = formats[i].integer.read(subRequest);
+        }
+      } catch (IOException ex) {
+        // Too short to have a type. It gets an empty response.
+        types[i] = NetworkCode.NO_MESSAGE;
+      }
+
+      streams.add(subRequest);
+      readOnly = readOnly && NetworkCode.isReadOnly(types[i]);
+    }
+
+    final List<ByteBufferOutputStream> responses = new ArrayList<>(requests.size());
+
+    final Lock lock = readOnly ? modelLock.readLock() : modelLock.writeLock();
+
+    lock.lock();
+    try {
+      for (int i = 0; i < requests.size(); i++) {
+
+        final ByteBufferOutputStream subResponse = new ByteBufferOutputStream();
+
+        // Requests that manage the connection or wrap other requests make no
+        // sense inside a batch.
+        if (isBatchable(types[i])) {
+          if (!onMessage(types[i], streams.get(i), subResponse, formats[i], keepAlive)) {
+            subResponse.reset();
+          }
+        }
+
+        responses.add(subResponse);
+      }
+    } finally {
+      lock.unlock();
+    }
+
+    // Written the same way as collection(BYTES), but the responses are
+    // appended rather than copied.
+    Serializers.INTEGER.write(response, NetworkCode.BATCH_RESPONSE);
+    Serializers.INTEGER.write(response, responses.size());
+    for (final ByteBufferOutputStream subResponse : responses) {
+      Serializers.INTEGER.write(response, subResponse.size());
+      response.write(subResponse);
+    }
+
+    return true;
+  }
+
+  // Handle the request that follows and deflate its response if it is big
+  // enough and deflating makes it smaller.
+  private boolean handleCompressed(InputStream in,
+                                   ByteBufferOutputStream response,
+                                   boolean keepAlive) throws IOException {
 
     final int type = Serializers.INTEGER.read(in);
 
-    if (type == NetworkCode.NEW_MESSAGE_REQUEST) {
-      final Uuid author = Uuid.SERIALIZER.read(in);
-      final Uuid conversation = Uuid.SERIALIZER.read(in);
-      final String content = Serializers.STRING.read(in);
+    final ByteBufferOutputStream uncompressed = new ByteBufferOutputStream();
+
+    if (type == NetworkCode.COMPRESSED_REQUEST ||
+        !handleRequest(type, in, uncompressed, keepAlive)) {
+      return false;
+    }
+
+    final int threshold = compressionThreshold;
+
+    final byte[] deflated = threshold >= 0 && uncompressed.size() >= threshold ?
+        Compression.deflate(uncompressed) :
+        null;
+
+    Serializers.INTEGER.write(response, NetworkCode.COMPRESSED_RESPONSE);
+    Serializers.BOOLEAN.write(response, deflated != null);
+    Serializers.INTEGER.write(response, uncompressed.size());
+
+    if (deflated == null) {
+      // Written the same way as BYTES, but the response is appended rather
+      // than copied.
+      Serializers.INTEGER.write(response, uncompressed.size());
+      response.write(uncompressed);
+    } else {
+      Serializers.BYTES.write(response, deflated);
+    }
+
+    return true;
+  }
+
+  private static boolean isBatchable(int type) {
+    switch (type) {
+      case NetworkCode.KEEP_ALIVE_REQUEST:
+      case NetworkCode.FRAMED_REQUEST:
+      case NetworkCode.BATCH_REQUEST:
+      case NetworkCode.V2_REQUEST:
+      case NetworkCode.COMPRESSED_REQUEST:
+      case NetworkCode.SUBSCRIBE_REQUEST:
+      case NetworkCode.NO_MESSAGE:
+        return false;
+      default:
+        return true;
+    }
+  }
+
+  // Handle a request that was wrapped in a frame and wrap its response in a
+  // frame with the same correlation id. A rejected request has an empty
+  // response rather than closing the connection, as other frames may still be
+  // in flight.
+  private ByteBufferOutputStream handleFrame(int correlationId,
+                                             byte[] request,
+                                             boolean keepAlive) throws IOException {
+
+    final InputStream in = new ByteArrayInputStream(request);
+    final ByteBufferOutputStream response = new ByteBufferOutputStream();
+
+    if (!handleRequest(Serializers.INTEGER.read(in), in, response, keepAlive)) {
+      response.reset();
+    }
+
+    // Written the same way as BYTES, but the response is appended rather
+    // than copied.
+    final ByteBufferOutputStream frame = new ByteBufferOutputStream();
+    Serializers.INTEGER.write(frame, NetworkCode.FRAMED_RESPONSE);
+    Serializers.INTEGER.write(frame, correlationId);
+    Serializers.INTEGER.write(frame, response.size());
+    frame.write(response);
+
+    return frame;
+  }
+
+  private boolean onMessage(int type,
+                            InputStream in,
+                            ByteBufferOutputStream out,
+                            WireFormat format,
+                            boolean keepAlive) throws IOException {
+
+    // Values written while the model is being changed are not cached, as
+    // they may be about to change or be deleted.
+    if (NetworkCode.isReadOnly(type)) {
+      format = format.version == 1 ? cachedV1 : cachedV2;
+    }
+
+    if (type == NetworkCode.KEEP_ALIVE_REQUEST) {
+
+      // Tell the client whether this connection will stay open after each
+      // response so that it knows if it can send more requests on it.
+      format.integer.write(out, NetworkCode.KEEP_ALIVE_RESPONSE);
+      format.bool.write(out, keepAlive);
+
+    } else if (type == NetworkCode.PROTOCOL_VERSION_REQUEST) {
+
+      // Answer with the newest version of the wire format that both sides
+      // speak. The client uses it for all of its later requests.
+      final int version = format.integer.read(in);
+
+      format.integer.write(out, NetworkCode.PROTOCOL_VERSION_RESPONSE);
+      format.integer.write(out, WireFormat.forVersion(version).version);
+
+    } else if (type == NetworkCode.COMPRESSION_REQUEST) {
+
+      format.integer.write(out, NetworkCode.COMPRESSION_RESPONSE);
+      format.bool.write(out, compressionThreshold >= 0);
+
+    } else if (type == NetworkCode.NEW_MESSAGE_REQUEST) {
+      final Uuid author = format.uuid.read(in);
+      final Uuid conversation = format.uuid.read(in);
+      final String content = format.string.read(in);
 
       final Message message = controller.newMessage(author, conversation, content);
 
-      Serializers.INTEGER.write(out, NetworkCode.NEW_MESSAGE_RESPONSE);
-      Serializers.nullable(Message.SERIALIZER).write(out, message);
+      format.integer.write(out, NetworkCode.NEW_MESSAGE_RESPONSE);
+      Serializers.nullable(format.message).write(out, message);
+
+      if (message == null) {
+        return true;
+      }
+
+      subscriptions.publish(conversation, message);
 
       timeline.scheduleNow(createSendToRelayEvent(
           author,
           conversation,
           message.id));
 
-      return addMessageToDB(message, conversation, author, content);
+      persist("add message " + message.id, new Runnable() {
+        @Override
+        public void run() {
+          addMessageToDB(message, conversation, author, content);
+        }
+      });
+
 
     } else if (type == NetworkCode.NEW_USER_REQUEST) {
 
-      final String name = Serializers.STRING.read(in);
-      final String password = Serializers.STRING.read(in);
+      final String name = format.string.read(in);
+      final String password = format.string.read(in);
 
-      if (db.hexists("nameHashRev", name)) {
+      // Every user in the database was loaded into the model when the server
+      // started, so the model knows whether the name is taken.
+      if (model.getUserByName(name) != null) {
         LOG.info(
           "addUser fail - username taken (user.name = %s)",
           name);
@@ -228,145 +803,324 @@ public final class Server {
 
       final User user = controller.newUser(name, password);
 
-      boolean addSuccess = addToDatabase(name, user, password);
-      if (!addSuccess) return false;
+      format.integer.write(out, NetworkCode.NEW_USER_RESPONSE);
+      Serializers.nullable(format.user).write(out, user);
 
-      Serializers.INTEGER.write(out, NetworkCode.NEW_USER_RESPONSE);
-      Serializers.nullable(User.SERIALIZER).write(out, user);
+      if (user != null) {
+        persist("add user " + name, new Runnable() {
+          @Override
+          public void run() {
+            addToDatabase(name, user, password);
+          }
+        });
+      }
 
     } else if (type == NetworkCode.DELETE_USER_REQUEST) {
-      final String name = Serializers.STRING.read(in);
-
-      boolean deleteSuccess = deleteFromDatabase(name);
-      if (!deleteSuccess) return false;
+      final String name = format.string.read(in);
 
       final User user = controller.deleteUser(name);
 
-      Serializers.INTEGER.write(out, NetworkCode.DELETE_USER_RESPONSE);
-      Serializers.nullable(User.SERIALIZER).write(out, user);
+      format.integer.write(out, NetworkCode.DELETE_USER_RESPONSE);
+      Serializers.nullable(format.user).write(out, user);
+
+      if (user != null) {
+        persist("delete user " + name, new Runnable() {
+          @Override
+          public void run() {
+            deleteFromDatabase(name);
+          }
+        });
+      }
 
     } else if (type == NetworkCode.CHANGE_USERNAME_REQUEST){
-      final String oldName = Serializers.STRING.read(in);
-      final String newName = Serializers.STRING.read(in);
+      final String oldName = format.string.read(in);
+      final String newName = format.string.read(in);
 
-      boolean changeSuccess = changeNameInDatabase(oldName, newName);
-      if (!changeSuccess) return false;
+      if (model.getUserByName(newName) != null) {
+        LOG.info(
+          "changeUserName fail - username taken (user.name = %s)",
+          newName);
+        return false;
+      }
 
       final User user = controller.changeUserName(oldName, newName);
 
-      Serializers.INTEGER.write(out, NetworkCode.CHANGE_USERNAME_RESPONSE);
-      Serializers.nullable(User.SERIALIZER).write(out, user);
+      format.integer.write(out, NetworkCode.CHANGE_USERNAME_RESPONSE);
+      Serializers.nullable(format.user).write(out, user);
+
+      if (user != null) {
+        persist("rename user " + oldName, new Runnable() {
+          @Override
+          public void run() {
+            changeNameInDatabase(oldName, newName);
+          }
+        });
+      }
 
     } else if (type == NetworkCode.NEW_CONVERSATION_REQUEST) {
 
-      final String title = Serializers.STRING.read(in);
-      final Uuid owner = Uuid.SERIALIZER.read(in);
+      final String title = format.string.read(in);
+      final Uuid owner = format.uuid.read(in);
       final Conversation conversation = controller.newConversation(title, owner);
 
-      Serializers.INTEGER.write(out, NetworkCode.NEW_CONVERSATION_RESPONSE);
-      Serializers.nullable(Conversation.SERIALIZER).write(out, conversation);
-      return addNewConversationToDB(title, owner, conversation);
+      format.integer.write(out, NetworkCode.NEW_CONVERSATION_RESPONSE);
+      Serializers.nullable(format.conversation).write(out, conversation);
+
+      if (conversation != null) {
+        subscriptions.publish(conversation.summary);
+
+        persist("add conversation " + conversation.id, new Runnable() {
+          @Override
+          public void run() {
+            addNewConversationToDB(title, owner, conversation);
+          }
+        });
+      }
 
     } else if (type == NetworkCode.GET_USERS_BY_ID_REQUEST) {
 
-      final Collection<Uuid> ids = Serializers.collection(Uuid.SERIALIZER).read(in);
+      final Collection<Uuid> ids = format.uuids.read(in);
 
       final Collection<User> users = view.getUsers(ids);
 
-      Serializers.INTEGER.write(out, NetworkCode.GET_USERS_BY_ID_RESPONSE);
-      Serializers.collection(User.SERIALIZER).write(out, users);
+      format.integer.write(out, NetworkCode.GET_USERS_BY_ID_RESPONSE);
+      format.users.write(out, users);
 
     } else if (type == NetworkCode.GET_ALL_CONVERSATIONS_REQUEST) {
 
       final Collection<ConversationSummary> conversations = view.getAllConversations();
 
-      Serializers.INTEGER.write(out, NetworkCode.GET_ALL_CONVERSATIONS_RESPONSE);
-      Serializers.collection(ConversationSummary.SERIALIZER).write(out, conversations);
+      format.integer.write(out, NetworkCode.GET_ALL_CONVERSATIONS_RESPONSE);
+      format.summaries.write(out, conversations);
 
     } else if (type == NetworkCode.GET_CONVERSATIONS_BY_ID_REQUEST) {
 
-      final Collection<Uuid> ids = Serializers.collection(Uuid.SERIALIZER).read(in);
+      final Collection<Uuid> ids = format.uuids.read(in);
 
       final Collection<Conversation> conversations = view.getConversations(ids);
 
-      Serializers.INTEGER.write(out, NetworkCode.GET_CONVERSATIONS_BY_ID_RESPONSE);
-      Serializers.collection(Conversation.SERIALIZER).write(out, conversations);
+      format.integer.write(out, NetworkCode.GET_CONVERSATIONS_BY_ID_RESPONSE);
+      format.conversations.write(out, conversations);
 
     } else if (type == NetworkCode.GET_MESSAGES_BY_ID_REQUEST) {
 
-      final Collection<Uuid> ids = Serializers.collection(Uuid.SERIALIZER).read(in);
+      final Collection<Uuid> ids = format.uuids.read(in);
 
       final Collection<Message> messages = view.getMessages(ids);
 
-      Serializers.INTEGER.write(out, NetworkCode.GET_MESSAGES_BY_ID_RESPONSE);
-      Serializers.collection(Message.SERIALIZER).write(out, messages);
+      format.integer.write(out, NetworkCode.GET_MESSAGES_BY_ID_RESPONSE);
+      format.messages.write(out, messages);
+
+    } else if (type == NetworkCode.GET_CONVERSATIONS_IF_MODIFIED_REQUEST) {
+
+      return writeIfModified(in,
+                             out,
+                             format,
+                             NetworkCode.GET_CONVERSATIONS_IF_MODIFIED_RESPONSE,
+                             model.conversationById(),
+                             format.conversation);
+
+    } else if (type == NetworkCode.GET_MESSAGES_IF_MODIFIED_REQUEST) {
+
+      return writeIfModified(in,
+                             out,
+                             format,
+                             NetworkCode.GET_MESSAGES_IF_MODIFIED_RESPONSE,
+                             model.messageById(),
+                             format.message);
 
     } else if (type == NetworkCode.GET_USER_GENERATION_REQUEST) {
 
-      Serializers.INTEGER.write(out, NetworkCode.GET_USER_GENERATION_RESPONSE);
-      Uuid.SERIALIZER.write(out, view.getUserGeneration());
+      format.integer.write(out, NetworkCode.GET_USER_GENERATION_RESPONSE);
+      format.uuid.write(out, view.getUserGeneration());
+
+    } else if (type == NetworkCode.GET_CONVERSATIONS_SINCE_REQUEST) {
+
+      final Uuid generation = format.uuid.read(in);
+
+      final Collection<ConversationSummary> added = view.getConversationsSince(generation);
+
+      format.integer.write(out, NetworkCode.GET_CONVERSATIONS_SINCE_RESPONSE);
+      format.uuid.write(out, view.getConversationGeneration());
+      format.bool.write(out, added == null);
+      format.summaries.write(out, added == null ? view.getAllConversations() : added);
+
+    } else if (type == NetworkCode.GET_PAGE_REQUEST) {
+
+      final int query = format.integer.read(in);
+
+      final Pager<?, ?> pager;
+
+      if (query == NetworkCode.GET_ALL_CONVERSATIONS_REQUEST) {
+        pager = view.pageAllConversations(format.summary);
+      } else if (query == NetworkCode.GET_USERS_EXCLUDING_REQUEST) {
+        pager = view.pageUsersExcluding(format.uuids.read(in), format.user);
+      } else if (query == NetworkCode.GET_CONVERSATIONS_BY_TIME_REQUEST) {
+        final Time startTime = format.time.read(in);
+        final Time endTime = format.time.read(in);
+        pager = view.pageConversations(startTime, endTime, format.conversation);
+      } else {
+        LOG.warning("Query %d cannot be paged.", query);
+        return false;
+      }
+
+      final byte[] cursor = format.bytes.read(in);
+      final int limit = format.integer.read(in);
+
+      format.integer.write(out, NetworkCode.GET_PAGE_RESPONSE);
+      pager.writePage(out, format, cursor, limit);
 
     } else if (type == NetworkCode.GET_USERS_EXCLUDING_REQUEST) {
 
-      final Collection<Uuid> ids = Serializers.collection(Uuid.SERIALIZER).read(in);
+      final Collection<Uuid> ids = format.uuids.read(in);
 
       final Collection<User> users = view.getUsersExcluding(ids);
 
-      Serializers.INTEGER.write(out, NetworkCode.GET_USERS_EXCLUDING_RESPONSE);
-      Serializers.collection(User.SERIALIZER).write(out, users);
+      format.integer.write(out, NetworkCode.GET_USERS_EXCLUDING_RESPONSE);
+      format.users.write(out, users);
 
     } else if (type == NetworkCode.GET_CONVERSATIONS_BY_TIME_REQUEST) {
 
-      final Time startTime = Time.SERIALIZER.read(in);
-      final Time endTime = Time.SERIALIZER.read(in);
+      final Time startTime = format.time.read(in);
+      final Time endTime = format.time.read(in);
 
       final Collection<Conversation> conversations = view.getConversations(startTime, endTime);
 
-      Serializers.INTEGER.write(out, NetworkCode.GET_CONVERSATIONS_BY_TIME_RESPONSE);
-      Serializers.collection(Conversation.SERIALIZER).write(out, conversations);
+      format.integer.write(out, NetworkCode.GET_CONVERSATIONS_BY_TIME_RESPONSE);
+      format.conversations.write(out, conversations);
 
     } else if (type == NetworkCode.GET_CONVERSATIONS_BY_TITLE_REQUEST) {
 
-      final String filter = Serializers.STRING.read(in);
+      final String filter = format.string.read(in);
 
       final Collection<Conversation> conversations = view.getConversations(filter);
 
-      Serializers.INTEGER.write(out, NetworkCode.GET_CONVERSATIONS_BY_TITLE_RESPONSE);
-      Serializers.collection(Conversation.SERIALIZER).write(out, conversations);
+      format.integer.write(out, NetworkCode.GET_CONVERSATIONS_BY_TITLE_RESPONSE);
+      format.conversations.write(out, conversations);
 
     } else if (type == NetworkCode.GET_MESSAGES_BY_TIME_REQUEST) {
 
-      final Uuid conversation = Uuid.SERIALIZER.read(in);
-      final Time startTime = Time.SERIALIZER.read(in);
-      final Time endTime = Time.SERIALIZER.read(in);
+      final Uuid conversation = format.uuid.read(in);
+      final Time startTime = format.time.read(in);
+      final Time endTime = format.time.read(in);
 
       final Collection<Message> messages = view.getMessages(conversation, startTime, endTime);
 
-      Serializers.INTEGER.write(out, NetworkCode.GET_MESSAGES_BY_TIME_RESPONSE);
-      Serializers.collection(Message.SERIALIZER).write(out, messages);
+      format.integer.write(out, NetworkCode.GET_MESSAGES_BY_TIME_RESPONSE);
+      format.messages.write(out, messages);
 
     } else if (type == NetworkCode.GET_MESSAGES_BY_RANGE_REQUEST) {
-      final Uuid rootMessage = Uuid.SERIALIZER.read(in);
+      final Uuid rootMessage = format.uuid.read(in);
 
-      final int range = Serializers.INTEGER.read(in);
+      final int range = format.integer.read(in);
 
       final Collection<Message> messages = view.getMessages(rootMessage, range);
 
-      Serializers.INTEGER.write(out, NetworkCode.GET_MESSAGES_BY_RANGE_RESPONSE);
+      format.integer.write(out, NetworkCode.GET_MESSAGES_BY_RANGE_RESPONSE);
       // the type "NO_MESSAGE" so that the client still gets something.
-      Serializers.collection(Message.SERIALIZER).write(out, messages);
+      format.messages.write(out, messages);
+
+    } else if (type == NetworkCode.SEARCH_MESSAGES_REQUEST) {
+
+      final String query = format.string.read(in);
+      final boolean all = format.bool.read(in);
+      final Collection<Uuid> conversations = format.uuids.read(in);
+      final Time startTime = format.time.read(in);
+      final Time endTime = format.time.read(in);
+      final int limit = format.integer.read(in);
+
+      final Collection<Message> messages =
+          view.searchMessages(query, all ? null : conversations, startTime, endTime, limit);
+
+      format.integer.write(out, NetworkCode.SEARCH_MESSAGES_RESPONSE);
+      format.messages.write(out, messages);
+
+    } else if (type == NetworkCode.FIND_USERS_BY_PREFIX_REQUEST) {
+
+      final String prefix = format.string.read(in);
+      final int limit = format.integer.read(in);
+
+      final Collection<User> users = view.findUsersByPrefix(prefix, limit);
+
+      format.integer.write(out, NetworkCode.FIND_USERS_BY_PREFIX_RESPONSE);
+      format.users.write(out, users);
+
+    } else if (type == NetworkCode.FIND_CONVERSATIONS_BY_PREFIX_REQUEST) {
+
+      final String prefix = format.string.read(in);
+      final int limit = format.integer.read(in);
+
+      final Collection<ConversationSummary> conversations =
+          view.findConversationsByPrefix(prefix, limit);
+
+      format.integer.write(out, NetworkCode.FIND_CONVERSATIONS_BY_PREFIX_RESPONSE);
+      format.summaries.write(out, conversations);
 
     } else {
 
       // In the case that the message was not handled make a dummy message with
 
-      Serializers.INTEGER.write(out, NetworkCode.NO_MESSAGE);
+      format.integer.write(out, NetworkCode.NO_MESSAGE);
 
     }
 
     return true;
   }
 
+  // Answer an IF_MODIFIED request: send only the values whose version is not
+  // the one the client already has.
+  private <T> boolean writeIfModified(InputStream in,
+                                      OutputStream out,
+                                      WireFormat format,
+                                      int responseType,
+                                      StoreAccessor<Uuid, T> store,
+                                      Serializer<T> serializer) throws IOException {
+
+    final List<Uuid> ids = new ArrayList<>(format.uuids.read(in));
+    final List<Uuid> versions = new ArrayList<>(format.uuids.read(in));
+
+    if (ids.size() != versions.size()) {
+      LOG.warning("Got %d ids but %d versions.", ids.size(), versions.size());
+      return false;
+    }
+
+    format.integer.write(out, responseType);
+
+    for (int i = 0; i < ids.size(); i++) {
+
+      final T value = store.first(ids.get(i));
+      final Uuid version = view.getVersion(ids.get(i));
+
+      if (value == null || version == null) {
+        format.integer.write(out, NetworkCode.NOT_FOUND);
+      } else if (Uuid.equals(version, versions.get(i))) {
+        format.integer.write(out, NetworkCode.NOT_MODIFIED);
+      } else {
+        format.integer.write(out, NetworkCode.MODIFIED);
+        format.uuid.write(out, version);
+        serializer.write(out, value);
+      }
+    }
+
+    return true;
+  }
+
+  // Hand a change that has been made to the model to the persistence thread.
+  // Failures are logged rather than reported to the client, as the model has
+  // already been changed and the response may already be on its way.
+  private void persist(final String change, final Runnable write) {
+    persistence.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          write.run();
+        } catch (Exception ex) {
+          LOG.error(ex, "Could not %s in the database.", change);
+        }
+      }
+    });
+  }
+
   private boolean addToDatabase(String name, User user, String password) {
     final Time creationTime = user.creation;
     final Uuid id = user.id;
@@ -528,6 +1282,10 @@ public final class Server {
                                                 relayConversation.text(),
                                                 user.id,
                                                 relayConversation.time());
+
+      if (conversation != null) {
+        subscriptions.publish(conversation.summary);
+      }
     }
 
     Message message = model.messageById().first(relayMessage.id());
@@ -538,6 +1296,10 @@ public final class Server {
                                       conversation.id,
                                       relayMessage.text(),
                                       relayMessage.time());
+
+      if (message != null) {
+        subscriptions.publish(conversation.id, message);
+      }
     }
   }
 
@@ -547,14 +1309,25 @@ public final class Server {
     return new Runnable() {
       @Override
       public void run() {
-        final User user = view.findUser(userId);
-        final Conversation conversation = view.findConversation(conversationId);
-        final Message message = view.findMessage(messageId);
+
+        final User user;
+        final Conversation conversation;
+        final Message message;
+
+        modelLock.readLock().lock();
+        try {
+          user = view.findUser(userId);
+          conversation = view.findConversation(conversationId);
+          message = view.findMessage(messageId);
+        } finally {
+          modelLock.readLock().unlock();
+        }
+
         relay.write(id,
                     secret,
                     relay.pack(user.id, user.name, user.creation),
                     relay.pack(conversation.id, conversation.title, conversation.creation),
-                    relay.pack(message.id, message.content, message.creation));
+                    relay.pack(message.id, message.content(), message.creation));
       }
     };
   }
@@ -0,0 +1,288 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import codeu.chat.common.ConversationSummary;
+import codeu.chat.common.Message;
+import codeu.chat.common.NetworkCode;
+import codeu.chat.common.WireFormat;
+import codeu.chat.util.Logger;
+import codeu.chat.util.Threads;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.connections.Connection;
+import codeu.chat.util.connections.GatheringConnection;
+
+// SUBSCRIPTIONS
+//
+// The clients that asked to have new messages and conversations pushed to
+// them (see NetworkCode.SUBSCRIBE_REQUEST). Each subscriber owns its
+// connection and has a bounded queue of events waiting to be sent.
+//
+// Publishing never blocks. An event is encoded once for each wire format
+// version and added to the queue of every subscriber that wants it. Each
+// subscriber with events waiting is drained by a pusher thread. A subscriber
+// whose queue is full is reading too slowly to keep up and is evicted: its
+// connection is closed, and it has to catch up with ordinary requests and
+// subscribe again.
+final class Subscriptions {
+
+  private final static Logger.Log LOG = Logger.newLog(Subscriptions.class);
+
+  static final int DEFAULT_QUEUE_SIZE = 1024;
+
+  private final Set<Subscriber> subscribers =
+      Collections.newSetFromMap(new ConcurrentHashMap<Subscriber, Boolean>());
+
+  // Sending to a slow client blocks, so pushes get threads of their own
+  // rather than taking workers away from requests.
+  private final ExecutorService pushers = Threads.newThreadPerTaskExecutor();
+
+  private final int queueSize;
+
+  Subscriptions(int queueSize) {
+    this.queueSize = queueSize;
+  }
+
+  // Add a subscriber that gets the new messages of the given conversations,
+  // or of every conversation if "conversations" is null, and every new
+  // conversation. Events are queued from now on but nothing is sent until the
+  // subscriber is started, so that the response to the subscribe request can
+  // be sent first.
+  Subscriber add(Connection connection, WireFormat format, Collection<Uuid> conversations) {
+
+    final Subscriber subscriber = new Subscriber(
+        connection,
+        format,
+        conversations == null ? null : new HashSet<>(conversations));
+
+    subscribers.add(subscriber);
+
+    LOG.info("Subscriber added (%d subscribers).", subscribers.size());
+
+    return subscriber;
+  }
+
+  int size() {
+    return subscribers.size();
+  }
+
+  void publish(final Uuid conversation, final Message message) {
+
+    final Event event = new Event() {
+      @Override
+      void write(OutputStream out, WireFormat format) throws IOException {
+        format.integer.write(out, NetworkCode.NEW_MESSAGE_EVENT);
+        format.uuid.write(out, conversation);
+        format.message.write(out, message);
+      }
+    };
+
+    for (final Subscriber subscriber : subscribers) {
+      if (subscriber.conversations == null || subscriber.conversations.contains(conversation)) {
+        subscriber.offer(event);
+      }
+    }
+  }
+
+  void publish(final ConversationSummary conversation) {
+
+    final Event event = new Event() {
+      @Override
+      void write(OutputStream out, WireFormat format) throws IOException {
+        format.integer.write(out, NetworkCode.NEW_CONVERSATION_EVENT);
+        format.summary.write(out, conversation);
+      }
+    };
+
+    for (final Subscriber subscriber : subscribers) {
+      subscriber.offer(event);
+    }
+  }
+
+  // EVENT
+  //
+  // Something to push, encoded at most once for each wire format version.
+  private static abstract class Event {
+
+    private final byte[][] encoded = new byte[WireFormat.LATEST.version + 1][];
+
+    abstract void write(OutputStream out, WireFormat format) throws IOException;
+
+    byte[] bytes(WireFormat format) throws IOException {
+      if (encoded[format.version] == null) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(out, format);
+        encoded[format.version] = out.toByteArray();
+      }
+      return encoded[format.version];
+    }
+  }
+
+  // SUBSCRIBER
+  //
+  // At most one pusher drains a subscriber at a time. "scheduled" is true
+  // while one is, and also before the subscriber is started.
+  final class Subscriber implements Runnable {
+
+    private final Connection connection;
+    private final WireFormat format;
+    private final Set<Uuid> conversations;
+
+    private final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(queueSize);
+    private final AtomicBoolean scheduled = new AtomicBoolean(true);
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    private Subscriber(Connection connection, WireFormat format, Set<Uuid> conversations) {
+      this.connection = connection;
+      this.format = format;
+      this.conversations = conversations;
+    }
+
+    // Start sending the events queued so far and any that follow.
+    void start() {
+      scheduled.set(false);
+      if (!queue.isEmpty()) {
+        schedule();
+      }
+    }
+
+    private void offer(Event event) {
+
+      if (closed.get()) {
+        return;
+      }
+
+      final byte[] bytes;
+
+      try {
+        bytes = event.bytes(format);
+      } catch (IOException ex) {
+        LOG.error(ex, "Failed to encode event.");
+        return;
+      }
+
+      if (queue.offer(bytes)) {
+        schedule();
+      } else {
+        LOG.warning("Evicting subscriber with %d events waiting.", queue.size());
+        close();
+      }
+    }
+
+    private void schedule() {
+      if (scheduled.compareAndSet(false, true)) {
+        pushers.execute(this);
+      }
+    }
+
+    @Override
+    public void run() {
+
+      final List<byte[]> events = new ArrayList<>();
+
+      try {
+
+        while (!closed.get()) {
+
+          queue.drainTo(events);
+
+          if (events.isEmpty()) {
+
+            scheduled.set(false);
+
+            // An event may have been queued after the queue was found empty
+            // but before "scheduled" was cleared, in which case no one else
+            // will send it.
+            if (queue.isEmpty() || !scheduled.compareAndSet(false, true)) {
+              return;
+            }
+
+            continue;
+          }
+
+          send(events);
+          events.clear();
+        }
+
+      } catch (Exception ex) {
+
+        LOG.info("Subscriber disconnected: %s", ex);
+        close();
+
+      }
+    }
+
+    private void send(List<byte[]> events) throws IOException {
+
+      if (connection instanceof GatheringConnection) {
+
+        final ByteBuffer[] buffers = new ByteBuffer[events.size()];
+        for (int i = 0; i < buffers.length; i++) {
+          buffers[i] = ByteBuffer.wrap(events.get(i));
+        }
+        ((GatheringConnection) connection).write(buffers);
+
+      } else {
+
+        for (final byte[] event : events) {
+          connection.out().write(event);
+        }
+      }
+
+      connection.out().flush();
+    }
+
+    // Stop sending and close the connection. The connection is closed by a
+    // pusher, as closing it may have to wait for a write that is blocked on
+    // the client.
+    void close() {
+
+      if (!closed.compareAndSet(false, true)) {
+        return;
+      }
+
+      subscribers.remove(this);
+      queue.clear();
+
+      pushers.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            connection.close();
+          } catch (Exception ex) {
+            LOG.error(ex, "Exception while closing subscriber connection.");
+          }
+        }
+      });
+    }
+  }
+}
@@ -0,0 +1,407 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// TEXT INDEX
+//
+// An inverted index of the words in messages. Each message is given a number
+// in the order it is added, and each word ("term") has a posting list of the
+// numbers of the messages that contain it. The lists are kept compressed:
+// numbers are stored in blocks, each starting with its first number and then
+// the gaps to the numbers after it as varints, so a common word costs one or
+// two bytes per message. The first number of each block also serves to skip
+// over the blocks that cannot hold a number.
+//
+// A search finds the messages that contain every term of the query and were
+// created in a span of time, newest first. It walks the shortest posting list
+// backwards and looks each number up in the other lists, so its cost depends
+// on the rarest term and on how many of the matches the caller's filter turns
+// down, not on the number of messages. Messages are nearly always added in
+// the order they were created, and then the span of time is also a span of
+// numbers, found by binary search, so older and newer messages are skipped
+// without being looked at.
+//
+// Terms are runs of letters and digits, compared without case. As with the
+// message logs, everything can be read while a message is being added, and
+// adds must not run at the same time as each other.
+final class TextIndex {
+
+  // FILTER
+  //
+  // Decides whether a message that contains every term is a match, by the
+  // location it was added with.
+  interface Filter {
+    boolean accept(long location);
+  }
+
+  static final int BLOCK_SIZE = 128;
+
+  private static final int INITIAL_CAPACITY = 64;
+
+  private final Map<String, Postings> postingsByTerm = new ConcurrentHashMap<>();
+
+  // The location and creation time of each message, by number.
+  private volatile long[] locations = new long[INITIAL_CAPACITY];
+  private volatile long[] creations = new long[INITIAL_CAPACITY];
+  private volatile int size = 0;
+
+  // Whether every message was created at or after the one before it.
+  private volatile boolean ordered = true;
+
+  // Add a message's content, to be found by its location.
+  void add(long location, long creation, String content) {
+
+    final int number = size;
+
+    if (number == locations.length) {
+      creations = Arrays.copyOf(creations, 2 * number);
+      locations = Arrays.copyOf(locations, 2 * number);
+    }
+
+    if (number > 0 && creation < creations[number - 1]) {
+      ordered = false;
+    }
+
+    locations[number] = location;
+    creations[number] = creation;
+
+    for (final String term : terms(content)) {
+
+      Postings postings = postingsByTerm.get(term);
+
+      if (postings == null) {
+        postings = new Postings();
+        postingsByTerm.put(term, postings);
+      }
+
+      postings.add(number);
+    }
+
+    size = number + 1;
+  }
+
+  int size() {
+    return size;
+  }
+
+  // The locations of the newest messages (at most "limit" of them) that
+  // contain every term of the query, were created between "start" and "end"
+  // (in milliseconds) and that the filter accepts, newest first. A query
+  // without any terms matches nothing.
+  List<Long> search(String query, long start, long end, Filter filter, int limit) {
+
+    final Set<String> terms = terms(query);
+
+    if (terms.isEmpty() || limit <= 0) {
+      return Collections.emptyList();
+    }
+
+    final List<Cursor> cursors = new ArrayList<>(terms.size());
+
+    for (final String term : terms) {
+      final Postings postings = postingsByTerm.get(term);
+      if (postings == null) {
+        return Collections.emptyList();
+      }
+      cursors.add(new Cursor(postings));
+    }
+
+    Collections.sort(cursors, new Comparator<Cursor>() {
+      @Override
+      public int compare(Cursor a, Cursor b) {
+        return Integer.compare(a.count, b.count);
+      }
+    });
+
+    // Read the columns after the posting lists so that every number in them
+    // has its location and creation time.
+    final boolean ordered = this.ordered;
+    final long[] locations = this.locations;
+    final long[] creations = this.creations;
+
+    final Cursor shortest = cursors.get(0);
+
+    // The numbers that can be in the span of time.
+    int low = 0;
+    int high = Integer.MAX_VALUE;
+
+    if (ordered && shortest.count > 0) {
+      final int size = shortest.last() + 1;
+      low = bound(creations, size, start, false);
+      high = bound(creations, size, end, true);
+    }
+
+    final List<Long> found = new ArrayList<>();
+
+    for (int block = shortest.before(high); block >= 0; block--) {
+
+      final int count = shortest.decode(block);
+
+      for (int i = count - 1; i >= 0; i--) {
+
+        final int number = shortest.values[i];
+
+        if (number >= high) {
+          continue;
+        }
+
+        if (number < low) {
+          return found;
+        }
+
+        final long creation = creations[number];
+
+        if (creation >= start &&
+            creation <= end &&
+            containedByAll(cursors, number) &&
+            filter.accept(locations[number])) {
+          found.add(locations[number]);
+          if (found.size() == limit) {
+            return found;
+          }
+        }
+      }
+    }
+
+    return found;
+  }
+
+  // The distinct terms of some text, in the order they first appear.
+  static Set<String> terms(String text) {
+
+    final Set<String> terms = new LinkedHashSet<>();
+
+    if (text == null) {
+      return terms;
+    }
+
+    int start = -1;
+
+    for (int i = 0; i < text.length(); ) {
+
+      final int codePoint = text.codePointAt(i);
+      final boolean inTerm = Character.isLetterOrDigit(codePoint);
+
+      if (inTerm && start < 0) {
+        start = i;
+      } else if (!inTerm && start >= 0) {
+        terms.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+        start = -1;
+      }
+
+      i += Character.charCount(codePoint);
+    }
+
+    if (start >= 0) {
+      terms.add(text.substring(start).toLowerCase(Locale.ROOT));
+    }
+
+    return terms;
+  }
+
+  // The index of the first creation time after "time", or at or after it if
+  // "after" is false.
+  private static int bound(long[] creations, int limit, long time, boolean after) {
+
+    int low = 0;
+    int high = limit;
+
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      if (creations[middle] < time || (after && creations[middle] == time)) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+
+    return low;
+  }
+
+  private static boolean containedByAll(List<Cursor> cursors, int number) {
+    for (int i = 1; i < cursors.size(); i++) {
+      if (!cursors.get(i).contains(number)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // POSTINGS
+  //
+  // The numbers of the messages that contain one term, in increasing order.
+  // A reader first reads the count and then only uses that many numbers. The
+  // arrays are replaced by larger copies as they fill, and are volatile so
+  // that a reader that sees a copy also sees what was copied into it.
+  private static final class Postings {
+
+    private volatile byte[] bytes = new byte[16];
+    private volatile int[] firsts = new int[1];
+    private volatile int[] offsets = new int[1];
+    private volatile int count = 0;
+
+    // Only used by adds.
+    private int length = 0;
+    private int last = -1;
+
+    void add(int number) {
+
+      final int index = count;
+
+      if (index % BLOCK_SIZE == 0) {
+
+        final int block = index / BLOCK_SIZE;
+
+        if (block == firsts.length) {
+          firsts = Arrays.copyOf(firsts, 2 * block);
+          offsets = Arrays.copyOf(offsets, 2 * block);
+        }
+
+        firsts[block] = number;
+        offsets[block] = length;
+
+      } else {
+
+        if (length + 5 > bytes.length) {
+          bytes = Arrays.copyOf(bytes, 2 * bytes.length);
+        }
+
+        // The gap is at least one, as a number is added at most once.
+        int gap = number - last;
+        while ((gap & ~0x7F) != 0) {
+          bytes[length++] = (byte) ((gap & 0x7F) | 0x80);
+          gap >>>= 7;
+        }
+        bytes[length++] = (byte) gap;
+      }
+
+      last = number;
+      count = index + 1;
+    }
+  }
+
+  // CURSOR
+  //
+  // One search's view of a posting list: the numbers that were in it when
+  // the search started, and the last block it decoded. Lookups are expected
+  // to go from the newest number to the oldest, so that most of them are in
+  // the block that was decoded last.
+  private static final class Cursor {
+
+    final int count;
+    final int blocks;
+
+    private final byte[] bytes;
+    private final int[] firsts;
+    private final int[] offsets;
+
+    final int[] values = new int[BLOCK_SIZE];
+
+    private int decoded = -1;
+    private int decodedCount = 0;
+
+    Cursor(Postings postings) {
+      this.count = postings.count;
+      this.bytes = postings.bytes;
+      this.firsts = postings.firsts;
+      this.offsets = postings.offsets;
+      this.blocks = (count + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    }
+
+    // Decode a block into "values" and return how many numbers it holds.
+    int decode(int block) {
+
+      if (block == decoded) {
+        return decodedCount;
+      }
+
+      final int count = Math.min(BLOCK_SIZE, this.count - block * BLOCK_SIZE);
+
+      int value = firsts[block];
+      int position = offsets[block];
+
+      values[0] = value;
+
+      for (int i = 1; i < count; i++) {
+
+        int gap = 0;
+        int shift = 0;
+        byte b;
+
+        do {
+          b = bytes[position++];
+          gap |= (b & 0x7F) << shift;
+          shift += 7;
+        } while ((b & 0x80) != 0);
+
+        value += gap;
+        values[i] = value;
+      }
+
+      decoded = block;
+      decodedCount = count;
+
+      return count;
+    }
+
+    boolean contains(int number) {
+
+      final int block = before(number + 1);
+
+      if (block < 0) {
+        return false;
+      }
+
+      final int count = decode(block);
+      return Arrays.binarySearch(values, 0, count, number) >= 0;
+    }
+
+    // The last number in the list.
+    int last() {
+      return decode(blocks - 1) > 0 ? values[decodedCount - 1] : -1;
+    }
+
+    // The last block whose first number is before "number", or -1 if there
+    // is none.
+    int before(int number) {
+
+      int low = -1;
+      int high = blocks - 1;
+
+      while (low < high) {
+        final int middle = (low + high + 1) >>> 1;
+        if (firsts[middle] < number) {
+          low = middle;
+        } else {
+          high = middle - 1;
+        }
+      }
+
+      return low;
+    }
+  }
+}
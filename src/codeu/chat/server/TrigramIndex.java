@@ -0,0 +1,191 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// TRIGRAM INDEX
+//
+// Values by the three-character pieces ("trigrams") of their text, ignoring
+// case. Text that contains some string contains every trigram of it, so the
+// values whose text has all of a string's trigrams are the only ones whose
+// text can contain the string. They still have to be checked, but there are
+// usually few of them.
+//
+// Each value is given a number in the order it is added, and each trigram
+// has a list of the numbers of the values that have it. Values can be read
+// while one is being added, and adds must not run at the same time as each
+// other.
+final class TrigramIndex<VALUE> {
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private final Map<Long, Postings> postingsByTrigram = new ConcurrentHashMap<>();
+
+  private volatile Object[] values = new Object[INITIAL_CAPACITY];
+  private volatile int size = 0;
+
+  void add(String text, VALUE value) {
+
+    final int number = size;
+
+    if (number == values.length) {
+      values = Arrays.copyOf(values, 2 * number);
+    }
+    values[number] = value;
+
+    for (final long trigram : trigrams(text)) {
+
+      Postings postings = postingsByTrigram.get(trigram);
+
+      if (postings == null) {
+        postings = new Postings();
+        postingsByTrigram.put(trigram, postings);
+      }
+
+      postings.add(number);
+    }
+
+    size = number + 1;
+  }
+
+  // The values whose text could contain all of the strings, in the order
+  // they were added, or null if none of the strings is long enough to have a
+  // trigram (and so any value could match).
+  List<VALUE> candidates(Collection<String> strings) {
+
+    final Set<Long> trigrams = new HashSet<>();
+    for (final String string : strings) {
+      trigrams.addAll(trigrams(string));
+    }
+
+    if (trigrams.isEmpty()) {
+      return null;
+    }
+
+    final List<Snapshot> lists = new ArrayList<>(trigrams.size());
+
+    for (final long trigram : trigrams) {
+      final Postings postings = postingsByTrigram.get(trigram);
+      if (postings == null) {
+        return Collections.emptyList();
+      }
+      lists.add(new Snapshot(postings));
+    }
+
+    Collections.sort(lists, new Comparator<Snapshot>() {
+      @Override
+      public int compare(Snapshot a, Snapshot b) {
+        return Integer.compare(a.count, b.count);
+      }
+    });
+
+    // Read the values after the lists so that every number in them has its
+    // value.
+    final Object[] values = this.values;
+
+    final Snapshot shortest = lists.get(0);
+    final List<VALUE> found = new ArrayList<>();
+
+    for (int i = 0; i < shortest.count; i++) {
+
+      final int number = shortest.numbers[i];
+
+      boolean inAll = true;
+      for (int j = 1; j < lists.size() && inAll; j++) {
+        inAll = lists.get(j).contains(number);
+      }
+
+      if (inAll) {
+        @SuppressWarnings("unchecked")
+        final VALUE value = (VALUE) values[number];
+        found.add(value);
+      }
+    }
+
+    return found;
+  }
+
+  // The distinct trigrams of some text, each as three case-folded characters
+  // packed into a long.
+  static Set<Long> trigrams(String text) {
+
+    final Set<Long> trigrams = new HashSet<>();
+
+    for (int i = 0; i + 3 <= text.length(); i++) {
+      trigrams.add(((long) fold(text.charAt(i)) << 32) |
+                   ((long) fold(text.charAt(i + 1)) << 16) |
+                   fold(text.charAt(i + 2)));
+    }
+
+    return trigrams;
+  }
+
+  // Fold the case of a character the same way String.CASE_INSENSITIVE_ORDER
+  // does. Folding each character alone, rather than a whole string, means a
+  // string's trigrams are the same wherever it appears.
+  private static char fold(char c) {
+    return Character.toLowerCase(Character.toUpperCase(c));
+  }
+
+  // POSTINGS
+  //
+  // The numbers of the values that have one trigram, in increasing order. A
+  // reader reads the count before the numbers and only uses that many of
+  // them.
+  private static final class Postings {
+
+    private volatile int[] numbers = new int[4];
+    private volatile int count = 0;
+
+    void add(int number) {
+
+      final int index = count;
+
+      if (index == numbers.length) {
+        numbers = Arrays.copyOf(numbers, 2 * index);
+      }
+
+      numbers[index] = number;
+      count = index + 1;
+    }
+  }
+
+  // The numbers of a posting list when a search started.
+  private static final class Snapshot {
+
+    final int count;
+    final int[] numbers;
+
+    Snapshot(Postings postings) {
+      this.count = postings.count;
+      this.numbers = postings.numbers;
+    }
+
+    boolean contains(int number) {
+      return Arrays.binarySearch(numbers, 0, count, number) >= 0;
+    }
+  }
+}
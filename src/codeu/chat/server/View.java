@@ -14,18 +14,20 @@
 
 package codeu.chat.server;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.regex.Pattern;
+import java.util.regex.Matcher;
 
 import codeu.chat.common.BasicView;
 import codeu.chat.common.Conversation;
@@ -35,6 +37,7 @@ import codeu.chat.common.Message;
 import codeu.chat.common.SinglesView;
 import codeu.chat.common.User;
 import codeu.chat.util.Logger;
+import codeu.chat.util.Serializer;
 import codeu.chat.util.Time;
 import codeu.chat.util.Uuid;
 import codeu.chat.util.store.StoreAccessor;
@@ -43,8 +46,21 @@ public final class View implements BasicView, LogicalView, SinglesView {
 
   private final static Logger.Log LOG = Logger.newLog(View.class);
 
+  // The most messages a search returns, so that a query for a common word
+  // does not send the whole history.
+  public static final int MAX_SEARCH_RESULTS = 1024;
+
+  // The most users or conversations a prefix lookup returns. Lookups are
+  // made as the user types, so only the first few are ever shown.
+  public static final int MAX_PREFIX_RESULTS = 100;
+
+  // The most compiled title filters kept at once.
+  private static final int PATTERN_CACHE_SIZE = 256;
+
   private final Model model;
 
+  private final PatternCache patterns = new PatternCache(PATTERN_CACHE_SIZE);
+
   public View(Model model) {
     this.model = model;
   }
@@ -83,6 +99,36 @@ public final class View implements BasicView, LogicalView, SinglesView {
     return model.userGeneration();
   }
 
+  // The version of a conversation or message, or null if there is no such
+  // conversation or message.
+  public Uuid getVersion(Uuid id) {
+    return model.version(id);
+  }
+
+  public Uuid getConversationGeneration() {
+    return model.conversationGeneration();
+  }
+
+  // Get the summaries of the conversations added since the given generation,
+  // or null if the generation is not a current one and the client needs all
+  // of the conversations.
+  public Collection<ConversationSummary> getConversationsSince(Uuid generation) {
+
+    final Iterable<Conversation> added = model.conversationsAfter(generation);
+
+    if (added == null) {
+      return null;
+    }
+
+    final Collection<ConversationSummary> summaries = new ArrayList<>();
+
+    for (final Conversation conversation : added) {
+      summaries.add(conversation.summary);
+    }
+
+    return summaries;
+  }
+
   @Override
   public Collection<User> getUsersExcluding(Collection<Uuid> ids) {
 
@@ -98,6 +144,114 @@ public final class View implements BasicView, LogicalView, SinglesView {
     return users;
   }
 
+  // PAGED QUERIES
+  //
+  // The same queries as getAllConversations, getUsersExcluding and
+  // getConversations(Time, Time), but written a page at a time (see Pager).
+
+  Pager<Uuid, ConversationSummary> pageAllConversations(
+      final Serializer<ConversationSummary> serializer) {
+
+    return new Pager<Uuid, ConversationSummary>(Model.UUID_COMPARE, Uuid.SERIALIZER) {
+
+      @Override
+      protected Iterable<ConversationSummary> from(Uuid start) {
+        return summaries(start == null ?
+            model.conversationById().all() :
+            model.conversationById().after(start));
+      }
+
+      @Override
+      protected Uuid key(ConversationSummary value) {
+        return value.id;
+      }
+
+      @Override
+      protected void write(OutputStream out, ConversationSummary value) throws IOException {
+        serializer.write(out, value);
+      }
+    };
+  }
+
+  Pager<Uuid, User> pageUsersExcluding(Collection<Uuid> ids,
+                                              final Serializer<User> serializer) {
+
+    final Set<Uuid> excluded = new HashSet<>(ids);
+
+    return new Pager<Uuid, User>(Model.UUID_COMPARE, Uuid.SERIALIZER) {
+
+      @Override
+      protected Iterable<User> from(Uuid start) {
+        return start == null ? model.userById().all() : model.userById().after(start);
+      }
+
+      @Override
+      protected Uuid key(User value) {
+        return value.id;
+      }
+
+      @Override
+      protected boolean include(User value) {
+        return !excluded.contains(value.id);
+      }
+
+      @Override
+      protected void write(OutputStream out, User value) throws IOException {
+        serializer.write(out, value);
+      }
+    };
+  }
+
+  Pager<Time, Conversation> pageConversations(final Time start,
+                                                     final Time end,
+                                                     final Serializer<Conversation> serializer) {
+
+    return new Pager<Time, Conversation>(Model.TIME_COMPARE, Time.SERIALIZER) {
+
+      @Override
+      protected Iterable<Conversation> from(Time cursor) {
+        return model.conversationByTime().range(cursor == null ? start : cursor, end);
+      }
+
+      @Override
+      protected Time key(Conversation value) {
+        return value.creation;
+      }
+
+      @Override
+      protected void write(OutputStream out, Conversation value) throws IOException {
+        serializer.write(out, value);
+      }
+    };
+  }
+
+  // The summaries of the conversations, without copying them.
+  private static Iterable<ConversationSummary> summaries(final Iterable<Conversation> conversations) {
+    return new Iterable<ConversationSummary>() {
+      @Override
+      public Iterator<ConversationSummary> iterator() {
+        final Iterator<Conversation> iterator = conversations.iterator();
+        return new Iterator<ConversationSummary>() {
+
+          @Override
+          public boolean hasNext() {
+            return iterator.hasNext();
+          }
+
+          @Override
+          public ConversationSummary next() {
+            return iterator.next().summary;
+          }
+
+          @Override
+          public void remove() {
+            throw new UnsupportedOperationException();
+          }
+        };
+      }
+    };
+  }
+
   @Override
   public Collection<Conversation> getConversations(Time start, Time end) {
 
@@ -114,69 +268,130 @@ public final class View implements BasicView, LogicalView, SinglesView {
   @Override
   public Collection<Conversation> getConversations(String filter) {
 
-    final Collection<Conversation> found = new ArrayList<>();
+    final PatternCache.Compiled compiled = patterns.get(filter);
+    final Matcher matcher = compiled.pattern.matcher("");
+
+    final List<Conversation> found = new ArrayList<>();
+
+    if (!compiled.prefix.isEmpty()) {
 
-    for (final Conversation conversation : model.conversationByText().all()) {
-      if (Pattern.matches(filter, conversation.title)) {
+      // Only the titles that start with the prefix can match, and they are
+      // next to each other in the title index.
+      for (final Conversation conversation : startingAt(model.conversationByText(), compiled.prefix)) {
+        if (!startsWith(conversation.title, compiled.prefix)) {
+          break;
+        }
+        if (matcher.reset(conversation.title).matches()) {
+          found.add(conversation);
+        }
+      }
+
+      return found;
+    }
+
+    final List<Conversation> candidates =
+        model.conversationByTrigram().candidates(compiled.literals);
+
+    if (candidates == null) {
+
+      for (final Conversation conversation : model.conversationByText().all()) {
+        if (matcher.reset(conversation.title).matches()) {
+          found.add(conversation);
+        }
+      }
+
+      return found;
+    }
+
+    for (final Conversation conversation : candidates) {
+      if (matcher.reset(conversation.title).matches()) {
         found.add(conversation);
       }
     }
 
+    // The candidates are in the order they were added. Sort them by title,
+    // as the title index would have them, keeping that order for equal
+    // titles.
+    Collections.sort(found, new Comparator<Conversation>() {
+      @Override
+      public int compare(Conversation a, Conversation b) {
+        return String.CASE_INSENSITIVE_ORDER.compare(a.title, b.title);
+      }
+    });
+
     return found;
   }
 
   @Override
   public Collection<Message> getMessages(Uuid conversation, Time start, Time end) {
 
-    final Conversation foundConversation = model.conversationById().first(conversation);
+    final MessageLog log = model.messages(conversation);
 
-    final List<Message> foundMessages = new ArrayList<>();
+    return log == null ? new ArrayList<Message>() : log.between(start, end);
+  }
 
-    Message current = (foundConversation == null) ?
-        null :
-        model.messageById().first(foundConversation.firstMessage);
+  @Override
+  public Collection<Message> getMessages(Uuid rootMessage, int range) {
 
-    while (current != null && current.creation.compareTo(start) < 0) {
-      current = model.messageById().first(current.next);
-    }
+    LOG.info("in getMessage: UUID=%s range=%d", rootMessage, range);
 
-    while (current != null && current.creation.compareTo(end) <= 0) {
-      foundMessages.add(current);
-      current = model.messageById().first(current.next);
+    // "range" messages after the root if it is positive, or before it if it
+    // is negative, always including the root. The messages are in order
+    // either way.
+
+    final MessageStore.Position position = model.position(rootMessage);
+
+    if (position == null) {
+      final Message root = model.messageById().first(rootMessage);
+      return root == null ? new ArrayList<Message>() : Arrays.asList(root);
     }
 
-    return foundMessages;
+    return range > 0 ?
+        position.log.slice(position.sequence, position.sequence + range + 1) :
+        position.log.slice(position.sequence + range, position.sequence + 1);
   }
 
   @Override
-  public Collection<Message> getMessages(Uuid rootMessage, int range) {
+  public Collection<Message> searchMessages(String query,
+                                            Collection<Uuid> conversations,
+                                            Time start,
+                                            Time end,
+                                            int limit) {
 
-    int remaining = Math.abs(range);
-    LOG.info("in getMessage: UUID=%s range=%d", rootMessage, range);
+    limit = limit <= 0 ? MAX_SEARCH_RESULTS : Math.min(limit, MAX_SEARCH_RESULTS);
 
-    // We want to return the messages in order. If the range was negative
-    // the messages would be backwards. Use a linked list as it supports
-    // adding at the front and adding at the end.
+    return model.search(query, conversations, start, end, limit);
+  }
 
-    final LinkedList<Message> found = new LinkedList<>();
+  @Override
+  public Collection<User> findUsersByPrefix(String prefix, int limit) {
 
-    // i <= remaining : must be "<=" and not just "<" or else "range = 0" would
-    // return nothing and we want it to return just the root because the description
-    // is that the function will return "range" around the root. Zero messages
-    // around the root means that it should just return the root.
+    limit = limit <= 0 ? MAX_PREFIX_RESULTS : Math.min(limit, MAX_PREFIX_RESULTS);
 
-    Message current = model.messageById().first(rootMessage);
+    final Collection<User> found = new ArrayList<>();
 
-    if (range > 0) {
-      for (int i = 0; i <= remaining && current != null; i++) {
-        found.addLast(current);
-        current = model.messageById().first(current.next);
+    for (final User user : startingAt(model.userByText(), prefix)) {
+      if (found.size() == limit || !startsWith(user.name, prefix)) {
+        break;
       }
-    } else {
-      for (int i = 0; i <= remaining && current != null; i++) {
-        found.addFirst(current);
-        current = model.messageById().first(current.previous);
+      found.add(user);
+    }
+
+    return found;
+  }
+
+  @Override
+  public Collection<ConversationSummary> findConversationsByPrefix(String prefix, int limit) {
+
+    limit = limit <= 0 ? MAX_PREFIX_RESULTS : Math.min(limit, MAX_PREFIX_RESULTS);
+
+    final Collection<ConversationSummary> found = new ArrayList<>();
+
+    for (final Conversation conversation : startingAt(model.conversationByText(), prefix)) {
+      if (found.size() == limit || !startsWith(conversation.title, prefix)) {
+        break;
       }
+      found.add(conversation.summary);
     }
 
     return found;
@@ -191,6 +406,18 @@ public final class View implements BasicView, LogicalView, SinglesView {
   @Override
   public Message findMessage(Uuid id) { return model.messageById().first(id); }
 
+  // The values of a store sorted by text without case (see Model), from the
+  // first one whose text could start with the prefix. The values whose text
+  // does start with it come first, and they end at the first one that does
+  // not.
+  private static <T> Iterable<T> startingAt(StoreAccessor<String, T> store, String prefix) {
+    return prefix == null || prefix.isEmpty() ? store.all() : store.after(prefix);
+  }
+
+  private static boolean startsWith(String text, String prefix) {
+    return prefix == null || text.regionMatches(true, 0, prefix, 0, prefix.length());
+  }
+
   private static <T> Collection<T> intersect(StoreAccessor<Uuid, T> store, Collection<Uuid> ids) {
 
     // Use a set to hold the found users as this will prevent duplicate ids from
@@ -0,0 +1,39 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// BUFFER SERIALIZER
+//
+// The ByteBuffer counterpart of Serializer. Values are written in exactly the
+// same format as the matching Serializer, so one side of a connection can use
+// streams while the other uses buffers.
+//
+// "size" must be called first to find how much room "write" needs. Writing
+// into a buffer with less room than that throws BufferOverflowException.
+// Reading from a buffer that ends before the value does throws
+// BufferUnderflowException.
+public interface BufferSerializer<T> {
+
+  int size(T value);
+
+  void write(ByteBuffer buffer, T value);
+
+  T read(ByteBuffer buffer) throws IOException;
+
+}
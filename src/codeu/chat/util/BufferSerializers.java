@@ -0,0 +1,300 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+
+// BUFFER SERIALIZERS
+//
+// BufferSerializers for the same basic types as Serializers, using the same
+// format. Buffers must use the default (big-endian) byte order. Strings are
+// encoded as UTF-8 straight into the buffer, without an intermediate array.
+public final class BufferSerializers {
+
+  public static final BufferSerializer<Boolean> BOOLEAN = new BufferSerializer<Boolean>() {
+
+    @Override
+    public int size(Boolean value) {
+      return 1;
+    }
+
+    @Override
+    public void write(ByteBuffer buffer, Boolean value) {
+      buffer.put((byte)(value ? 1 : 0));
+    }
+
+    @Override
+    public Boolean read(ByteBuffer buffer) {
+      return buffer.get() != 0;
+    }
+  };
+
+  public static final BufferSerializer<Integer> INTEGER = new BufferSerializer<Integer>() {
+
+    @Override
+    public int size(Integer value) {
+      return 4;
+    }
+
+    @Override
+    public void write(ByteBuffer buffer, Integer value) {
+      buffer.putInt(value);
+    }
+
+    @Override
+    public Integer read(ByteBuffer buffer) {
+      return buffer.getInt();
+    }
+  };
+
+  public static final BufferSerializer<Long> LONG = new BufferSerializer<Long>() {
+
+    @Override
+    public int size(Long value) {
+      return 8;
+    }
+
+    @Override
+    public void write(ByteBuffer buffer, Long value) {
+      buffer.putLong(value);
+    }
+
+    @Override
+    public Long read(ByteBuffer buffer) {
+      return buffer.getLong();
+    }
+  };
+
+  public static final BufferSerializer<byte[]> BYTES = new BufferSerializer<byte[]>() {
+
+    @Override
+    public int size(byte[] value) {
+      return 4 + value.length;
+    }
+
+    @Override
+    public void write(ByteBuffer buffer, byte[] value) {
+      buffer.putInt(value.length);
+      buffer.put(value);
+    }
+
+    @Override
+    public byte[] read(ByteBuffer buffer) throws IOException {
+      final byte[] value = new byte[readLength(buffer)];
+      buffer.get(value);
+      return value;
+    }
+  };
+
+  public static final BufferSerializer<String> STRING = new BufferSerializer<String>() {
+
+    @Override
+    public int size(String value) {
+      return 4 + utf8Length(value);
+    }
+
+    @Override
+    public void write(ByteBuffer buffer, String value) {
+      buffer.putInt(utf8Length(value));
+      putUtf8(buffer, value);
+    }
+
+    @Override
+    public String read(ByteBuffer buffer) throws IOException {
+
+      final int length = readLength(buffer);
+
+      if (buffer.hasArray()) {
+        final String value = new String(buffer.array(),
+                                        buffer.arrayOffset() + buffer.position(),
+                                        length,
+                                        StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+      }
+
+      final byte[] bytes = new byte[length];
+      buffer.get(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+  };
+
+  public static <T> BufferSerializer<Collection<T>> collection(final BufferSerializer<T> serializer) {
+
+    return new BufferSerializer<Collection<T>>() {
+
+      @Override
+      public int size(Collection<T> value) {
+        int size = 4;
+        for (final T x : value) {
+          size += serializer.size(x);
+        }
+        return size;
+      }
+
+      @Override
+      public void write(ByteBuffer buffer, Collection<T> value) {
+        buffer.putInt(value.size());
+        for (final T x : value) {
+          serializer.write(buffer, x);
+        }
+      }
+
+      @Override
+      public Collection<T> read(ByteBuffer buffer) throws IOException {
+        final int size = buffer.getInt();
+        if (size < 0) {
+          throw new IOException("Negative collection size " + size);
+        }
+        // Every value takes at least one byte, so a size larger than what is
+        // left in the buffer is not worth allocating for.
+        final Collection<T> list = new ArrayList<>(Math.min(size, buffer.remaining()));
+        for (int i = 0; i < size; i++) {
+          list.add(serializer.read(buffer));
+        }
+        return list;
+      }
+    };
+  }
+
+  public static <T> BufferSerializer<T> nullable(final BufferSerializer<T> serializer) {
+
+    final byte NO_VALUE = (byte) 0x00;
+    final byte YES_VALUE = (byte) 0xFF;
+
+    return new BufferSerializer<T>() {
+
+      @Override
+      public int size(T value) {
+        return value == null ? 1 : 1 + serializer.size(value);
+      }
+
+      @Override
+      public void write(ByteBuffer buffer, T value) {
+        if (value == null) {
+          buffer.put(NO_VALUE);
+        } else {
+          buffer.put(YES_VALUE);
+          serializer.write(buffer, value);
+        }
+      }
+
+      @Override
+      public T read(ByteBuffer buffer) throws IOException {
+        return buffer.get() == NO_VALUE ? null : serializer.read(buffer);
+      }
+    };
+  }
+
+  // A stream serializer that encodes with "buffered" when writing to a
+  // ByteBufferOutputStream, so the value goes straight into a buffer of its
+  // own, and uses "stream" for everything else.
+  public static <T> Serializer<T> preferBuffers(final Serializer<T> stream,
+                                                final BufferSerializer<T> buffered) {
+
+    return new Serializer<T>() {
+
+      @Override
+      public void write(OutputStream out, T value) throws IOException {
+        if (out instanceof ByteBufferOutputStream) {
+          ((ByteBufferOutputStream) out).write(buffered, value);
+        } else {
+          stream.write(out, value);
+        }
+      }
+
+      @Override
+      public T read(InputStream in) throws IOException {
+        return stream.read(in);
+      }
+    };
+  }
+
+  private static int readLength(ByteBuffer buffer) throws IOException {
+    final int length = buffer.getInt();
+    if (length < 0) {
+      throw new IOException("Negative length " + length);
+    }
+    if (length > buffer.remaining()) {
+      throw new BufferUnderflowException();
+    }
+    return length;
+  }
+
+  // The number of bytes "putUtf8" will write. Like String.getBytes, a
+  // surrogate without its other half is written as '?'.
+  private static int utf8Length(String value) {
+
+    int length = 0;
+
+    for (int i = 0; i < value.length(); i++) {
+      final char c = value.charAt(i);
+      if (c < 0x80) {
+        length += 1;
+      } else if (c < 0x800) {
+        length += 2;
+      } else if (isSurrogatePair(value, i)) {
+        length += 4;
+        i += 1;
+      } else if (Character.isSurrogate(c)) {
+        length += 1;
+      } else {
+        length += 3;
+      }
+    }
+
+    return length;
+  }
+
+  private static void putUtf8(ByteBuffer buffer, String value) {
+
+    for (int i = 0; i < value.length(); i++) {
+      final char c = value.charAt(i);
+      if (c < 0x80) {
+        buffer.put((byte) c);
+      } else if (c < 0x800) {
+        buffer.put((byte) (0xC0 | (c >> 6)));
+        buffer.put((byte) (0x80 | (c & 0x3F)));
+      } else if (isSurrogatePair(value, i)) {
+        final int codePoint = Character.toCodePoint(c, value.charAt(i + 1));
+        buffer.put((byte) (0xF0 | (codePoint >> 18)));
+        buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+        buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+        buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+        i += 1;
+      } else if (Character.isSurrogate(c)) {
+        buffer.put((byte) '?');
+      } else {
+        buffer.put((byte) (0xE0 | (c >> 12)));
+        buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+        buffer.put((byte) (0x80 | (c & 0x3F)));
+      }
+    }
+  }
+
+  private static boolean isSurrogatePair(String value, int index) {
+    return Character.isHighSurrogate(value.charAt(index)) &&
+           index + 1 < value.length() &&
+           Character.isLowSurrogate(value.charAt(index + 1));
+  }
+}
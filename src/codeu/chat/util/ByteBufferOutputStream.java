@@ -0,0 +1,186 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+// BYTE BUFFER OUTPUT STREAM
+//
+// An in-memory output stream that keeps what is written to it as a list of
+// ByteBuffers rather than a single growing array. Large values written with a
+// BufferSerializer are encoded straight into a buffer of their own, and other
+// ByteBufferOutputStreams can be appended without copying. The buffers can be
+// handed to a gathering write, or copied to an ordinary output stream. A
+// buffer shared with writeShared(ByteBuffer) may be direct, so not every
+// buffer has an array.
+public final class ByteBufferOutputStream extends OutputStream {
+
+  private static final int CHUNK_SIZE = 1024;
+
+  // Buffers that are full, ready to be read.
+  private final List<ByteBuffer> buffers = new ArrayList<>();
+
+  // The buffer being written to, or null.
+  private ByteBuffer tail = null;
+
+  private int size = 0;
+
+  @Override
+  public void write(int value) {
+    reserve(1);
+    tail.put((byte) value);
+    size += 1;
+  }
+
+  @Override
+  public void write(byte[] bytes, int offset, int length) {
+    while (length > 0) {
+      reserve(Math.min(length, CHUNK_SIZE));
+      final int count = Math.min(length, tail.remaining());
+      tail.put(bytes, offset, count);
+      offset += count;
+      length -= count;
+      size += count;
+    }
+  }
+
+  public <T> void write(BufferSerializer<T> serializer, T value) {
+
+    final int length = serializer.size(value);
+
+    if (length <= CHUNK_SIZE) {
+      reserve(length);
+      serializer.write(tail, value);
+    } else {
+      seal();
+      final ByteBuffer buffer = ByteBuffer.allocate(length);
+      serializer.write(buffer, value);
+      buffer.flip();
+      buffers.add(buffer);
+    }
+
+    size += length;
+  }
+
+  // Append an array that will never be changed. Arrays bigger than a chunk are
+  // appended without copying them.
+  public void writeShared(byte[] bytes) {
+    if (bytes.length <= CHUNK_SIZE) {
+      write(bytes, 0, bytes.length);
+    } else {
+      seal();
+      buffers.add(ByteBuffer.wrap(bytes));
+      size += bytes.length;
+    }
+  }
+
+  // Append the remaining bytes of a buffer whose contents will never be
+  // changed. Buffers bigger than a chunk are appended without copying them.
+  public void writeShared(ByteBuffer bytes) {
+    final ByteBuffer shared = bytes.duplicate();
+    if (shared.remaining() <= CHUNK_SIZE) {
+      reserve(shared.remaining());
+      size += shared.remaining();
+      tail.put(shared);
+    } else {
+      seal();
+      size += shared.remaining();
+      buffers.add(shared);
+    }
+  }
+
+  // Append everything written to "other" so far without copying it. "other"
+  // must not be written to afterwards.
+  public void write(ByteBufferOutputStream other) {
+    seal();
+    for (final ByteBuffer buffer : other.buffers()) {
+      buffers.add(buffer);
+    }
+    size += other.size;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  // The contents as buffers that are ready to be read. Each call returns new
+  // buffer objects, so reading them does not change this stream.
+  public ByteBuffer[] buffers() {
+    seal();
+    final ByteBuffer[] copies = new ByteBuffer[buffers.size()];
+    for (int i = 0; i < copies.length; i++) {
+      copies[i] = buffers.get(i).duplicate();
+    }
+    return copies;
+  }
+
+  public void writeTo(OutputStream out) throws IOException {
+    byte[] chunk = null;
+    for (final ByteBuffer buffer : buffers()) {
+      if (buffer.hasArray()) {
+        out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        continue;
+      }
+      if (chunk == null) {
+        chunk = new byte[CHUNK_SIZE];
+      }
+      while (buffer.hasRemaining()) {
+        final int count = Math.min(chunk.length, buffer.remaining());
+        buffer.get(chunk, 0, count);
+        out.write(chunk, 0, count);
+      }
+    }
+  }
+
+  public byte[] toByteArray() {
+    final byte[] bytes = new byte[size];
+    int offset = 0;
+    for (final ByteBuffer buffer : buffers()) {
+      final int count = buffer.remaining();
+      buffer.get(bytes, offset, count);
+      offset += count;
+    }
+    return bytes;
+  }
+
+  public void reset() {
+    buffers.clear();
+    tail = null;
+    size = 0;
+  }
+
+  // Make sure that the tail has room for at least "length" more bytes.
+  private void reserve(int length) {
+    if (tail == null || tail.remaining() < length) {
+      seal();
+      tail = ByteBuffer.allocate(Math.max(length, CHUNK_SIZE));
+    }
+  }
+
+  private void seal() {
+    if (tail != null) {
+      if (tail.position() > 0) {
+        tail.flip();
+        buffers.add(tail);
+      }
+      tail = null;
+    }
+  }
+}
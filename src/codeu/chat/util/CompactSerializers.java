@@ -0,0 +1,160 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+
+// COMPACT SERIALIZERS
+//
+// Serializers for the compact (version 2) wire format. Numbers are written as
+// varints: seven bits per byte, least significant group first, with the high
+// bit set on every byte but the last. Signed numbers are zigzag encoded first
+// (0, -1, 1, -2, ... become 0, 1, 2, 3, ...) so that small negative numbers
+// stay small. Lengths and collection sizes are unsigned varints.
+public final class CompactSerializers {
+
+  public static final Serializer<Boolean> BOOLEAN = Serializers.BOOLEAN;
+
+  public static final Serializer<Integer> INTEGER = new Serializer<Integer>() {
+
+    @Override
+    public void write(OutputStream out, Integer value) throws IOException {
+      writeVarint(out, ((value << 1) ^ (value >> 31)) & 0xFFFFFFFFL);
+    }
+
+    @Override
+    public Integer read(InputStream in) throws IOException {
+      final long value = readVarint(in);
+      return (int) (value >>> 1) ^ -(int) (value & 1);
+    }
+  };
+
+  public static final Serializer<Long> LONG = new Serializer<Long>() {
+
+    @Override
+    public void write(OutputStream out, Long value) throws IOException {
+      writeVarint(out, (value << 1) ^ (value >> 63));
+    }
+
+    @Override
+    public Long read(InputStream in) throws IOException {
+      final long value = readVarint(in);
+      return (value >>> 1) ^ -(value & 1);
+    }
+  };
+
+  public static final Serializer<byte[]> BYTES = new Serializer<byte[]>() {
+
+    @Override
+    public void write(OutputStream out, byte[] value) throws IOException {
+      writeVarint(out, value.length);
+      out.write(value);
+    }
+
+    @Override
+    public byte[] read(InputStream in) throws IOException {
+      final byte[] value = new byte[readLength(in)];
+      Serializers.readFully(in, value, 0, value.length);
+      return value;
+    }
+  };
+
+  public static final Serializer<String> STRING = new Serializer<String>() {
+
+    @Override
+    public void write(OutputStream out, String value) throws IOException {
+      BYTES.write(out, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public String read(InputStream in) throws IOException {
+      return new String(BYTES.read(in), StandardCharsets.UTF_8);
+    }
+  };
+
+  public static <T> Serializer<Collection<T>> collection(final Serializer<T> serializer) {
+
+    return new Serializer<Collection<T>>() {
+
+      @Override
+      public void write(OutputStream out, Collection<T> value) throws IOException {
+        writeVarint(out, value.size());
+        for (final T x : value) {
+          serializer.write(out, x);
+        }
+      }
+
+      @Override
+      public Collection<T> read(InputStream in) throws IOException {
+        final int size = readLength(in);
+        // Do not trust the size for the initial capacity; a bad size should
+        // fail when the stream runs out, not when allocating.
+        final Collection<T> list = new ArrayList<>(Math.min(size, 1024));
+        for (int i = 0; i < size; i++) {
+          list.add(serializer.read(in));
+        }
+        return list;
+      }
+    };
+  }
+
+  // Write an unsigned varint. Negative values take the full ten bytes.
+  public static void writeVarint(OutputStream out, long value) throws IOException {
+
+    final byte[] bytes = new byte[10];
+    int length = 0;
+
+    while ((value & ~0x7FL) != 0) {
+      bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    bytes[length++] = (byte) value;
+
+    out.write(bytes, 0, length);
+  }
+
+  public static long readVarint(InputStream in) throws IOException {
+
+    long value = 0;
+
+    for (int shift = 0; shift < 64; shift += 7) {
+      final int next = in.read();
+      if (next < 0) {
+        throw new EOFException();
+      }
+      value |= (long) (next & 0x7F) << shift;
+      if ((next & 0x80) == 0) {
+        return value;
+      }
+    }
+
+    throw new IOException("Varint is longer than ten bytes");
+  }
+
+  private static int readLength(InputStream in) throws IOException {
+    final long length = readVarint(in);
+    if (length < 0 || length > Integer.MAX_VALUE) {
+      throw new IOException("Bad length " + length);
+    }
+    return (int) length;
+  }
+}
@@ -0,0 +1,136 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// COMPRESSION
+//
+// Deflate and inflate whole responses. Each thread keeps one Deflater and one
+// Inflater and resets them between uses, rather than creating new ones (and
+// their native zlib state) for every response.
+public final class Compression {
+
+  private static final int CHUNK_SIZE = 8 * 1024;
+
+  private static final ThreadLocal<Deflater> DEFLATER = new ThreadLocal<Deflater>() {
+    @Override
+    protected Deflater initialValue() {
+      return new Deflater(Deflater.DEFAULT_COMPRESSION);
+    }
+  };
+
+  private static final ThreadLocal<Inflater> INFLATER = new ThreadLocal<Inflater>() {
+    @Override
+    protected Inflater initialValue() {
+      return new Inflater();
+    }
+  };
+
+  private Compression() { }
+
+  // Deflate everything written to "in". Returns null if the result would not
+  // be smaller than "in", in which case it is better sent as it is.
+  public static byte[] deflate(ByteBufferOutputStream in) {
+
+    final Deflater deflater = DEFLATER.get();
+    final ByteArrayOutputStream out = new ByteArrayOutputStream(Math.min(in.size(), CHUNK_SIZE));
+    final byte[] chunk = new byte[CHUNK_SIZE];
+
+    try {
+
+      for (final ByteBuffer buffer : in.buffers()) {
+        if (buffer.hasArray()) {
+          deflater.setInput(buffer.array(),
+                            buffer.arrayOffset() + buffer.position(),
+                            buffer.remaining());
+        } else {
+          final byte[] copy = new byte[buffer.remaining()];
+          buffer.get(copy);
+          deflater.setInput(copy);
+        }
+        if (!drain(deflater, chunk, out, in.size())) {
+          return null;
+        }
+      }
+
+      deflater.finish();
+
+      return drain(deflater, chunk, out, in.size()) ? out.toByteArray() : null;
+
+    } finally {
+      deflater.reset();
+    }
+  }
+
+  // Copy what the deflater has ready to "out". Returns false as soon as "out"
+  // is no smaller than "limit".
+  private static boolean drain(Deflater deflater,
+                               byte[] chunk,
+                               ByteArrayOutputStream out,
+                               int limit) {
+
+    for (int count = deflater.deflate(chunk); count > 0; count = deflater.deflate(chunk)) {
+      out.write(chunk, 0, count);
+      if (out.size() >= limit) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  // Inflate bytes made by "deflate" back into the "size" bytes they came from.
+  public static byte[] inflate(byte[] in, int size) throws IOException {
+
+    if (size < 0) {
+      throw new IOException("Bad inflated size " + size);
+    }
+
+    final Inflater inflater = INFLATER.get();
+    final byte[] out = new byte[size];
+
+    try {
+
+      inflater.setInput(in);
+
+      int length = 0;
+      while (!inflater.finished()) {
+        final int count = inflater.inflate(out, length, out.length - length);
+        if (count == 0 && (inflater.needsInput() || length == out.length)) {
+          throw new IOException("Compressed data does not match its size");
+        }
+        length += count;
+      }
+
+      if (length != size) {
+        throw new IOException("Compressed data does not match its size");
+      }
+
+      return out;
+
+    } catch (DataFormatException ex) {
+      throw new IOException("Bad compressed data", ex);
+    } finally {
+      inflater.reset();
+    }
+  }
+}
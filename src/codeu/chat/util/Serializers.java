@@ -14,9 +14,11 @@
 
 package codeu.chat.util;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
 
@@ -31,7 +33,7 @@ public final class Serializers {
 
     @Override
     public Boolean read(InputStream in) throws IOException {
-      return in.read() != 0;
+      return readByte(in) != 0;
     }
   };
 
@@ -40,10 +42,14 @@ public final class Serializers {
     @Override
     public void write(OutputStream out, Integer value) throws IOException {
 
-      for (int i = 24; i >= 0; i -= 8) {
-        out.write(0xFF & (value >>> i));
+      final byte[] bytes = new byte[4];
+
+      for (int i = 0; i < 4; i++) {
+        bytes[i] = (byte)(value >>> (24 - 8 * i));
       }
 
+      out.write(bytes);
+
     }
 
     @Override
@@ -52,7 +58,7 @@ public final class Serializers {
       int value = 0;
 
       for (int i = 0; i < 4; i++) {
-        value = (value << 8) | in.read();
+        value = (value << 8) | readByte(in);
       }
 
       return value;
@@ -65,10 +71,14 @@ public final class Serializers {
     @Override
     public void write(OutputStream out, Long value) throws IOException {
 
-      for (int i = 56; i >= 0; i -= 8) {
-        out.write((int)(0xFF & (value >>> i)));
+      final byte[] bytes = new byte[8];
+
+      for (int i = 0; i < 8; i++) {
+        bytes[i] = (byte)(value >>> (56 - 8 * i));
       }
 
+      out.write(bytes);
+
     }
 
     @Override
@@ -77,7 +87,7 @@ public final class Serializers {
       long value = 0;
 
       for (int i = 0; i < 8; i++) {
-        value = (value << 8) | in.read();
+        value = (value << 8) | readByte(in);
       }
 
       return value;
@@ -99,12 +109,14 @@ public final class Serializers {
     public byte[] read(InputStream input) throws IOException {
 
       final int length = INTEGER.read(input);
-      final byte[] array = new byte[length];
 
-      for (int i = 0; i < length; i++) {
-        array[i] = (byte)input.read();
+      if (length < 0) {
+        throw new IOException("Negative length " + length);
       }
 
+      final byte[] array = new byte[length];
+      readFully(input, array, 0, length);
+
       return array;
 
     }
@@ -115,14 +127,14 @@ public final class Serializers {
     @Override
     public void write(OutputStream out, String value) throws IOException {
 
-      BYTES.write(out, value.getBytes());
+      BYTES.write(out, value.getBytes(StandardCharsets.UTF_8));
 
     }
 
     @Override
     public String read(InputStream input) throws IOException {
 
-      return new String(BYTES.read(input));
+      return new String(BYTES.read(input), StandardCharsets.UTF_8);
 
     }
   };
@@ -174,5 +186,30 @@ public final class Serializers {
       }
     };
   }
-}
 
+  // Read exactly "length" bytes into "bytes", in as few reads as the stream
+  // allows. Throws EOFException if the stream ends first.
+  public static void readFully(InputStream in, byte[] bytes, int offset, int length)
+      throws IOException {
+
+    while (length > 0) {
+      final int count = in.read(bytes, offset, length);
+      if (count < 0) {
+        throw new EOFException();
+      }
+      offset += count;
+      length -= count;
+    }
+  }
+
+  // Read a single byte. Unlike InputStream.read this throws EOFException at
+  // the end of the stream rather than returning -1, which would otherwise be
+  // read as part of a value.
+  private static int readByte(InputStream in) throws IOException {
+    final int value = in.read();
+    if (value < 0) {
+      throw new EOFException();
+    }
+    return value;
+  }
+}
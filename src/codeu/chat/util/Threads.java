@@ -0,0 +1,45 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public final class Threads {
+
+  private final static Logger.Log LOG = Logger.newLog(Threads.class);
+
+  // NEW THREAD PER TASK EXECUTOR
+  //
+  // Create an executor that starts a new thread for every task. On a JVM that
+  // has virtual threads (Java 21 and later) each task gets a virtual thread,
+  // so tasks that block on I/O do not each tie up an OS thread. On older
+  // JVMs this falls back to a cached pool of platform threads.
+  //
+  // The project is built for Java 7, so the Java 21 method has to be looked
+  // up at runtime.
+  public static ExecutorService newThreadPerTaskExecutor() {
+    try {
+      final Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      final ExecutorService executor = (ExecutorService) factory.invoke(null);
+      LOG.info("Using virtual threads.");
+      return executor;
+    } catch (ReflectiveOperationException ex) {
+      LOG.info("Virtual threads are not available, using platform threads.");
+      return Executors.newCachedThreadPool();
+    }
+  }
+}
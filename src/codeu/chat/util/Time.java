@@ -17,6 +17,7 @@ package codeu.chat.util;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 
@@ -39,6 +40,38 @@ public final class Time implements Comparable<Time> {
     }
   };
 
+  public static final BufferSerializer<Time> BUFFER_SERIALIZER = new BufferSerializer<Time>() {
+
+    @Override
+    public int size(Time value) {
+      return 8;
+    }
+
+    @Override
+    public void write(ByteBuffer buffer, Time value) {
+      buffer.putLong(value.inMs());
+    }
+
+    @Override
+    public Time read(ByteBuffer buffer) {
+      return Time.fromMs(buffer.getLong());
+    }
+  };
+
+  // The compact (version 2) format: milliseconds as a zigzag varint.
+  public static final Serializer<Time> COMPACT_SERIALIZER = new Serializer<Time>() {
+
+    @Override
+    public void write(OutputStream out, Time value) throws IOException {
+      CompactSerializers.LONG.write(out, value.inMs());
+    }
+
+    @Override
+    public Time read(InputStream in) throws IOException {
+      return Time.fromMs(CompactSerializers.LONG.read(in));
+    }
+  };
+
   private static final SimpleDateFormat formatter =
       new SimpleDateFormat("dd-MMM-yyyy HH:mm:ss.SSS");
 
@@ -59,7 +92,10 @@ public final class Time implements Comparable<Time> {
 
   @Override
   public String toString() {
-    return formatter.format(date);
+    // SimpleDateFormat is not thread-safe and the formatter is shared.
+    synchronized (formatter) {
+      return formatter.format(date);
+    }
   }
 
   public static Time fromMs(long ms) { return new Time(ms); }
@@ -18,6 +18,7 @@ import java.lang.StringBuilder;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Objects;
 
 public final class Uuid {
@@ -70,6 +71,95 @@ public final class Uuid {
     }
   };
 
+  public static final BufferSerializer<Uuid> BUFFER_SERIALIZER = new BufferSerializer<Uuid>() {
+
+    @Override
+    public int size(Uuid value) {
+      return 1 + 8 * chainLength(value);
+    }
+
+    @Override
+    public void write(ByteBuffer buffer, Uuid value) {
+
+      buffer.put((byte) chainLength(value));
+
+      for (Uuid current = value; current != null; current = current.root()) {
+        buffer.putLong(current.id());
+      }
+    }
+
+    @Override
+    public Uuid read(ByteBuffer buffer) {
+
+      final int length = buffer.get() & 0xFF;
+      final long[] chain = new long[length];
+
+      for (int i = 0; i < length; i++) {
+        chain[i] = buffer.getLong();
+      }
+
+      Uuid head = null;
+
+      for (int i = length - 1; i >= 0; i--) {
+        head = new Uuid(head, chain[i]);
+      }
+
+      return head;
+    }
+  };
+
+  // The compact (version 2) format: the chain length as a varint, then each
+  // link as a zigzag varint. Ids are usually 32 bit values, and small ones
+  // take a single byte.
+  public static final Serializer<Uuid> COMPACT_SERIALIZER = new Serializer<Uuid>() {
+
+    @Override
+    public void write(OutputStream out, Uuid value) throws IOException {
+
+      CompactSerializers.writeVarint(out, chainLength(value));
+
+      for (Uuid current = value; current != null; current = current.root()) {
+        CompactSerializers.LONG.write(out, current.id());
+      }
+    }
+
+    @Override
+    public Uuid read(InputStream in) throws IOException {
+
+      final long length = CompactSerializers.readVarint(in);
+
+      if (length < 0 || length > 255) {
+        throw new IOException("Max supported Uuid chain length is 255");
+      }
+
+      final long[] chain = new long[(int) length];
+
+      for (int i = 0; i < length; i++) {
+        chain[i] = CompactSerializers.LONG.read(in);
+      }
+
+      Uuid head = null;
+
+      for (int i = chain.length - 1; i >= 0; i--) {
+        head = new Uuid(head, chain[i]);
+      }
+
+      return head;
+    }
+  };
+
+  // The same limit as SERIALIZER, as the length has to fit in one byte.
+  private static int chainLength(Uuid value) {
+    int length = 0;
+    for (Uuid current = value; current != null; current = current.root()) {
+      length += 1;
+    }
+    if (length > 255) {
+      throw new IllegalArgumentException("Max supported Uuid chain length is 255");
+    }
+    return length;
+  }
+
 
   // GENERATOR
   //
@@ -189,6 +279,32 @@ public final class Uuid {
     }
   }
 
+  // PACKING
+  //
+  // Nearly every id a server makes is a 32-bit id under a 32-bit root (see
+  // RandomUuidGenerator), and such a Uuid fits in one long. Stores use this
+  // to keep ids as primitives rather than as chains of objects.
+
+  // Check if a Uuid is an id under a root that has no root, and both ids fit
+  // in 32 bits.
+  public static boolean packable(Uuid id) {
+    return id != null &&
+           id.root() != null &&
+           id.root().root() == null &&
+           id.id() == (int) id.id() &&
+           id.root().id() == (int) id.root().id();
+  }
+
+  // Pack a Uuid for which "packable" is true into a long.
+  public static long pack(Uuid id) {
+    return (id.root().id() << 32) | (id.id() & 0xFFFFFFFFL);
+  }
+
+  // The Uuid that was packed into a long.
+  public static Uuid unpack(long packed) {
+    return new Uuid(new Uuid(packed >> 32), (int) packed);
+  }
+
   // Parse
   //
   // Create a uuid from a sting.
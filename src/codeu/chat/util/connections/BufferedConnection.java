@@ -0,0 +1,138 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.connections;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+
+// BUFFERED CONNECTION
+//
+// A connection over a socket whose streams are buffered, so that the
+// serializers writing and reading a few bytes at a time do not turn every
+// value into its own system call (and its own packet).
+//
+// Buffered output is flushed whenever the input has to wait on the socket and
+// when the connection is closed. A request is therefore always sent before
+// its caller blocks waiting for the response, without any caller having to
+// remember to flush.
+final class BufferedConnection implements Connection {
+
+  static final int BUFFER_SIZE = 8 * 1024;
+
+  private final Socket socket;
+  private final OutputStream out;
+  private final InputStream in;
+
+  public BufferedConnection(Socket socket) throws IOException {
+    this.socket = socket;
+    this.out = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+    this.in = new FlushingInputStream(socket.getInputStream(), out);
+  }
+
+  @Override
+  public InputStream in() {
+    return in;
+  }
+
+  @Override
+  public OutputStream out() {
+    return out;
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      out.flush();
+    } finally {
+      socket.close();
+    }
+  }
+
+  // FLUSHING INPUT STREAM
+  //
+  // A buffered input stream that flushes an output stream before each time it
+  // blocks on its own source.
+  static final class FlushingInputStream extends InputStream {
+
+    private final InputStream source;
+    private final OutputStream flush;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    private int position = 0;
+    private int limit = 0;
+
+    public FlushingInputStream(InputStream source, OutputStream flush) {
+      this.source = source;
+      this.flush = flush;
+    }
+
+    @Override
+    public int read() throws IOException {
+      return fill() ? (buffer[position++] & 0xFF) : -1;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+
+      if (length == 0) {
+        return 0;
+      }
+
+      // Large reads go straight into the caller's array rather than being
+      // copied through the buffer.
+      if (position == limit && length >= buffer.length) {
+        flush.flush();
+        return source.read(bytes, offset, length);
+      }
+
+      if (!fill()) {
+        return -1;
+      }
+
+      final int count = Math.min(length, limit - position);
+      System.arraycopy(buffer, position, bytes, offset, count);
+      position += count;
+      return count;
+    }
+
+    @Override
+    public int available() throws IOException {
+      return (limit - position) + source.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+      source.close();
+    }
+
+    // Make sure that there is at least one byte in the buffer. Returns false
+    // at the end of the stream.
+    private boolean fill() throws IOException {
+      while (position == limit) {
+        flush.flush();
+        final int count = source.read(buffer, 0, buffer.length);
+        if (count < 0) {
+          return false;
+        }
+        position = 0;
+        limit = count;
+      }
+      return true;
+    }
+  }
+}
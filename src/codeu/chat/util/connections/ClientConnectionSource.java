@@ -15,8 +15,6 @@
 package codeu.chat.util.connections;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.Socket;
 
 // CLIENT CONNECTION SOURCE
@@ -36,30 +34,15 @@ public final class ClientConnectionSource implements ConnectionSource {
 
   @Override
   public Connection connect() throws IOException {
-    return fromSocket(new Socket(host, port));
+    final Socket socket = new Socket(host, port);
+
+    // Requests are small. Without this, a connection that is reused for more
+    // than one request can wait on a delayed ACK before each request goes out.
+    socket.setTcpNoDelay(true);
+
+    return new BufferedConnection(socket);
   }
 
   @Override
   public void close() throws IOException { }
-
-  private static Connection fromSocket(final Socket socket) throws IOException {
-
-    return new Connection() {
-
-      @Override
-      public InputStream in() throws IOException {
-        return socket.getInputStream();
-      }
-
-      @Override
-      public OutputStream out() throws IOException {
-        return socket.getOutputStream();
-      }
-
-      @Override
-      public void close() throws IOException {
-        socket.close();
-      }
-    };
-  }
 }
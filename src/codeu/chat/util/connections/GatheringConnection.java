@@ -0,0 +1,30 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.util.connections;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// GATHERING CONNECTION
+//
+// A connection that can send several buffers in one call, without copying
+// them through its output stream. Anything already written to "out" is sent
+// before the buffers.
+public interface GatheringConnection extends Connection {
+
+  void write(ByteBuffer[] buffers) throws IOException;
+
+}
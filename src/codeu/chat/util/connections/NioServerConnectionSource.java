@@ -0,0 +1,510 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.connections;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import codeu.chat.util.Logger;
+
+// NIO SERVER CONNECTION SOURCE
+//
+// Implements the ConnectionSource interface for servers using a single
+// selector thread. Sockets are accepted without blocking and are only handed
+// out through "connect" once the client has sent a whole request, as told by
+// the source's RequestFraming (or any data at all if it has none). This means
+// an idle socket, or one whose client is slow to send its request, costs a
+// registration with the selector rather than a blocked thread. Calls to
+// "connect" will block until a connection has a request to read.
+//
+// A request that does not fit in the largest buffer a session may grow to
+// (MAX_BUFFER_SIZE) is rejected by closing the connection. Framing must only
+// look at the bytes it is given: a length that reaches past them means the
+// rest of the request has not arrived yet.
+//
+// Connections handed out are ReusableConnections and GatheringConnections.
+// Releasing one puts it back under the selector until the client sends its
+// next request. Connections that stay idle under the selector for longer than
+// the idle timeout are closed.
+//
+// As with BufferedConnection, output is buffered and is flushed whenever a
+// read has to wait on the socket, and when the connection is released or
+// closed.
+public final class NioServerConnectionSource implements ConnectionSource {
+
+  private final static Logger.Log LOG = Logger.newLog(NioServerConnectionSource.class);
+
+  private static final int BUFFER_SIZE = BufferedConnection.BUFFER_SIZE;
+  static final int MAX_BUFFER_SIZE = 128 * BUFFER_SIZE;
+
+  private static final long DEFAULT_IDLE_TIMEOUT_MS = 60000;  // 1 minute
+  private static final long IDLE_CHECK_MS = 1000;  // 1 second
+
+  // Placed on the ready queue when the source is closed so that any thread
+  // blocked in "connect" will wake up.
+  private static final Connection CLOSED = new Connection() {
+    @Override
+    public InputStream in() { return null; }
+    @Override
+    public OutputStream out() { return null; }
+    @Override
+    public void close() { }
+  };
+
+  private final ServerSocketChannel serverChannel;
+  private final Selector selector;
+
+  private final long idleTimeoutMs;
+  private final RequestFraming framing;
+
+  private final BlockingQueue<Connection> ready = new LinkedBlockingQueue<>();
+
+  // Sessions that were released by the threads using them. Only the selector
+  // thread may register channels, so they wait here until it wakes up.
+  private final Queue<Session> released = new ConcurrentLinkedQueue<>();
+
+  private long lastIdleCheck = System.currentTimeMillis();
+
+  private volatile boolean running = true;
+
+  private final Thread selectorThread = new Thread() {
+    @Override
+    public void run() {
+      while (running) {
+        try {
+          select();
+        } catch (Exception ex) {
+          // Catch everything so that one bad socket does not take down
+          // every other connection.
+          LOG.error(ex, "Exception in selector loop.");
+        }
+      }
+      closeAll();
+    }
+  };
+
+  NioServerConnectionSource(ServerSocketChannel serverChannel,
+                            long idleTimeoutMs,
+                            RequestFraming framing) throws IOException {
+    this.serverChannel = serverChannel;
+    this.idleTimeoutMs = idleTimeoutMs;
+    this.framing = framing;
+    this.selector = Selector.open();
+
+    serverChannel.configureBlocking(false);
+    serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+    selectorThread.setDaemon(true);
+    selectorThread.start();
+  }
+
+  @Override
+  public Connection connect() throws IOException {
+
+    final Connection connection;
+
+    try {
+      connection = ready.take();
+    } catch (InterruptedException ex) {
+      throw new IOException("Interrupted while waiting for a connection", ex);
+    }
+
+    if (connection == CLOSED) {
+      ready.offer(CLOSED);  // let any other waiting thread see it too
+      throw new IOException("Connection source is closed");
+    }
+
+    return connection;
+  }
+
+  @Override
+  public void close() throws IOException {
+    running = false;
+    selector.wakeup();
+    serverChannel.close();
+    ready.offer(CLOSED);
+  }
+
+  private void select() throws IOException {
+
+    selector.select(IDLE_CHECK_MS);
+
+    registerReleased();
+
+    // Sessions that have a whole request can only be switched back to
+    // blocking mode once their keys have been removed from the selector.
+    // Collect them here and hand them out once the cancelled keys have been
+    // flushed.
+    final List<Session> readable = new ArrayList<>();
+
+    final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+    while (keys.hasNext()) {
+      final SelectionKey key = keys.next();
+      keys.remove();
+
+      if (!key.isValid()) {
+        continue;
+      }
+
+      if (key.isAcceptable()) {
+        accept();
+      } else if (key.isReadable()) {
+        final Session session = (Session) key.attachment();
+        if (!session.prefetch()) {
+          key.cancel();
+          session.closeQuietly();
+        } else if (session.hasRequest()) {
+          key.cancel();
+          readable.add(session);
+        } else if (session.isFull()) {
+          LOG.warning("Closing connection whose request is over %d bytes.", MAX_BUFFER_SIZE);
+          key.cancel();
+          session.closeQuietly();
+        }
+        // Otherwise the session stays under the selector until the rest of
+        // the request arrives.
+      }
+    }
+
+    closeIdle();
+
+    if (!readable.isEmpty()) {
+
+      // Flush the cancelled keys. Any keys that this selects are dropped; the
+      // selector is level-triggered so they will be reported again.
+      selector.selectNow();
+      selector.selectedKeys().clear();
+
+      for (final Session session : readable) {
+        try {
+          session.channel.configureBlocking(true);
+          ready.offer(session);
+        } catch (IOException ex) {
+          LOG.error(ex, "Failed to hand out connection.");
+          session.closeQuietly();
+        }
+      }
+    }
+  }
+
+  private void accept() throws IOException {
+    SocketChannel channel;
+    while ((channel = serverChannel.accept()) != null) {
+      channel.configureBlocking(false);
+      channel.socket().setTcpNoDelay(true);
+      final Session session = new Session(this, channel);
+      session.lastActive = System.currentTimeMillis();
+      channel.register(selector, SelectionKey.OP_READ, session);
+    }
+  }
+
+  private void registerReleased() {
+    Session session;
+    while ((session = released.poll()) != null) {
+      try {
+        session.lastActive = System.currentTimeMillis();
+        session.channel.register(selector, SelectionKey.OP_READ, session);
+      } catch (IOException ex) {
+        LOG.error(ex, "Failed to watch released connection.");
+        session.closeQuietly();
+      }
+    }
+  }
+
+  private void closeIdle() {
+
+    final long now = System.currentTimeMillis();
+
+    if (now - lastIdleCheck < IDLE_CHECK_MS) {
+      return;
+    }
+
+    lastIdleCheck = now;
+
+    for (final SelectionKey key : selector.keys()) {
+      if (key.isValid() && key.attachment() instanceof Session) {
+        final Session session = (Session) key.attachment();
+        if (now - session.lastActive > idleTimeoutMs) {
+          key.cancel();
+          session.closeQuietly();
+        }
+      }
+    }
+  }
+
+  private void release(Session session) throws IOException {
+
+    // If the next request has already been read into the buffer the selector
+    // would never see it, so hand the session straight back out. Part of a
+    // request stays in the buffer and the selector waits for the rest.
+    if (session.hasRequest()) {
+      ready.offer(session);
+      return;
+    }
+
+    session.channel.configureBlocking(false);
+    released.offer(session);
+    selector.wakeup();
+  }
+
+  private void closeAll() {
+    for (final SelectionKey key : selector.keys()) {
+      if (key.attachment() instanceof Session) {
+        ((Session) key.attachment()).closeQuietly();
+      }
+    }
+    try {
+      selector.close();
+    } catch (IOException ex) {
+      LOG.error(ex, "Failed to close selector.");
+    }
+  }
+
+  // SESSION
+  //
+  // A single accepted socket. The selector thread reads whatever the client
+  // has already sent into the session's buffer before handing it out, so the
+  // reads of a whole request never touch the socket. The buffer grows (up to
+  // MAX_BUFFER_SIZE) to hold a request that does not fit. It is only used by
+  // the thread that currently owns the session.
+  //
+  // A session with nothing buffered holds no buffer at all, and one that grew
+  // goes back to BUFFER_SIZE when it is released, so idle sessions stay
+  // cheap however large their last request was.
+  private static final class Session implements ReusableConnection, GatheringConnection {
+
+    private final NioServerConnectionSource source;
+    private final SocketChannel channel;
+    // Kept in "read" mode between calls. Null while nothing is buffered.
+    private ByteBuffer buffer = null;
+
+    private final InputStream in = new InputStream() {
+
+      @Override
+      public int read() throws IOException {
+        return fill() ? (buffer.get() & 0xFF) : -1;
+      }
+
+      @Override
+      public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+          return 0;
+        }
+        if (!fill()) {
+          return -1;
+        }
+        final int count = Math.min(length, buffer.remaining());
+        buffer.get(bytes, offset, count);
+        return count;
+      }
+
+      @Override
+      public int available() {
+        return buffer == null ? 0 : buffer.remaining();
+      }
+    };
+
+    private final OutputStream out;
+
+    // Only read and written by the selector thread.
+    private long lastActive;
+
+    public Session(NioServerConnectionSource source, SocketChannel channel) {
+      this.source = source;
+      this.channel = channel;
+      this.out = new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE);
+    }
+
+    @Override
+    public InputStream in() {
+      return in;
+    }
+
+    @Override
+    public OutputStream out() {
+      return out;
+    }
+
+    @Override
+    public void write(ByteBuffer[] buffers) throws IOException {
+
+      out.flush();
+
+      // The channel is in blocking mode, but a gathering write may still
+      // return before everything has been written.
+      int last = 0;
+      while (last < buffers.length) {
+        channel.write(buffers, last, buffers.length - last);
+        while (last < buffers.length && !buffers[last].hasRemaining()) {
+          last += 1;
+        }
+      }
+    }
+
+    @Override
+    public void release() throws IOException {
+      out.flush();
+      shrink();
+      source.release(this);
+    }
+
+    @Override
+    public boolean hasRequest() {
+
+      if (buffer == null || !buffer.hasRemaining()) {
+        return false;
+      }
+
+      if (source.framing == null) {
+        return true;
+      }
+
+      try {
+        return source.framing.hasRequest(new ByteArrayInputStream(
+            buffer.array(),
+            buffer.arrayOffset() + buffer.position(),
+            buffer.remaining()));
+      } catch (IOException | RuntimeException ex) {
+        // Not a request the framing understands. Hand it out so that the
+        // thread reading it can reject it.
+        return true;
+      }
+    }
+
+    // Whether the buffer has grown as large as it may and is still full
+    // without holding a whole request.
+    boolean isFull() {
+      return buffer != null && buffer.remaining() == MAX_BUFFER_SIZE;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        out.flush();
+      } finally {
+        channel.close();
+      }
+    }
+
+    // Read whatever is available without blocking. Returns false if the
+    // client has closed its end of the socket.
+    boolean prefetch() {
+      try {
+
+        if (buffer == null) {
+          buffer = ByteBuffer.allocate(BUFFER_SIZE);
+          buffer.flip();
+        } else if (buffer.remaining() == buffer.capacity() && buffer.capacity() < MAX_BUFFER_SIZE) {
+          resize(Math.min(2 * buffer.capacity(), MAX_BUFFER_SIZE));
+        }
+
+        buffer.compact();
+        final int count = channel.read(buffer);
+        buffer.flip();
+
+        if (!buffer.hasRemaining()) {
+          // Nothing arrived, so do not keep a buffer for it.
+          buffer = null;
+        }
+
+        if (count > 0) {
+          lastActive = System.currentTimeMillis();
+        }
+
+        return count >= 0;
+      } catch (IOException ex) {
+        return false;
+      }
+    }
+
+    // Make sure that there is at least one byte in the buffer, blocking on
+    // the socket if needed. Returns false at the end of the stream.
+    private boolean fill() throws IOException {
+      if (buffer == null) {
+        buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        buffer.flip();
+      }
+      while (!buffer.hasRemaining()) {
+        out.flush();
+        buffer.clear();
+        final int count = channel.read(buffer);
+        buffer.flip();
+        if (count < 0) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    // Drop the buffer if it is empty, or go back to BUFFER_SIZE if it grew
+    // and what is left of it fits.
+    private void shrink() {
+      if (buffer == null || !buffer.hasRemaining()) {
+        buffer = null;
+      } else if (buffer.capacity() > BUFFER_SIZE && buffer.remaining() <= BUFFER_SIZE) {
+        resize(BUFFER_SIZE);
+      }
+    }
+
+    // Move what is left to be read into a new buffer of the given size.
+    private void resize(int capacity) {
+      final ByteBuffer resized = ByteBuffer.allocate(capacity);
+      resized.put(buffer);
+      resized.flip();
+      buffer = resized;
+    }
+
+    void closeQuietly() {
+      try {
+        channel.close();
+      } catch (IOException ex) {
+        LOG.error(ex, "Failed to close connection.");
+      }
+    }
+  }
+
+  public static ConnectionSource forPort(int port) throws IOException {
+    return forPort(port, DEFAULT_IDLE_TIMEOUT_MS);
+  }
+
+  public static ConnectionSource forPort(int port, long idleTimeoutMs) throws IOException {
+    return forPort(port, idleTimeoutMs, null);
+  }
+
+  public static ConnectionSource forPort(int port,
+                                         long idleTimeoutMs,
+                                         RequestFraming framing) throws IOException {
+    final ServerSocketChannel channel = ServerSocketChannel.open();
+    channel.socket().bind(new InetSocketAddress(port));
+    return new NioServerConnectionSource(channel, idleTimeoutMs, framing);
+  }
+}
@@ -0,0 +1,32 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.connections;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+// REQUEST FRAMING
+//
+// Tells a connection source where requests end, so that it can wait for a
+// whole request to arrive before handing the connection to a thread that
+// will block reading it.
+public interface RequestFraming {
+
+  // Whether "in", which holds only the bytes received so far, starts with a
+  // whole request. Reading past its end means that the rest of the request
+  // has not arrived yet.
+  boolean hasRequest(InputStream in) throws IOException;
+
+}
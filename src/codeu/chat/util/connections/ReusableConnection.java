@@ -0,0 +1,33 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.connections;
+
+import java.io.IOException;
+
+// REUSABLE CONNECTION
+//
+// A connection that can outlive a single request. Calling "release" hands the
+// connection back to the source it came from, which will watch it and return
+// it from "connect" again once more data arrives. Calling "close" still ends
+// the connection.
+public interface ReusableConnection extends Connection {
+
+  void release() throws IOException;
+
+  // Whether the next request has already arrived in full, so that reading it
+  // will not block.
+  boolean hasRequest() throws IOException;
+
+}
@@ -0,0 +1,231 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.util.store;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+// CONCURRENT STORE
+//
+// A store that can be read while it is being changed. Reads never lock or
+// wait: they walk a skip list and see every value that was added before they
+// started and none that was deleted before they started. Values added or
+// deleted while an iterable is being walked may or may not be seen.
+//
+// Like Store, values with equal keys are kept in the order they were added.
+// The first value with a key is held directly by the skip list. Only keys
+// that get a second value pay for a queue of them.
+//
+// Writes must not run at the same time as each other. The Model's writes are
+// already serialized by the Server.
+//
+// Keys may not be null, but looking up a null key simply finds nothing.
+public final class ConcurrentStore<KEY, VALUE> implements StoreAccessor<KEY, VALUE> {
+
+  // Each entry is either a VALUE or, for keys with more than one value, the
+  // Duplicates that hold all of them.
+  private final ConcurrentNavigableMap<KEY, Object> index;
+
+  private final Comparator<KEY> comparator;
+
+  public ConcurrentStore(Comparator<KEY> comparator) {
+    this.index = new ConcurrentSkipListMap<>(comparator);
+    this.comparator = comparator;
+  }
+
+  public void insert(KEY key, VALUE value) {
+
+    final Object current = index.get(key);
+
+    if (current == null) {
+      index.put(key, value);
+    } else if (current instanceof Duplicates) {
+      ((Duplicates) current).add(value);
+    } else {
+      // Readers see either the one value or both, never neither.
+      final Duplicates duplicates = new Duplicates();
+      duplicates.add(current);
+      duplicates.add(value);
+      index.put(key, duplicates);
+    }
+  }
+
+  // Delete every value with the key. Returns false if there were none.
+  public boolean delete(KEY key) {
+    return key != null && index.remove(key) != null;
+  }
+
+  // Delete one value with the key, the first one that equals "value".
+  // Returns false if there was no such value.
+  public boolean delete(KEY key, VALUE value) {
+
+    if (key == null) {
+      return false;
+    }
+
+    final Object current = index.get(key);
+
+    if (current instanceof Duplicates) {
+
+      final Duplicates duplicates = (Duplicates) current;
+
+      if (!duplicates.remove(value)) {
+        return false;
+      }
+
+      if (duplicates.isEmpty()) {
+        index.remove(key);
+      }
+
+      return true;
+    }
+
+    if (current == null || !Objects.equals(current, value)) {
+      return false;
+    }
+
+    index.remove(key);
+    return true;
+  }
+
+  @Override
+  public VALUE first(KEY key) {
+
+    final Object entry = key == null ? null : index.get(key);
+
+    if (entry instanceof Duplicates) {
+      return cast(((Duplicates) entry).peek());
+    }
+
+    return cast(entry);
+  }
+
+  @Override
+  public Iterable<VALUE> all() {
+    return values(index);
+  }
+
+  @Override
+  public Iterable<VALUE> at(KEY key) {
+    return range(key, key);
+  }
+
+  @Override
+  public Iterable<VALUE> after(KEY start) {
+    return start == null ? none() : values(index.tailMap(start, true));
+  }
+
+  @Override
+  public Iterable<VALUE> before(KEY end) {
+    return end == null ? none() : values(index.headMap(end, true));
+  }
+
+  @Override
+  public Iterable<VALUE> range(KEY start, KEY end) {
+
+    if (start == null || end == null || comparator.compare(start, end) > 0) {
+      return none();
+    }
+
+    return values(index.subMap(start, true, end, true));
+  }
+
+  private Iterable<VALUE> none() {
+    return Collections.emptyList();
+  }
+
+  private Iterable<VALUE> values(final ConcurrentNavigableMap<KEY, Object> entries) {
+    return new Iterable<VALUE>() {
+      @Override
+      public Iterator<VALUE> iterator() {
+        return new ValueIterator(entries.values().iterator());
+      }
+    };
+  }
+
+  @SuppressWarnings("unchecked")
+  private VALUE cast(Object value) {
+    return (VALUE) value;
+  }
+
+  // DUPLICATES
+  //
+  // The values of a key that has more than one, in the order they were added.
+  private static final class Duplicates extends ConcurrentLinkedQueue<Object> {
+    private static final long serialVersionUID = 1L;
+  }
+
+  // VALUE ITERATOR
+  //
+  // Walks the entries of the index, and the values within each entry that
+  // holds duplicates.
+  private final class ValueIterator implements Iterator<VALUE> {
+
+    private final Iterator<Object> entries;
+    private Iterator<Object> duplicates = null;
+    private Object next = null;
+
+    ValueIterator(Iterator<Object> entries) {
+      this.entries = entries;
+    }
+
+    @Override
+    public boolean hasNext() {
+
+      while (next == null) {
+
+        if (duplicates != null && duplicates.hasNext()) {
+          next = duplicates.next();
+        } else if (entries.hasNext()) {
+          final Object entry = entries.next();
+          if (entry instanceof Duplicates) {
+            duplicates = ((Duplicates) entry).iterator();
+          } else {
+            duplicates = null;
+            next = entry;
+          }
+        } else {
+          return false;
+        }
+      }
+
+      return true;
+    }
+
+    @Override
+    public VALUE next() {
+
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+
+      final Object value = next;
+      next = null;
+      return cast(value);
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -0,0 +1,194 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.util.store;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// LONG TABLE
+//
+// A hash table from longs to longs, kept in two arrays of primitives so that
+// finding a value does not allocate. It uses open addressing with linear
+// probing, and removals shift later entries back rather than leaving
+// tombstones. A slot is empty while its value is zero, so zero cannot be
+// stored.
+//
+// Reads never lock or wait, but writes must not run at the same time as each
+// other. A read that overlaps adding a new key still finds every key that was
+// in the table before. A read that overlaps replacing or removing a key may
+// not, so callers that do either must notice overlapping writes themselves
+// (see UuidStore).
+public final class LongTable {
+
+  private static final int INITIAL_CAPACITY = 64;
+
+  private volatile Slots slots = new Slots(INITIAL_CAPACITY);
+
+  // Only used by writes.
+  private int size = 0;
+
+  // The value of the key, or zero if it has none.
+  public long get(long key) {
+    return slots.find(key);
+  }
+
+  // Map the key to the value, replacing any value it had.
+  public void put(long key, long value) {
+
+    if (value == 0) {
+      throw new IllegalArgumentException("Zero marks an empty slot");
+    }
+
+    // Keep the table at most half full so that probes stay short and there
+    // is always an empty slot to end them. A read of the old slots still finds
+    // everything that was added before.
+    if (2 * (size + 1) > slots.capacity) {
+      slots = slots.resize(2 * slots.capacity);
+    }
+
+    if (slots.insert(key, value)) {
+      size += 1;
+    }
+  }
+
+  // Remove the key. Returns false if it had no value.
+  public boolean remove(long key) {
+
+    if (slots.delete(key)) {
+      size -= 1;
+      return true;
+    }
+
+    return false;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  // SLOTS
+  //
+  // The keys and values of the table. They are atomic so that a reader that
+  // sees a value also sees the key written before it.
+  private static final class Slots {
+
+    final int capacity;
+    final int mask;
+    final AtomicLongArray keys;
+    final AtomicLongArray values;
+
+    Slots(int capacity) {
+      this.capacity = capacity;
+      this.mask = capacity - 1;
+      this.keys = new AtomicLongArray(capacity);
+      this.values = new AtomicLongArray(capacity);
+    }
+
+    // The value of the key, or zero. This gives up after visiting every slot,
+    // which only happens if a key is removed during the read.
+    long find(long key) {
+
+      int slot = home(key);
+
+      for (int i = 0; i < capacity; i++) {
+
+        final long value = values.get(slot);
+
+        if (value == 0 || keys.get(slot) == key) {
+          return value;
+        }
+
+        slot = next(slot);
+      }
+
+      return 0;
+    }
+
+    // Returns true if the key is new.
+    boolean insert(long key, long value) {
+
+      int slot = home(key);
+      while (values.get(slot) != 0 && keys.get(slot) != key) {
+        slot = next(slot);
+      }
+
+      final boolean added = values.get(slot) == 0;
+
+      keys.set(slot, key);
+      values.set(slot, value);
+
+      return added;
+    }
+
+    // Returns false if the key was not there.
+    boolean delete(long key) {
+
+      int hole = home(key);
+      while (values.get(hole) != 0 && keys.get(hole) != key) {
+        hole = next(hole);
+      }
+
+      if (values.get(hole) == 0) {
+        return false;
+      }
+
+      // Move back each later entry of the probe sequence that could no longer
+      // be found with a gap before it: one whose home slot is not between the
+      // hole and where it is now.
+      for (int next = next(hole); values.get(next) != 0; next = next(next)) {
+        final long moving = keys.get(next);
+        if (distance(home(moving), next) >= distance(hole, next)) {
+          keys.set(hole, moving);
+          values.set(hole, values.get(next));
+          hole = next;
+        }
+      }
+
+      values.set(hole, 0);
+
+      return true;
+    }
+
+    Slots resize(int newCapacity) {
+
+      final Slots resized = new Slots(newCapacity);
+
+      for (int i = 0; i < capacity; i++) {
+        final long value = values.get(i);
+        if (value != 0) {
+          resized.insert(keys.get(i), value);
+        }
+      }
+
+      return resized;
+    }
+
+    // Multiply by the golden ratio to spread ids that differ only in a few
+    // low bits (such as those from LinearUuidGenerator) over the table.
+    int home(long key) {
+      final long hash = key * 0x9E3779B97F4A7C15L;
+      return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    int next(int slot) {
+      return (slot + 1) & mask;
+    }
+
+    // How many slots "to" is after "from", wrapping around the end.
+    int distance(int from, int to) {
+      return (to - from) & mask;
+    }
+  }
+}
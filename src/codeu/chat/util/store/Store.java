@@ -17,8 +17,18 @@ package codeu.chat.util.store;
 import java.util.Comparator;
 import java.util.Map;
 import java.util.NavigableMap;
+import java.util.Objects;
 import java.util.TreeMap;
 
+// STORE
+//
+// Values sorted by key in a singly linked list, with an index over the list.
+// Values with equal keys form a run of links, in the order they were added.
+// The index maps each key to the first and last link of its run, so a value
+// can be added to the end of its run without walking the run, and iterating
+// between two keys only has to look up where to start and stop. The link
+// before a run is the last link of the run before it, so a run can also be
+// unlinked without walking the list.
 public final class Store<KEY, VALUE> implements StoreAccessor<KEY, VALUE> {
 
   // To make the code simpler - use a dummy link for the first link in this
@@ -26,7 +36,7 @@ public final class Store<KEY, VALUE> implements StoreAccessor<KEY, VALUE> {
   // the "next" value is used more than the "this" or "current" reference.
   private final StoreLink<KEY, VALUE> rootLink = new StoreLink<>(null, null, null);
 
-  private final NavigableMap<KEY, StoreLink<KEY, VALUE>> index;
+  private final NavigableMap<KEY, Run<KEY, VALUE>> index;
 
   private final Comparator<KEY> comparator;
 
@@ -37,54 +47,77 @@ public final class Store<KEY, VALUE> implements StoreAccessor<KEY, VALUE> {
 
   public void insert(KEY key, VALUE value) {
 
-    final StoreLink<KEY, VALUE> closestLink = floor(key);
+    final Map.Entry<KEY, Run<KEY, VALUE>> floor = index.floorEntry(key);
 
-    // Assume that the new value can only come after the current position. Move
-    // through the chain of links until the next link is either the end (null)
-    // or will logically come after the new value.
-    StoreLink<KEY, VALUE> current = (closestLink == null) ? (rootLink) : (closestLink);
-    while(current.next != null && comparator.compare(current.next.key, key) <= 0) {
-      current = current.next;
-    }
+    // The new value goes after every value whose key is less than or equal to
+    // its own, which all end with the last link of the floor's run.
+    final StoreLink<KEY, VALUE> previous = (floor == null) ? rootLink : floor.getValue().last;
+    final StoreLink<KEY, VALUE> newLink = new StoreLink<>(key, value, previous.next);
+    previous.next = newLink;
 
-    // "current.next" may be null, but "current" can never be null. So it
-    // should always be safe to call to current.
-    final StoreLink<KEY, VALUE> newLink = new StoreLink<>(key, value, current.next);
-    current.next = newLink;
-
-    // Before adding the link to the index, first check if the hint has an
-    // equal key. If it does - do not add the index.
-    //
-    // There are two reasons for this:
-    //  1. The index class does not handle duplicate keys well (as stated in
-    //     the code for the index).
-    //  2. There is no advantage to having multiple equal keys in the index as
-    //     it would not help with the interators. As long as the key will map
-    //     to the first link, the other links will always be found. This is
-    //     why the insert is always put at the end of the series.
-    if (closestLink == null || comparator.compare(newLink.key, closestLink.key) != 0) {
-      index.put(key, newLink);
+    if (floor != null && comparator.compare(floor.getKey(), key) == 0) {
+      floor.getValue().last = newLink;
+    } else {
+      index.put(key, new Run<>(newLink));
     }
   }
 
+  // Delete every value with the key. Returns false if there were none.
   public boolean delete(KEY key) {
-    if (!index.containsKey(key)) return false;
 
-    StoreLink<KEY, VALUE> current = rootLink;
-    while(current != null && current.next != null) {
-      if (comparator.compare(current.next.key, key) == 0) {
-          current.next = current.next.next;
-      }
-      current = current.next;
+    final Run<KEY, VALUE> run = index.remove(key);
+
+    if (run == null) {
+      return false;
     }
-    index.remove(key);
+
+    // The run follows the last link of the run before it, so the whole run
+    // is unlinked at once.
+    previous(key).next = run.last.next;
     return true;
   }
 
+  // Delete one value with the key, the first one that equals "value".
+  // Returns false if there was no such value. Only the run of the key is
+  // walked, not the whole list.
+  public boolean delete(KEY key, VALUE value) {
+
+    final Run<KEY, VALUE> run = index.get(key);
+
+    if (run == null) {
+      return false;
+    }
+
+    StoreLink<KEY, VALUE> before = previous(key);
+
+    while (before != run.last) {
+
+      final StoreLink<KEY, VALUE> current = before.next;
+
+      if (Objects.equals(current.value, value)) {
+
+        if (run.first == run.last) {
+          index.remove(key);
+        } else if (current == run.first) {
+          run.first = current.next;
+        } else if (current == run.last) {
+          run.last = before;
+        }
+
+        before.next = current.next;
+        return true;
+      }
+
+      before = current;
+    }
+
+    return false;
+  }
+
   @Override
   public VALUE first(KEY key) {
-    final StoreLink<KEY, VALUE> link = index.get(key);
-    return link == null ? null : link.value;
+    final Run<KEY, VALUE> run = index.get(key);
+    return run == null ? null : run.first.value;
   }
 
   @Override
@@ -112,23 +145,48 @@ public final class Store<KEY, VALUE> implements StoreAccessor<KEY, VALUE> {
     return new LinkIterable<KEY, VALUE>(comparator, ceiling(start), floor(end));
   }
 
+  // The link that the run of "key" follows: the last link of the run before
+  // it, or the root link if there is none.
+  private StoreLink<KEY, VALUE> previous(KEY key) {
+    final Map.Entry<KEY, Run<KEY, VALUE>> entry = index.lowerEntry(key);
+    return entry == null ? rootLink : entry.getValue().last;
+  }
+
+  // The first link of the first run.
   private StoreLink<KEY, VALUE> first() {
-    return extract(index.firstEntry());
+    final Map.Entry<KEY, Run<KEY, VALUE>> entry = index.firstEntry();
+    return entry == null ? null : entry.getValue().first;
   }
 
+  // The last link of the last run.
   private StoreLink<KEY, VALUE> last() {
-    return extract(index.lastEntry());
+    final Map.Entry<KEY, Run<KEY, VALUE>> entry = index.lastEntry();
+    return entry == null ? null : entry.getValue().last;
   }
 
+  // The first link of the first run whose key is at or after "key".
   private StoreLink<KEY, VALUE> ceiling(KEY key) {
-    return extract(index.ceilingEntry(key));
+    final Map.Entry<KEY, Run<KEY, VALUE>> entry = index.ceilingEntry(key);
+    return entry == null ? null : entry.getValue().first;
   }
 
+  // The last link of the last run whose key is at or before "key".
   private StoreLink<KEY, VALUE> floor(KEY key) {
-    return extract(index.floorEntry(key));
+    final Map.Entry<KEY, Run<KEY, VALUE>> entry = index.floorEntry(key);
+    return entry == null ? null : entry.getValue().last;
   }
 
-  private StoreLink<KEY, VALUE> extract(Map.Entry<KEY, StoreLink<KEY, VALUE>> entry) {
-    return entry == null ? null : entry.getValue();
+  // RUN
+  //
+  // The links of one key. They are always next to each other in the list.
+  private static final class Run<KEY, VALUE> {
+
+    StoreLink<KEY, VALUE> first;
+    StoreLink<KEY, VALUE> last;
+
+    Run(StoreLink<KEY, VALUE> link) {
+      this.first = link;
+      this.last = link;
+    }
   }
 }
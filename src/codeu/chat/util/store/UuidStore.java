@@ -0,0 +1,220 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.util.store;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import codeu.chat.util.Uuid;
+
+// UUID STORE
+//
+// A ConcurrentStore keyed by Uuid with a hash table beside it, so that "first"
+// finds a value without allocating or running a comparator up the Uuid chains.
+// The ordered store is still used for everything else.
+//
+// Nearly every id the server makes can be packed into one long (see
+// Uuid.pack). The table (see LongTable) maps these longs to slots of an array
+// of values, and slots freed by deletes are used again. Other Uuids are only
+// in the ordered store.
+//
+// Like ConcurrentStore, reads never lock or wait. A counter is made odd while
+// the table is being changed and even again after. A read that sees the
+// counter change, or sees a change in progress, asks the ordered store
+// instead. Writes must not run at the same time as each other.
+public final class UuidStore<VALUE> implements StoreAccessor<Uuid, VALUE> {
+
+  private static final int INITIAL_CAPACITY = 64;
+
+  private final ConcurrentStore<Uuid, VALUE> ordered;
+
+  // Each packed key maps to its slot in "values" plus one.
+  private final LongTable table = new LongTable();
+  private volatile AtomicReferenceArray<Object> values =
+      new AtomicReferenceArray<>(INITIAL_CAPACITY);
+  private volatile int changes = 0;
+
+  // Only used by writes: the slots freed by deletes, and how many slots of
+  // "values" have ever been used.
+  private int[] free = new int[0];
+  private int freeCount = 0;
+  private int used = 0;
+
+  public UuidStore(Comparator<Uuid> comparator) {
+    this.ordered = new ConcurrentStore<>(comparator);
+  }
+
+  public void insert(Uuid key, VALUE value) {
+
+    ordered.insert(key, value);
+
+    // The table holds the first value of each key, like "first" does.
+    if (Uuid.packable(key) && table.get(Uuid.pack(key)) == 0) {
+      put(Uuid.pack(key), value);
+    }
+  }
+
+  // Delete every value with the key. Returns false if there were none.
+  public boolean delete(Uuid key) {
+
+    if (!ordered.delete(key)) {
+      return false;
+    }
+
+    if (Uuid.packable(key)) {
+      remove(Uuid.pack(key));
+    }
+
+    return true;
+  }
+
+  // Delete one value with the key, the first one that equals "value".
+  // Returns false if there was no such value.
+  public boolean delete(Uuid key, VALUE value) {
+
+    if (!ordered.delete(key, value)) {
+      return false;
+    }
+
+    if (Uuid.packable(key) && Objects.equals(find(Uuid.pack(key)), value)) {
+      final VALUE next = ordered.first(key);
+      if (next == null) {
+        remove(Uuid.pack(key));
+      } else {
+        put(Uuid.pack(key), next);
+      }
+    }
+
+    return true;
+  }
+
+  @Override
+  public VALUE first(Uuid key) {
+
+    if (!Uuid.packable(key)) {
+      return ordered.first(key);
+    }
+
+    final int before = changes;
+
+    if ((before & 1) == 0) {
+
+      final Object found = find(Uuid.pack(key));
+
+      if (changes == before) {
+        return cast(found);
+      }
+    }
+
+    // The table is being changed.
+    return ordered.first(key);
+  }
+
+  @Override
+  public Iterable<VALUE> all() {
+    return ordered.all();
+  }
+
+  @Override
+  public Iterable<VALUE> at(Uuid key) {
+    return ordered.at(key);
+  }
+
+  @Override
+  public Iterable<VALUE> after(Uuid start) {
+    return ordered.after(start);
+  }
+
+  @Override
+  public Iterable<VALUE> before(Uuid end) {
+    return ordered.before(end);
+  }
+
+  @Override
+  public Iterable<VALUE> range(Uuid start, Uuid end) {
+    return ordered.range(start, end);
+  }
+
+  // The value of the key in the table, or null.
+  private Object find(long key) {
+    final long slot = table.get(key);
+    return slot == 0 ? null : values.get((int) slot - 1);
+  }
+
+  // Map the key to the value, replacing any value it had.
+  private void put(long key, VALUE value) {
+
+    changes += 1;
+
+    final long slot = table.get(key);
+
+    if (slot != 0) {
+      values.set((int) slot - 1, value);
+    } else {
+      final int added = take();
+      values.set(added, value);
+      table.put(key, added + 1);
+    }
+
+    changes += 1;
+  }
+
+  private void remove(long key) {
+
+    final long slot = table.get(key);
+
+    if (slot == 0) {
+      return;
+    }
+
+    changes += 1;
+
+    table.remove(key);
+    values.set((int) slot - 1, null);
+
+    if (freeCount == free.length) {
+      free = Arrays.copyOf(free, Math.max(INITIAL_CAPACITY, 2 * free.length));
+    }
+    free[freeCount++] = (int) slot - 1;
+
+    changes += 1;
+  }
+
+  // A slot of "values" that is not in use, growing it if every slot is.
+  private int take() {
+
+    if (freeCount > 0) {
+      return free[--freeCount];
+    }
+
+    if (used == values.length()) {
+      final AtomicReferenceArray<Object> grown = new AtomicReferenceArray<>(2 * used);
+      for (int i = 0; i < used; i++) {
+        grown.set(i, values.get(i));
+      }
+      values = grown;
+    }
+
+    return used++;
+  }
+
+  @SuppressWarnings("unchecked")
+  private VALUE cast(Object value) {
+    return (VALUE) value;
+  }
+}
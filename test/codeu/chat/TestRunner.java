@@ -23,12 +23,34 @@ public final class TestRunner {
      final Result result =
          JUnitCore.runClasses(
              codeu.chat.common.SecretTest.class,
+             codeu.chat.common.WireFormatCacheTest.class,
+             codeu.chat.client.ConnectionPoolTest.class,
+             codeu.chat.client.PipelineTest.class,
              codeu.chat.relay.ServerTest.class,
              codeu.chat.server.BasicControllerTest.class,
+             codeu.chat.server.BatchTest.class,
+             codeu.chat.server.ContentArenaTest.class,
+             codeu.chat.server.ConversationGenerationTest.class,
+             codeu.chat.server.FindByPrefixTest.class,
+             codeu.chat.server.MessageLogTest.class,
+             codeu.chat.server.MessageStoreTest.class,
+             codeu.chat.server.PatternCacheTest.class,
+             codeu.chat.server.PagerTest.class,
              codeu.chat.server.RawControllerTest.class,
+             codeu.chat.server.RequestsTest.class,
+             codeu.chat.server.SubscriptionsTest.class,
+             codeu.chat.server.TextIndexTest.class,
+             codeu.chat.server.VersionTest.class,
+             codeu.chat.util.BufferSerializersTest.class,
+             codeu.chat.util.CompactSerializersTest.class,
+             codeu.chat.util.CompressionTest.class,
              codeu.chat.util.TimeTest.class,
              codeu.chat.util.UuidTest.class,
-             codeu.chat.util.store.StoreTest.class
+             codeu.chat.util.connections.NioServerConnectionSourceTest.class,
+             codeu.chat.util.store.ConcurrentStoreTest.class,
+             codeu.chat.util.store.LongTableTest.class,
+             codeu.chat.util.store.StoreTest.class,
+             codeu.chat.util.store.UuidStoreTest.class
          );
       for (final Failure failure : result.getFailures()) {
          System.out.println(failure.toString());
@@ -0,0 +1,268 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import codeu.chat.common.NetworkCode;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.connections.ClientConnectionSource;
+import codeu.chat.util.connections.Connection;
+
+public final class ConnectionPoolTest {
+
+  // The scripted server answers any other request with the next integer.
+  // Only requests that read the model are sent again after a failure.
+  private static final int READ = NetworkCode.GET_USER_GENERATION_REQUEST;
+  private static final int WRITE = NetworkCode.NEW_MESSAGE_REQUEST;
+
+  private KeepAliveServer server;
+  private ConnectionPool pool;
+
+  @Before
+  public void doBefore() throws IOException {
+    server = new KeepAliveServer();
+    pool = new ConnectionPool(new ClientConnectionSource("localhost", server.port()));
+  }
+
+  @After
+  public void doAfter() throws IOException {
+    pool.close();
+    server.close();
+  }
+
+  @Test
+  public void testReusesConnection() throws IOException {
+
+    final Connection first = pool.connect();
+    assertEquals(READ + 1, call(first, READ));
+    first.close();
+
+    final Connection second = pool.connect();
+    assertSame(first, second);
+    assertEquals(READ + 1, call(second, READ));
+    second.close();
+
+    assertEquals(1, server.accepted());
+  }
+
+  @Test
+  public void testStaleConnectionIsReplaced() throws IOException {
+
+    final Connection first = pool.connect();
+    assertEquals(READ + 1, call(first, READ));
+    first.close();
+
+    // As if the server had timed out the idle connection.
+    server.dropConnections();
+
+    final Connection second = pool.connect();
+    assertEquals(READ + 1, call(second, READ));
+    second.close();
+
+    assertEquals(2, server.accepted());
+
+    // The new connection goes back into the pool.
+    final Connection third = pool.connect();
+    assertEquals(READ + 1, call(third, READ));
+    third.close();
+
+    assertEquals(2, server.accepted());
+  }
+
+  @Test
+  public void testRetriesOnlyOnce() throws IOException {
+
+    final Connection first = pool.connect();
+    assertEquals(READ + 1, call(first, READ));
+    first.close();
+
+    server.dropConnections();
+    server.dropRequests = true;
+
+    final Connection second = pool.connect();
+
+    try {
+      call(second, READ);
+      fail("The request should have failed");
+    } catch (IOException ex) {
+      // The request was sent again once, and failed again.
+    } finally {
+      second.close();
+    }
+
+    assertEquals(2, server.accepted());
+  }
+
+  @Test
+  public void testWriteIsNotSentAgain() throws IOException {
+
+    final Connection first = pool.connect();
+    assertEquals(READ + 1, call(first, READ));
+    first.close();
+
+    server.dropConnections();
+
+    final Connection second = pool.connect();
+
+    try {
+      call(second, WRITE);
+      fail("The request should have failed");
+    } catch (IOException ex) {
+      // The server may have handled it before the connection failed.
+    } finally {
+      second.close();
+    }
+
+    assertEquals(1, server.accepted());
+
+    // The broken connection was not given back.
+    final Connection third = pool.connect();
+    assertEquals(WRITE + 1, call(third, WRITE));
+    third.close();
+
+    assertEquals(2, server.accepted());
+  }
+
+  @Test
+  public void testReadsInBatchAreSentAgain() throws IOException {
+
+    final Connection first = pool.connect();
+    assertEquals(READ + 1, call(first, READ));
+    first.close();
+
+    server.dropConnections();
+
+    final ByteArrayOutputStream read = new ByteArrayOutputStream();
+    Serializers.INTEGER.write(read, READ);
+
+    final Connection second = pool.connect();
+    Serializers.INTEGER.write(second.out(), NetworkCode.BATCH_REQUEST);
+    Serializers.collection(Serializers.BYTES).write(
+        second.out(), Arrays.asList(read.toByteArray(), read.toByteArray()));
+    second.out().flush();
+
+    // The scripted server only reads the type of the batch.
+    final int response = Serializers.INTEGER.read(second.in());
+    assertEquals(NetworkCode.BATCH_REQUEST + 1, response);
+    second.close();
+
+    assertEquals(2, server.accepted());
+  }
+
+  private static int call(Connection connection, int request) throws IOException {
+    Serializers.INTEGER.write(connection.out(), request);
+    connection.out().flush();
+    return Serializers.INTEGER.read(connection.in());
+  }
+
+  // A server that keeps connections alive until told to drop them. If
+  // "dropRequests" is set, it closes a connection as soon as a request other
+  // than KEEP_ALIVE_REQUEST arrives on it.
+  private static final class KeepAliveServer implements Runnable {
+
+    private final ServerSocket socket = new ServerSocket(0);
+    private final List<Socket> clients = new ArrayList<>();
+
+    volatile boolean dropRequests = false;
+
+    KeepAliveServer() throws IOException {
+      final Thread thread = new Thread(this);
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    int port() {
+      return socket.getLocalPort();
+    }
+
+    synchronized int accepted() {
+      return clients.size();
+    }
+
+    synchronized void dropConnections() throws IOException {
+      for (final Socket client : clients) {
+        client.close();
+      }
+    }
+
+    void close() throws IOException {
+      socket.close();
+      dropConnections();
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          final Socket client = socket.accept();
+          synchronized (this) {
+            clients.add(client);
+          }
+          final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+              try {
+                serve(client);
+              } catch (IOException ex) {
+                // The connection was closed.
+              }
+            }
+          });
+          thread.setDaemon(true);
+          thread.start();
+        }
+      } catch (IOException ex) {
+        // The server was closed.
+      }
+    }
+
+    private void serve(Socket client) throws IOException {
+
+      final InputStream in = client.getInputStream();
+      final OutputStream out = client.getOutputStream();
+
+      while (true) {
+
+        final int type = Serializers.INTEGER.read(in);
+
+        if (type == NetworkCode.KEEP_ALIVE_REQUEST) {
+          Serializers.INTEGER.write(out, NetworkCode.KEEP_ALIVE_RESPONSE);
+          Serializers.BOOLEAN.write(out, true);
+        } else if (dropRequests) {
+          client.close();
+          return;
+        } else {
+          Serializers.INTEGER.write(out, type + 1);
+        }
+
+        out.flush();
+      }
+    }
+  }
+}
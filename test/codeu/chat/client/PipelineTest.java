@@ -0,0 +1,266 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import codeu.chat.common.Message;
+import codeu.chat.common.NetworkCode;
+import codeu.chat.common.WireFormat;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.connections.ClientConnectionSource;
+
+public final class PipelineTest {
+
+  private static final List<Uuid> CONVERSATIONS =
+      Arrays.asList(new Uuid(1), new Uuid(2), new Uuid(3));
+
+  private static final Time START = Time.fromMs(0);
+  private static final Time END = Time.fromMs(Long.MAX_VALUE);
+
+  // How the scripted server treats framed requests.
+  private static final int REVERSE = 0;
+  private static final int UNKNOWN = 1;
+  private static final int DROP = 2;
+
+  private ScriptedServer server;
+  private View view;
+
+  @Before
+  public void doBefore() throws IOException {
+    server = new ScriptedServer();
+    view = new View(new ClientConnectionSource("localhost", server.port()));
+  }
+
+  @After
+  public void doAfter() throws IOException {
+    server.close();
+  }
+
+  @Test
+  public void testOutOfOrderResponses() {
+
+    server.mode = REVERSE;
+
+    assertMessages(view.getMessages(CONVERSATIONS, START, END));
+
+    assertEquals(CONVERSATIONS.size(), server.framed.get());
+    assertEquals(0, server.plain.get());
+  }
+
+  @Test
+  public void testServerWithoutFrames() {
+
+    server.mode = UNKNOWN;
+
+    assertMessages(view.getMessages(CONVERSATIONS, START, END));
+    assertEquals(1, server.framed.get());
+    assertEquals(CONVERSATIONS.size(), server.plain.get());
+
+    // The server is not asked to pipeline again.
+    assertMessages(view.getMessages(CONVERSATIONS, START, END));
+    assertEquals(1, server.framed.get());
+    assertEquals(2 * CONVERSATIONS.size(), server.plain.get());
+  }
+
+  @Test
+  public void testBrokenConnection() {
+
+    server.mode = DROP;
+
+    assertMessages(view.getMessages(CONVERSATIONS, START, END));
+    assertEquals(1, server.framed.get());
+    assertEquals(CONVERSATIONS.size(), server.plain.get());
+
+    // A connection that failed says nothing about the server, so the next
+    // call pipelines again.
+    server.mode = REVERSE;
+
+    assertMessages(view.getMessages(CONVERSATIONS, START, END));
+    assertEquals(1 + CONVERSATIONS.size(), server.framed.get());
+    assertEquals(CONVERSATIONS.size(), server.plain.get());
+  }
+
+  private static void assertMessages(Map<Uuid, Collection<Message>> messages) {
+
+    assertEquals(CONVERSATIONS, new ArrayList<>(messages.keySet()));
+
+    for (final Uuid conversation : CONVERSATIONS) {
+      final Collection<Message> found = messages.get(conversation);
+      assertEquals(1, found.size());
+      assertEquals(conversation.toString(), found.iterator().next().content());
+    }
+  }
+
+  // A server that speaks version 1 and answers GET_MESSAGES_BY_TIME with a
+  // single message whose content is the conversation's id. Framed requests
+  // are answered according to "mode".
+  private static final class ScriptedServer implements Runnable {
+
+    private final ServerSocket socket = new ServerSocket(0);
+
+    final AtomicInteger framed = new AtomicInteger();
+    final AtomicInteger plain = new AtomicInteger();
+
+    volatile int mode = REVERSE;
+
+    ScriptedServer() throws IOException {
+      final Thread thread = new Thread(this);
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    int port() {
+      return socket.getLocalPort();
+    }
+
+    void close() throws IOException {
+      socket.close();
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          final Socket client = socket.accept();
+          final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+              try {
+                serve(client.getInputStream(), client.getOutputStream());
+              } catch (IOException ex) {
+                // The client closed the connection.
+              } finally {
+                try {
+                  client.close();
+                } catch (IOException ex) {
+                  // Already closed.
+                }
+              }
+            }
+          });
+          thread.setDaemon(true);
+          thread.start();
+        }
+      } catch (IOException ex) {
+        // The server was closed.
+      }
+    }
+
+    private void serve(InputStream in, OutputStream out) throws IOException {
+
+      final List<Integer> ids = new ArrayList<>();
+      final List<byte[]> responses = new ArrayList<>();
+
+      while (true) {
+
+        final int type = Serializers.INTEGER.read(in);
+
+        if (type == NetworkCode.PROTOCOL_VERSION_REQUEST) {
+
+          Serializers.INTEGER.read(in);
+          Serializers.INTEGER.write(out, NetworkCode.NO_MESSAGE);
+
+        } else if (type == NetworkCode.GET_MESSAGES_BY_TIME_REQUEST) {
+
+          plain.incrementAndGet();
+          answer(in, out);
+
+        } else if (type == NetworkCode.FRAMED_REQUEST) {
+
+          framed.incrementAndGet();
+
+          final int correlationId = Serializers.INTEGER.read(in);
+          final InputStream request = new ByteArrayInputStream(Serializers.BYTES.read(in));
+
+          if (mode == UNKNOWN) {
+            Serializers.INTEGER.write(out, NetworkCode.NO_MESSAGE);
+            return;
+          }
+
+          if (mode == DROP) {
+            return;
+          }
+
+          if (Serializers.INTEGER.read(request) != NetworkCode.GET_MESSAGES_BY_TIME_REQUEST) {
+            throw new IOException("Unexpected request");
+          }
+
+          final ByteArrayOutputStream response = new ByteArrayOutputStream();
+          answer(request, response);
+
+          ids.add(correlationId);
+          responses.add(response.toByteArray());
+
+          // Hold every response until the last request has arrived and then
+          // answer them newest first.
+          if (ids.size() == CONVERSATIONS.size()) {
+            Collections.reverse(ids);
+            Collections.reverse(responses);
+            for (int i = 0; i < ids.size(); i++) {
+              Serializers.INTEGER.write(out, NetworkCode.FRAMED_RESPONSE);
+              Serializers.INTEGER.write(out, ids.get(i));
+              Serializers.BYTES.write(out, responses.get(i));
+            }
+            ids.clear();
+            responses.clear();
+          }
+
+        } else {
+          throw new IOException("Unexpected request " + type);
+        }
+
+        out.flush();
+      }
+    }
+
+    private static void answer(InputStream in, OutputStream out) throws IOException {
+
+      final Uuid conversation = WireFormat.V1.uuid.read(in);
+      WireFormat.V1.time.read(in);
+      WireFormat.V1.time.read(in);
+
+      final Message message = new Message(new Uuid(conversation, 1),
+                                          Uuid.NULL,
+                                          Uuid.NULL,
+                                          Time.fromMs(1),
+                                          Uuid.NULL,
+                                          conversation.toString());
+
+      WireFormat.V1.integer.write(out, NetworkCode.GET_MESSAGES_BY_TIME_RESPONSE);
+      WireFormat.V1.messages.write(out, Arrays.asList(message));
+    }
+  }
+}
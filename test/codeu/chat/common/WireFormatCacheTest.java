@@ -0,0 +1,138 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.common;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import codeu.chat.util.ByteBufferOutputStream;
+import codeu.chat.util.Serializer;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+public final class WireFormatCacheTest {
+
+  @Test
+  public void testSameBytes() throws IOException {
+
+    final List<Message> messages = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      messages.add(new Message(new Uuid(i + 1),
+                               new Uuid(i + 2),
+                               new Uuid(i),
+                               Time.fromMs(1000 + 7 * i),
+                               new Uuid(100),
+                               i == 3 ? new String(new char[5000]) : "message " + i));
+    }
+
+    final Collection<User> users = Arrays.asList(
+        new User(new Uuid(100), "alice", Time.fromMs(50), "secret"),
+        new User(new Uuid(101), "bob", Time.fromMs(60), "hunter2"));
+
+    final Collection<ConversationSummary> summaries = Arrays.asList(
+        new ConversationSummary(new Uuid(200), new Uuid(100), Time.fromMs(70), "first"),
+        new ConversationSummary(new Uuid(201), new Uuid(101), Time.fromMs(65), "second"));
+
+    for (final WireFormat format : Arrays.asList(WireFormat.V1, WireFormat.V2)) {
+
+      final WireFormat cached = format.withCache(new WireFormat.Cache());
+
+      // The second time the bytes come from the cache.
+      for (int i = 0; i < 2; i++) {
+        assertSameBytes(format.messages, cached.messages, messages);
+        assertSameBytes(format.message, cached.message, messages.get(4));
+        assertSameBytes(format.users, cached.users, users);
+        assertSameBytes(format.summaries, cached.summaries, summaries);
+      }
+    }
+  }
+
+  @Test
+  public void testInvalidate() throws IOException {
+
+    final User user = new User(new Uuid(1), "user", Time.fromMs(1000), "password");
+
+    for (final WireFormat format : Arrays.asList(WireFormat.V1, WireFormat.V2)) {
+
+      final WireFormat.Cache cache = new WireFormat.Cache();
+      final WireFormat cached = format.withCache(cache);
+
+      assertSameBytes(format.user, cached.user, user);
+      assertEquals(1, cache.size());
+
+      cache.invalidate(user.id);
+      assertEquals(0, cache.size());
+
+      assertSameBytes(format.user, cached.user, user);
+    }
+  }
+
+  @Test
+  public void testReplacedValue() throws IOException {
+
+    final WireFormat cached = WireFormat.V2.withCache(new WireFormat.Cache());
+
+    final User before = new User(new Uuid(1), "before", Time.fromMs(10), "password");
+    final User after = new User(new Uuid(1), "after", Time.fromMs(10), "password");
+
+    assertSameBytes(WireFormat.V2.user, cached.user, before);
+
+    // A different object with the same id is not given the old bytes.
+    assertSameBytes(WireFormat.V2.user, cached.user, after);
+  }
+
+  @Test
+  public void testMessagesAreNotCached() throws IOException {
+
+    final Message message =
+        new Message(new Uuid(1), Uuid.NULL, Uuid.NULL, Time.fromMs(1000), new Uuid(2), "hello");
+
+    for (final WireFormat format : Arrays.asList(WireFormat.V1, WireFormat.V2)) {
+
+      final WireFormat.Cache cache = new WireFormat.Cache();
+      final WireFormat cached = format.withCache(cache);
+
+      assertSameBytes(format.message, cached.message, message);
+      assertSameBytes(format.messages, cached.messages, Arrays.asList(message));
+
+      // Linking the message needs no invalidation.
+      message.next = new Uuid(3);
+      assertSameBytes(format.message, cached.message, message);
+      message.next = Uuid.NULL;
+
+      assertEquals(0, cache.size());
+    }
+  }
+
+  private static <T> void assertSameBytes(Serializer<T> expected,
+                                          Serializer<T> actual,
+                                          T value) throws IOException {
+
+    final ByteBufferOutputStream expectedBytes = new ByteBufferOutputStream();
+    final ByteBufferOutputStream actualBytes = new ByteBufferOutputStream();
+
+    expected.write(expectedBytes, value);
+    actual.write(actualBytes, value);
+
+    assertArrayEquals(expectedBytes.toByteArray(), actualBytes.toByteArray());
+  }
+}
@@ -0,0 +1,216 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import codeu.chat.common.Conversation;
+import codeu.chat.common.ConversationSummary;
+import codeu.chat.common.Message;
+import codeu.chat.common.NetworkCode;
+import codeu.chat.common.User;
+import codeu.chat.common.WireFormat;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.connections.Connection;
+
+public final class BatchTest {
+
+  private static final WireFormat FORMAT = WireFormat.V1;
+
+  private Model model;
+  private Server server;
+
+  private User user;
+  private Conversation conversation;
+
+  @Before
+  public void doBefore() {
+    model = new Model();
+    server = new Server(Uuid.NULL, new byte[0], new NoOpRelay(), 1, model);
+
+    final Controller controller = new Controller(Uuid.NULL, model);
+    user = controller.newUser("user", "");
+    conversation = controller.newConversation("conversation", user.id);
+  }
+
+  @After
+  public void doAfter() {
+    server.stop();
+  }
+
+  @Test
+  public void testResponsesInRequestOrder() throws IOException {
+
+    final List<byte[]> responses = batch(
+        request(NetworkCode.GET_ALL_CONVERSATIONS_REQUEST),
+        usersById(user.id),
+        request(NetworkCode.GET_USER_GENERATION_REQUEST),
+        usersById(new Uuid(1234)));
+
+    assertEquals(4, responses.size());
+
+    InputStream in = new ByteArrayInputStream(responses.get(0));
+    assertEquals(NetworkCode.GET_ALL_CONVERSATIONS_RESPONSE, (int) FORMAT.integer.read(in));
+    final Collection<ConversationSummary> summaries = FORMAT.summaries.read(in);
+    assertEquals(1, summaries.size());
+    assertEquals(conversation.id, summaries.iterator().next().id);
+
+    in = new ByteArrayInputStream(responses.get(1));
+    assertEquals(NetworkCode.GET_USERS_BY_ID_RESPONSE, (int) FORMAT.integer.read(in));
+    assertEquals(1, FORMAT.users.read(in).size());
+
+    in = new ByteArrayInputStream(responses.get(2));
+    assertEquals(NetworkCode.GET_USER_GENERATION_RESPONSE, (int) FORMAT.integer.read(in));
+    assertEquals(model.userGeneration(), FORMAT.uuid.read(in));
+
+    in = new ByteArrayInputStream(responses.get(3));
+    assertEquals(NetworkCode.GET_USERS_BY_ID_RESPONSE, (int) FORMAT.integer.read(in));
+    assertTrue(FORMAT.users.read(in).isEmpty());
+  }
+
+  @Test
+  public void testReadsSeeEarlierWrites() throws IOException {
+
+    final ByteArrayOutputStream newMessage = new ByteArrayOutputStream();
+    FORMAT.integer.write(newMessage, NetworkCode.NEW_MESSAGE_REQUEST);
+    FORMAT.uuid.write(newMessage, user.id);
+    FORMAT.uuid.write(newMessage, conversation.id);
+    FORMAT.string.write(newMessage, "hello");
+
+    final ByteArrayOutputStream messages = new ByteArrayOutputStream();
+    FORMAT.integer.write(messages, NetworkCode.GET_MESSAGES_BY_TIME_REQUEST);
+    FORMAT.uuid.write(messages, conversation.id);
+    FORMAT.time.write(messages, Time.fromMs(0));
+    FORMAT.time.write(messages, Time.fromMs(Long.MAX_VALUE));
+
+    final List<byte[]> responses = batch(
+        messages.toByteArray(),
+        newMessage.toByteArray(),
+        messages.toByteArray());
+
+    assertEquals(3, responses.size());
+
+    // The first read comes before the write, the second after it.
+    InputStream in = new ByteArrayInputStream(responses.get(0));
+    assertEquals(NetworkCode.GET_MESSAGES_BY_TIME_RESPONSE, (int) FORMAT.integer.read(in));
+    assertTrue(FORMAT.messages.read(in).isEmpty());
+
+    in = new ByteArrayInputStream(responses.get(1));
+    assertEquals(NetworkCode.NEW_MESSAGE_RESPONSE, (int) FORMAT.integer.read(in));
+    final Message added = Serializers.nullable(FORMAT.message).read(in);
+    assertNotNull(added);
+    assertEquals("hello", added.content());
+
+    in = new ByteArrayInputStream(responses.get(2));
+    assertEquals(NetworkCode.GET_MESSAGES_BY_TIME_RESPONSE, (int) FORMAT.integer.read(in));
+    final Collection<Message> found = FORMAT.messages.read(in);
+    assertEquals(1, found.size());
+    assertEquals(added.id, found.iterator().next().id);
+  }
+
+  @Test
+  public void testUnhandledEntries() throws IOException {
+
+    final List<byte[]> responses = batch(
+        request(NetworkCode.GET_USER_GENERATION_REQUEST),
+        request(0x7E57),                              // unknown to the server
+        request(NetworkCode.KEEP_ALIVE_REQUEST),      // not allowed in a batch
+        new byte[] { 1, 2 },                          // too short to have a type
+        request(NetworkCode.GET_USER_GENERATION_REQUEST));
+
+    assertEquals(5, responses.size());
+
+    // An unknown request is answered the same way as outside a batch.
+    final ByteArrayOutputStream noMessage = new ByteArrayOutputStream();
+    FORMAT.integer.write(noMessage, NetworkCode.NO_MESSAGE);
+    assertArrayEquals(noMessage.toByteArray(), responses.get(1));
+
+    // Requests that cannot be batched get nothing at all.
+    assertEquals(0, responses.get(2).length);
+    assertEquals(0, responses.get(3).length);
+
+    // The entries around them are still answered.
+    assertArrayEquals(responses.get(0), responses.get(4));
+    assertEquals(NetworkCode.GET_USER_GENERATION_RESPONSE,
+                 (int) FORMAT.integer.read(new ByteArrayInputStream(responses.get(4))));
+  }
+
+  private static byte[] request(int type) throws IOException {
+    final ByteArrayOutputStream request = new ByteArrayOutputStream();
+    FORMAT.integer.write(request, type);
+    return request.toByteArray();
+  }
+
+  private static byte[] usersById(Uuid id) throws IOException {
+    final ByteArrayOutputStream request = new ByteArrayOutputStream();
+    FORMAT.integer.write(request, NetworkCode.GET_USERS_BY_ID_REQUEST);
+    FORMAT.uuids.write(request, Arrays.asList(id));
+    return request.toByteArray();
+  }
+
+  // Send the requests as one batch and return the response to each of them.
+  private List<byte[]> batch(byte[]... requests) throws IOException {
+
+    final ByteArrayOutputStream request = new ByteArrayOutputStream();
+    Serializers.INTEGER.write(request, NetworkCode.BATCH_REQUEST);
+    Serializers.collection(Serializers.BYTES).write(request, Arrays.asList(requests));
+
+    final MemoryConnection connection = new MemoryConnection(request.toByteArray());
+    server.serveConnection(connection);
+
+    final InputStream in = new ByteArrayInputStream(connection.out.toByteArray());
+    assertEquals(NetworkCode.BATCH_RESPONSE, (int) Serializers.INTEGER.read(in));
+
+    final List<byte[]> responses =
+        new ArrayList<>(Serializers.collection(Serializers.BYTES).read(in));
+    assertEquals(-1, in.read());
+
+    return responses;
+  }
+
+  private static final class MemoryConnection implements Connection {
+
+    private final InputStream in;
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    MemoryConnection(byte[] request) {
+      in = new ByteArrayInputStream(request);
+    }
+
+    @Override
+    public InputStream in() { return in; }
+
+    @Override
+    public OutputStream out() { return out; }
+
+    @Override
+    public void close() { }
+  }
+}
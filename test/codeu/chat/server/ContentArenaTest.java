@@ -0,0 +1,175 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import codeu.chat.common.Message;
+import codeu.chat.common.WireFormat;
+import codeu.chat.util.ByteBufferOutputStream;
+import codeu.chat.util.Compression;
+import codeu.chat.util.Serializer;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+public final class ContentArenaTest {
+
+  @Test
+  public void testAddAndGet() {
+
+    final ContentArena arena = new ContentArena();
+
+    final String[] contents = { "hello", "", "h\u00e9llo \u4e16\u754c \ud83d\ude00" };
+    final long[] addresses = new long[contents.length];
+    final int[] lengths = new int[contents.length];
+
+    for (int i = 0; i < contents.length; i++) {
+      final byte[] utf8 = ContentArena.encode(contents[i]);
+      addresses[i] = arena.add(utf8);
+      lengths[i] = utf8.length;
+    }
+
+    for (int i = 0; i < contents.length; i++) {
+      assertEquals(contents[i], arena.get(addresses[i], lengths[i]));
+    }
+  }
+
+  @Test
+  public void testContentsSpanManySlabs() {
+
+    final ContentArena arena = new ContentArena();
+
+    final List<String> contents = new ArrayList<>();
+    final List<Long> addresses = new ArrayList<>();
+
+    // Enough contents of an odd size that some do not fit at the end of a
+    // slab.
+    final char[] body = new char[1000];
+    for (int i = 0; i < 3 * ContentArena.SLAB_SIZE / body.length; i++) {
+      Arrays.fill(body, (char) ('a' + i % 26));
+      final String content = new String(body) + i;
+      contents.add(content);
+      addresses.add(arena.add(ContentArena.encode(content)));
+    }
+
+    assertTrue(arena.capacity() > 2 * ContentArena.SLAB_SIZE);
+
+    for (int i = 0; i < contents.size(); i++) {
+      final String content = contents.get(i);
+      assertEquals(content, arena.get(addresses.get(i), ContentArena.encode(content).length));
+    }
+  }
+
+  @Test
+  public void testContentBiggerThanASlab() {
+
+    final ContentArena arena = new ContentArena();
+
+    final char[] body = new char[ContentArena.SLAB_SIZE + 10];
+    Arrays.fill(body, 'x');
+    final String big = new String(body);
+
+    final long before = arena.add(ContentArena.encode("before"));
+    final long address = arena.add(ContentArena.encode(big));
+    final long after = arena.add(ContentArena.encode("after"));
+
+    assertEquals("before", arena.get(before, 6));
+    assertEquals(big, arena.get(address, body.length));
+    assertEquals("after", arena.get(after, 5));
+  }
+
+  @Test
+  public void testEncodedMessagesWriteTheSameBytes() throws IOException {
+
+    final ContentArena arena = new ContentArena();
+
+    final char[] body = new char[5000];
+    Arrays.fill(body, '\u00e9');
+
+    final String[] contents = { "hello", "", "h\u00e9llo \ud83d\ude00", new String(body) };
+
+    final List<Message> decoded = new ArrayList<>();
+    final List<Message> encoded = new ArrayList<>();
+
+    for (int i = 0; i < contents.length; i++) {
+
+      final byte[] utf8 = ContentArena.encode(contents[i]);
+      final long address = arena.add(utf8);
+
+      final Uuid id = new Uuid(i + 1);
+      final Uuid next = new Uuid(i + 2);
+      final Time creation = Time.fromMs(1000 + i);
+      final Uuid author = new Uuid(9);
+
+      decoded.add(new Message(id, next, Uuid.NULL, creation, author, contents[i]));
+      encoded.add(Message.encoded(
+          id, next, Uuid.NULL, creation, author, arena.slice(address, utf8.length)));
+    }
+
+    for (final WireFormat format : Arrays.asList(WireFormat.V1, WireFormat.V2)) {
+
+      assertSameBytes(format.messages, format.messages, decoded, encoded);
+      for (int i = 0; i < contents.length; i++) {
+        assertSameBytes(format.message, format.message, decoded.get(i), encoded.get(i));
+      }
+
+      // The cache's copy of each message is taken from the encoded one.
+      final WireFormat cached = format.withCache(new WireFormat.Cache());
+      assertSameBytes(format.messages, cached.messages, decoded, encoded);
+    }
+
+    // Writing a message does not use up its content.
+    for (int i = 0; i < contents.length; i++) {
+      assertEquals(contents[i], encoded.get(i).content());
+    }
+  }
+
+  // The encoded value must be written as the same bytes as the decoded one,
+  // both to a plain stream and to a ByteBufferOutputStream (where large
+  // contents are shared rather than copied).
+  private static <T> void assertSameBytes(Serializer<T> expectedSerializer,
+                                          Serializer<T> serializer,
+                                          T decoded,
+                                          T encoded) throws IOException {
+
+    final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    expectedSerializer.write(expected, decoded);
+
+    final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    serializer.write(stream, encoded);
+    assertArrayEquals(expected.toByteArray(), stream.toByteArray());
+
+    final ByteBufferOutputStream buffers = new ByteBufferOutputStream();
+    serializer.write(buffers, encoded);
+    assertArrayEquals(expected.toByteArray(), buffers.toByteArray());
+
+    final ByteArrayOutputStream copied = new ByteArrayOutputStream();
+    buffers.writeTo(copied);
+    assertArrayEquals(expected.toByteArray(), copied.toByteArray());
+
+    final byte[] deflated = Compression.deflate(buffers);
+    if (deflated != null) {
+      assertArrayEquals(expected.toByteArray(), Compression.inflate(deflated, expected.size()));
+    }
+  }
+}
@@ -0,0 +1,85 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.server;
+
+import java.util.Collection;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.Before;
+
+import codeu.chat.common.ConversationSummary;
+import codeu.chat.common.User;
+import codeu.chat.util.Uuid;
+
+public final class ConversationGenerationTest {
+
+  private Model model;
+  private Controller controller;
+  private View view;
+
+  private User user;
+
+  @Before
+  public void doBefore() {
+    model = new Model();
+    controller = new Controller(Uuid.NULL, model);
+    view = new View(model);
+
+    user = controller.newUser("user", "");
+  }
+
+  @Test
+  public void testUnknownGenerationGetsEverything() {
+
+    controller.newConversation("first", user.id);
+
+    assertNull(view.getConversationsSince(Uuid.NULL));
+    assertNull(view.getConversationsSince(new Uuid(view.getConversationGeneration().id())));
+  }
+
+  @Test
+  public void testOnlyNewConversations() {
+
+    controller.newConversation("first", user.id);
+    controller.newConversation("second", user.id);
+
+    final Uuid generation = view.getConversationGeneration();
+
+    assertEquals(0, view.getConversationsSince(generation).size());
+
+    controller.newConversation("third", user.id);
+
+    final Collection<ConversationSummary> added = view.getConversationsSince(generation);
+
+    assertEquals(1, added.size());
+    assertEquals("third", added.iterator().next().title);
+
+    assertFalse(Uuid.equals(generation, view.getConversationGeneration()));
+    assertEquals(0, view.getConversationsSince(view.getConversationGeneration()).size());
+  }
+
+  @Test
+  public void testMessagesDoNotChangeGeneration() {
+
+    final Uuid conversation = controller.newConversation("first", user.id).id;
+    final Uuid generation = view.getConversationGeneration();
+
+    controller.newMessage(user.id, conversation, "hello");
+
+    assertTrue(Uuid.equals(generation, view.getConversationGeneration()));
+  }
+}
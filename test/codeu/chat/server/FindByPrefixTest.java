@@ -0,0 +1,102 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.Before;
+
+import codeu.chat.common.ConversationSummary;
+import codeu.chat.common.User;
+import codeu.chat.util.Uuid;
+
+public final class FindByPrefixTest {
+
+  private Controller controller;
+  private View view;
+
+  private User owner;
+
+  @Before
+  public void doBefore() {
+    final Model model = new Model();
+    controller = new Controller(Uuid.NULL, model);
+    view = new View(model);
+
+    for (final String name : Arrays.asList("carol", "Bob", "alice", "bobby", "Al", "dave")) {
+      controller.newUser(name, "");
+    }
+
+    owner = model.getUserByName("dave");
+
+    for (final String title : Arrays.asList("Lunch", "lunch plans", "launch", "Lunar", "misc")) {
+      controller.newConversation(title, owner.id);
+    }
+  }
+
+  @Test
+  public void testFindUsers() {
+    assertEquals(Arrays.asList("Al", "alice"), userNames("al", 10));
+    assertEquals(Arrays.asList("Bob", "bobby"), userNames("BOB", 10));
+    assertEquals(Arrays.asList("bobby"), userNames("bobb", 10));
+    assertTrue(userNames("z", 10).isEmpty());
+  }
+
+  @Test
+  public void testFindConversations() {
+    assertEquals(Arrays.asList("Lunar", "Lunch", "lunch plans"), titles("lun", 10));
+    assertEquals(Arrays.asList("Lunch", "lunch plans"), titles("lunch", 10));
+    assertEquals(Arrays.asList("launch", "Lunar", "Lunch", "lunch plans"), titles("l", 10));
+    assertTrue(titles("lunches", 10).isEmpty());
+  }
+
+  @Test
+  public void testLimit() {
+    assertEquals(Arrays.asList("Al", "alice", "Bob"), userNames("", 3));
+    assertEquals(Arrays.asList("launch", "Lunar"), titles("l", 2));
+
+    // Anything else asks for as many as the server allows.
+    assertEquals(6, userNames("", 0).size());
+  }
+
+  @Test
+  public void testRenamedUser() {
+    controller.changeUserName("carol", "alicia");
+
+    assertEquals(Arrays.asList("Al", "alice", "alicia"), userNames("al", 10));
+    assertTrue(userNames("carol", 10).isEmpty());
+  }
+
+  private List<String> userNames(String prefix, int limit) {
+    final List<String> names = new ArrayList<>();
+    for (final User user : view.findUsersByPrefix(prefix, limit)) {
+      names.add(user.name);
+    }
+    return names;
+  }
+
+  private List<String> titles(String prefix, int limit) {
+    final List<String> titles = new ArrayList<>();
+    for (final ConversationSummary summary : view.findConversationsByPrefix(prefix, limit)) {
+      titles.add(summary.title);
+    }
+    return titles;
+  }
+}
@@ -0,0 +1,129 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.Before;
+
+import codeu.chat.common.Conversation;
+import codeu.chat.common.Message;
+import codeu.chat.common.User;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+public final class MessageLogTest {
+
+  private static final Uuid ROOT = new Uuid(9);
+
+  private int nextId = 0;
+
+  private Model model;
+  private Controller controller;
+  private View view;
+
+  private User user;
+  private Conversation conversation;
+
+  @Before
+  public void doBefore() {
+    model = new Model();
+    controller = new Controller(Uuid.NULL, model);
+    view = new View(model);
+
+    user = controller.newUser("user", "");
+    conversation = controller.newConversation("conversation", user.id);
+  }
+
+  @Test
+  public void testMessagesBetween() {
+
+    final List<Message> messages = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      messages.add(newMessage(1000 + 10 * (i / 2), "message " + i));
+    }
+
+    assertEquals(ids(messages), ids(view.getMessages(conversation.id, Time.fromMs(0), Time.fromMs(5000))));
+    assertEquals(ids(messages.subList(10, 20)),
+                 ids(view.getMessages(conversation.id, Time.fromMs(1050), Time.fromMs(1095))));
+    assertEquals(ids(messages.subList(10, 12)),
+                 ids(view.getMessages(conversation.id, Time.fromMs(1050), Time.fromMs(1050))));
+
+    assertTrue(view.getMessages(conversation.id, Time.fromMs(0), Time.fromMs(999)).isEmpty());
+    assertTrue(view.getMessages(new Uuid(1234), Time.fromMs(0), Time.fromMs(5000)).isEmpty());
+  }
+
+  @Test
+  public void testMessagesBetweenOutOfOrder() {
+
+    final Message a = newMessage(1000, "a");
+    final Message b = newMessage(3000, "b");
+    final Message c = newMessage(2000, "c");
+    final Message d = newMessage(4000, "d");
+
+    // The same messages that walking the links would find: skip the ones
+    // before the start, then stop at the first one after the end.
+    assertEquals(ids(list(b, c)), ids(view.getMessages(conversation.id, Time.fromMs(1500), Time.fromMs(3000))));
+    assertEquals(ids(list(a, b, c, d)), ids(view.getMessages(conversation.id, Time.fromMs(0), Time.fromMs(5000))));
+    assertEquals(ids(list(a)), ids(view.getMessages(conversation.id, Time.fromMs(0), Time.fromMs(2500))));
+  }
+
+  @Test
+  public void testMessagesAroundRoot() {
+
+    final List<Message> messages = new ArrayList<>();
+    for (int i = 0; i < 40; i++) {
+      messages.add(newMessage(1000 + i, "message " + i));
+    }
+
+    final Uuid root = messages.get(20).id;
+
+    assertEquals(ids(messages.subList(20, 21)), ids(view.getMessages(root, 0)));
+    assertEquals(ids(messages.subList(20, 26)), ids(view.getMessages(root, 5)));
+    assertEquals(ids(messages.subList(15, 21)), ids(view.getMessages(root, -5)));
+    assertEquals(ids(messages.subList(20, 40)), ids(view.getMessages(root, 100)));
+    assertEquals(ids(messages.subList(0, 21)), ids(view.getMessages(root, -100)));
+
+    assertTrue(view.getMessages(new Uuid(1234), 5).isEmpty());
+  }
+
+  private Message newMessage(long ms, String body) {
+    nextId += 1;
+    return controller.newMessage(new Uuid(ROOT, nextId), user.id, conversation.id, body, Time.fromMs(ms));
+  }
+
+  private static List<Message> list(Message... messages) {
+    final List<Message> list = new ArrayList<>();
+    for (final Message message : messages) {
+      list.add(message);
+    }
+    return list;
+  }
+
+  // Messages are rebuilt from the log each time they are read, so they are
+  // compared by id.
+  private static List<Uuid> ids(Collection<Message> messages) {
+    final List<Uuid> ids = new ArrayList<>();
+    for (final Message message : messages) {
+      ids.add(message.id);
+    }
+    return ids;
+  }
+}
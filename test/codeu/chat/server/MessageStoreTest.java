@@ -0,0 +1,135 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.Before;
+
+import codeu.chat.common.Message;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+public final class MessageStoreTest {
+
+  private static final Uuid AUTHOR = new Uuid(new Uuid(7), 3);
+
+  private MessageStore store;
+
+  @Before
+  public void doBefore() {
+    store = new MessageStore(Model.UUID_COMPARE);
+  }
+
+  @Test
+  public void testFirst() {
+
+    final Uuid conversation = new Uuid(1);
+    final Message message = newMessage(new Uuid(new Uuid(9), 1), 1000, "hello");
+
+    store.append(conversation, message);
+
+    final Message found = store.first(message.id);
+
+    assertNotNull(found);
+    assertEquals(message.id, found.id);
+    assertEquals(AUTHOR, found.author);
+    assertEquals(message.creation.inMs(), found.creation.inMs());
+    assertEquals("hello", found.content());
+    assertEquals(Uuid.NULL, found.next);
+
+    assertNull(store.first(new Uuid(new Uuid(9), 2)));
+    assertNull(store.first(null));
+  }
+
+  @Test
+  public void testNextIsTheFollowingMessage() {
+
+    final Uuid conversation = new Uuid(1);
+    final Message a = newMessage(new Uuid(new Uuid(9), 1), 1000, "a");
+    final Message b = newMessage(new Uuid(new Uuid(9), 2), 2000, "b");
+
+    store.append(conversation, a);
+    store.append(conversation, b);
+
+    assertEquals(b.id, store.first(a.id).next);
+    assertEquals(Uuid.NULL, store.first(b.id).next);
+  }
+
+  @Test
+  public void testUnpackableIds() {
+
+    // Ids more than two levels deep do not fit in a long.
+    final Uuid deep = new Uuid(new Uuid(new Uuid(1), 2), 3);
+    final Message message = newMessage(deep, 1000, "deep");
+
+    store.append(new Uuid(1), message);
+
+    assertEquals(deep, store.first(deep).id);
+    assertEquals("deep", store.first(deep).content());
+  }
+
+  @Test
+  public void testManyConversations() {
+
+    final List<Message> messages = new ArrayList<>();
+
+    for (int i = 0; i < 5000; i++) {
+      final Message message = newMessage(new Uuid(new Uuid(9), i + 1), i, "message " + i);
+      messages.add(message);
+      store.append(new Uuid(i % 7 + 1), message);
+    }
+
+    for (final Message message : messages) {
+      assertEquals(message.content(), store.first(message.id).content());
+    }
+
+    for (int i = 0; i < 7; i++) {
+      assertEquals(i < 5000 % 7 ? 5000 / 7 + 1 : 5000 / 7, store.log(new Uuid(i + 1)).size());
+    }
+
+    final MessageStore.Position position = store.position(messages.get(100).id);
+    assertEquals(100 / 7, position.sequence);
+    assertSame(store.log(new Uuid(100 % 7 + 1)), position.log);
+  }
+
+  @Test
+  public void testRangeInIdOrder() {
+
+    for (int i = 10; i > 0; i--) {
+      store.append(new Uuid(i % 2 + 1), newMessage(new Uuid(new Uuid(9), i), i, ""));
+    }
+
+    final List<Long> ids = new ArrayList<>();
+    for (final Message message : store.range(new Uuid(new Uuid(9), 3), new Uuid(new Uuid(9), 6))) {
+      ids.add(message.id.id());
+    }
+
+    final List<Long> expected = new ArrayList<>();
+    for (int i = 3; i <= 6; i++) {
+      expected.add((long) i);
+    }
+
+    assertEquals(expected, ids);
+  }
+
+  private static Message newMessage(Uuid id, long ms, String content) {
+    return new Message(id, Uuid.NULL, Uuid.NULL, Time.fromMs(ms), AUTHOR, content);
+  }
+}
@@ -0,0 +1,112 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+
+import codeu.chat.client.View;
+import codeu.chat.common.Conversation;
+import codeu.chat.common.Message;
+import codeu.chat.common.User;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.connections.ClientConnectionSource;
+import codeu.chat.util.connections.ConnectionSource;
+import codeu.chat.util.connections.ServerConnectionSource;
+
+// MESSAGES BY TIME BENCHMARK
+//
+// Measures how long a client takes to get every message of one large
+// conversation with GET_MESSAGES_BY_TIME over a loopback socket. Nearly all of
+// the time goes to writing and reading the response, so this shows the cost of
+// the serializers and the connection streams. This is not a unit test and is
+// not run by the TestRunner. Run it with:
+//
+//   java -cp ./bin:./third_party/* codeu.chat.server.MessagesByTimeBenchmark [port] [messages]
+public final class MessagesByTimeBenchmark {
+
+  private static final int MESSAGE_LENGTH = 256;
+
+  private static final int WARM_UP_CALLS = 20;
+  private static final int CALLS = 50;
+
+  public static void main(String[] args) throws Exception {
+
+    final int port = args.length > 0 ? Integer.parseInt(args[0]) : 4412;
+    final int messages = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+
+    final Model model = new Model();
+    final Controller controller = new Controller(Uuid.NULL, model);
+
+    final User user = controller.newUser("user", "password");
+    final Conversation conversation = controller.newConversation("conversation", user.id);
+
+    final char[] body = new char[MESSAGE_LENGTH];
+    Arrays.fill(body, 'x');
+
+    for (int i = 0; i < messages; i++) {
+      controller.newMessage(user.id, conversation.id, new String(body));
+    }
+
+    final Server server = new Server(Uuid.NULL, new byte[0], new NoOpRelay(), 1, model);
+    final ConnectionSource serverSource = ServerConnectionSource.forPort(port);
+
+    final Thread acceptor = new Thread() {
+      @Override
+      public void run() {
+        try {
+          while (true) {
+            server.handleConnection(serverSource.connect());
+          }
+        } catch (IOException ex) {
+          // The source was closed.
+        }
+      }
+    };
+    acceptor.setDaemon(true);
+    acceptor.start();
+
+    final View view = new View(new ClientConnectionSource("localhost", port));
+
+    final Time start = Time.fromMs(0);
+    final Time end = Time.fromMs(Long.MAX_VALUE);
+
+    int received = 0;
+
+    for (int i = 0; i < WARM_UP_CALLS; i++) {
+      received = view.getMessages(conversation.id, start, end).size();
+    }
+
+    final long before = System.nanoTime();
+
+    for (int i = 0; i < CALLS; i++) {
+      final Collection<Message> found = view.getMessages(conversation.id, start, end);
+      received = found.size();
+    }
+
+    final double msPerCall = (System.nanoTime() - before) / 1e6 / CALLS;
+    final double megabytes = (double) received * MESSAGE_LENGTH / (1024 * 1024);
+
+    System.out.format("messages=%d received=%d %8.2f ms/call %8.1f MB/s of message bodies%n",
+        messages, received, msPerCall, megabytes / (msPerCall / 1000));
+
+    serverSource.close();
+
+    // The server's threads are not daemons.
+    System.exit(0);
+  }
+}
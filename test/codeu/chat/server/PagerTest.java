@@ -0,0 +1,214 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.Before;
+
+import codeu.chat.common.Conversation;
+import codeu.chat.common.ConversationSummary;
+import codeu.chat.common.User;
+import codeu.chat.common.WireFormat;
+import codeu.chat.util.Serializer;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+public final class PagerTest {
+
+  private Model model;
+  private Controller controller;
+  private View view;
+
+  private User user;
+
+  @Before
+  public void doBefore() {
+    model = new Model();
+    controller = new Controller(Uuid.NULL, model);
+    view = new View(model);
+
+    user = controller.newUser("user", "");
+  }
+
+  @Test
+  public void testAllConversationsInPages() throws IOException {
+
+    for (int i = 0; i < 25; i++) {
+      controller.newConversation("conversation " + i, user.id);
+    }
+
+    final List<ConversationSummary> all = new ArrayList<>();
+    int pages = 0;
+
+    byte[] cursor = new byte[0];
+    do {
+      final Page<ConversationSummary> page = readPage(
+          view.pageAllConversations(WireFormat.V2.summary),
+          WireFormat.V2,
+          WireFormat.V2.summary,
+          cursor,
+          10);
+      assertTrue(page.values.size() <= 10);
+      all.addAll(page.values);
+      cursor = page.cursor;
+      pages += 1;
+    } while (cursor.length > 0);
+
+    assertEquals(3, pages);
+    assertEquals(25, all.size());
+    assertEquals(25, ids(all).size());
+  }
+
+  @Test
+  public void testConversationsSharingACreationTime() throws IOException {
+
+    final Time time = Time.fromMs(1000);
+
+    for (int i = 0; i < 7; i++) {
+      controller.newConversation(new Uuid(1000 + i), "same " + i, user.id, time);
+    }
+    controller.newConversation(new Uuid(2000), "later", user.id, Time.fromMs(2000));
+    controller.newConversation(new Uuid(3000), "too late", user.id, Time.fromMs(3000));
+
+    final List<Conversation> all = new ArrayList<>();
+
+    byte[] cursor = new byte[0];
+    do {
+      final Page<Conversation> page = readPage(
+          view.pageConversations(Time.fromMs(0), Time.fromMs(2000), WireFormat.V1.conversation),
+          WireFormat.V1,
+          WireFormat.V1.conversation,
+          cursor,
+          3);
+      all.addAll(page.values);
+      cursor = page.cursor;
+    } while (cursor.length > 0);
+
+    assertEquals(8, all.size());
+    assertEquals(8, new HashSet<>(Arrays.asList(titles(all))).size());
+    assertEquals("later", all.get(7).title);
+  }
+
+  @Test
+  public void testInsertBetweenPages() throws IOException {
+
+    for (int i = 0; i < 5; i++) {
+      controller.newConversation(new Uuid(1000 + i), "same " + i, user.id, Time.fromMs(1000));
+    }
+    controller.newConversation(new Uuid(2000), "later", user.id, Time.fromMs(2000));
+
+    final Pager<Time, Conversation> pager =
+        view.pageConversations(Time.fromMs(0), Time.fromMs(5000), WireFormat.V1.conversation);
+
+    final List<Conversation> all = new ArrayList<>();
+
+    Page<Conversation> page =
+        readPage(pager, WireFormat.V1, WireFormat.V1.conversation, new byte[0], 3);
+    all.addAll(page.values);
+
+    // Conversations created while the client is between pages: one before
+    // the cursor, one sharing the cursor's creation time and one after it.
+    controller.newConversation(new Uuid(3000), "before", user.id, Time.fromMs(500));
+    controller.newConversation(new Uuid(3001), "same time", user.id, Time.fromMs(1000));
+    controller.newConversation(new Uuid(3002), "after", user.id, Time.fromMs(3000));
+
+    while (page.cursor.length > 0) {
+      page = readPage(pager, WireFormat.V1, WireFormat.V1.conversation, page.cursor, 3);
+      all.addAll(page.values);
+    }
+
+    final List<String> titles = Arrays.asList(titles(all));
+
+    // Nothing that was there from the start is skipped or repeated, and the
+    // new conversations at or after the cursor are picked up.
+    assertEquals(Arrays.asList(
+        "same 0", "same 1", "same 2", "same 3", "same 4", "same time", "later", "after"),
+        titles);
+  }
+
+  @Test
+  public void testUsersExcluding() throws IOException {
+
+    final User other = controller.newUser("other", "");
+    controller.newUser("third", "");
+
+    final Page<User> page = readPage(
+        view.pageUsersExcluding(Arrays.asList(other.id), WireFormat.V1.user),
+        WireFormat.V1,
+        WireFormat.V1.user,
+        new byte[0],
+        0);
+
+    assertEquals(2, page.values.size());
+    assertEquals(0, page.cursor.length);
+    for (final User found : page.values) {
+      assertFalse(Uuid.equals(other.id, found.id));
+    }
+  }
+
+  private static final class Page<T> {
+    final List<T> values = new ArrayList<>();
+    byte[] cursor;
+  }
+
+  private static <T> Page<T> readPage(Pager<?, ?> pager,
+                                      WireFormat format,
+                                      Serializer<T> serializer,
+                                      byte[] cursor,
+                                      int limit) throws IOException {
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    pager.writePage(out, format, cursor, limit);
+
+    final InputStream in = new ByteArrayInputStream(out.toByteArray());
+
+    final Page<T> page = new Page<>();
+    while (format.bool.read(in)) {
+      page.values.add(serializer.read(in));
+    }
+    page.cursor = format.bytes.read(in);
+
+    assertEquals(0, in.available());
+    return page;
+  }
+
+  private static Set<Uuid> ids(List<ConversationSummary> summaries) {
+    final Set<Uuid> ids = new HashSet<>();
+    for (final ConversationSummary summary : summaries) {
+      ids.add(summary.id);
+    }
+    return ids;
+  }
+
+  private static String[] titles(List<Conversation> conversations) {
+    final String[] titles = new String[conversations.size()];
+    for (int i = 0; i < titles.length; i++) {
+      titles[i] = conversations.get(i).title;
+    }
+    return titles;
+  }
+}
@@ -0,0 +1,139 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import codeu.chat.common.Conversation;
+import codeu.chat.common.User;
+import codeu.chat.util.Uuid;
+
+public final class PatternCacheTest {
+
+  @Test
+  public void testPrefix() {
+    assertPrefix("lunch", "lunch");
+    assertPrefix("lunch", "^lunch.*");
+    assertPrefix("lun", "lunc?h");
+    assertPrefix("lunc", "lunc+h");
+    assertPrefix("a.b", "a\\.b[0-9]");
+    assertPrefix("ab", "ab(cd)*");
+    assertPrefix("ab", "ab\\d");
+
+    assertPrefix("", ".*lunch");
+    assertPrefix("", "[Ll]unch");
+    assertPrefix("", "lunch|dinner");
+    assertPrefix("", "(?i)lunch");
+    assertPrefix("", "\\Qlunch\\E");
+    assertPrefix("", "l?unch");
+  }
+
+  @Test
+  public void testLiterals() {
+    assertLiterals(".*lunch.*", "lunch");
+    assertLiterals("lunch", "lunch");
+    assertLiterals(".*big (lunch|dinner) plans.*", "big ", " plans");
+    assertLiterals("ab+cd", "ab", "cd");
+    assertLiterals("x{2,3}yz[abc]?w", "yz", "w");
+    assertLiterals("a(b[)]c)d", "a", "d");
+    assertLiterals("[]x]yz", "yz");
+    assertLiterals("ab\\x41bc", "ab");
+
+    assertLiterals("lunch|dinner");
+    assertLiterals("(?x)l u n c h");
+    assertLiterals(".*\\Qa|b\\E.*");
+  }
+
+  @Test
+  public void testLeastRecentlyUsedIsDropped() {
+
+    final PatternCache cache = new PatternCache(2);
+
+    final PatternCache.Compiled a = cache.get("a");
+    cache.get("b");
+
+    // Using "a" again makes "b" the least recently used.
+    assertSame(a, cache.get("a"));
+    cache.get("c");
+
+    assertEquals(2, cache.size());
+    assertSame(a, cache.get("a"));
+  }
+
+  @Test
+  public void testSameAsMatchingEveryTitle() {
+
+    final Model model = new Model();
+    final Controller controller = new Controller(Uuid.NULL, model);
+    final View view = new View(model);
+
+    final User user = controller.newUser("user", "");
+
+    final String[] words = { "lunch", "Lunch", "LUNCH", "plans", "big", "a.b", "dinner", "x|y" };
+    final Random random = new Random(7);
+
+    final List<String> titles = new ArrayList<>();
+
+    for (int i = 0; i < 500; i++) {
+      final StringBuilder title = new StringBuilder();
+      for (int j = random.nextInt(4); j >= 0; j--) {
+        title.append(words[random.nextInt(words.length)]).append(j > 0 ? " " : "");
+      }
+      titles.add(title.toString());
+      controller.newConversation(title.toString(), user.id);
+    }
+
+    final String[] filters = {
+      "lunch", "lunch.*", ".*lunch.*", ".*Lunch plans.*", "[lL]unch.*", "(?i)lunch.*",
+      "lunch|dinner", "big (lunch|dinner).*", "a\\.b.*", ".*x\\|y", "lun+ch.*",
+      ".*", "", "big", ".*dinner", "LUNCH big.*",
+    };
+
+    for (final String filter : filters) {
+
+      final List<String> expected = new ArrayList<>();
+      for (final String title : titles) {
+        if (Pattern.matches(filter, title)) {
+          expected.add(title);
+        }
+      }
+      Collections.sort(expected, String.CASE_INSENSITIVE_ORDER);
+
+      final List<String> found = new ArrayList<>();
+      for (final Conversation conversation : view.getConversations(filter)) {
+        found.add(conversation.title);
+      }
+
+      assertEquals(filter, expected, found);
+    }
+  }
+
+  private static void assertPrefix(String prefix, String regex) {
+    assertEquals(regex, prefix, PatternCache.compile(regex).prefix);
+  }
+
+  private static void assertLiterals(String regex, String... literals) {
+    assertEquals(regex, Arrays.asList(literals), PatternCache.compile(regex).literals);
+  }
+}
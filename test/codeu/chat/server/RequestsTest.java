@@ -0,0 +1,174 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import codeu.chat.common.NetworkCode;
+import codeu.chat.common.WireFormat;
+import codeu.chat.util.CompactSerializers;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+public final class RequestsTest {
+
+  private static final int NEXT = 0x7E57;
+
+  @Test
+  public void testReadStopsAtNextRequest() throws IOException {
+
+    for (final WireFormat format : Arrays.asList(WireFormat.V1, WireFormat.V2)) {
+
+      final ByteArrayOutputStream body = new ByteArrayOutputStream();
+      format.uuid.write(body, new Uuid(1));
+      format.uuid.write(body, new Uuid(2));
+      format.string.write(body, "hello");
+
+      final InputStream in = followedByNext(body.toByteArray());
+
+      assertArrayEquals(body.toByteArray(),
+                        Requests.read(NetworkCode.NEW_MESSAGE_REQUEST, format, in));
+      assertEquals(NEXT, (int) Serializers.INTEGER.read(in));
+    }
+  }
+
+  @Test
+  public void testPageRequest() throws IOException {
+
+    final WireFormat format = WireFormat.V2;
+
+    final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    format.integer.write(body, NetworkCode.GET_CONVERSATIONS_BY_TIME_REQUEST);
+    format.time.write(body, Time.fromMs(10));
+    format.time.write(body, Time.fromMs(20));
+    format.bytes.write(body, new byte[] { 1, 2, 3 });
+    format.integer.write(body, 50);
+
+    final InputStream in = followedByNext(body.toByteArray());
+
+    assertArrayEquals(body.toByteArray(),
+                      Requests.read(NetworkCode.GET_PAGE_REQUEST, format, in));
+    assertEquals(NEXT, (int) Serializers.INTEGER.read(in));
+  }
+
+  @Test
+  public void testWrappedRequest() throws IOException {
+
+    // A compressed request around a version 2 request.
+    final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    Serializers.INTEGER.write(body, NetworkCode.V2_REQUEST);
+    WireFormat.V2.integer.write(body, NetworkCode.GET_USERS_BY_ID_REQUEST);
+    WireFormat.V2.uuids.write(body, Collections.singleton(new Uuid(3)));
+
+    final InputStream in = followedByNext(body.toByteArray());
+
+    assertArrayEquals(body.toByteArray(),
+                      Requests.read(NetworkCode.COMPRESSED_REQUEST, WireFormat.V1, in));
+    assertEquals(NEXT, (int) Serializers.INTEGER.read(in));
+  }
+
+  @Test
+  public void testUnknownRequestHasNoBody() throws IOException {
+
+    final InputStream in = followedByNext(new byte[0]);
+
+    assertEquals(0, Requests.read(NetworkCode.NO_MESSAGE, WireFormat.V1, in).length);
+    assertEquals(NEXT, (int) Serializers.INTEGER.read(in));
+  }
+
+  @Test(expected = EOFException.class)
+  public void testTruncatedRequest() throws IOException {
+
+    final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    WireFormat.V1.string.write(body, "old name");
+    WireFormat.V1.string.write(body, "new name");
+
+    final byte[] truncated = Arrays.copyOf(body.toByteArray(), body.size() - 1);
+
+    Requests.skip(NetworkCode.CHANGE_USERNAME_REQUEST,
+                  WireFormat.V1,
+                  new ByteArrayInputStream(truncated));
+  }
+
+  @Test
+  public void testFraming() throws IOException {
+
+    final ByteArrayOutputStream request = new ByteArrayOutputStream();
+    Serializers.INTEGER.write(request, NetworkCode.NEW_CONVERSATION_REQUEST);
+    WireFormat.V1.string.write(request, "title");
+    WireFormat.V1.uuid.write(request, new Uuid(4));
+
+    final byte[] whole = request.toByteArray();
+
+    for (int length = 0; length < whole.length; length++) {
+      assertFalse(Requests.FRAMING.hasRequest(
+          new ByteArrayInputStream(Arrays.copyOf(whole, length))));
+    }
+
+    assertTrue(Requests.FRAMING.hasRequest(new ByteArrayInputStream(whole)));
+    assertTrue(Requests.FRAMING.hasRequest(followedByNext(whole)));
+  }
+
+  @Test
+  public void testHugeDeclaredLengths() throws IOException {
+
+    // Lengths and sizes that claim far more than was sent only mean that the
+    // rest of the request has not arrived. Nothing that big is allocated.
+    final ByteArrayOutputStream string = new ByteArrayOutputStream();
+    Serializers.INTEGER.write(string, NetworkCode.DELETE_USER_REQUEST);
+    Serializers.INTEGER.write(string, Integer.MAX_VALUE);
+    assertFalse(Requests.FRAMING.hasRequest(new ByteArrayInputStream(string.toByteArray())));
+
+    final ByteArrayOutputStream uuids = new ByteArrayOutputStream();
+    Serializers.INTEGER.write(uuids, NetworkCode.GET_USERS_BY_ID_REQUEST);
+    Serializers.INTEGER.write(uuids, Integer.MAX_VALUE);
+    WireFormat.V1.uuid.write(uuids, new Uuid(1));
+    assertFalse(Requests.FRAMING.hasRequest(new ByteArrayInputStream(uuids.toByteArray())));
+
+    final ByteArrayOutputStream compact = new ByteArrayOutputStream();
+    Serializers.INTEGER.write(compact, NetworkCode.V2_REQUEST);
+    WireFormat.V2.integer.write(compact, NetworkCode.GET_MESSAGES_BY_ID_REQUEST);
+    CompactSerializers.writeVarint(compact, Integer.MAX_VALUE);
+    assertFalse(Requests.FRAMING.hasRequest(new ByteArrayInputStream(compact.toByteArray())));
+  }
+
+  @Test(expected = IOException.class)
+  public void testNegativeLength() throws IOException {
+
+    final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    Serializers.INTEGER.write(body, -5);
+
+    Requests.skip(NetworkCode.DELETE_USER_REQUEST,
+                  WireFormat.V1,
+                  new ByteArrayInputStream(body.toByteArray()));
+  }
+
+  private static InputStream followedByNext(byte[] body) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    bytes.write(body);
+    Serializers.INTEGER.write(bytes, NEXT);
+    return new ByteArrayInputStream(bytes.toByteArray());
+  }
+}
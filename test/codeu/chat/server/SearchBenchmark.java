@@ -0,0 +1,112 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.server;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+
+import codeu.chat.common.Message;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+// SEARCH BENCHMARK
+//
+// Measures how long MessageStore.search takes over a large number of
+// messages. Each message is a few words drawn from a vocabulary in which a
+// few words are very common and most are rare, as in real text. This is not
+// a unit test and is not run by the TestRunner. Run it with:
+//
+//   java -cp ./bin:./third_party/* codeu.chat.server.SearchBenchmark [messages]
+public final class SearchBenchmark {
+
+  private static final int WORDS = 50000;
+  private static final int WORDS_PER_MESSAGE = 8;
+  private static final int CONVERSATIONS = 1000;
+  private static final int LIMIT = 50;
+
+  private static final int WARM_UP_CALLS = 2000;
+  private static final int CALLS = 2000;
+
+  public static void main(String[] args) {
+
+    final int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+    final MessageStore store = new MessageStore(Model.UUID_COMPARE);
+    final Random random = new Random(1);
+    final Uuid author = new Uuid(new Uuid(1), 1);
+
+    final long beforeAdd = System.nanoTime();
+
+    for (int i = 0; i < count; i++) {
+
+      final StringBuilder content = new StringBuilder();
+      for (int j = 0; j < WORDS_PER_MESSAGE; j++) {
+        content.append(word(random)).append(' ');
+      }
+
+      store.append(new Uuid(random.nextInt(CONVERSATIONS) + 1),
+                   new Message(new Uuid(new Uuid(2), i + 1),
+                               Uuid.NULL,
+                               Uuid.NULL,
+                               Time.fromMs(i),
+                               author,
+                               content.toString()));
+    }
+
+    System.out.format("messages=%d %8.2f us/add%n",
+        count, (System.nanoTime() - beforeAdd) / 1e3 / count);
+
+    final Collection<Uuid> one = Arrays.asList(new Uuid(7));
+
+    run(store, "common word", "w0", null, 0, Long.MAX_VALUE);
+    run(store, "rare word", "w40000", null, 0, Long.MAX_VALUE);
+    run(store, "two common words", "w0 w1", null, 0, Long.MAX_VALUE);
+    run(store, "common and rare", "w0 w2000", null, 0, Long.MAX_VALUE);
+    run(store, "common, one conversation", "w0", one, 0, Long.MAX_VALUE);
+    run(store, "rare, one conversation", "w5000", one, 0, Long.MAX_VALUE);
+    run(store, "common, first tenth", "w0", null, 0, count / 10);
+  }
+
+  private static void run(MessageStore store,
+                          String name,
+                          String query,
+                          Collection<Uuid> conversations,
+                          long start,
+                          long end) {
+
+    int found = 0;
+
+    for (int i = 0; i < WARM_UP_CALLS; i++) {
+      found = store.search(query, conversations, start, end, LIMIT).size();
+    }
+
+    final long before = System.nanoTime();
+
+    for (int i = 0; i < CALLS; i++) {
+      found = store.search(query, conversations, start, end, LIMIT).size();
+    }
+
+    System.out.format("%-26s found=%-3d %10.2f us/search%n",
+        name, found, (System.nanoTime() - before) / 1e3 / CALLS);
+  }
+
+  // Word "wN" is used about in proportion to 1 / (N + 1).
+  private static String word(Random random) {
+    final double x = random.nextDouble();
+    return "w" + (int) (Math.pow(WORDS + 1, x) - 1);
+  }
+}
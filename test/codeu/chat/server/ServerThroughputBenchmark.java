@@ -0,0 +1,178 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import codeu.chat.common.Conversation;
+import codeu.chat.common.NetworkCode;
+import codeu.chat.common.User;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.connections.Connection;
+
+// SERVER THROUGHPUT BENCHMARK
+//
+// Measures how many requests per second the server handles with one worker
+// and with several workers. This is not a unit test and is not run by the
+// TestRunner. Run it with:
+//
+//   java -cp ./bin:./third_party/* codeu.chat.server.ServerThroughputBenchmark [workers] [delay-ms]
+//
+// Requests are sent through in-memory connections so no sockets or database
+// are needed. "delay-ms" pauses each response as it is written, to stand in
+// for a slow client or network (or anything else that blocks a worker).
+public final class ServerThroughputBenchmark {
+
+  private static final int USERS = 100;
+  private static final int CONVERSATIONS = 500;
+  private static final int MESSAGES_PER_CONVERSATION = 20;
+
+  private static final int WARM_UP_REQUESTS = 2000;
+  private static final int REQUESTS = 4000;
+
+  public static void main(String[] args) throws Exception {
+
+    final int workers = args.length > 0 ?
+        Integer.parseInt(args[0]) :
+        Math.max(4, Runtime.getRuntime().availableProcessors());
+
+    final long delayMs = args.length > 1 ? Long.parseLong(args[1]) : 0;
+
+    final Model model = new Model();
+    final List<byte[]> requests = populate(model);
+
+    System.out.format("users=%d conversations=%d messages=%d delay=%dms%n",
+        USERS, CONVERSATIONS, CONVERSATIONS * MESSAGES_PER_CONVERSATION, delayMs);
+
+    for (final int count : new int[] { 1, workers }) {
+
+      final Server server = new Server(Uuid.NULL, new byte[0], new NoOpRelay(), count, model);
+
+      run(server, requests, WARM_UP_REQUESTS, delayMs);
+      final double perSecond = run(server, requests, REQUESTS, delayMs);
+
+      System.out.format("workers=%-3d %10.0f requests/s%n", count, perSecond);
+    }
+
+    // The servers' threads are not daemons.
+    System.exit(0);
+  }
+
+  private static List<byte[]> populate(Model model) throws IOException {
+
+    final Controller controller = new Controller(Uuid.NULL, model);
+
+    final List<User> users = new ArrayList<>();
+    for (int i = 0; i < USERS; i++) {
+      users.add(controller.newUser("user-" + i, "password"));
+    }
+
+    final List<Conversation> conversations = new ArrayList<>();
+    for (int i = 0; i < CONVERSATIONS; i++) {
+      final User owner = users.get(i % USERS);
+      final Conversation conversation = controller.newConversation("conversation-" + i, owner.id);
+      conversations.add(conversation);
+      for (int j = 0; j < MESSAGES_PER_CONVERSATION; j++) {
+        controller.newMessage(users.get(j % USERS).id, conversation.id, "message " + j);
+      }
+    }
+
+    final List<byte[]> requests = new ArrayList<>();
+
+    ByteArrayOutputStream request = new ByteArrayOutputStream();
+    Serializers.INTEGER.write(request, NetworkCode.GET_ALL_CONVERSATIONS_REQUEST);
+    requests.add(request.toByteArray());
+
+    request = new ByteArrayOutputStream();
+    Serializers.INTEGER.write(request, NetworkCode.GET_USER_GENERATION_REQUEST);
+    requests.add(request.toByteArray());
+
+    for (int i = 0; i < 8; i++) {
+      request = new ByteArrayOutputStream();
+      Serializers.INTEGER.write(request, NetworkCode.GET_MESSAGES_BY_RANGE_REQUEST);
+      Uuid.SERIALIZER.write(request, conversations.get(i * 37 % CONVERSATIONS).firstMessage);
+      Serializers.INTEGER.write(request, MESSAGES_PER_CONVERSATION);
+      requests.add(request.toByteArray());
+    }
+
+    return requests;
+  }
+
+  private static double run(Server server, List<byte[]> requests, int count, long delayMs)
+      throws InterruptedException {
+
+    final CountDownLatch done = new CountDownLatch(count);
+
+    final long start = System.nanoTime();
+
+    for (int i = 0; i < count; i++) {
+      server.handleConnection(new MemoryConnection(requests.get(i % requests.size()), delayMs, done));
+    }
+
+    done.await();
+
+    final long elapsed = System.nanoTime() - start;
+
+    return count / (elapsed / 1e9);
+  }
+
+  private static final class MemoryConnection implements Connection {
+
+    private final InputStream in;
+    private final OutputStream out;
+    private final CountDownLatch done;
+
+    public MemoryConnection(byte[] request, final long delayMs, CountDownLatch done) {
+
+      this.in = new ByteArrayInputStream(request);
+      this.done = done;
+
+      this.out = new ByteArrayOutputStream() {
+        @Override
+        public synchronized void write(byte[] bytes, int offset, int length) {
+          pause(delayMs);
+          super.write(bytes, offset, length);
+        }
+      };
+    }
+
+    @Override
+    public InputStream in() { return in; }
+
+    @Override
+    public OutputStream out() { return out; }
+
+    @Override
+    public void close() { done.countDown(); }
+
+    private static void pause(long ms) {
+      if (ms > 0) {
+        try {
+          Thread.sleep(ms);
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,187 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.server;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import codeu.chat.common.ConversationSummary;
+import codeu.chat.common.Message;
+import codeu.chat.common.NetworkCode;
+import codeu.chat.common.WireFormat;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.connections.Connection;
+
+public final class SubscriptionsTest {
+
+  private static final long TIMEOUT_MS = 5000;
+
+  private static final Uuid SUBSCRIBED = new Uuid(1);
+  private static final Uuid OTHER = new Uuid(2);
+
+  @Test
+  public void testPushesSubscribedEvents() throws Exception {
+
+    final Subscriptions subscriptions = new Subscriptions(Subscriptions.DEFAULT_QUEUE_SIZE);
+    final TestConnection connection = new TestConnection(false);
+
+    final Subscriptions.Subscriber subscriber =
+        subscriptions.add(connection, WireFormat.V2, Arrays.asList(SUBSCRIBED));
+
+    final Message first = message(10);
+    final Message second = message(11);
+    final ConversationSummary conversation =
+        new ConversationSummary(new Uuid(12), new Uuid(13), Time.fromMs(14), "title");
+
+    // Events published before the subscriber is started are held back, not
+    // lost.
+    subscriptions.publish(SUBSCRIBED, first);
+    subscriptions.publish(OTHER, second);
+    subscriptions.publish(conversation);
+
+    assertEquals(0, connection.written().length);
+
+    subscriber.start();
+
+    final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    WireFormat.V2.integer.write(expected, NetworkCode.NEW_MESSAGE_EVENT);
+    WireFormat.V2.uuid.write(expected, SUBSCRIBED);
+    WireFormat.V2.message.write(expected, first);
+    WireFormat.V2.integer.write(expected, NetworkCode.NEW_CONVERSATION_EVENT);
+    WireFormat.V2.summary.write(expected, conversation);
+
+    assertArrayEquals(expected.toByteArray(), connection.await(expected.size()));
+  }
+
+  @Test
+  public void testSlowSubscriberIsEvicted() throws Exception {
+
+    final Subscriptions subscriptions = new Subscriptions(1);
+    final TestConnection connection = new TestConnection(true);
+
+    subscriptions.add(connection, WireFormat.V1, null).start();
+
+    assertEquals(1, subscriptions.size());
+
+    // The first event is stuck being written, the second fills the queue and
+    // the third finds it full.
+    subscriptions.publish(SUBSCRIBED, message(10));
+    connection.awaitWriting();
+    subscriptions.publish(SUBSCRIBED, message(11));
+    subscriptions.publish(SUBSCRIBED, message(12));
+
+    assertEquals(0, subscriptions.size());
+    assertTrue(connection.awaitClosed());
+  }
+
+  private static Message message(int id) {
+    return new Message(new Uuid(id), Uuid.NULL, Uuid.NULL, Time.fromMs(id), new Uuid(3), "hello");
+  }
+
+  // A connection that keeps everything written to it. If it is blocking,
+  // writes wait until it is closed, like writes to a client that has stopped
+  // reading.
+  private static final class TestConnection implements Connection {
+
+    private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+    private final CountDownLatch writing = new CountDownLatch(1);
+    private final CountDownLatch closed = new CountDownLatch(1);
+
+    private final OutputStream out;
+
+    TestConnection(final boolean blocking) {
+      out = new OutputStream() {
+
+        @Override
+        public void write(int value) throws IOException {
+          write(new byte[] { (byte) value }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+          writing.countDown();
+          if (blocking) {
+            awaitUninterruptibly(closed);
+            throw new IOException("Closed");
+          }
+          synchronized (written) {
+            written.write(bytes, offset, length);
+            written.notifyAll();
+          }
+        }
+      };
+    }
+
+    @Override
+    public InputStream in() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public OutputStream out() {
+      return out;
+    }
+
+    @Override
+    public void close() {
+      closed.countDown();
+    }
+
+    byte[] written() {
+      synchronized (written) {
+        return written.toByteArray();
+      }
+    }
+
+    byte[] await(int size) throws InterruptedException {
+      final long end = System.currentTimeMillis() + TIMEOUT_MS;
+      synchronized (written) {
+        while (written.size() < size && System.currentTimeMillis() < end) {
+          written.wait(TIMEOUT_MS);
+        }
+        return written.toByteArray();
+      }
+    }
+
+    void awaitWriting() throws InterruptedException {
+      assertTrue(writing.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    }
+
+    boolean awaitClosed() throws InterruptedException {
+      return closed.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+      while (true) {
+        try {
+          latch.await();
+          return;
+        } catch (InterruptedException ex) {
+          // Keep waiting, as a blocked socket write would.
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,193 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.Before;
+
+import codeu.chat.common.Conversation;
+import codeu.chat.common.Message;
+import codeu.chat.common.User;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+public final class TextIndexTest {
+
+  private static final TextIndex.Filter ALL = new TextIndex.Filter() {
+    @Override
+    public boolean accept(long location) {
+      return true;
+    }
+  };
+
+  private static final long EARLIEST = Long.MIN_VALUE;
+  private static final long LATEST = Long.MAX_VALUE;
+
+  private static final Uuid ROOT = new Uuid(9);
+
+  private int nextId = 0;
+
+  private Model model;
+  private Controller controller;
+  private View view;
+
+  private User user;
+
+  @Before
+  public void doBefore() {
+    model = new Model();
+    controller = new Controller(Uuid.NULL, model);
+    view = new View(model);
+
+    user = controller.newUser("user", "");
+  }
+
+  @Test
+  public void testTerms() {
+    assertEquals(Arrays.asList("hello", "world", "42"),
+                 new ArrayList<>(TextIndex.terms("Hello, WORLD! hello 42...")));
+    assertTrue(TextIndex.terms("  ?! ").isEmpty());
+    assertTrue(TextIndex.terms(null).isEmpty());
+  }
+
+  @Test
+  public void testEveryTermMustMatch() {
+
+    final TextIndex index = new TextIndex();
+    index.add(0, 0, "the quick brown fox");
+    index.add(1, 1, "the lazy dog");
+    index.add(2, 2, "a quick dog");
+
+    assertEquals(Arrays.asList(2L, 0L), index.search("QUICK", EARLIEST, LATEST, ALL, 10));
+    assertEquals(Arrays.asList(2L), index.search("quick dog", EARLIEST, LATEST, ALL, 10));
+    assertEquals(Arrays.asList(1L), index.search("dog the", EARLIEST, LATEST, ALL, 10));
+    assertTrue(index.search("quick cat", EARLIEST, LATEST, ALL, 10).isEmpty());
+    assertTrue(index.search("", EARLIEST, LATEST, ALL, 10).isEmpty());
+  }
+
+  @Test
+  public void testManyBlocks() {
+
+    final TextIndex index = new TextIndex();
+
+    // "even" and "odd" are in half of the messages each and "seventh" in
+    // every seventh, so the lists span many blocks with different gaps.
+    for (int i = 0; i < 10 * TextIndex.BLOCK_SIZE; i++) {
+      index.add(i, i, (i % 2 == 0 ? "even" : "odd") + (i % 7 == 0 ? " seventh" : ""));
+    }
+
+    final List<Long> expected = new ArrayList<>();
+    for (int i = 10 * TextIndex.BLOCK_SIZE - 1; i >= 0; i--) {
+      if (i % 2 == 0 && i % 7 == 0) {
+        expected.add((long) i);
+      }
+    }
+
+    assertEquals(expected,
+                 index.search("seventh even", EARLIEST, LATEST, ALL, Integer.MAX_VALUE));
+    assertEquals(expected.subList(0, 5), index.search("even seventh", EARLIEST, LATEST, ALL, 5));
+  }
+
+  @Test
+  public void testTimes() {
+
+    final TextIndex index = new TextIndex();
+    for (int i = 0; i < 1000; i++) {
+      index.add(i, 10 * (i / 2), "word");
+    }
+
+    assertEquals(Arrays.asList(203L, 202L, 201L, 200L), index.search("word", 1000, 1010, ALL, 10));
+    assertEquals(Arrays.asList(1L, 0L), index.search("word", -5, 0, ALL, 10));
+    assertTrue(index.search("word", 10000, 20000, ALL, 10).isEmpty());
+
+    // Out of order, so the times can no longer be searched for.
+    index.add(1000, 5, "word");
+
+    assertEquals(Arrays.asList(1000L, 1L, 0L), index.search("word", -5, 5, ALL, 10));
+    assertEquals(Arrays.asList(201L, 200L), index.search("word", 1000, 1000, ALL, 10));
+  }
+
+  @Test
+  public void testFilter() {
+
+    final TextIndex index = new TextIndex();
+    for (int i = 0; i < 1000; i++) {
+      index.add(i, i, "word");
+    }
+
+    final TextIndex.Filter multiplesOfTen = new TextIndex.Filter() {
+      @Override
+      public boolean accept(long location) {
+        return location % 10 == 0;
+      }
+    };
+
+    assertEquals(Arrays.asList(990L, 980L, 970L),
+                 index.search("word", EARLIEST, LATEST, multiplesOfTen, 3));
+  }
+
+  @Test
+  public void testSearchMessages() {
+
+    final Conversation first = controller.newConversation("first", user.id);
+    final Conversation second = controller.newConversation("second", user.id);
+
+    final Message a = newMessage(first, 1000, "Lunch at noon?");
+    final Message b = newMessage(second, 2000, "lunch is late today");
+    final Message c = newMessage(first, 3000, "Noon works, see you at lunch.");
+    newMessage(second, 4000, "dinner");
+
+    final Time start = Time.fromMs(0);
+    final Time end = Time.fromMs(5000);
+
+    assertEquals(ids(a, b, c), ids(view.searchMessages("lunch", null, start, end, 10)));
+    assertEquals(ids(b, c), ids(view.searchMessages("lunch", null, start, end, 2)));
+    assertEquals(ids(a, c), ids(view.searchMessages("noon lunch", null, start, end, 10)));
+
+    assertEquals(ids(a, c),
+                 ids(view.searchMessages("lunch", Arrays.asList(first.id), start, end, 10)));
+    assertEquals(ids(b, c),
+                 ids(view.searchMessages("lunch", null, Time.fromMs(1500), end, 10)));
+    assertEquals(ids(a),
+                 ids(view.searchMessages("lunch", Arrays.asList(first.id), start, Time.fromMs(2500), 10)));
+
+    assertTrue(view.searchMessages("lunch", Arrays.asList(new Uuid(1234)), start, end, 10).isEmpty());
+    assertTrue(view.searchMessages("breakfast", null, start, end, 10).isEmpty());
+  }
+
+  private Message newMessage(Conversation conversation, long ms, String body) {
+    nextId += 1;
+    return controller.newMessage(new Uuid(ROOT, nextId), user.id, conversation.id, body, Time.fromMs(ms));
+  }
+
+  private static List<Uuid> ids(Message... messages) {
+    return ids(Arrays.asList(messages));
+  }
+
+  private static List<Uuid> ids(Collection<Message> messages) {
+    final List<Uuid> ids = new ArrayList<>();
+    for (final Message message : messages) {
+      ids.add(message.id);
+    }
+    return ids;
+  }
+}
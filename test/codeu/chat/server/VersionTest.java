@@ -0,0 +1,90 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.server;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.Before;
+
+import codeu.chat.common.Conversation;
+import codeu.chat.common.Message;
+import codeu.chat.common.User;
+import codeu.chat.util.Uuid;
+
+public final class VersionTest {
+
+  private Model model;
+  private Controller controller;
+  private View view;
+
+  private User user;
+
+  @Before
+  public void doBefore() {
+    model = new Model();
+    controller = new Controller(Uuid.NULL, model);
+    view = new View(model);
+
+    user = controller.newUser("user", "");
+  }
+
+  @Test
+  public void testUnknownId() {
+    assertNull(view.getVersion(new Uuid(1234)));
+    assertNull(view.getVersion(user.id));
+  }
+
+  @Test
+  public void testNewMessageChangesConversation() {
+
+    final Conversation conversation = controller.newConversation("conversation", user.id);
+    final Uuid created = view.getVersion(conversation.id);
+
+    assertNotNull(created);
+    assertEquals(created, view.getVersion(conversation.id));
+
+    controller.newMessage(user.id, conversation.id, "hello");
+
+    final Uuid changed = view.getVersion(conversation.id);
+
+    assertNotNull(changed);
+    assertFalse(Uuid.equals(created, changed));
+  }
+
+  @Test
+  public void testNextMessageChangesMessage() {
+
+    final Conversation conversation = controller.newConversation("conversation", user.id);
+
+    final Message first = controller.newMessage(user.id, conversation.id, "first");
+    final Uuid before = view.getVersion(first.id);
+
+    final Message second = controller.newMessage(user.id, conversation.id, "second");
+
+    assertFalse(Uuid.equals(before, view.getVersion(first.id)));
+    assertNotNull(view.getVersion(second.id));
+
+    // Adding to another conversation changes neither message.
+    final Uuid firstVersion = view.getVersion(first.id);
+    final Uuid secondVersion = view.getVersion(second.id);
+
+    final Conversation other = controller.newConversation("other", user.id);
+    controller.newMessage(user.id, other.id, "elsewhere");
+
+    assertEquals(firstVersion, view.getVersion(first.id));
+    assertEquals(secondVersion, view.getVersion(second.id));
+  }
+}
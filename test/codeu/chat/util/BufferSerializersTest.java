@@ -0,0 +1,207 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import codeu.chat.common.Conversation;
+import codeu.chat.common.ConversationSummary;
+import codeu.chat.common.Message;
+import codeu.chat.common.User;
+
+public final class BufferSerializersTest {
+
+  private static final String[] STRINGS = {
+      "",
+      "hello",
+      "caf\u00e9 \u00fcber",          // two byte characters
+      "\u4f60\u597d",                  // three byte characters
+      "\ud83d\ude00 smile",            // a surrogate pair (four bytes)
+      "broken \ud83d pair"              // a surrogate without its other half
+  };
+
+  @Test
+  public void testStringMatchesStreamFormat() throws IOException {
+    for (final String value : STRINGS) {
+
+      final ByteBuffer buffer = ByteBuffer.allocate(BufferSerializers.STRING.size(value));
+      BufferSerializers.STRING.write(buffer, value);
+
+      assertFalse(buffer.hasRemaining());
+      assertArrayEquals(streamBytes(Serializers.STRING, value), buffer.array());
+    }
+  }
+
+  @Test
+  public void testStringRoundTrip() throws IOException {
+    for (final String value : STRINGS) {
+
+      final ByteBuffer buffer = ByteBuffer.allocateDirect(BufferSerializers.STRING.size(value));
+      BufferSerializers.STRING.write(buffer, value);
+      buffer.flip();
+
+      final String expected = Serializers.STRING.read(
+          new ByteArrayInputStream(streamBytes(Serializers.STRING, value)));
+
+      assertEquals(expected, BufferSerializers.STRING.read(buffer));
+    }
+  }
+
+  @Test
+  public void testUuidWithRoot() throws IOException {
+
+    final Uuid value = new Uuid(new Uuid(3), 5);
+
+    final ByteBuffer buffer = ByteBuffer.allocate(Uuid.BUFFER_SERIALIZER.size(value));
+    Uuid.BUFFER_SERIALIZER.write(buffer, value);
+
+    assertArrayEquals(streamBytes(Uuid.SERIALIZER, value), buffer.array());
+
+    buffer.flip();
+    assertTrue(Uuid.equals(value, Uuid.BUFFER_SERIALIZER.read(buffer)));
+  }
+
+  // The buffer serializers are used to answer requests that would otherwise
+  // be written by the stream serializers, so they must write the same bytes,
+  // and "size" must say exactly how many.
+  @Test
+  public void testValuesMatchStreamFormat() throws IOException {
+
+    final User user = new User(new Uuid(1), "caf\u00e9", Time.fromMs(10), "secret");
+
+    final Conversation empty = new Conversation(new Uuid(2), user.id, Time.fromMs(20), "");
+    final Conversation conversation =
+        new Conversation(new Uuid(new Uuid(9), 3), user.id, Time.fromMs(30), "\u4f60\u597d");
+    conversation.users.add(user.id);
+    conversation.users.add(new Uuid(new Uuid(9), 4));
+    conversation.firstMessage = new Uuid(5);
+    conversation.lastMessage = new Uuid(6);
+
+    final Message message =
+        new Message(new Uuid(5), new Uuid(6), Uuid.NULL, Time.fromMs(40), user.id, "\ud83d\ude00");
+    final Message last =
+        new Message(new Uuid(6), Uuid.NULL, new Uuid(5), Time.fromMs(50), user.id, "");
+
+    assertSameBytes(User.SERIALIZER, User.BUFFER_SERIALIZER, user);
+
+    assertSameBytes(Conversation.SERIALIZER, Conversation.BUFFER_SERIALIZER, empty);
+    assertSameBytes(Conversation.SERIALIZER, Conversation.BUFFER_SERIALIZER, conversation);
+
+    assertSameBytes(ConversationSummary.SERIALIZER,
+                    ConversationSummary.BUFFER_SERIALIZER,
+                    empty.summary);
+    assertSameBytes(ConversationSummary.SERIALIZER,
+                    ConversationSummary.BUFFER_SERIALIZER,
+                    conversation.summary);
+
+    assertSameBytes(Message.SERIALIZER, Message.BUFFER_SERIALIZER, message);
+    assertSameBytes(Message.SERIALIZER, Message.BUFFER_SERIALIZER, last);
+  }
+
+  @Test
+  public void testCollectionsMatchStreamFormat() throws IOException {
+
+    final Message first =
+        new Message(new Uuid(1), new Uuid(2), Uuid.NULL, Time.fromMs(10), new Uuid(7), "first");
+    final Message second =
+        new Message(new Uuid(2), Uuid.NULL, new Uuid(1), Time.fromMs(20), new Uuid(7), "\u00e9");
+
+    assertSameBytes(Serializers.collection(Message.SERIALIZER),
+                    BufferSerializers.collection(Message.BUFFER_SERIALIZER),
+                    Arrays.asList(first, second));
+    assertSameBytes(Serializers.collection(Message.SERIALIZER),
+                    BufferSerializers.collection(Message.BUFFER_SERIALIZER),
+                    Arrays.<Message>asList());
+
+    assertSameBytes(Serializers.nullable(Message.SERIALIZER),
+                    BufferSerializers.nullable(Message.BUFFER_SERIALIZER),
+                    first);
+    assertSameBytes(Serializers.nullable(Message.SERIALIZER),
+                    BufferSerializers.nullable(Message.BUFFER_SERIALIZER),
+                    null);
+  }
+
+  @Test
+  public void testMessagesFromStreamToBuffer() throws IOException {
+
+    final Collection<Message> messages = Arrays.asList(
+        new Message(new Uuid(1), new Uuid(2), Uuid.NULL, Time.fromMs(10), new Uuid(7), "first"),
+        new Message(new Uuid(2), Uuid.NULL, new Uuid(1), Time.fromMs(20), new Uuid(7), "\u00e9"));
+
+    final ByteBuffer buffer = ByteBuffer.wrap(
+        streamBytes(Serializers.collection(Message.SERIALIZER), messages));
+
+    final Collection<Message> read =
+        BufferSerializers.collection(Message.BUFFER_SERIALIZER).read(buffer);
+
+    assertFalse(buffer.hasRemaining());
+    assertEquals(2, read.size());
+
+    final Message second = read.toArray(new Message[0])[1];
+    assertTrue(Uuid.equals(new Uuid(2), second.id));
+    assertTrue(Uuid.equals(new Uuid(1), second.previous));
+    assertEquals(20, second.creation.inMs());
+    assertEquals("\u00e9", second.content());
+  }
+
+  @Test
+  public void testOutputStreamKeepsOrder() throws IOException {
+
+    final ByteBufferOutputStream inner = new ByteBufferOutputStream();
+    Serializers.INTEGER.write(inner, 7);
+
+    final ByteBufferOutputStream out = new ByteBufferOutputStream();
+    Serializers.INTEGER.write(out, 1);
+    out.write(BufferSerializers.BYTES, new byte[5000]);
+    out.write(inner);
+    Serializers.INTEGER.write(out, 2);
+
+    final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    Serializers.INTEGER.write(expected, 1);
+    Serializers.BYTES.write(expected, new byte[5000]);
+    Serializers.INTEGER.write(expected, 7);
+    Serializers.INTEGER.write(expected, 2);
+
+    assertEquals(expected.size(), out.size());
+    assertArrayEquals(expected.toByteArray(), out.toByteArray());
+  }
+
+  private static <T> void assertSameBytes(Serializer<T> stream,
+                                          BufferSerializer<T> buffer,
+                                          T value) throws IOException {
+
+    final ByteBuffer bytes = ByteBuffer.allocate(buffer.size(value));
+    buffer.write(bytes, value);
+
+    // Writing more than "size" would have overflowed the buffer.
+    assertFalse(bytes.hasRemaining());
+    assertArrayEquals(streamBytes(stream, value), bytes.array());
+  }
+
+  private static <T> byte[] streamBytes(Serializer<T> serializer, T value) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    serializer.write(out, value);
+    return out.toByteArray();
+  }
+}
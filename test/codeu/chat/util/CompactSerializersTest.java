@@ -0,0 +1,103 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public final class CompactSerializersTest {
+
+  @Test
+  public void testIntegerRoundTrip() throws IOException {
+    for (final int value : new int[] {
+        0, 1, -1, 63, -64, 64, 300, -300, Integer.MAX_VALUE, Integer.MIN_VALUE }) {
+      assertEquals(value, (int) roundTrip(CompactSerializers.INTEGER, value));
+    }
+  }
+
+  @Test
+  public void testLongRoundTrip() throws IOException {
+    for (final long value : new long[] {
+        0, 1, -1, 1L << 40, -(1L << 40), Long.MAX_VALUE, Long.MIN_VALUE }) {
+      assertEquals(value, (long) roundTrip(CompactSerializers.LONG, value));
+    }
+  }
+
+  @Test
+  public void testSmallValuesAreSmall() throws IOException {
+    assertEquals(1, bytes(CompactSerializers.INTEGER, 0).length);
+    assertEquals(1, bytes(CompactSerializers.INTEGER, -64).length);
+    assertEquals(2, bytes(CompactSerializers.INTEGER, 64).length);
+    assertEquals(5, bytes(CompactSerializers.INTEGER, Integer.MIN_VALUE).length);
+    assertEquals(10, bytes(CompactSerializers.LONG, Long.MIN_VALUE).length);
+    assertEquals(6, bytes(CompactSerializers.STRING, "hello").length);
+  }
+
+  @Test
+  public void testStringAndCollectionRoundTrip() throws IOException {
+
+    final Serializer<Collection<String>> strings =
+        CompactSerializers.collection(CompactSerializers.STRING);
+
+    final Collection<String> value =
+        Arrays.asList("", "hello", "caf\u00e9", "\ud83d\ude00");
+
+    assertEquals(value, roundTrip(strings, value));
+  }
+
+  @Test
+  public void testUuidAndTimeRoundTrip() throws IOException {
+
+    final Uuid uuid = new Uuid(new Uuid(3), -5);
+    assertTrue(Uuid.equals(uuid, roundTrip(Uuid.COMPACT_SERIALIZER, uuid)));
+    assertTrue(Uuid.equals(Uuid.NULL, roundTrip(Uuid.COMPACT_SERIALIZER, Uuid.NULL)));
+
+    final Time time = Time.fromMs(1234567890123L);
+    assertEquals(time.inMs(), roundTrip(Time.COMPACT_SERIALIZER, time).inMs());
+  }
+
+  @Test(expected = EOFException.class)
+  public void testTruncatedVarint() throws IOException {
+    CompactSerializers.readVarint(new ByteArrayInputStream(new byte[] { (byte) 0x80 }));
+  }
+
+  @Test(expected = IOException.class)
+  public void testOverlongVarint() throws IOException {
+    final byte[] bytes = new byte[11];
+    Arrays.fill(bytes, (byte) 0x80);
+    CompactSerializers.readVarint(new ByteArrayInputStream(bytes));
+  }
+
+  private static <T> T roundTrip(Serializer<T> serializer, T value) throws IOException {
+    final ByteArrayInputStream in = new ByteArrayInputStream(bytes(serializer, value));
+    final T read = serializer.read(in);
+    assertEquals(0, in.available());
+    return read;
+  }
+
+  private static <T> byte[] bytes(Serializer<T> serializer, T value) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    serializer.write(out, value);
+    return out.toByteArray();
+  }
+}
@@ -0,0 +1,79 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.util;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public final class CompressionTest {
+
+  @Test
+  public void testRoundTrip() throws IOException {
+
+    final ByteBufferOutputStream in = new ByteBufferOutputStream();
+    for (int i = 0; i < 1000; i++) {
+      Serializers.STRING.write(in, "message number " + i);
+    }
+    in.write(BufferSerializers.BYTES, new byte[5000]);
+
+    final byte[] deflated = Compression.deflate(in);
+
+    assertNotNull(deflated);
+    assertTrue(deflated.length < in.size());
+    assertArrayEquals(in.toByteArray(), Compression.inflate(deflated, in.size()));
+
+    // The same thread's deflater is used again.
+    assertArrayEquals(deflated, Compression.deflate(in));
+  }
+
+  @Test
+  public void testIncompressible() {
+
+    final byte[] bytes = new byte[4096];
+    new Random(1).nextBytes(bytes);
+
+    final ByteBufferOutputStream in = new ByteBufferOutputStream();
+    in.write(bytes, 0, bytes.length);
+
+    assertNull(Compression.deflate(in));
+    assertNull(Compression.deflate(new ByteBufferOutputStream()));
+  }
+
+  @Test(expected = IOException.class)
+  public void testWrongSize() throws IOException {
+
+    final ByteBufferOutputStream in = new ByteBufferOutputStream();
+    in.write(new byte[1000], 0, 1000);
+
+    Compression.inflate(Compression.deflate(in), 999);
+  }
+
+  @Test(expected = IOException.class)
+  public void testCorrupt() throws IOException {
+
+    final ByteBufferOutputStream in = new ByteBufferOutputStream();
+    in.write(new byte[1000], 0, 1000);
+
+    final byte[] deflated = Compression.deflate(in);
+    Arrays.fill(deflated, (byte) 0x55);
+
+    Compression.inflate(deflated, 1000);
+  }
+}
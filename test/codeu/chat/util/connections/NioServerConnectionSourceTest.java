@@ -0,0 +1,198 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.connections;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import codeu.chat.util.Serializers;
+
+public final class NioServerConnectionSourceTest {
+
+  // A request is an INTEGER length and then that many bytes.
+  private static final RequestFraming FRAMING = new RequestFraming() {
+    @Override
+    public boolean hasRequest(InputStream in) throws IOException {
+      if (in.available() < 4) {
+        return false;
+      }
+      final int length = Serializers.INTEGER.read(in);
+      return length <= in.available();
+    }
+  };
+
+  private NioServerConnectionSource source;
+  private int port;
+
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+  @Before
+  public void doBefore() throws IOException {
+    final ServerSocketChannel channel = ServerSocketChannel.open();
+    channel.socket().bind(new InetSocketAddress("localhost", 0));
+    port = channel.socket().getLocalPort();
+    source = new NioServerConnectionSource(channel, 60000, FRAMING);
+  }
+
+  @After
+  public void doAfter() throws IOException {
+    executor.shutdownNow();
+    source.close();
+  }
+
+  @Test
+  public void testWaitsForWholeRequest() throws Exception {
+
+    try (final Socket client = new Socket("localhost", port)) {
+
+      Serializers.INTEGER.write(client.getOutputStream(), 5);
+      client.getOutputStream().write(new byte[] { 1, 2 });
+
+      final Future<Connection> connected = connectLater();
+
+      try {
+        connected.get(200, TimeUnit.MILLISECONDS);
+        fail("Half of a request should not be handed out");
+      } catch (TimeoutException ex) {
+        // Still waiting for the rest of it.
+      }
+
+      client.getOutputStream().write(new byte[] { 3, 4, 5 });
+
+      final Connection connection = connected.get(5, TimeUnit.SECONDS);
+      assertEquals(5, serve(connection));
+      ((ReusableConnection) connection).release();
+
+      assertEquals(5, (int) Serializers.INTEGER.read(client.getInputStream()));
+    }
+  }
+
+  @Test
+  public void testRequestsOnOneConnection() throws Exception {
+
+    try (final Socket client = new Socket("localhost", port)) {
+
+      // A request bigger than the first buffer, with the next one sent
+      // straight after it.
+      final int large = 3 * BufferedConnection.BUFFER_SIZE;
+      Serializers.INTEGER.write(client.getOutputStream(), large);
+      client.getOutputStream().write(new byte[large]);
+      Serializers.INTEGER.write(client.getOutputStream(), 1);
+      client.getOutputStream().write(7);
+
+      for (final int expected : new int[] { large, 1 }) {
+        final Connection connection = connectLater().get(5, TimeUnit.SECONDS);
+        assertEquals(expected, serve(connection));
+        ((ReusableConnection) connection).release();
+        assertEquals(expected, (int) Serializers.INTEGER.read(client.getInputStream()));
+      }
+    }
+  }
+
+  @Test
+  public void testIdleAfterLargeRequest() throws Exception {
+
+    try (final Socket client = new Socket("localhost", port)) {
+
+      // The session's buffer grows for the first request and is given back
+      // when it is released. The next request, sent once the session is
+      // idle, gets a new one.
+      final int large = NioServerConnectionSource.MAX_BUFFER_SIZE / 2;
+
+      for (final int length : new int[] { large, 3, large }) {
+
+        Serializers.INTEGER.write(client.getOutputStream(), length);
+        client.getOutputStream().write(new byte[length]);
+
+        final Connection connection = connectLater().get(5, TimeUnit.SECONDS);
+        assertEquals(length, serve(connection));
+        ((ReusableConnection) connection).release();
+
+        assertEquals(length, (int) Serializers.INTEGER.read(client.getInputStream()));
+      }
+    }
+  }
+
+  @Test
+  public void testRejectsRequestTooLarge() throws Exception {
+
+    try (final Socket client = new Socket("localhost", port)) {
+
+      client.setSoTimeout(5000);
+
+      final OutputStream out = client.getOutputStream();
+
+      try {
+        Serializers.INTEGER.write(out, Integer.MAX_VALUE);
+        out.write(new byte[2 * NioServerConnectionSource.MAX_BUFFER_SIZE]);
+      } catch (IOException ex) {
+        // The server may close the connection before all of it is sent.
+      }
+
+      try {
+        assertEquals(-1, client.getInputStream().read());
+      } catch (IOException ex) {
+        // Reset by the server, which also means it was closed.
+      }
+    }
+
+    // Nothing was handed out for it, and other clients are still served.
+    try (final Socket client = new Socket("localhost", port)) {
+
+      Serializers.INTEGER.write(client.getOutputStream(), 1);
+      client.getOutputStream().write(9);
+
+      final Connection connection = connectLater().get(5, TimeUnit.SECONDS);
+      assertEquals(1, serve(connection));
+      connection.close();
+    }
+  }
+
+  private Future<Connection> connectLater() {
+    return executor.submit(new Callable<Connection>() {
+      @Override
+      public Connection call() throws IOException {
+        return source.connect();
+      }
+    });
+  }
+
+  // Read one request and answer with its length.
+  private static int serve(Connection connection) throws IOException {
+
+    final int length = Serializers.INTEGER.read(connection.in());
+
+    final byte[] body = new byte[length];
+    Serializers.readFully(connection.in(), body, 0, length);
+
+    Serializers.INTEGER.write(connection.out(), length);
+    return length;
+  }
+}
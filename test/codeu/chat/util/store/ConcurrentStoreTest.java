@@ -0,0 +1,198 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.util.store;
+
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.Before;
+
+public final class ConcurrentStoreTest {
+
+  private static final Comparator<Integer> COMPARATOR = new Comparator<Integer>() {
+    @Override
+    public int compare(Integer a, Integer b) { return a.compareTo(b); }
+  };
+
+  private ConcurrentStore<Integer, Integer> store;
+
+  @Before
+  public void doBefore() {
+    store = new ConcurrentStore<>(COMPARATOR);
+  }
+
+  @Test
+  public void testOrderPingPongOrderInsert() {
+    store.insert(0, 0);
+    store.insert(4, 40);
+    store.insert(1, 10);
+    store.insert(3, 30);
+    store.insert(2, 20);
+
+    final int[] order = { 0, 10, 20, 30, 40 };
+    assertOrder(store.all(), order);
+  }
+
+  @Test
+  public void testBeforeAfterRange() {
+    store.insert(0, 0);
+    store.insert(1, 10);
+    store.insert(2, 20);
+    store.insert(3, 30);
+    store.insert(4, 40);
+
+    assertOrder(store.before(2), new int[] { 0, 10, 20 });
+    assertOrder(store.after(2), new int[] { 20, 30, 40 });
+    assertOrder(store.range(1, 3), new int[] { 10, 20, 30 });
+    assertOrder(store.range(3, 1), new int[] { });
+  }
+
+  @Test
+  public void testDuplicatesInInsertOrder() {
+    store.insert(1, 10);
+    store.insert(2, 20);
+    store.insert(2, 21);
+    store.insert(3, 30);
+    store.insert(2, 22);
+
+    assertOrder(store.at(2), new int[] { 20, 21, 22 });
+    assertOrder(store.all(), new int[] { 10, 20, 21, 22, 30 });
+    assertTrue(store.first(2) == 20);
+  }
+
+  @Test
+  public void testDelete() {
+    store.insert(1, 10);
+    store.insert(2, 20);
+    store.insert(2, 21);
+
+    assertTrue(store.delete(2));
+    assertFalse(store.delete(2));
+    assertNull(store.first(2));
+    assertOrder(store.all(), new int[] { 10 });
+
+    store.insert(2, 22);
+    assertTrue(store.first(2) == 22);
+  }
+
+  @Test
+  public void testNullKey() {
+    store.insert(1, 10);
+
+    assertNull(store.first(null));
+    assertOrder(store.after(null), new int[] { });
+  }
+
+  @Test
+  public void testReadWhileWriting() throws Exception {
+
+    final int count = 100000;
+    final AtomicReference<String> failure = new AtomicReference<>();
+
+    final Thread writer = new Thread() {
+      @Override
+      public void run() {
+        // Insert out of order so that values land all over the skip list.
+        for (int i = 0; i < count; i++) {
+          final int key = (i * 7919) % count;
+          store.insert(key, key);
+        }
+      }
+    };
+
+    writer.start();
+
+    while (writer.isAlive()) {
+
+      int last = -1;
+      for (final Integer value : store.all()) {
+        if (value <= last) {
+          failure.set("Out of order: " + value + " after " + last);
+        }
+        last = value;
+      }
+    }
+
+    writer.join();
+
+    assertNull(failure.get());
+    assertSize(store.all(), count);
+
+    for (int i = 0; i < count; i++) {
+      assertTrue(store.first(i) == i);
+    }
+  }
+
+  @Test
+  public void testDeleteValue() {
+    store.insert(1, 10);
+    store.insert(2, 20);
+    store.insert(2, 21);
+    store.insert(2, 22);
+    store.insert(3, 30);
+
+    assertFalse(store.delete(2, 30));
+    assertFalse(store.delete(4, 40));
+
+    assertTrue(store.delete(2, 21));
+    assertOrder(store.all(), new int[] { 10, 20, 22, 30 });
+
+    assertTrue(store.delete(2, 20));
+    assertTrue(store.first(2) == 22);
+    assertOrder(store.all(), new int[] { 10, 22, 30 });
+
+    store.insert(2, 23);
+    assertTrue(store.delete(2, 23));
+    assertOrder(store.at(2), new int[] { 22 });
+
+    assertTrue(store.delete(2, 22));
+    assertNull(store.first(2));
+    assertOrder(store.all(), new int[] { 10, 30 });
+
+    store.insert(2, 24);
+    store.insert(4, 40);
+    assertOrder(store.all(), new int[] { 10, 24, 30, 40 });
+
+    assertTrue(store.delete(1, 10));
+    assertTrue(store.delete(4, 40));
+    assertOrder(store.all(), new int[] { 24, 30 });
+  }
+
+  private static void assertOrder(Iterable<Integer> actual, int[] expected) {
+
+    int at = 0;
+
+    for (final Integer i : actual) {
+      assertTrue(i == expected[at]);
+      at += 1;
+    }
+
+    assertTrue(at == expected.length);
+  }
+
+  private static void assertSize(Iterable<Integer> actual, int expected) {
+
+    int count = 0;
+
+    for (final Integer i : actual) {
+      count++;
+    }
+
+    assertTrue(count == expected);
+  }
+}
@@ -0,0 +1,98 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.util.store;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class LongTableTest {
+
+  private LongTable table;
+
+  @Before
+  public void doBefore() {
+    table = new LongTable();
+  }
+
+  @Test
+  public void testPutAndGet() {
+
+    table.put(1, 10);
+    table.put(-1, 20);
+    table.put(0, 30);
+
+    assertEquals(10, table.get(1));
+    assertEquals(20, table.get(-1));
+    assertEquals(30, table.get(0));
+    assertEquals(0, table.get(2));
+
+    table.put(1, 40);
+
+    assertEquals(40, table.get(1));
+    assertEquals(3, table.size());
+  }
+
+  @Test
+  public void testRemove() {
+
+    table.put(1, 10);
+
+    assertTrue(table.remove(1));
+    assertFalse(table.remove(1));
+
+    assertEquals(0, table.get(1));
+    assertEquals(0, table.size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testZeroValue() {
+    table.put(1, 0);
+  }
+
+  @Test
+  public void testMatchesMap() {
+
+    final Random random = new Random(0);
+    final Map<Long, Long> expected = new HashMap<>();
+
+    // Few enough keys that removals often shift entries of long probe
+    // sequences, and enough changes that the table grows.
+    for (int i = 0; i < 100000; i++) {
+
+      final long key = random.nextInt(1000);
+
+      if (random.nextInt(3) == 0) {
+        assertEquals(expected.remove(key) != null, table.remove(key));
+      } else {
+        final long value = i + 1;
+        expected.put(key, value);
+        table.put(key, value);
+      }
+    }
+
+    for (long key = 0; key < 1000; key++) {
+      final Long value = expected.get(key);
+      assertEquals(value == null ? 0 : value, table.get(key));
+    }
+
+    assertEquals(expected.size(), table.size());
+  }
+}
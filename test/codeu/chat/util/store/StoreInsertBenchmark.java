@@ -0,0 +1,72 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.util.store;
+
+import java.util.Comparator;
+
+// STORE INSERT BENCHMARK
+//
+// Measures how long Store.insert takes as more and more values share a key,
+// like users or conversations created in the same millisecond in "byTime" or
+// with the same title in "byText". Each round inserts values spread over
+// a fixed number of distinct keys, so the number of values per key grows
+// with the size of the round. If insert is logarithmic, the time per insert
+// barely changes from one round to the next. This is not a unit test and is
+// not run by the TestRunner. Run it with:
+//
+//   java -cp ./bin:./third_party/* codeu.chat.util.store.StoreInsertBenchmark [keys]
+public final class StoreInsertBenchmark {
+
+  private static final Comparator<String> COMPARATOR = String.CASE_INSENSITIVE_ORDER;
+
+  private static final int[] SIZES = { 1000, 4000, 16000, 64000 };
+
+  public static void main(String[] args) {
+
+    final int keys = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+
+    final String[] contents = new String[keys];
+    for (int i = 0; i < keys; i++) {
+      contents[i] = "content " + i;
+    }
+
+    // Warm up.
+    for (int i = 0; i < 10; i++) {
+      fill(contents, SIZES[0]);
+    }
+
+    for (final int size : SIZES) {
+
+      final long before = System.nanoTime();
+      fill(contents, size);
+      final double usPerInsert = (System.nanoTime() - before) / 1e3 / size;
+
+      System.out.format("keys=%d values=%6d values/key=%6d %10.3f us/insert%n",
+          keys, size, size / keys, usPerInsert);
+    }
+  }
+
+  private static Store<String, Integer> fill(String[] contents, int size) {
+
+    final Store<String, Integer> store = new Store<>(COMPARATOR);
+
+    for (int i = 0; i < size; i++) {
+      store.insert(contents[i % contents.length], i);
+    }
+
+    return store;
+  }
+}
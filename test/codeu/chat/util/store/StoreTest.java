@@ -202,6 +202,76 @@ public final class StoreTest {
     assertTrue(store.first(2) == 22);
   }
 
+  @Test
+  public void testInterleavedDuplicates() {
+    store.insert(2, 20);
+    store.insert(1, 10);
+    store.insert(2, 21);
+    store.insert(3, 30);
+    store.insert(1, 11);
+    store.insert(2, 22);
+    store.insert(3, 31);
+
+    final int[] order = { 10, 11, 20, 21, 22, 30, 31 };
+    assertOrder(store.all(), order);
+
+    final int[] range = { 20, 21, 22, 30, 31 };
+    assertOrder(store.range(2, 3), range);
+  }
+
+  @Test
+  public void testDeleteDuplicates() {
+    store.insert(1, 10);
+    store.insert(2, 20);
+    store.insert(2, 21);
+    store.insert(2, 22);
+    store.insert(3, 30);
+
+    store.delete(2);
+    assertSize(store.at(2), 0);
+
+    store.insert(4, 40);
+    store.insert(2, 23);
+
+    final int[] order = { 10, 23, 30, 40 };
+    assertOrder(store.all(), order);
+  }
+
+  @Test
+  public void testDeleteValue() {
+    store.insert(1, 10);
+    store.insert(2, 20);
+    store.insert(2, 21);
+    store.insert(2, 22);
+    store.insert(3, 30);
+
+    assertFalse(store.delete(2, 30));
+    assertFalse(store.delete(4, 40));
+
+    assertTrue(store.delete(2, 21));
+    assertOrder(store.all(), new int[] { 10, 20, 22, 30 });
+
+    assertTrue(store.delete(2, 20));
+    assertTrue(store.first(2) == 22);
+    assertOrder(store.all(), new int[] { 10, 22, 30 });
+
+    store.insert(2, 23);
+    assertTrue(store.delete(2, 23));
+    assertOrder(store.at(2), new int[] { 22 });
+
+    assertTrue(store.delete(2, 22));
+    assertNull(store.first(2));
+    assertOrder(store.all(), new int[] { 10, 30 });
+
+    store.insert(2, 24);
+    store.insert(4, 40);
+    assertOrder(store.all(), new int[] { 10, 24, 30, 40 });
+
+    assertTrue(store.delete(1, 10));
+    assertTrue(store.delete(4, 40));
+    assertOrder(store.all(), new int[] { 24, 30 });
+  }
+
   private static void assertOrder(Iterable<Integer> actual, int[] expected) {
 
     int at = 0;
@@ -0,0 +1,165 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.util.store;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.Before;
+
+import codeu.chat.util.Uuid;
+
+public final class UuidStoreTest {
+
+  private static final Comparator<Uuid> COMPARATOR = new Comparator<Uuid>() {
+    @Override
+    public int compare(Uuid a, Uuid b) {
+      if (a == b) { return 0; }
+      if (a == null) { return -1; }
+      if (b == null) { return 1; }
+      final int order = Long.compare(a.id(), b.id());
+      return order == 0 ? compare(a.root(), b.root()) : order;
+    }
+  };
+
+  private static final Uuid ROOT = new Uuid(7);
+
+  private UuidStore<String> store;
+
+  @Before
+  public void doBefore() {
+    store = new UuidStore<>(COMPARATOR);
+  }
+
+  @Test
+  public void testFirst() {
+
+    final Uuid packed = new Uuid(ROOT, 1);
+    final Uuid negative = new Uuid(ROOT, -1);
+    final Uuid single = new Uuid(1);
+    final Uuid large = new Uuid(ROOT, 1L << 40);
+    final Uuid deep = new Uuid(new Uuid(ROOT, 2), 1);
+
+    store.insert(packed, "packed");
+    store.insert(negative, "negative");
+    store.insert(single, "single");
+    store.insert(large, "large");
+    store.insert(deep, "deep");
+
+    assertEquals("packed", store.first(new Uuid(new Uuid(7), 1)));
+    assertEquals("negative", store.first(negative));
+    assertEquals("single", store.first(single));
+    assertEquals("large", store.first(large));
+    assertEquals("deep", store.first(deep));
+
+    assertNull(store.first(new Uuid(ROOT, 3)));
+    assertNull(store.first(new Uuid(ROOT, 0xFFFFFFFFL)));
+    assertNull(store.first(null));
+  }
+
+  @Test
+  public void testDuplicates() {
+
+    final Uuid id = new Uuid(ROOT, 1);
+
+    store.insert(id, "a");
+    store.insert(id, "b");
+    assertEquals("a", store.first(id));
+
+    assertTrue(store.delete(id, "a"));
+    assertEquals("b", store.first(id));
+
+    assertTrue(store.delete(id, "b"));
+    assertNull(store.first(id));
+    assertFalse(store.delete(id));
+  }
+
+  @Test
+  public void testMatchesMap() {
+
+    final Random random = new Random(1);
+    final Map<Uuid, String> expected = new HashMap<>();
+
+    // Few enough ids that they collide often, and many enough operations that
+    // the table grows several times.
+    for (int i = 0; i < 20000; i++) {
+
+      final Uuid id = new Uuid(ROOT, random.nextInt(4000));
+
+      if (random.nextInt(3) == 0) {
+        assertEquals(expected.remove(id) != null, store.delete(id));
+      } else if (!expected.containsKey(id)) {
+        expected.put(id, "value " + i);
+        store.insert(id, "value " + i);
+      }
+
+      assertEquals(expected.get(id), store.first(id));
+    }
+
+    for (int i = 0; i < 4000; i++) {
+      final Uuid id = new Uuid(ROOT, i);
+      assertEquals(expected.get(id), store.first(id));
+    }
+  }
+
+  @Test
+  public void testReadWhileWriting() throws Exception {
+
+    final int count = 100000;
+    final AtomicReference<String> failure = new AtomicReference<>();
+
+    // Every even id is always in the store. Odd ids come and go.
+    for (int i = 0; i < count; i += 2) {
+      store.insert(new Uuid(ROOT, i), "value " + i);
+    }
+
+    final Thread writer = new Thread() {
+      @Override
+      public void run() {
+        for (int i = 1; i < count; i += 2) {
+          store.insert(new Uuid(ROOT, i), "value " + i);
+          if (i % 3 == 0) {
+            store.delete(new Uuid(ROOT, i));
+          }
+        }
+      }
+    };
+
+    writer.start();
+
+    final Random random = new Random(2);
+
+    while (writer.isAlive()) {
+      final int i = 2 * random.nextInt(count / 2);
+      if (!("value " + i).equals(store.first(new Uuid(ROOT, i)))) {
+        failure.set("Lost " + i);
+      }
+    }
+
+    writer.join();
+
+    assertNull(failure.get());
+
+    for (int i = 1; i < count; i += 2) {
+      assertEquals(i % 3 == 0 ? null : "value " + i, store.first(new Uuid(ROOT, i)));
+    }
+  }
+}